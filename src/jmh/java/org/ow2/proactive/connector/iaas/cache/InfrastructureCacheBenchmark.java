@@ -0,0 +1,112 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.connector.iaas.cache;
+
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.ow2.proactive.connector.iaas.fixtures.InfrastructureFixture;
+import org.ow2.proactive.connector.iaas.model.Infrastructure;
+
+
+/**
+ * Measures the infrastructure cache when lookups from the REST threads compete with concurrent registrations, and
+ * the full snapshot read by the infrastructure listings.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InfrastructureCacheBenchmark {
+
+    @Param({ "10", "100", "1000" })
+    private int registeredInfrastructures;
+
+    private InfrastructureCache infrastructureCache;
+
+    private Infrastructure[] infrastructures;
+
+    @Setup
+    public void setup() {
+        infrastructureCache = new InfrastructureCache();
+        infrastructures = new Infrastructure[registeredInfrastructures];
+        for (int i = 0; i < registeredInfrastructures; i++) {
+            infrastructures[i] = InfrastructureFixture.getSimpleInfrastructure("id-" + i, "openstack-nova");
+            infrastructureCache.registerInfrastructure(infrastructures[i]);
+        }
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(1)
+    public void register() {
+        infrastructureCache.registerInfrastructure(randomInfrastructure());
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(3)
+    public Infrastructure lookup() {
+        return infrastructureCache.getInfrastructure(randomInfrastructure().getId());
+    }
+
+    @Benchmark
+    @Group("uncontended")
+    @GroupThreads(4)
+    public Infrastructure lookupOnly() {
+        return infrastructureCache.getInfrastructure(randomInfrastructure().getId());
+    }
+
+    /**
+     * Full snapshot of the infrastructures, as read when listing them (a copy of the registered infrastructures).
+     */
+    @Benchmark
+    @Group("snapshot")
+    @GroupThreads(4)
+    public Map<String, Infrastructure> snapshot() {
+        return infrastructureCache.getSupportedInfrastructures();
+    }
+
+    private Infrastructure randomInfrastructure() {
+        return infrastructures[ThreadLocalRandom.current().nextInt(registeredInfrastructures)];
+    }
+}
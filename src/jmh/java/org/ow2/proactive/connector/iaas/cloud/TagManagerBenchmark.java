@@ -0,0 +1,86 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.connector.iaas.cloud;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.ow2.proactive.connector.iaas.model.Options;
+import org.ow2.proactive.connector.iaas.model.Tag;
+
+import com.google.common.collect.Lists;
+
+
+/**
+ * Measures the tag collection done for every created instance, from several threads as the REST layer does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class TagManagerBenchmark {
+
+    private TagManager tagManager;
+
+    private Options options;
+
+    @Setup
+    public void setup() {
+        tagManager = new TagManager("connector-iaas-tag-key", "default-value", "infrastructure-id-tag-key");
+        options = Options.builder()
+                         .tags(Lists.newArrayList(Tag.builder().key("owner").value("activeeon").build(),
+                                                  Tag.builder().key("project").value("benchmark").build(),
+                                                  Tag.builder()
+                                                     .key("connector-iaas-tag-key")
+                                                     .value("duplicated-value")
+                                                     .build()))
+                         .build();
+    }
+
+    @Benchmark
+    public List<Tag> retrieveAllTagsWithoutOptions() {
+        return tagManager.retrieveAllTags("infrastructure-id", null);
+    }
+
+    @Benchmark
+    public List<Tag> retrieveAllTagsWithOptions() {
+        return tagManager.retrieveAllTags("infrastructure-id", options);
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.connector.iaas.cloud.provider.jclouds;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.ow2.proactive.connector.iaas.cloud.provider.jclouds.openstack.OpenstackJCloudsProvider;
+import org.ow2.proactive.connector.iaas.fixtures.InfrastructureFixture;
+import org.ow2.proactive.connector.iaas.model.Hardware;
+import org.ow2.proactive.connector.iaas.model.Image;
+import org.ow2.proactive.connector.iaas.model.Infrastructure;
+import org.ow2.proactive.connector.iaas.model.NodeCandidate;
+import org.ow2.proactive.connector.iaas.model.OperatingSystem;
+
+
+/**
+ * Measures the node candidate computation of the generic jclouds driver, for a private cloud (no pricing file)
+ * and for a paid cloud using a synthetic pricing file covering every hardware/image couple.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JCloudsNodeCandidateBenchmark {
+
+    private static final String REGION = "RegionOne";
+
+    @Param({ "20" })
+    private int hardwareCount;
+
+    @Param({ "50", "500" })
+    private int imageCount;
+
+    private JCloudsProvider jCloudsProvider;
+
+    private Infrastructure infrastructure;
+
+    private Set<Hardware> hardwares;
+
+    private Set<Image> images;
+
+    private File pricingFile;
+
+    @Setup
+    public void setup() throws IOException {
+        jCloudsProvider = new OpenstackJCloudsProvider();
+        infrastructure = InfrastructureFixture.getSimpleInfrastructure("openstack-nova");
+
+        hardwares = new HashSet<>();
+        for (int i = 0; i < hardwareCount; i++) {
+            hardwares.add(Hardware.builder()
+                                  .type("flavor-" + i)
+                                  .minRam(String.valueOf(512 * (i + 1)))
+                                  .minCores(String.valueOf(i + 1))
+                                  .minFreq("0")
+                                  .build());
+        }
+
+        images = new HashSet<>();
+        for (int i = 0; i < imageCount; i++) {
+            images.add(Image.builder()
+                            .id(REGION + "/image-" + i)
+                            .name("ubuntu-" + i)
+                            .location(REGION)
+                            .operatingSystem(OperatingSystem.builder().family("ubuntu").build())
+                            .build());
+        }
+
+        JSONArray pricing = new JSONArray();
+        for (Hardware hardware : hardwares) {
+            for (Image image : images) {
+                pricing.put(new JSONObject().put("hardwareId", hardware.getType())
+                                            .put("imageId", image.getName())
+                                            .put("cost", 0.01 * Integer.parseInt(hardware.getMinCores())));
+            }
+        }
+        pricingFile = File.createTempFile("pricing-", ".json");
+        Files.write(pricingFile.toPath(), pricing.toString().getBytes());
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(pricingFile.toPath());
+    }
+
+    @Benchmark
+    public Set<NodeCandidate> getFreeNodeCandidate() {
+        return jCloudsProvider.getFreeNodeCandidate(infrastructure, REGION, images, hardwares);
+    }
+
+    @Benchmark
+    public Set<NodeCandidate> getPaidNodeCandidate() throws IOException {
+        return jCloudsProvider.getPaidNodeCandidate(infrastructure, REGION, "ubuntu", pricingFile, images, hardwares);
+    }
+}
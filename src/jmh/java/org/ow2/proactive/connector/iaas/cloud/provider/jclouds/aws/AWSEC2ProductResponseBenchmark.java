@@ -0,0 +1,92 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.connector.iaas.cloud.provider.jclouds.aws;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONArray;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.ow2.proactive.connector.iaas.model.NodeCandidate;
+
+import com.google.common.io.Resources;
+
+import software.amazon.awssdk.services.pricing.model.GetProductsResponse;
+
+
+/**
+ * Measures the parsing of an AWS pricing API page into node candidates. The page is built from the price list
+ * recorded in aws-ec2-price-list.json, repeated up to the page size used by the pricing API.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AWSEC2ProductResponseBenchmark {
+
+    private static final String RECORDED_PRICE_LIST = "aws-ec2-price-list.json";
+
+    @Param({ "10", "100" })
+    private int pageSize;
+
+    private AWSEC2JCloudsProvider awsEc2JCloudsProvider;
+
+    private GetProductsResponse productsResponse;
+
+    @Setup
+    public void setup() throws IOException {
+        awsEc2JCloudsProvider = new AWSEC2JCloudsProvider();
+
+        JSONArray recordedPriceList = new JSONArray(Resources.toString(Resources.getResource(RECORDED_PRICE_LIST),
+                                                                       StandardCharsets.UTF_8));
+        List<String> priceList = new ArrayList<>(pageSize);
+        for (int i = 0; i < pageSize; i++) {
+            priceList.add(recordedPriceList.getJSONObject(i % recordedPriceList.length()).toString());
+        }
+        productsResponse = GetProductsResponse.builder().priceList(priceList).nextToken("").build();
+    }
+
+    @Benchmark
+    public Set<NodeCandidate> productResponseToSet() {
+        return awsEc2JCloudsProvider.productResponseToSet(productsResponse, "eu-west-3");
+    }
+}
@@ -0,0 +1,340 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.connector.iaas.load;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.util.EntityUtils;
+import org.ow2.proactive.connector.iaas.ConnectorIaaSApp;
+import org.ow2.proactive.connector.iaas.cloud.provider.simulated.SimulatedProvider;
+import org.ow2.proactive.connector.iaas.fixtures.InfrastructureFixture;
+import org.ow2.proactive.connector.iaas.fixtures.InstanceFixture;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.context.embedded.EmbeddedWebApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import lombok.AllArgsConstructor;
+
+
+/**
+ * Open-loop load generator for the REST API of the connector.
+ *
+ * Unless an external connector is targeted with -Dload.url, the connector is started in-process on a random port.
+ * Infrastructures of type "simulated" are registered, then requests are issued at a constant target rate whatever
+ * the response times are, and the latency percentiles of every operation are reported at the end of the run.
+ * Latencies are measured from the scheduled start of each request, so that a saturated connector shows up as
+ * growing latencies instead of a lower request rate.
+ *
+ * Options (system properties, see the loadTest Gradle task):
+ * load.url, load.rps (default 100), load.duration-seconds (default 60), load.warmup-seconds (default 10),
+ * load.infrastructures (default 10), load.concurrency (default 200).
+ * The simulated cloud is tuned with the connector-iaas.simulated.* properties.
+ */
+public class ConnectorLoadTest {
+
+    private static final String INFRASTRUCTURES_PATH = "/infrastructures";
+
+    private final String baseUrl;
+
+    private final int targetRps;
+
+    private final int durationSeconds;
+
+    private final int warmupSeconds;
+
+    private final int infrastructureCount;
+
+    private final CloseableHttpClient httpClient;
+
+    private final ExecutorService requestExecutor;
+
+    private final Map<String, ConcurrentLinkedQueue<Long>> latenciesPerOperation = new ConcurrentHashMap<>();
+
+    private final Map<String, AtomicLong> errorsPerOperation = new ConcurrentHashMap<>();
+
+    private final List<Operation> operations = Arrays.asList(new Operation("GET /infrastructures",
+                                                                           10,
+                                                                           infrastructureId -> new HttpGet(url(INFRASTRUCTURES_PATH))),
+                                                             new Operation("GET /infrastructures/{id}",
+                                                                           30,
+                                                                           infrastructureId -> new HttpGet(url(INFRASTRUCTURES_PATH +
+                                                                                                               "/" +
+                                                                                                               infrastructureId))),
+                                                             new Operation("GET /infrastructures/{id}/instances",
+                                                                           30,
+                                                                           infrastructureId -> new HttpGet(url(INFRASTRUCTURES_PATH +
+                                                                                                               "/" +
+                                                                                                               infrastructureId +
+                                                                                                               "/instances?allInstances=true"))),
+                                                             new Operation("GET /infrastructures/{id}/images",
+                                                                           20,
+                                                                           infrastructureId -> new HttpGet(url(INFRASTRUCTURES_PATH +
+                                                                                                               "/" +
+                                                                                                               infrastructureId +
+                                                                                                               "/images"))),
+                                                             new Operation("POST /infrastructures/{id}/instances",
+                                                                           10,
+                                                                           this::createInstanceRequest));
+
+    public ConnectorLoadTest(String baseUrl, int targetRps, int durationSeconds, int warmupSeconds,
+            int infrastructureCount, int concurrency) {
+        this.baseUrl = baseUrl;
+        this.targetRps = targetRps;
+        this.durationSeconds = durationSeconds;
+        this.warmupSeconds = warmupSeconds;
+        this.infrastructureCount = infrastructureCount;
+        this.httpClient = HttpClients.custom().setMaxConnTotal(concurrency).setMaxConnPerRoute(concurrency).build();
+        this.requestExecutor = Executors.newFixedThreadPool(concurrency);
+    }
+
+    public static void main(String[] args) throws Exception {
+        ConfigurableApplicationContext context = null;
+        String baseUrl = System.getProperty("load.url");
+        if (baseUrl == null) {
+            context = SpringApplication.run(ConnectorIaaSApp.class, "--server.port=0");
+            baseUrl = "http://localhost:" +
+                      ((EmbeddedWebApplicationContext) context).getEmbeddedServletContainer().getPort();
+        }
+        ConnectorLoadTest loadTest = new ConnectorLoadTest(baseUrl,
+                                                           Integer.getInteger("load.rps", 100),
+                                                           Integer.getInteger("load.duration-seconds", 60),
+                                                           Integer.getInteger("load.warmup-seconds", 10),
+                                                           Integer.getInteger("load.infrastructures", 10),
+                                                           Integer.getInteger("load.concurrency", 200));
+        try {
+            loadTest.run();
+        } finally {
+            loadTest.close();
+            Optional.ofNullable(context).ifPresent(ConfigurableApplicationContext::close);
+        }
+    }
+
+    public void run() throws Exception {
+        registerSimulatedInfrastructures();
+
+        System.out.println("Warming up for " + warmupSeconds + "s at " + targetRps + " requests/s on " + baseUrl);
+        drive(warmupSeconds);
+        latenciesPerOperation.clear();
+        errorsPerOperation.clear();
+
+        System.out.println("Measuring for " + durationSeconds + "s at " + targetRps + " requests/s on " + baseUrl);
+        long elapsedNanos = drive(durationSeconds);
+        report(elapsedNanos);
+    }
+
+    public void close() throws IOException {
+        requestExecutor.shutdownNow();
+        httpClient.close();
+    }
+
+    private void registerSimulatedInfrastructures() throws IOException {
+        for (int i = 0; i < infrastructureCount; i++) {
+            HttpPost post = new HttpPost(url(INFRASTRUCTURES_PATH));
+            post.setEntity(new StringEntity(InfrastructureFixture.getInfrastructureAsString(infrastructureId(i),
+                                                                                            SimulatedProvider.SIMULATED_TYPE,
+                                                                                            "",
+                                                                                            "username",
+                                                                                            "password"),
+                                            ContentType.APPLICATION_JSON));
+            HttpResponse response = httpClient.execute(post);
+            EntityUtils.consume(response.getEntity());
+            if (response.getStatusLine().getStatusCode() >= 300) {
+                throw new IllegalStateException("Unable to register infrastructure " + infrastructureId(i) + ": " +
+                                                response.getStatusLine());
+            }
+        }
+    }
+
+    /**
+     * Issues requests at the target rate during the given time, and waits for all of them to complete.
+     *
+     * @return the time elapsed from the first scheduled request until the last completion, in nanoseconds
+     */
+    private long drive(int seconds) throws InterruptedException {
+        long intervalNanos = TimeUnit.SECONDS.toNanos(1) / targetRps;
+        long requestCount = (long) targetRps * seconds;
+        AtomicLong pending = new AtomicLong(requestCount);
+        long start = System.nanoTime();
+
+        for (long i = 0; i < requestCount; i++) {
+            long scheduledStart = start + i * intervalNanos;
+            long waitNanos = scheduledStart - System.nanoTime();
+            if (waitNanos > 0) {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            }
+            Operation operation = pickOperation();
+            String infrastructureId = infrastructureId(ThreadLocalRandom.current().nextInt(infrastructureCount));
+            requestExecutor.execute(() -> {
+                try {
+                    execute(operation, infrastructureId, scheduledStart);
+                } finally {
+                    pending.decrementAndGet();
+                }
+            });
+        }
+
+        while (pending.get() > 0) {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        return System.nanoTime() - start;
+    }
+
+    private void execute(Operation operation, String infrastructureId, long scheduledStart) {
+        boolean succeeded;
+        try {
+            HttpResponse response = httpClient.execute(operation.requestFactory.apply(infrastructureId));
+            EntityUtils.consume(response.getEntity());
+            succeeded = response.getStatusLine().getStatusCode() < 300;
+        } catch (IOException e) {
+            succeeded = false;
+        }
+        long latency = System.nanoTime() - scheduledStart;
+        latenciesPerOperation.computeIfAbsent(operation.name, name -> new ConcurrentLinkedQueue<>()).add(latency);
+        if (!succeeded) {
+            errorsPerOperation.computeIfAbsent(operation.name, name -> new AtomicLong()).incrementAndGet();
+        }
+    }
+
+    private void report(long elapsedNanos) {
+        long total = latenciesPerOperation.values().stream().mapToLong(ConcurrentLinkedQueue::size).sum();
+        System.out.println(String.format("%-40s %8s %8s %9s %9s %9s %9s %9s",
+                                         "operation",
+                                         "count",
+                                         "errors",
+                                         "p50 ms",
+                                         "p90 ms",
+                                         "p99 ms",
+                                         "p99.9 ms",
+                                         "max ms"));
+        latenciesPerOperation.entrySet()
+                             .stream()
+                             .sorted(Map.Entry.comparingByKey())
+                             .forEach(entry -> printPercentiles(entry.getKey(), entry.getValue()));
+        printPercentiles("all",
+                         latenciesPerOperation.values()
+                                              .stream()
+                                              .flatMap(ConcurrentLinkedQueue::stream)
+                                              .collect(Collectors.toList()));
+        System.out.println(String.format("Achieved %.1f requests/s (target %d requests/s)",
+                                         total * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos,
+                                         targetRps));
+    }
+
+    private void printPercentiles(String operationName, Collection<Long> latencies) {
+        long[] sorted = latencies.stream().mapToLong(Long::longValue).sorted().toArray();
+        long errors = "all".equals(operationName) ? errorsPerOperation.values()
+                                                                      .stream()
+                                                                      .mapToLong(AtomicLong::get)
+                                                                      .sum()
+                                                  : Optional.ofNullable(errorsPerOperation.get(operationName))
+                                                            .map(AtomicLong::get)
+                                                            .orElse(0L);
+        System.out.println(String.format("%-40s %8d %8d %9.2f %9.2f %9.2f %9.2f %9.2f",
+                                         operationName,
+                                         sorted.length,
+                                         errors,
+                                         percentileMillis(sorted, 50),
+                                         percentileMillis(sorted, 90),
+                                         percentileMillis(sorted, 99),
+                                         percentileMillis(sorted, 99.9),
+                                         percentileMillis(sorted, 100)));
+    }
+
+    private static double percentileMillis(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))] / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    private Operation pickOperation() {
+        int totalWeight = operations.stream().mapToInt(operation -> operation.weight).sum();
+        int draw = ThreadLocalRandom.current().nextInt(totalWeight);
+        for (Operation operation : operations) {
+            draw -= operation.weight;
+            if (draw < 0) {
+                return operation;
+            }
+        }
+        return operations.get(operations.size() - 1);
+    }
+
+    private HttpUriRequest createInstanceRequest(String infrastructureId) {
+        HttpPost post = new HttpPost(url(INFRASTRUCTURES_PATH + "/" + infrastructureId + "/instances"));
+        post.setEntity(new StringEntity(InstanceFixture.getInstanceAsaString(null,
+                                                                             "load-test",
+                                                                             "simulated-image-0",
+                                                                             "1",
+                                                                             "1024",
+                                                                             "1",
+                                                                             null,
+                                                                             null,
+                                                                             null),
+                                        ContentType.APPLICATION_JSON));
+        return post;
+    }
+
+    private static String infrastructureId(int index) {
+        return "load-test-simulated-" + index;
+    }
+
+    private String url(String path) {
+        return baseUrl + path;
+    }
+
+    @AllArgsConstructor
+    private static class Operation {
+
+        private final String name;
+
+        private final int weight;
+
+        private final Function<String, HttpUriRequest> requestFactory;
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.connector.iaas.util;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.ow2.proactive.connector.iaas.fixtures.InfrastructureFixture;
+import org.ow2.proactive.connector.iaas.fixtures.InstanceFixture;
+import org.ow2.proactive.connector.iaas.model.Infrastructure;
+import org.ow2.proactive.connector.iaas.model.InfrastructureScope;
+import org.ow2.proactive.connector.iaas.model.Instance;
+
+
+/**
+ * Measures the JSON deserialization of the payloads posted to the REST endpoints.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JacksonUtilBenchmark {
+
+    private String instanceJson;
+
+    private String infrastructureJson;
+
+    @Setup
+    public void setup() {
+        instanceJson = InstanceFixture.getInstanceAsaString("instance-id",
+                                                            "instance-tag",
+                                                            "image-id",
+                                                            "1",
+                                                            "512",
+                                                            "1",
+                                                            "172.168.1.248",
+                                                            "1.0.0.2",
+                                                            "RUNNING");
+        infrastructureJson = InfrastructureFixture.getInfrastructureAsString("id-openstack",
+                                                                             "openstack-nova",
+                                                                             "endPoint",
+                                                                             "userName",
+                                                                             "password",
+                                                                             new InfrastructureScope("project",
+                                                                                                     "admin"),
+                                                                             "RegionOne",
+                                                                             "3");
+    }
+
+    @Benchmark
+    public Instance convertInstanceFromJson() {
+        return JacksonUtil.convertFromJson(instanceJson, Instance.class);
+    }
+
+    @Benchmark
+    public Infrastructure convertInfrastructureFromJson() {
+        return JacksonUtil.convertFromJson(infrastructureJson, Infrastructure.class);
+    }
+}
@@ -47,6 +47,9 @@ public class ShutdownHandler {
             try {
                 if (infrastructure.isToBeRemovedOnShutdown()) {
                     infrastructureService.deleteInfrastructureWithCreatedInstances(infrastructure);
+                } else if (infrastructureService.isPersistenceEnabled()) {
+                    // Kept in the persistent registry, to be restored at the next startup
+                    log.info("Keeping persisted infrastructure : " + infrastructure.getId());
                 } else {
                     infrastructureService.deleteInfrastructure(infrastructure);
                 }
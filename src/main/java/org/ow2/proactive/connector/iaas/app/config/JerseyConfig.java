@@ -47,5 +47,7 @@ public class JerseyConfig extends ResourceConfig {
         register(RegionRest.class);
         register(NodeCandidateRest.class);
         register(HardwareRest.class);
+        register(ClientCacheRest.class);
+        register(CatalogueRest.class);
     }
 }
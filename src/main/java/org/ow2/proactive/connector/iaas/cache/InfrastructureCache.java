@@ -26,42 +26,40 @@
 package org.ow2.proactive.connector.iaas.cache;
 
 import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.ow2.proactive.connector.iaas.model.Infrastructure;
 import org.springframework.stereotype.Component;
 
-import jersey.repackaged.com.google.common.collect.ImmutableMap;
-import lombok.Getter;
+import com.google.common.collect.ImmutableMap;
 
 
 @Component
 public class InfrastructureCache {
 
-    @Getter
-    private volatile ImmutableMap<String, Infrastructure> supportedInfrastructures;
+    private final Map<String, Infrastructure> infrastructures = new ConcurrentHashMap<>();
 
-    public InfrastructureCache() {
-        this.supportedInfrastructures = ImmutableMap.of();
+    /**
+     * @return an immutable snapshot of the registered infrastructures, unaffected by later registrations and
+     * deletions. The copy is only made here, so that writes stay O(1).
+     */
+    public Map<String, Infrastructure> getSupportedInfrastructures() {
+        return ImmutableMap.copyOf(infrastructures);
     }
 
-    public synchronized void registerInfrastructure(Infrastructure infrastructure) {
-        Map<String, Infrastructure> tempInfrastructures = cloneSupportedInfrastructures();
-
-        tempInfrastructures.put(infrastructure.getId(), infrastructure);
-        supportedInfrastructures = ImmutableMap.copyOf(tempInfrastructures);
+    /**
+     * @return the registered infrastructure with the given id, or null. Unlike a lookup in
+     * {@link #getSupportedInfrastructures()}, it does not copy the registered infrastructures.
+     */
+    public Infrastructure getInfrastructure(String infrastructureId) {
+        return infrastructures.get(infrastructureId);
     }
 
-    public synchronized void deleteInfrastructure(Infrastructure infrastructure) {
-        Map<String, Infrastructure> tempInfrastructures = cloneSupportedInfrastructures();
-
-        tempInfrastructures.remove(infrastructure.getId());
-        supportedInfrastructures = ImmutableMap.copyOf(tempInfrastructures);
+    public void registerInfrastructure(Infrastructure infrastructure) {
+        infrastructures.put(infrastructure.getId(), infrastructure);
     }
 
-    private Map<String, Infrastructure> cloneSupportedInfrastructures() {
-        return supportedInfrastructures.entrySet()
-                                       .stream()
-                                       .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
+    public void deleteInfrastructure(Infrastructure infrastructure) {
+        infrastructures.remove(infrastructure.getId());
     }
 }
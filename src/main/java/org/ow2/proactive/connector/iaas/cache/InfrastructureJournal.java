@@ -0,0 +1,334 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.connector.iaas.cache;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.commons.lang3.StringUtils;
+import org.json.JSONObject;
+import org.ow2.proactive.connector.iaas.model.Infrastructure;
+import org.ow2.proactive.connector.iaas.util.JacksonUtil;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+
+
+/**
+ * Optional durable registry of the infrastructures, kept on the local disk as a snapshot plus an append-only
+ * journal of the registrations and deletions made since the snapshot. Every record is encrypted with AES-GCM since
+ * it contains the infrastructure credentials. The journal is folded into a new snapshot once it holds
+ * connector-iaas.persistence.snapshot-threshold records.
+ */
+@Component
+@Log4j2
+public class InfrastructureJournal {
+
+    private static final String SNAPSHOT_FILE = "infrastructures.snapshot";
+
+    private static final String JOURNAL_FILE = "infrastructures.journal";
+
+    private static final String KEY_FILE = "infrastructures.key";
+
+    private static final String CIPHER = "AES/GCM/NoPadding";
+
+    private static final int IV_LENGTH = 12;
+
+    private static final int TAG_LENGTH = 128;
+
+    private static final String OPERATION = "operation";
+
+    private static final String REGISTER = "register";
+
+    private static final String DELETE = "delete";
+
+    private static final String INFRASTRUCTURE = "infrastructure";
+
+    private static final String INFRASTRUCTURE_ID = "id";
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final SecureRandom secureRandom = new SecureRandom();
+
+    @Getter
+    @Value("${connector-iaas.persistence.enabled:false}")
+    private boolean enabled;
+
+    @Value("${connector-iaas.persistence.directory:connector-iaas-data}")
+    private String directory;
+
+    @Value("${connector-iaas.persistence.encryption-key:}")
+    private String encryptionKey;
+
+    @Value("${connector-iaas.persistence.snapshot-threshold:1000}")
+    private int snapshotThreshold;
+
+    // Persisted infrastructures, mirrored here to write the snapshots
+    private final Map<String, Infrastructure> persistedInfrastructures = new LinkedHashMap<>();
+
+    private SecretKey secretKey;
+
+    private BufferedWriter journalWriter;
+
+    private FileOutputStream journalStream;
+
+    private int journalRecords;
+
+    /**
+     * Read the snapshot, replay the journal, then start a new journal from a fresh snapshot.
+     */
+    @PostConstruct
+    public synchronized void open() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            Path root = Files.createDirectories(Paths.get(directory));
+            secretKey = loadSecretKey(root);
+            readRecords(root.resolve(SNAPSHOT_FILE), false);
+            readRecords(root.resolve(JOURNAL_FILE), true);
+            // The fresh snapshot also drops a possibly truncated last journal record
+            writeSnapshot();
+            log.info("Restored " + persistedInfrastructures.size() + " infrastructure(s) from " +
+                     root.toAbsolutePath());
+        } catch (IOException | GeneralSecurityException e) {
+            // The files are left untouched, to be restored once the cause (e.g. a wrong key) is fixed
+            persistedInfrastructures.clear();
+            throw new RuntimeException("ERROR unable to restore the infrastructures from " + directory, e);
+        }
+    }
+
+    /**
+     * @return the persisted infrastructures, or an empty list if persistence is disabled
+     */
+    public synchronized List<Infrastructure> getPersistedInfrastructures() {
+        return new ArrayList<>(persistedInfrastructures.values());
+    }
+
+    public synchronized void recordRegistration(Infrastructure infrastructure) {
+        if (enabled) {
+            appendRecord(toRegistrationRecord(infrastructure));
+            persistedInfrastructures.put(infrastructure.getId(), infrastructure);
+            compactIfNeeded();
+        }
+    }
+
+    public synchronized void recordDeletion(Infrastructure infrastructure) {
+        if (enabled && persistedInfrastructures.containsKey(infrastructure.getId())) {
+            appendRecord(new JSONObject().put(OPERATION, DELETE).put(INFRASTRUCTURE_ID, infrastructure.getId()));
+            persistedInfrastructures.remove(infrastructure.getId());
+            compactIfNeeded();
+        }
+    }
+
+    @PreDestroy
+    public synchronized void close() {
+        closeJournal();
+    }
+
+    /**
+     * Replay the records of the file. An unreadable record fails the restoration (e.g. when the encryption key is
+     * wrong), except the last record of the journal, that a crash may have left partially written.
+     */
+    private void readRecords(Path file, boolean isJournal) throws IOException {
+        if (!Files.exists(file)) {
+            return;
+        }
+        List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        int lastRecordIndex = lines.size() - 1;
+        while (lastRecordIndex >= 0 && StringUtils.isBlank(lines.get(lastRecordIndex))) {
+            lastRecordIndex--;
+        }
+        for (int index = 0; index <= lastRecordIndex; index++) {
+            String line = lines.get(index);
+            if (StringUtils.isBlank(line)) {
+                continue;
+            }
+            JSONObject record;
+            try {
+                record = new JSONObject(decrypt(line));
+            } catch (GeneralSecurityException | IllegalArgumentException e) {
+                if (isJournal && index == lastRecordIndex) {
+                    log.warn("Skipping the partially written last record of " + file, e);
+                    continue;
+                }
+                throw new IOException("Unreadable record at line " + (index + 1) + " of " + file +
+                                      ", check the encryption key", e);
+            }
+            if (REGISTER.equals(record.getString(OPERATION))) {
+                Infrastructure infrastructure = JacksonUtil.convertFromJson(record.getJSONObject(INFRASTRUCTURE)
+                                                                                  .toString(),
+                                                                            Infrastructure.class);
+                persistedInfrastructures.put(infrastructure.getId(), infrastructure);
+            } else {
+                persistedInfrastructures.remove(record.getString(INFRASTRUCTURE_ID));
+            }
+        }
+    }
+
+    private JSONObject toRegistrationRecord(Infrastructure infrastructure) {
+        try {
+            return new JSONObject().put(OPERATION, REGISTER)
+                                   .put(INFRASTRUCTURE, new JSONObject(objectMapper.writeValueAsString(infrastructure)));
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException("ERROR unable to serialize infrastructure " + infrastructure.getId(), e);
+        }
+    }
+
+    private void appendRecord(JSONObject record) {
+        try {
+            journalWriter.write(encrypt(record.toString()));
+            journalWriter.newLine();
+            journalWriter.flush();
+            journalStream.getFD().sync();
+            journalRecords++;
+        } catch (IOException | GeneralSecurityException e) {
+            throw new RuntimeException("ERROR unable to write in the infrastructure journal of " + directory, e);
+        }
+    }
+
+    private void compactIfNeeded() {
+        if (journalRecords >= snapshotThreshold) {
+            try {
+                writeSnapshot();
+            } catch (IOException | GeneralSecurityException e) {
+                // The journal is still complete, the compaction will be retried at the next record
+                log.error("Unable to write the infrastructure snapshot in " + directory, e);
+            }
+        }
+    }
+
+    /**
+     * Atomically replace the snapshot by the current infrastructures, then start a new empty journal.
+     */
+    private void writeSnapshot() throws IOException, GeneralSecurityException {
+        Path root = Paths.get(directory);
+        Path temporarySnapshot = root.resolve(SNAPSHOT_FILE + ".tmp");
+        try (FileOutputStream snapshotStream = new FileOutputStream(temporarySnapshot.toFile());
+                BufferedWriter snapshotWriter = new BufferedWriter(new OutputStreamWriter(snapshotStream,
+                                                                                          StandardCharsets.UTF_8))) {
+            for (Infrastructure infrastructure : persistedInfrastructures.values()) {
+                snapshotWriter.write(encrypt(toRegistrationRecord(infrastructure).toString()));
+                snapshotWriter.newLine();
+            }
+            snapshotWriter.flush();
+            snapshotStream.getFD().sync();
+        }
+        try {
+            Files.move(temporarySnapshot,
+                       root.resolve(SNAPSHOT_FILE),
+                       StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temporarySnapshot, root.resolve(SNAPSHOT_FILE), StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        closeJournal();
+        journalStream = new FileOutputStream(root.resolve(JOURNAL_FILE).toFile(), false);
+        journalWriter = new BufferedWriter(new OutputStreamWriter(journalStream, StandardCharsets.UTF_8));
+        journalRecords = 0;
+    }
+
+    private void closeJournal() {
+        if (journalWriter != null) {
+            try {
+                journalWriter.close();
+            } catch (IOException e) {
+                log.warn("Unable to close the infrastructure journal", e);
+            }
+            journalWriter = null;
+            journalStream = null;
+        }
+    }
+
+    private SecretKey loadSecretKey(Path root) throws IOException, GeneralSecurityException {
+        if (StringUtils.isNotBlank(encryptionKey)) {
+            return new SecretKeySpec(Base64.getDecoder().decode(encryptionKey.trim()), "AES");
+        }
+        Path keyFile = root.resolve(KEY_FILE);
+        if (!Files.exists(keyFile)) {
+            KeyGenerator keyGenerator = KeyGenerator.getInstance("AES");
+            keyGenerator.init(128, secureRandom);
+            Files.write(keyFile, Base64.getEncoder().encode(keyGenerator.generateKey().getEncoded()));
+            try {
+                Files.setPosixFilePermissions(keyFile, PosixFilePermissions.fromString("rw-------"));
+            } catch (UnsupportedOperationException e) {
+                log.warn("Unable to restrict the permissions of " + keyFile);
+            }
+        }
+        return new SecretKeySpec(Base64.getDecoder().decode(new String(Files.readAllBytes(keyFile),
+                                                                       StandardCharsets.UTF_8).trim()),
+                                 "AES");
+    }
+
+    private String encrypt(String plainText) throws GeneralSecurityException {
+        byte[] iv = new byte[IV_LENGTH];
+        secureRandom.nextBytes(iv);
+        Cipher cipher = Cipher.getInstance(CIPHER);
+        cipher.init(Cipher.ENCRYPT_MODE, secretKey, new GCMParameterSpec(TAG_LENGTH, iv));
+        byte[] cipherText = cipher.doFinal(plainText.getBytes(StandardCharsets.UTF_8));
+        byte[] record = new byte[IV_LENGTH + cipherText.length];
+        System.arraycopy(iv, 0, record, 0, IV_LENGTH);
+        System.arraycopy(cipherText, 0, record, IV_LENGTH, cipherText.length);
+        return Base64.getEncoder().encodeToString(record);
+    }
+
+    private String decrypt(String encodedRecord) throws GeneralSecurityException {
+        byte[] record = Base64.getDecoder().decode(encodedRecord.trim());
+        Cipher cipher = Cipher.getInstance(CIPHER);
+        cipher.init(Cipher.DECRYPT_MODE, secretKey, new GCMParameterSpec(TAG_LENGTH, record, 0, IV_LENGTH));
+        return new String(cipher.doFinal(record, IV_LENGTH, record.length - IV_LENGTH), StandardCharsets.UTF_8);
+    }
+}
@@ -28,98 +28,199 @@ package org.ow2.proactive.connector.iaas.cloud;
 import java.util.AbstractMap.SimpleImmutableEntry;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
 import org.ow2.proactive.connector.iaas.cloud.provider.CloudProvider;
+import org.ow2.proactive.connector.iaas.cloud.provider.ProviderClientCache;
 import org.ow2.proactive.connector.iaas.model.*;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import lombok.extern.log4j.Log4j2;
+
 
 @Service
+@Log4j2
 public class CloudManager {
 
     private Map<String, CloudProvider> cloudProviderPerType;
 
+    private final Map<String, CompletableFuture<Void>> clientWarmUps = new ConcurrentHashMap<>();
+
+    @Value("${connector-iaas.warm-up.threads:4}")
+    private int warmUpThreads;
+
+    private ExecutorService warmUpExecutor;
+
     @Autowired
     public CloudManager(List<CloudProvider> cloudProviders) {
         cloudProviderPerType = cloudProviders.stream()
                                              .collect(Collectors.toMap(CloudProvider::getType, Function.identity()));
     }
 
+    @PostConstruct
+    public void startWarmUpExecutor() {
+        warmUpExecutor = Executors.newFixedThreadPool(warmUpThreads);
+    }
+
+    @PreDestroy
+    public void stopWarmUpExecutor() {
+        warmUpExecutor.shutdownNow();
+    }
+
     public Set<Instance> createInstance(Infrastructure infrastructure, Instance instance) {
-        return cloudProviderPerType.get(infrastructure.getType()).createInstance(infrastructure, instance);
+        return call(infrastructure, cloudProvider -> cloudProvider.createInstance(infrastructure, instance));
     }
 
     public void deleteInstance(Infrastructure infrastructure, String instanceId) {
-        cloudProviderPerType.get(infrastructure.getType()).deleteInstance(infrastructure, instanceId);
+        run(infrastructure, cloudProvider -> cloudProvider.deleteInstance(infrastructure, instanceId));
     }
 
     public void deleteInfrastructure(Infrastructure infrastructure) {
-        cloudProviderPerType.get(infrastructure.getType()).deleteInfrastructure(infrastructure);
+        run(infrastructure, cloudProvider -> cloudProvider.deleteInfrastructure(infrastructure));
+        clientWarmUps.remove(infrastructure.getId());
+    }
+
+    public void warmUp(Infrastructure infrastructure) {
+        cloudProviderPerType.get(infrastructure.getType()).warmUp(infrastructure);
+    }
+
+    /**
+     * Build the client of the given infrastructure in background. The calls made on this infrastructure while the
+     * client is being built wait for the same warm-up instead of building their own client.
+     */
+    public CompletableFuture<Void> warmUpAsync(Infrastructure infrastructure) {
+        CompletableFuture<Void> warmUp = CompletableFuture.runAsync(() -> warmUp(infrastructure), warmUpExecutor);
+        warmUp.whenComplete((result, exception) -> {
+            if (exception != null) {
+                log.warn("Unable to warm up the client of infrastructure " + infrastructure.getId(), exception);
+            }
+        });
+        clientWarmUps.put(infrastructure.getId(), warmUp);
+        return warmUp;
+    }
+
+    public ClientReadiness getClientReadiness(Infrastructure infrastructure) {
+        CompletableFuture<Void> warmUp = clientWarmUps.get(infrastructure.getId());
+        if (warmUp == null) {
+            return ClientReadiness.LAZY;
+        } else if (!warmUp.isDone()) {
+            return ClientReadiness.WARMING_UP;
+        } else {
+            return warmUp.isCompletedExceptionally() ? ClientReadiness.FAILED : ClientReadiness.READY;
+        }
     }
 
     public Set<Instance> getAllInfrastructureInstances(Infrastructure infrastructure) {
-        return cloudProviderPerType.get(infrastructure.getType()).getAllInfrastructureInstances(infrastructure);
+        return call(infrastructure, cloudProvider -> cloudProvider.getAllInfrastructureInstances(infrastructure));
     }
 
     public Set<Instance> getCreatedInfrastructureInstances(Infrastructure infrastructure) {
-        return cloudProviderPerType.get(infrastructure.getType()).getCreatedInfrastructureInstances(infrastructure);
+        return call(infrastructure,
+                    cloudProvider -> cloudProvider.getCreatedInfrastructureInstances(infrastructure));
     }
 
     public List<ScriptResult> executeScriptOnInstanceId(Infrastructure infrastructure, String instanceId,
             InstanceScript instanceScript) {
-        return cloudProviderPerType.get(infrastructure.getType()).executeScriptOnInstanceId(infrastructure,
-                                                                                            instanceId,
-                                                                                            instanceScript);
+        return call(infrastructure,
+                    cloudProvider -> cloudProvider.executeScriptOnInstanceId(infrastructure,
+                                                                             instanceId,
+                                                                             instanceScript));
     }
 
     public Set<String> getAllRegionsOnInfrastructure(Infrastructure infrastructure) {
-        return cloudProviderPerType.get(infrastructure.getType()).listAvailableRegions(infrastructure);
+        return call(infrastructure, cloudProvider -> cloudProvider.listAvailableRegions(infrastructure));
     }
 
     public List<ScriptResult> executeScriptOnInstanceTag(Infrastructure infrastructure, String instanceTag,
             InstanceScript instanceScript) {
-        return cloudProviderPerType.get(infrastructure.getType())
-                                   .executeScriptOnInstanceTag(infrastructure, instanceTag, instanceScript);
+        return call(infrastructure,
+                    cloudProvider -> cloudProvider.executeScriptOnInstanceTag(infrastructure,
+                                                                              instanceTag,
+                                                                              instanceScript));
     }
 
     public Set<Hardware> getAllHardwares(Infrastructure infrastructure) {
-        return cloudProviderPerType.get(infrastructure.getType()).getAllHardwares(infrastructure);
+        return call(infrastructure, cloudProvider -> cloudProvider.getAllHardwares(infrastructure));
     }
 
     public Set<Image> getAllImages(Infrastructure infrastructure) {
-        return cloudProviderPerType.get(infrastructure.getType()).getAllImages(infrastructure);
+        return call(infrastructure, cloudProvider -> cloudProvider.getAllImages(infrastructure));
     }
 
     public String addToInstancePublicIp(Infrastructure infrastructure, String instanceId, String optionalDesiredIp) {
-        return cloudProviderPerType.get(infrastructure.getType()).addToInstancePublicIp(infrastructure,
-                                                                                        instanceId,
-                                                                                        optionalDesiredIp);
+        return call(infrastructure,
+                    cloudProvider -> cloudProvider.addToInstancePublicIp(infrastructure,
+                                                                         instanceId,
+                                                                         optionalDesiredIp));
     }
 
     public void removeInstancePublicIp(Infrastructure infrastructure, String instanceId, String optionalDesiredIp) {
-        cloudProviderPerType.get(infrastructure.getType()).removeInstancePublicIp(infrastructure,
-                                                                                  instanceId,
-                                                                                  optionalDesiredIp);
+        run(infrastructure,
+            cloudProvider -> cloudProvider.removeInstancePublicIp(infrastructure, instanceId, optionalDesiredIp));
     }
 
     public SimpleImmutableEntry<String, String> createKeyPair(Infrastructure infrastructure, Instance instance) {
-        return cloudProviderPerType.get(infrastructure.getType()).createKeyPair(infrastructure, instance);
+        return call(infrastructure, cloudProvider -> cloudProvider.createKeyPair(infrastructure, instance));
     }
 
     public void deleteKeyPair(Infrastructure infrastructure, String keyPairName, String region) {
-        cloudProviderPerType.get(infrastructure.getType()).deleteKeyPair(infrastructure, keyPairName, region);
+        run(infrastructure, cloudProvider -> cloudProvider.deleteKeyPair(infrastructure, keyPairName, region));
     }
 
     public PagedNodeCandidates getNodeCandidate(Infrastructure infrastructure, String region, String imageReq,
             String token) {
-        return cloudProviderPerType.get(infrastructure.getType()).getNodeCandidate(infrastructure,
-                                                                                   region,
-                                                                                   imageReq,
-                                                                                   token);
+        return call(infrastructure,
+                    cloudProvider -> cloudProvider.getNodeCandidate(infrastructure, region, imageReq, token));
+    }
+
+    /**
+     * Make a call on the provider of the infrastructure, within a usage scope so that the clients it uses are not
+     * closed by an eviction before it returns.
+     */
+    private <T> T call(Infrastructure infrastructure, Function<CloudProvider, T> call) {
+        try (ProviderClientCache.UsageScope scope = ProviderClientCache.openUsageScope()) {
+            return call.apply(getCloudProvider(infrastructure));
+        }
+    }
+
+    private void run(Infrastructure infrastructure, Consumer<CloudProvider> call) {
+        call(infrastructure, cloudProvider -> {
+            call.accept(cloudProvider);
+            return null;
+        });
+    }
+
+    private CloudProvider getCloudProvider(Infrastructure infrastructure) {
+        CloudProvider cloudProvider = cloudProviderPerType.get(infrastructure.getType());
+        Optional.ofNullable(clientWarmUps.get(infrastructure.getId())).ifPresent(warmUp -> {
+            try {
+                warmUp.join();
+            } catch (CompletionException | CancellationException e) {
+                // already logged, build the client again on this call so that its readiness no longer stays failed
+                try {
+                    cloudProvider.warmUp(infrastructure);
+                    clientWarmUps.replace(infrastructure.getId(), warmUp, CompletableFuture.completedFuture(null));
+                } catch (RuntimeException retryException) {
+                    // still failing, the provider call reports the error
+                }
+            }
+        });
+        return cloudProvider;
     }
 
 }
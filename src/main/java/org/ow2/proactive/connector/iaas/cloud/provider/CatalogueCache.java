@@ -0,0 +1,158 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.connector.iaas.cloud.provider;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+import org.ow2.proactive.connector.iaas.model.Infrastructure;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import lombok.extern.log4j.Log4j2;
+
+
+/**
+ * Cache of the catalogues (images, hardware profiles, ...) of the infrastructures.
+ *
+ * A catalogue is loaded on its first use, the concurrent callers waiting for the same load. Once older than the time
+ * to live, it is still served while being reloaded in background, so that the callers never wait for a catalogue
+ * already known. A failed reload keeps the previous catalogue, which is reloaded again at its next use.
+ */
+@Component
+@Log4j2
+public class CatalogueCache {
+
+    public static final String IMAGES = "images";
+
+    public static final String HARDWARES = "hardwares";
+
+    private static final int REFRESH_THREADS = 4;
+
+    private static final ExecutorService REFRESH_EXECUTOR = Executors.newFixedThreadPool(REFRESH_THREADS,
+                                                                                         new ThreadFactoryBuilder().setNameFormat("catalogue-refresh-%d")
+                                                                                                                   .setDaemon(true)
+                                                                                                                   .build());
+
+    @Value("${connector-iaas.catalogue.ttl:3600}")
+    private long ttlSeconds;
+
+    // catalogues of each infrastructure id, by catalogue name
+    private final Map<String, Map<String, Entry<?>>> catalogues = new ConcurrentHashMap<>();
+
+    /**
+     * @param loader retrieves the catalogue from the infrastructure, on the first use and on each refresh. The
+     *               catalogue is shared by all the callers, so it must not be modifiable.
+     * @return the cached catalogue
+     */
+    public <T> T get(Infrastructure infrastructure, String catalogueName, Supplier<T> loader) {
+        Map<String, Entry<?>> infrastructureCatalogues = catalogues.computeIfAbsent(infrastructure.getId(),
+                                                                                    id -> new ConcurrentHashMap<>());
+        Entry<T> newEntry = new Entry<>();
+        @SuppressWarnings("unchecked")
+        Entry<T> entry = (Entry<T>) infrastructureCatalogues.putIfAbsent(catalogueName, newEntry);
+        if (entry == null) {
+            try {
+                newEntry.update(loader.get());
+            } catch (RuntimeException | Error e) {
+                // the next caller loads the catalogue again, and the callers waiting for this load get the failure
+                infrastructureCatalogues.remove(catalogueName, newEntry);
+                newEntry.catalogue.completeExceptionally(e);
+                throw e;
+            }
+            return newEntry.await();
+        }
+        if (entry.isOlderThan(TimeUnit.SECONDS.toNanos(ttlSeconds)) && entry.refreshing.compareAndSet(false, true)) {
+            REFRESH_EXECUTOR.execute(() -> refresh(infrastructure, catalogueName, entry, loader));
+        }
+        return entry.await();
+    }
+
+    /**
+     * Drop the catalogues of an infrastructure, which are loaded again at their next use.
+     */
+    public void invalidate(String infrastructureId) {
+        if (catalogues.remove(infrastructureId) != null) {
+            log.info("Catalogues of infrastructure " + infrastructureId + " invalidated");
+        }
+    }
+
+    private <T> void refresh(Infrastructure infrastructure, String catalogueName, Entry<T> entry,
+            Supplier<T> loader) {
+        try (ProviderClientCache.UsageScope scope = ProviderClientCache.openUsageScope()) {
+            entry.update(loader.get());
+            log.debug("Catalogue " + catalogueName + " of infrastructure " + infrastructure.getId() + " refreshed");
+        } catch (RuntimeException e) {
+            log.warn("Unable to refresh the catalogue " + catalogueName + " of infrastructure " +
+                     infrastructure.getId() + ", the previous one is kept", e);
+        } finally {
+            entry.refreshing.set(false);
+        }
+    }
+
+    private static class Entry<T> {
+
+        private volatile CompletableFuture<T> catalogue = new CompletableFuture<>();
+
+        private volatile long loadedAt = System.nanoTime();
+
+        private final AtomicBoolean refreshing = new AtomicBoolean();
+
+        private void update(T loadedCatalogue) {
+            if (!catalogue.complete(loadedCatalogue)) {
+                catalogue = CompletableFuture.completedFuture(loadedCatalogue);
+            }
+            loadedAt = System.nanoTime();
+        }
+
+        private boolean isOlderThan(long ttlNanos) {
+            return catalogue.isDone() && System.nanoTime() - loadedAt > ttlNanos;
+        }
+
+        private T await() {
+            try {
+                return catalogue.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                if (e.getCause() instanceof Error) {
+                    throw (Error) e.getCause();
+                }
+                throw e;
+            }
+        }
+    }
+}
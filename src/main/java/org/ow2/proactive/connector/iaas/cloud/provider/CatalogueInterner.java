@@ -0,0 +1,57 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.connector.iaas.cloud.provider;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
+
+/**
+ * Deduplicates the values of the catalogues and node candidates.
+ *
+ * Large catalogues repeat the same families, architectures, locations and hardware specifications thousands of
+ * times, and the node candidates of a region mostly share a few images and hardwares. Equal values (strings or model
+ * objects, which are compared by value) are replaced by a single shared instance, kept as long as it is referenced.
+ *
+ * Only values expected to repeat are worth interning: the catalogue images and their descriptions are unique, so
+ * only their repeated fields are interned, not the images themselves.
+ */
+public final class CatalogueInterner {
+
+    private static final Interner<Object> VALUES = Interners.newWeakInterner();
+
+    private CatalogueInterner() {
+    }
+
+    /**
+     * @return the shared instance equal to the given value, or null for a null value. The value must not be modified
+     * once interned.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T intern(T value) {
+        return value == null ? null : (T) VALUES.intern(value);
+    }
+}
@@ -116,6 +116,12 @@ public interface CloudProvider {
      */
     public void deleteInfrastructure(Infrastructure infrastructure);
 
+    /**
+     * Build and cache the client used to reach an infrastructure, so that the first request on it does not pay for it.
+     * @param infrastructure The infrastructure whose client is to be built
+     */
+    public void warmUp(Infrastructure infrastructure);
+
     /**
      * Associate a public IP address to an instance.
      * @param infrastructure The infrastructure hosting the instance to receive a public IP address
@@ -0,0 +1,128 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.connector.iaas.cloud.provider;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+import org.ow2.proactive.connector.iaas.model.Image;
+
+import com.google.common.collect.ImmutableSet;
+
+import lombok.Getter;
+
+
+/**
+ * Images of an infrastructure catalogue, indexed once per catalogue load to find the images whose name contains a
+ * text without scanning all of them.
+ *
+ * The lowercased names are split into trigrams. A search only checks the images holding the least frequent trigram
+ * of the searched text, and texts shorter than a trigram are searched by scanning the names.
+ */
+public class ImageIndex {
+
+    private static final int GRAM_LENGTH = 3;
+
+    private static final int[] NO_IMAGE = new int[0];
+
+    @Getter
+    private final Set<Image> images;
+
+    private final Image[] indexedImages;
+
+    private final String[] lowerCaseNames;
+
+    // positions of the images holding each trigram
+    private final Map<String, int[]> imagesByGram;
+
+    public ImageIndex(Set<Image> images) {
+        this.images = ImmutableSet.copyOf(images);
+        this.indexedImages = this.images.toArray(new Image[0]);
+        this.lowerCaseNames = new String[indexedImages.length];
+
+        Map<String, List<Integer>> positionsByGram = new HashMap<>();
+        for (int position = 0; position < indexedImages.length; position++) {
+            lowerCaseNames[position] = Optional.ofNullable(indexedImages[position].getName()).orElse("").toLowerCase();
+            for (String gram : getGrams(lowerCaseNames[position])) {
+                positionsByGram.computeIfAbsent(gram, key -> new ArrayList<>()).add(position);
+            }
+        }
+        imagesByGram = new HashMap<>(positionsByGram.size());
+        positionsByGram.forEach((gram, positions) -> imagesByGram.put(gram,
+                                                                      positions.stream()
+                                                                               .mapToInt(Integer::intValue)
+                                                                               .toArray()));
+    }
+
+    /**
+     * @return the images whose name contains the given text, ignoring the case
+     */
+    public Set<Image> searchByName(String text) {
+        String lowerCaseText = text.toLowerCase();
+        if (lowerCaseText.isEmpty()) {
+            return images;
+        }
+
+        Set<Image> foundImages = new HashSet<>();
+        if (lowerCaseText.length() < GRAM_LENGTH) {
+            for (int position = 0; position < indexedImages.length; position++) {
+                addIfNameContains(foundImages, position, lowerCaseText);
+            }
+            return foundImages;
+        }
+
+        int[] candidates = null;
+        for (String gram : getGrams(lowerCaseText)) {
+            int[] imagesWithGram = imagesByGram.getOrDefault(gram, NO_IMAGE);
+            if (candidates == null || imagesWithGram.length < candidates.length) {
+                candidates = imagesWithGram;
+            }
+        }
+        for (int position : candidates) {
+            addIfNameContains(foundImages, position, lowerCaseText);
+        }
+        return foundImages;
+    }
+
+    private void addIfNameContains(Set<Image> foundImages, int position, String lowerCaseText) {
+        if (lowerCaseNames[position].contains(lowerCaseText)) {
+            foundImages.add(indexedImages[position]);
+        }
+    }
+
+    private static Set<String> getGrams(String lowerCaseName) {
+        Set<String> grams = new HashSet<>();
+        for (int start = 0; start + GRAM_LENGTH <= lowerCaseName.length(); start++) {
+            grams.add(lowerCaseName.substring(start, start + GRAM_LENGTH));
+        }
+        return grams;
+    }
+}
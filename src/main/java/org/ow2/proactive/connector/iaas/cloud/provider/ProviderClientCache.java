@@ -0,0 +1,486 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.connector.iaas.cloud.provider;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import org.ow2.proactive.connector.iaas.model.Infrastructure;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+import lombok.extern.log4j.Log4j2;
+
+
+/**
+ * Cache of the clients used to reach the infrastructures (compute services, service instances, ...).
+ *
+ * The cache stores a future per infrastructure: the first caller builds the client on its own thread, without
+ * holding any lock of the map, and the concurrent callers wait for the same future. A failed build is kept for a
+ * backoff delay, doubled at each new failure, during which the callers get the same failure instead of hammering
+ * the infrastructure endpoint. Clients unused for longer than the idle timeout, and the least recently used clients
+ * beyond the maximum size, are evicted and closed.
+ *
+ * The clients got during a usage scope (see {@link #openUsageScope()}) are leased until the end of the scope: an
+ * evicted client is only closed once all its leases are released, so that the calls still using it are not broken.
+ */
+@Log4j2
+public class ProviderClientCache<C> {
+
+    public static final int DEFAULT_MAX_SIZE = 500;
+
+    public static final long DEFAULT_IDLE_TIMEOUT_SECONDS = 1800;
+
+    public static final long DEFAULT_FAILURE_BACKOFF_SECONDS = 5;
+
+    public static final long DEFAULT_MAX_FAILURE_BACKOFF_SECONDS = 300;
+
+    private static final ThreadLocal<UsageScope> USAGE_SCOPE = new ThreadLocal<>();
+
+    private static final ScheduledExecutorService IDLE_EVICTION_SCHEDULER = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("provider-client-eviction-%d")
+                                                                                                                                                .setDaemon(true)
+                                                                                                                                                .build());
+
+    private final String name;
+
+    private final Function<Infrastructure, C> builder;
+
+    private final Consumer<C> closer;
+
+    private final Map<Infrastructure, Entry<C>> entries = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private final LongAdder failures = new LongAdder();
+
+    private final LongAdder evictions = new LongAdder();
+
+    private final AtomicInteger liveClients = new AtomicInteger();
+
+    private ScheduledFuture<?> idleEvictionTask;
+
+    private final AtomicBoolean evicting = new AtomicBoolean();
+
+    private volatile int maxSize = DEFAULT_MAX_SIZE;
+
+    private volatile long idleTimeoutNanos = TimeUnit.SECONDS.toNanos(DEFAULT_IDLE_TIMEOUT_SECONDS);
+
+    private volatile long failureBackoffNanos = TimeUnit.SECONDS.toNanos(DEFAULT_FAILURE_BACKOFF_SECONDS);
+
+    private volatile long maxFailureBackoffNanos = TimeUnit.SECONDS.toNanos(DEFAULT_MAX_FAILURE_BACKOFF_SECONDS);
+
+    private volatile long lastIdleEviction = System.nanoTime();
+
+    public ProviderClientCache(String name, Function<Infrastructure, C> builder, Consumer<C> closer) {
+        this.name = name;
+        this.builder = builder;
+        this.closer = closer;
+    }
+
+    /**
+     * Configure the cache, and start evicting the idle clients in background so that they are closed even when the
+     * cache is no longer used.
+     *
+     * @param maxSize maximum number of cached clients, 0 for no limit
+     * @param idleTimeoutSeconds time after which an unused client is evicted, 0 to keep the clients forever
+     * @param failureBackoffSeconds time during which a failed build is returned to the callers before being retried
+     * @param maxFailureBackoffSeconds upper bound of the backoff, which doubles at each consecutive failure
+     */
+    public synchronized void configure(int maxSize, long idleTimeoutSeconds, long failureBackoffSeconds,
+            long maxFailureBackoffSeconds) {
+        this.maxSize = maxSize;
+        this.idleTimeoutNanos = TimeUnit.SECONDS.toNanos(idleTimeoutSeconds);
+        this.failureBackoffNanos = TimeUnit.SECONDS.toNanos(failureBackoffSeconds);
+        this.maxFailureBackoffNanos = TimeUnit.SECONDS.toNanos(maxFailureBackoffSeconds);
+        stopIdleEviction();
+        if (idleTimeoutNanos > 0) {
+            long period = Math.max(idleTimeoutNanos / 2, TimeUnit.SECONDS.toNanos(1));
+            idleEvictionTask = IDLE_EVICTION_SCHEDULER.scheduleWithFixedDelay(this::evictIdleClientsSafely,
+                                                                              period,
+                                                                              period,
+                                                                              TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Open a usage scope on the current thread, typically around a call made on an infrastructure. The clients got
+     * from any cache on this thread until the scope is closed are leased, so that their eviction does not close them
+     * while the call still uses them. Scopes can be nested, the leases being released with the outermost scope.
+     */
+    public static UsageScope openUsageScope() {
+        UsageScope scope = USAGE_SCOPE.get();
+        if (scope == null) {
+            scope = new UsageScope();
+            USAGE_SCOPE.set(scope);
+        }
+        scope.depth++;
+        return scope;
+    }
+
+    /**
+     * @return the usage scope open on the current thread, if any
+     */
+    public static Optional<UsageScope> getUsageScope() {
+        return Optional.ofNullable(USAGE_SCOPE.get());
+    }
+
+    public C get(Infrastructure infrastructure) {
+        evictIdleClientsIfDue();
+        while (true) {
+            long now = System.nanoTime();
+            Entry<C> entry = entries.get(infrastructure);
+            if (entry != null && !entry.isRetryable(now)) {
+                hits.increment();
+                entry.lastAccess = now;
+                C client = await(entry);
+                if (lease(infrastructure, entry)) {
+                    return client;
+                }
+                // evicted meanwhile, get or build the next client on the next iteration
+                continue;
+            }
+            Entry<C> newEntry = new Entry<>(nextBackoff(entry), now);
+            boolean installed = entry == null ? entries.putIfAbsent(infrastructure, newEntry) == null
+                                              : entries.replace(infrastructure, entry, newEntry);
+            if (installed) {
+                misses.increment();
+                build(infrastructure, newEntry);
+                evictLeastRecentlyUsedClients(newEntry);
+                C client = await(newEntry);
+                if (lease(infrastructure, newEntry)) {
+                    return client;
+                }
+            }
+            // another caller installed its entry first, or the built client was evicted meanwhile: retry
+        }
+    }
+
+    public void remove(Infrastructure infrastructure) {
+        Entry<C> entry = entries.remove(infrastructure);
+        if (entry != null) {
+            retire(infrastructure, entry);
+        }
+    }
+
+    /**
+     * Evict and close all the clients, e.g. when the application is stopped.
+     */
+    public void clear() {
+        stopIdleEviction();
+        entries.keySet().forEach(this::remove);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public ProviderClientCacheStatistics getStatistics() {
+        return new ProviderClientCacheStatistics(name,
+                                                 entries.size(),
+                                                 liveClients.get(),
+                                                 hits.sum(),
+                                                 misses.sum(),
+                                                 failures.sum(),
+                                                 evictions.sum());
+    }
+
+    /**
+     * Evict the clients which were not used during the idle timeout.
+     */
+    public void evictIdleClients() {
+        long idleTimeout = idleTimeoutNanos;
+        if (idleTimeout <= 0) {
+            return;
+        }
+        long now = System.nanoTime();
+        lastIdleEviction = now;
+        entries.forEach((infrastructure, entry) -> {
+            if (entry.future.isDone() && now - entry.lastAccess > idleTimeout) {
+                evict(infrastructure, entry, "idle");
+            }
+        });
+    }
+
+    private void evictIdleClientsSafely() {
+        try {
+            evictIdleClients();
+        } catch (RuntimeException e) {
+            log.warn("Unable to evict the idle " + name + " clients", e);
+        }
+    }
+
+    private synchronized void stopIdleEviction() {
+        if (idleEvictionTask != null) {
+            idleEvictionTask.cancel(false);
+            idleEvictionTask = null;
+        }
+    }
+
+    private void evictIdleClientsIfDue() {
+        long idleTimeout = idleTimeoutNanos;
+        if (idleTimeout > 0 && System.nanoTime() - lastIdleEviction > idleTimeout / 2 &&
+            evicting.compareAndSet(false, true)) {
+            try {
+                evictIdleClients();
+            } finally {
+                evicting.set(false);
+            }
+        }
+    }
+
+    private void evictLeastRecentlyUsedClients(Entry<C> builtEntry) {
+        int limit = maxSize;
+        while (limit > 0 && entries.size() > limit) {
+            Optional<Map.Entry<Infrastructure, Entry<C>>> leastRecentlyUsed = entries.entrySet()
+                                                                                    .stream()
+                                                                                    .filter(candidate -> candidate.getValue() != builtEntry &&
+                                                                                                         candidate.getValue().future.isDone())
+                                                                                    .min(Comparator.comparingLong(candidate -> candidate.getValue().lastAccess));
+            if (!leastRecentlyUsed.isPresent()) {
+                // only clients being built remain, they will be evicted by the next builds
+                return;
+            }
+            evict(leastRecentlyUsed.get().getKey(), leastRecentlyUsed.get().getValue(), "least recently used");
+        }
+    }
+
+    private void evict(Infrastructure infrastructure, Entry<C> entry, String reason) {
+        if (entries.remove(infrastructure, entry)) {
+            evictions.increment();
+            log.info("Evicting " + reason + " " + name + " client of infrastructure " + infrastructure.getId());
+            retire(infrastructure, entry);
+        }
+    }
+
+    private void build(Infrastructure infrastructure, Entry<C> entry) {
+        try {
+            C client = builder.apply(infrastructure);
+            liveClients.incrementAndGet();
+            entry.future.complete(client);
+        } catch (Throwable e) {
+            // errors too (e.g. a LinkageError of a provider SDK), otherwise the callers would wait forever
+            failures.increment();
+            entry.failedAt = System.nanoTime();
+            entry.future.completeExceptionally(e);
+        }
+    }
+
+    private boolean lease(Infrastructure infrastructure, Entry<C> entry) {
+        UsageScope scope = USAGE_SCOPE.get();
+        if (scope == null || scope.getLease(entry) != null) {
+            return true;
+        }
+        if (!entry.acquire()) {
+            return false;
+        }
+        scope.addLease(entry, entry, () -> {
+            if (entry.release()) {
+                close(infrastructure, entry);
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Close the client of a removed entry, or let its last lease close it.
+     */
+    private void retire(Infrastructure infrastructure, Entry<C> entry) {
+        if (entry.retire()) {
+            close(infrastructure, entry);
+        }
+    }
+
+    private void close(Infrastructure infrastructure, Entry<C> entry) {
+        entry.future.thenAccept(client -> {
+            try {
+                closer.accept(client);
+                liveClients.decrementAndGet();
+            } catch (RuntimeException e) {
+                log.warn("Unable to close the " + name + " client of infrastructure " + infrastructure.getId(), e);
+            }
+        });
+    }
+
+    private long nextBackoff(Entry<C> previous) {
+        if (previous == null || !previous.future.isCompletedExceptionally()) {
+            return failureBackoffNanos;
+        }
+        return Math.min(previous.backoff * 2, maxFailureBackoffNanos);
+    }
+
+    private C await(Entry<C> entry) {
+        try {
+            return entry.future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new RuntimeException("ERROR when building " + name + " client: " + e.getCause().getMessage(),
+                                       e.getCause());
+        }
+    }
+
+    private static class Entry<C> {
+
+        private final CompletableFuture<C> future = new CompletableFuture<>();
+
+        private final long backoff;
+
+        private volatile long lastAccess;
+
+        private volatile long failedAt;
+
+        private int leases;
+
+        private boolean retired;
+
+        private Entry(long backoff, long now) {
+            this.backoff = backoff;
+            this.lastAccess = now;
+        }
+
+        private boolean isRetryable(long now) {
+            return future.isCompletedExceptionally() && now - failedAt >= backoff;
+        }
+
+        private synchronized boolean acquire() {
+            if (retired) {
+                return false;
+            }
+            leases++;
+            return true;
+        }
+
+        /**
+         * @return whether the client must be closed, being retired and no longer leased
+         */
+        private synchronized boolean release() {
+            leases--;
+            return retired && leases == 0;
+        }
+
+        /**
+         * @return whether the client must be closed, being no longer leased
+         */
+        private synchronized boolean retire() {
+            retired = true;
+            return leases == 0;
+        }
+    }
+
+    /**
+     * Leases taken on the current thread, released when the outermost scope is closed. Besides the cached clients,
+     * the clients can lease their own resources (e.g. the sessions of a pool) for the duration of the scope.
+     */
+    public static final class UsageScope implements AutoCloseable {
+
+        // Leased resources, per owner
+        private final Map<Object, Object> leases = new IdentityHashMap<>();
+
+        private final List<Runnable> releases = new ArrayList<>();
+
+        private int depth;
+
+        private UsageScope() {
+        }
+
+        /**
+         * @return the resource leased from the owner during this scope, null if none
+         */
+        @SuppressWarnings("unchecked")
+        public <T> T getLease(Object owner) {
+            return (T) leases.get(owner);
+        }
+
+        /**
+         * Lease a resource of the owner until the end of this scope
+         *
+         * @param release gives the resource back to its owner
+         */
+        public void addLease(Object owner, Object resource, Runnable release) {
+            leases.put(owner, resource);
+            releases.add(release);
+        }
+
+        @Override
+        public void close() {
+            if (--depth > 0) {
+                return;
+            }
+            USAGE_SCOPE.remove();
+            releases.forEach(Runnable::run);
+        }
+    }
+
+    @Getter
+    @AllArgsConstructor
+    @EqualsAndHashCode
+    @ToString
+    public static class ProviderClientCacheStatistics {
+
+        private final String name;
+
+        private final int size;
+
+        /**
+         * Clients built and not closed yet, including the evicted clients whose close failed
+         */
+        private final int liveClients;
+
+        private final long hits;
+
+        private final long misses;
+
+        private final long failures;
+
+        private final long evictions;
+    }
+}
@@ -25,32 +25,39 @@
  */
 package org.ow2.proactive.connector.iaas.cloud.provider.azure;
 
-import java.io.BufferedReader;
+import static org.ow2.proactive.connector.iaas.cloud.provider.CatalogueInterner.intern;
+
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.Lock;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
 import org.apache.commons.lang3.NotImplementedException;
 import org.apache.commons.lang3.RandomStringUtils;
+import org.apache.commons.lang3.StringUtils;
 import org.json.JSONArray;
 import org.json.JSONObject;
+import org.json.JSONTokener;
 import org.ow2.proactive.connector.iaas.cloud.TagManager;
+import org.ow2.proactive.connector.iaas.cloud.provider.CatalogueCache;
 import org.ow2.proactive.connector.iaas.cloud.provider.CloudProvider;
 import org.ow2.proactive.connector.iaas.model.*;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 import com.google.common.util.concurrent.AbstractFuture;
+import com.google.common.util.concurrent.Striped;
 import com.microsoft.azure.PagedList;
 import com.microsoft.azure.management.Azure;
 import com.microsoft.azure.management.compute.*;
@@ -59,15 +66,19 @@ import com.microsoft.azure.management.network.NetworkInterface;
 import com.microsoft.azure.management.network.NetworkSecurityGroup;
 import com.microsoft.azure.management.network.NicIPConfiguration;
 import com.microsoft.azure.management.network.PublicIPAddress;
+import com.microsoft.azure.management.network.VirtualMachineScaleSetNetworkInterface;
 import com.microsoft.azure.management.network.model.HasPrivateIPAddress;
 import com.microsoft.azure.management.network.model.HasPublicIPAddress;
 import com.microsoft.azure.management.resources.ResourceGroup;
 import com.microsoft.azure.management.resources.fluentcore.arm.Region;
+import com.microsoft.azure.management.resources.fluentcore.arm.ResourceUtils;
 import com.microsoft.azure.management.resources.fluentcore.model.Creatable;
 import com.microsoft.azure.management.resources.fluentcore.utils.SdkContext;
 
+import lombok.AllArgsConstructor;
 import lombok.Getter;
 import lombok.extern.log4j.Log4j2;
+import rx.Completable;
 
 
 /**
@@ -129,6 +140,16 @@ public class AzureProvider implements CloudProvider {
 
     protected static final String INSTANCE_NOT_FOUND_ERROR = "ERROR unable to find instance with ID: ";
 
+    protected static final String SCALE_SET_SUBNET_NAME = "subnet";
+
+    protected static final String SCALE_SET_SKU_TIER = "Standard";
+
+    // The pricing API does not refer to any image, all the node candidates share this one
+    protected static final Image UNSPECIFIED_IMAGE = Image.builder().name("Unspecified").build();
+
+    // Separates the scale set resource ID from the instance ID in the ID of a scale set VM
+    protected static final String SCALE_SET_VM_ID_SEPARATOR = "/virtualMachines/";
+
     protected static final String CLOUD_OFFERS_CURRENCY = "USD";
 
     protected static final String CLOUD_OFFERS_LOCAL = "en-US";
@@ -153,6 +174,12 @@ public class AzureProvider implements CloudProvider {
     @Autowired
     protected TagManager tagManager;
 
+    @Autowired
+    protected AzureRestClient azureRestClient;
+
+    @Autowired
+    protected CatalogueCache catalogueCache;
+
     @Value("${connector-iaas.azure.default-username:activeeon}")
     protected String defaultUsername;
 
@@ -162,6 +189,25 @@ public class AzureProvider implements CloudProvider {
     @Value("${connector-iaas.azure.default-private-network-cidr:10.0.0.0/24}")
     protected String defaultPrivateNetworkCidr;
 
+    @Value("${connector-iaas.azure.vmss.default-private-network-cidr:172.16.0.0/16}")
+    protected String defaultScaleSetPrivateNetworkCidr;
+
+    @Value("${connector-iaas.azure.vmss.default-private-network-prefix:172.16.1.0/24}")
+    protected String defaultScaleSetPrivateNetworkPrefix;
+
+    // Requests of at least this number of instances are created through a scale set (0 disables scale sets)
+    @Value("${connector-iaas.azure.vmss.min-instances:0}")
+    protected int scaleSetMinInstances;
+
+    @Value("${connector-iaas.azure.resolved-image-ttl:600}")
+    protected long resolvedImageTtl = 600;
+
+    // Resource group and custom image resolved for each (infrastructure, resource group, image name/ID)
+    private final Map<String, ResolvedImage> resolvedImages = new ConcurrentHashMap<>();
+
+    // Serializes the capacity changes of a same scale set made through this connector
+    private final Striped<Lock> scaleSetLocks = Striped.lock(64);
+
     @Override
     public Set<String> listAvailableRegions(Infrastructure infrastructure) {
         return Arrays.stream(Region.values()).map(Region::name).collect(Collectors.toSet());
@@ -190,46 +236,51 @@ public class AzureProvider implements CloudProvider {
                                        .orElseThrow(() -> new RuntimeException("ERROR missing Image name/id from instance: '" +
                                                                                instance + "'"));
 
-        // Try to retrieve the resource group from provided name, otherwise get it from image ID
-        final ResourceGroup resourceGroup;
-
         KnownLinuxVirtualMachineImageCustom knownLinuxVirtualMachineImage = getKnownLinuxImage(imageNameOrId);
         KnownWindowsVirtualMachineImageCustom knownWindowsVirtualMachineImage = getKnownWindowsImage(imageNameOrId);
-        final VirtualMachineCustomImage image;
-        final Region region;
-        if (knownLinuxVirtualMachineImage == null && knownWindowsVirtualMachineImage == null) {
-            resourceGroup = azureProviderUtils.searchResourceGroupByName(azureService,
-                                                                         options.map(Options::getResourceGroup)
-                                                                                .orElseGet(() -> getImageById(azureService,
-                                                                                                              imageNameOrId).map(VirtualMachineCustomImage::resourceGroupName)
-                                                                                                                            .orElseThrow(() -> new RuntimeException("ERROR a resource group and/or an image ID must be specified from instance: '" +
-                                                                                                                                                                    instance +
-                                                                                                                                                                    "'"))))
-                                              .orElseThrow(() -> new RuntimeException("ERROR unable to find a suitable resource group from instance: '" +
-                                                                                      instance + "'"));
-            // Check for Image by name first and then by id
-            image = getImageByName(azureService,
-                                   resourceGroup.name(),
-                                   imageNameOrId).orElseGet(() -> getImageById(azureService,
-                                                                               imageNameOrId).orElseThrow(() -> new RuntimeException("ERROR unable to find custom Image: '" +
-                                                                                                                                     instance.getImage() +
-                                                                                                                                     "'")));
 
+        boolean customImage = knownLinuxVirtualMachineImage == null && knownWindowsVirtualMachineImage == null;
+
+        // Resolve the resource group and the custom image, reusing a previous resolution when still fresh
+        String resolvedImageKey = getResolvedImageKey(infrastructure, options, imageNameOrId);
+        ResolvedImage resolvedImage = getResolvedImage(resolvedImageKey).orElseGet(() -> {
+            ResolvedImage freshResolvedImage = resolveImage(azureService,
+                                                            instance,
+                                                            options,
+                                                            imageNameOrId,
+                                                            customImage);
+            resolvedImages.put(resolvedImageKey, freshResolvedImage);
+            return freshResolvedImage;
+        });
+        final ResourceGroup resourceGroup = resolvedImage.getResourceGroup();
+        final VirtualMachineCustomImage image = resolvedImage.getImage();
+
+        final Region region;
+        if (image != null) {
             // Try to get region from provided name, otherwise get it from image
             region = options.map(presentOptions -> Region.findByLabelOrName(presentOptions.getRegion()))
                             .orElseGet(image::region);
         } else {
-            image = null;
-            resourceGroup = azureProviderUtils.searchResourceGroupByName(azureService,
-                                                                         options.map(Options::getResourceGroup)
-                                                                                .orElse(null))
-                                              .orElseThrow(() -> new RuntimeException("ERROR when a known image is used, a resource group must be provided"));
             region = options.map(presentOptions -> Region.findByLabelOrName(presentOptions.getRegion())).orElse(null);
             if (region == null) {
                 throw new RuntimeException("ERROR when a known image is used, a region must be provided.");
             }
         }
 
+        // Large homogeneous requests become a single capacity change of the scale set named after the instance tag.
+        // The scale sets only have their own private network, the requests with network options keep one VM per instance.
+        if (scaleSetMinInstances > 0 && nbInstance >= scaleSetMinInstances && !hasNetworkOptions(options)) {
+            return createScaleSetInstances(infrastructure.getId(),
+                                           instance,
+                                           azureService,
+                                           resourceGroup,
+                                           region,
+                                           image,
+                                           knownLinuxVirtualMachineImage,
+                                           knownWindowsVirtualMachineImage,
+                                           nbInstance);
+        }
+
         // Prepare a new virtual private network (same for all VMs)
         Optional<String> optionalPrivateNetworkCIDR = options.map(Options::getPrivateNetworkCIDR);
         Creatable<Network> creatableVirtualNetwork = azureProviderNetworkingUtils.prepareVirtualNetwork(azureService,
@@ -310,13 +361,245 @@ public class AzureProvider implements CloudProvider {
         //vms.forEach(vm -> executeScriptOnVM(vm, instance.getInitScript()));
 
         // Create all VMs in parallel
-        return azureService.virtualMachines()
-                           .create(creatableVirtualMachines)
-                           .values()
-                           .stream()
-                           // Use vmId() instead of id() for clarity (id() contains full resource path)
-                           .map(vm -> instance.withTag(vm.name()).withId(vm.vmId()).withNumber(SINGLE_INSTANCE_NUMBER))
-                           .collect(Collectors.toSet());
+        Collection<VirtualMachine> createdVirtualMachines;
+        try {
+            createdVirtualMachines = azureService.virtualMachines().create(creatableVirtualMachines).values();
+        } catch (RuntimeException e) {
+            // The resolved image or resource group may not exist anymore, resolve them again next time
+            resolvedImages.remove(resolvedImageKey);
+            throw e;
+        }
+        return createdVirtualMachines.stream()
+                                     .peek(vm -> azureProviderUtils.indexVirtualMachine(azureService, vm))
+                                     // Use vmId() instead of id() for clarity (id() contains full resource path)
+                                     .map(vm -> instance.withTag(vm.name())
+                                                        .withId(vm.vmId())
+                                                        .withNumber(SINGLE_INSTANCE_NUMBER))
+                                     .collect(Collectors.toSet());
+    }
+
+    protected Set<Instance> createScaleSetInstances(String infrastructureId, Instance instance, Azure azureService,
+            ResourceGroup resourceGroup, Region region, VirtualMachineCustomImage image,
+            KnownLinuxVirtualMachineImageCustom knownLinuxVirtualMachineImage,
+            KnownWindowsVirtualMachineImageCustom knownWindowsVirtualMachineImage, int nbInstance) {
+
+        String scaleSetName = instance.getTag();
+        Lock scaleSetLock = scaleSetLocks.get(infrastructureId + "/" + resourceGroup.name().toLowerCase() + "/" +
+                                              scaleSetName.toLowerCase());
+        scaleSetLock.lock();
+        try {
+            return createOrScaleOutScaleSet(infrastructureId,
+                                            instance,
+                                            azureService,
+                                            resourceGroup,
+                                            region,
+                                            image,
+                                            knownLinuxVirtualMachineImage,
+                                            knownWindowsVirtualMachineImage,
+                                            nbInstance);
+        } finally {
+            scaleSetLock.unlock();
+        }
+    }
+
+    private Set<Instance> createOrScaleOutScaleSet(String infrastructureId, Instance instance, Azure azureService,
+            ResourceGroup resourceGroup, Region region, VirtualMachineCustomImage image,
+            KnownLinuxVirtualMachineImageCustom knownLinuxVirtualMachineImage,
+            KnownWindowsVirtualMachineImageCustom knownWindowsVirtualMachineImage, int nbInstance) {
+
+        String scaleSetName = instance.getTag();
+        Optional<VirtualMachineScaleSet> optionalScaleSet = azureProviderUtils.searchVirtualMachineScaleSetByName(azureService,
+                                                                                                                  resourceGroup.name(),
+                                                                                                                  scaleSetName);
+
+        // The instances of a scale set all share its image and hardware
+        optionalScaleSet.ifPresent(scaleSet -> checkScaleSetCompatibility(scaleSet,
+                                                                          getScaleSetHardwareType(instance),
+                                                                          image,
+                                                                          knownLinuxVirtualMachineImage,
+                                                                          knownWindowsVirtualMachineImage));
+
+        // Keep track of the instances already in the scale set, to return only the new ones
+        Set<String> existingScaleSetVMIds = optionalScaleSet.map(scaleSet -> scaleSet.virtualMachines()
+                                                                                     .list()
+                                                                                     .stream()
+                                                                                     .map(VirtualMachineScaleSetVM::id)
+                                                                                     .collect(Collectors.toSet()))
+                                                            .orElseGet(HashSet::new);
+
+        log.info("Scale set " + scaleSetName + " is being " + (optionalScaleSet.isPresent() ? "scaled out" : "created") +
+                 " with " + nbInstance + " instance(s) (infrastructure: " + infrastructureId + ")");
+
+        VirtualMachineScaleSet scaleSet = optionalScaleSet.map(presentScaleSet -> presentScaleSet.update()
+                                                                                                 .withCapacity(presentScaleSet.capacity() +
+                                                                                                               nbInstance)
+                                                                                                 .apply())
+                                                          .orElseGet(() -> prepareVirtualMachineScaleSet(infrastructureId,
+                                                                                                         instance,
+                                                                                                         azureService,
+                                                                                                         resourceGroup,
+                                                                                                         region,
+                                                                                                         image,
+                                                                                                         knownLinuxVirtualMachineImage,
+                                                                                                         knownWindowsVirtualMachineImage).withCapacity(nbInstance)
+                                                                                                                                         .create());
+
+        // Scale set VMs are identified by their full resource ID, which allows to find back their scale set
+        return scaleSet.virtualMachines()
+                       .list()
+                       .stream()
+                       .filter(scaleSetVM -> !existingScaleSetVMIds.contains(scaleSetVM.id()))
+                       .map(scaleSetVM -> instance.withTag(scaleSetVM.name())
+                                                  .withId(scaleSetVM.id())
+                                                  .withNumber(SINGLE_INSTANCE_NUMBER))
+                       .collect(Collectors.toSet());
+    }
+
+    private static boolean hasNetworkOptions(Optional<Options> options) {
+        return options.filter(presentOptions -> presentOptions.getPrivateNetworkCIDR() != null ||
+                                                presentOptions.getSubnetId() != null ||
+                                                (presentOptions.getSecurityGroupNames() != null &&
+                                                 !presentOptions.getSecurityGroupNames().isEmpty()) ||
+                                                presentOptions.getPortsToOpen() != null ||
+                                                presentOptions.getPublicIpAddress() != null ||
+                                                presentOptions.getStaticPublicIP() != null)
+                      .isPresent();
+    }
+
+    protected void checkScaleSetCompatibility(VirtualMachineScaleSet scaleSet, String hardwareType,
+            VirtualMachineCustomImage image, KnownLinuxVirtualMachineImageCustom knownLinuxVirtualMachineImage,
+            KnownWindowsVirtualMachineImageCustom knownWindowsVirtualMachineImage) {
+        String scaleSetHardwareType = scaleSet.sku().sku().name();
+        if (!hardwareType.equalsIgnoreCase(scaleSetHardwareType)) {
+            throw new RuntimeException("ERROR the scale set " + scaleSet.name() + " has the hardware type " +
+                                       scaleSetHardwareType + ", unable to scale it out with the hardware type " +
+                                       hardwareType);
+        }
+        ImageReference requestedImage;
+        if (knownLinuxVirtualMachineImage != null) {
+            requestedImage = knownLinuxVirtualMachineImage.imageReference();
+        } else if (knownWindowsVirtualMachineImage != null) {
+            requestedImage = knownWindowsVirtualMachineImage.imageReference();
+        } else {
+            requestedImage = new ImageReference().withId(image.id());
+        }
+        ImageReference scaleSetImage = scaleSet.storageProfile().imageReference();
+        if (!isSameImage(scaleSetImage, requestedImage)) {
+            throw new RuntimeException("ERROR the scale set " + scaleSet.name() + " has the image " +
+                                       describeImage(scaleSetImage) + ", unable to scale it out with the image " +
+                                       describeImage(requestedImage));
+        }
+    }
+
+    private static boolean isSameImage(ImageReference scaleSetImage, ImageReference requestedImage) {
+        // The resource IDs and names are not case sensitive
+        return scaleSetImage != null && StringUtils.equalsIgnoreCase(scaleSetImage.id(), requestedImage.id()) &&
+               StringUtils.equalsIgnoreCase(scaleSetImage.publisher(), requestedImage.publisher()) &&
+               StringUtils.equalsIgnoreCase(scaleSetImage.offer(), requestedImage.offer()) &&
+               StringUtils.equalsIgnoreCase(scaleSetImage.sku(), requestedImage.sku()) &&
+               StringUtils.equalsIgnoreCase(scaleSetImage.version(), requestedImage.version());
+    }
+
+    private static String describeImage(ImageReference imageReference) {
+        if (imageReference == null) {
+            return "unknown";
+        }
+        return Optional.ofNullable(imageReference.id())
+                       .orElse(imageReference.publisher() + ":" + imageReference.offer() + ":" +
+                               imageReference.sku() + ":" + imageReference.version());
+    }
+
+    protected String getScaleSetHardwareType(Instance instance) {
+        return Optional.ofNullable(instance.getHardware()).map(Hardware::getType).orElse(DEFAULT_VM_SIZE.toString());
+    }
+
+    protected VirtualMachineScaleSet.DefinitionStages.WithCreate prepareVirtualMachineScaleSet(String infrastructureId,
+            Instance instance, Azure azureService, ResourceGroup resourceGroup, Region region,
+            VirtualMachineCustomImage image, KnownLinuxVirtualMachineImageCustom knownLinuxVirtualMachineImage,
+            KnownWindowsVirtualMachineImageCustom knownWindowsVirtualMachineImage) {
+
+        String scaleSetName = instance.getTag();
+
+        // All the instances of the scale set share a single private network, without public IP address
+        Network network = azureProviderNetworkingUtils.createScaleSetVirtualNetwork(azureService,
+                                                                                    region,
+                                                                                    resourceGroup,
+                                                                                    createUniqueVirtualNetworkName(scaleSetName),
+                                                                                    defaultScaleSetPrivateNetworkCidr,
+                                                                                    SCALE_SET_SUBNET_NAME,
+                                                                                    defaultScaleSetPrivateNetworkPrefix);
+
+        String hardwareType = getScaleSetHardwareType(instance);
+
+        VirtualMachineScaleSet.DefinitionStages.WithOS scaleSetWithoutOS = azureService.virtualMachineScaleSets()
+                                                                                       .define(scaleSetName)
+                                                                                       .withRegion(region)
+                                                                                       .withExistingResourceGroup(resourceGroup)
+                                                                                       .withSku(VirtualMachineScaleSetSkuTypes.fromSkuNameAndTier(hardwareType,
+                                                                                                                                                  SCALE_SET_SKU_TIER))
+                                                                                       .withExistingPrimaryNetworkSubnet(network,
+                                                                                                                         SCALE_SET_SUBNET_NAME)
+                                                                                       .withoutPrimaryInternetFacingLoadBalancer()
+                                                                                       .withoutPrimaryInternalLoadBalancer();
+
+        // Retrieve optional credentials
+        Optional<InstanceCredentials> optionalCredentials = Optional.ofNullable(instance.getCredentials());
+        String username = optionalCredentials.map(InstanceCredentials::getUsername).orElse(defaultUsername);
+        String password = optionalCredentials.map(InstanceCredentials::getPassword).orElse(defaultPassword);
+        Optional<String> optionalPublicKey = optionalCredentials.map(InstanceCredentials::getPublicKey);
+
+        // Configure the scale set depending on the OS type
+        VirtualMachineScaleSet.DefinitionStages.WithCreate scaleSetWithOS;
+        OperatingSystemTypes operatingSystemType;
+        if (knownLinuxVirtualMachineImage != null) {
+            operatingSystemType = OperatingSystemTypes.LINUX;
+            VirtualMachineScaleSet.DefinitionStages.WithLinuxRootPasswordOrPublicKeyManagedOrUnmanaged scaleSetWithoutCredentials = scaleSetWithoutOS.withSpecificLinuxImageVersion(knownLinuxVirtualMachineImage.imageReference())
+                                                                                                                                                      .withRootUsername(username);
+            scaleSetWithOS = optionalPublicKey.map(scaleSetWithoutCredentials::withSsh)
+                                              .orElseGet(() -> scaleSetWithoutCredentials.withRootPassword(password));
+        } else if (knownWindowsVirtualMachineImage != null) {
+            operatingSystemType = OperatingSystemTypes.WINDOWS;
+            scaleSetWithOS = scaleSetWithoutOS.withSpecificWindowsImageVersion(knownWindowsVirtualMachineImage.imageReference())
+                                              .withAdminUsername(username)
+                                              .withAdminPassword(password);
+        } else {
+            operatingSystemType = image.osDiskImage().osType();
+            if (operatingSystemType.equals(OperatingSystemTypes.LINUX)) {
+                VirtualMachineScaleSet.DefinitionStages.WithLinuxRootPasswordOrPublicKeyManaged scaleSetWithoutCredentials = scaleSetWithoutOS.withLinuxCustomImage(image.id())
+                                                                                                                                               .withRootUsername(username);
+                scaleSetWithOS = optionalPublicKey.map(scaleSetWithoutCredentials::withSsh)
+                                                  .orElseGet(() -> scaleSetWithoutCredentials.withRootPassword(password));
+            } else if (operatingSystemType.equals(OperatingSystemTypes.WINDOWS)) {
+                scaleSetWithOS = scaleSetWithoutOS.withWindowsCustomImage(image.id())
+                                                  .withAdminUsername(username)
+                                                  .withAdminPassword(password);
+            } else {
+                throw new RuntimeException(unsupportedOperatingSystemError(operatingSystemType.toString()));
+            }
+        }
+
+        // Add init script(s) using dedicated Microsoft extension, run by every instance of the scale set
+        Optional.ofNullable(instance.getInitScript())
+                .map(InstanceScript::getScripts)
+                .filter(scripts -> scripts.length > 0)
+                .map(scripts -> String.join(SCRIPT_SEPARATOR, scripts))
+                .ifPresent(concatenatedScripts -> {
+                    boolean linux = operatingSystemType.equals(OperatingSystemTypes.LINUX);
+                    scaleSetWithOS.defineNewExtension(createUniqueScriptName(scaleSetName))
+                                  .withPublisher(linux ? SCRIPT_EXTENSION_PUBLISHER_LINUX
+                                                       : SCRIPT_EXTENSION_PUBLISHER_WINDOWS)
+                                  .withType(linux ? SCRIPT_EXTENSION_TYPE_LINUX : SCRIPT_EXTENSION_TYPE_WINDOWS)
+                                  .withVersion(linux ? SCRIPT_EXTENSION_VERSION_LINUX
+                                                     : SCRIPT_EXTENSION_VERSION_WINDOWS)
+                                  .withMinorVersionAutoUpgrade()
+                                  .withPublicSetting(SCRIPT_EXTENSION_CMD_KEY, concatenatedScripts)
+                                  .attach();
+                });
+
+        // Set tags
+        return scaleSetWithOS.withTags(tagManager.retrieveAllTags(infrastructureId, instance.getOptions())
+                                                 .stream()
+                                                 .collect(Collectors.toMap(Tag::getKey, Tag::getValue)));
     }
 
     protected Creatable<NetworkInterface> createPublicAddressAndNetworkInterface(Azure azureService,
@@ -365,6 +648,55 @@ public class AzureProvider implements CloudProvider {
         }
     }
 
+    protected ResolvedImage resolveImage(Azure azureService, Instance instance, Optional<Options> options,
+            String imageNameOrId, boolean customImage) {
+        if (customImage) {
+            // Try to retrieve the resource group from provided name, otherwise get it from image ID
+            ResourceGroup resourceGroup = azureProviderUtils.searchResourceGroupByName(azureService,
+                                                                                       options.map(Options::getResourceGroup)
+                                                                                              .orElseGet(() -> getImageById(azureService,
+                                                                                                                            imageNameOrId).map(VirtualMachineCustomImage::resourceGroupName)
+                                                                                                                                          .orElseThrow(() -> new RuntimeException("ERROR a resource group and/or an image ID must be specified from instance: '" +
+                                                                                                                                                                                  instance +
+                                                                                                                                                                                  "'"))))
+                                                            .orElseThrow(() -> new RuntimeException("ERROR unable to find a suitable resource group from instance: '" +
+                                                                                                    instance + "'"));
+            // Check for Image by name first and then by id
+            VirtualMachineCustomImage image = getImageByName(azureService,
+                                                             resourceGroup.name(),
+                                                             imageNameOrId).orElseGet(() -> getImageById(azureService,
+                                                                                                         imageNameOrId).orElseThrow(() -> new RuntimeException("ERROR unable to find custom Image: '" +
+                                                                                                                                                               instance.getImage() +
+                                                                                                                                                               "'")));
+            return new ResolvedImage(resourceGroup, image, System.currentTimeMillis());
+        } else {
+            ResourceGroup resourceGroup = azureProviderUtils.searchResourceGroupByName(azureService,
+                                                                                       options.map(Options::getResourceGroup)
+                                                                                              .orElse(null))
+                                                            .orElseThrow(() -> new RuntimeException("ERROR when a known image is used, a resource group must be provided"));
+            return new ResolvedImage(resourceGroup, null, System.currentTimeMillis());
+        }
+    }
+
+    protected Optional<ResolvedImage> getResolvedImage(String resolvedImageKey) {
+        return Optional.ofNullable(resolvedImages.get(resolvedImageKey))
+                       .filter(resolvedImage -> System.currentTimeMillis() -
+                                                resolvedImage.getResolvedAt() < TimeUnit.SECONDS.toMillis(resolvedImageTtl));
+    }
+
+    protected String getResolvedImageKey(Infrastructure infrastructure, Optional<Options> options,
+            String imageNameOrId) {
+        return infrastructure.getId() + "/" + options.map(Options::getResourceGroup).orElse("") + "/" + imageNameOrId;
+    }
+
+    /**
+     * Forget every image resolved for the given infrastructure, so that the next creation looks them up again.
+     */
+    public void invalidateResolvedImages(Infrastructure infrastructure) {
+        String infrastructurePrefix = infrastructure.getId() + "/";
+        resolvedImages.keySet().removeIf(key -> key.startsWith(infrastructurePrefix));
+    }
+
     protected Optional<VirtualMachineCustomImage> getImageByName(Azure azureService, String resourceGroup,
             String name) {
         return Optional.ofNullable(azureService.virtualMachineCustomImages().getByResourceGroup(resourceGroup, name));
@@ -614,6 +946,11 @@ public class AzureProvider implements CloudProvider {
     public void deleteInstance(Infrastructure infrastructure, String instanceId) {
         Azure azureService = azureServiceCache.getService(infrastructure);
 
+        if (instanceId.contains(SCALE_SET_VM_ID_SEPARATOR)) {
+            deleteScaleSetInstance(infrastructure, azureService, instanceId);
+            return;
+        }
+
         VirtualMachine vm = azureProviderUtils.searchVirtualMachineByID(azureService, instanceId)
                                               .orElseThrow(() -> new RuntimeException(INSTANCE_NOT_FOUND_ERROR + "'" +
                                                                                       instanceId + "'"));
@@ -626,80 +963,213 @@ public class AzureProvider implements CloudProvider {
                                                                                                                    vm);
         List<NetworkSecurityGroup> networkSecurityGroups = azureProviderNetworkingUtils.getVMSecurityGroups(azureService,
                                                                                                             vm);
-        List<PublicIPAddress> PublicIPAddresses = azureProviderNetworkingUtils.getVMPublicIPAddresses(azureService, vm);
+        List<PublicIPAddress> publicIPAddresses = azureProviderNetworkingUtils.getVMPublicIPAddresses(azureService, vm);
         String osDiskID = vm.osDiskId();
 
-        // Delete the VM first
-        azureService.virtualMachines().deleteById(vm.id());
+        // Delete the resources as soon as the resources depending on them are deleted: the VM first, then its main
+        // disk (OS, *data disks are kept*) in parallel with the network interfaces, then the public IP addresses and
+        // the security groups, and the virtual networks last
+        Completable deleteNetworkResources = Completable.defer(() -> Completable.merge(vm.networkInterfaceIds()
+                                                                                         .stream()
+                                                                                         .map(id -> azureService.networkInterfaces()
+                                                                                                                .deleteByIdAsync(id))
+                                                                                         .collect(Collectors.toList())))
+                                                        .andThen(Completable.defer(() -> Completable.merge(deletePublicIPAddressesAsync(azureService,
+                                                                                                                                        publicIPAddresses),
+                                                                                                           deleteSecurityGroupsAsync(azureService,
+                                                                                                                                     networkSecurityGroups))))
+                                                        .andThen(Completable.defer(() -> deleteNetworksAsync(azureService,
+                                                                                                             networks)));
+
+        azureService.virtualMachines()
+                    .deleteByIdAsync(vm.id())
+                    .doOnCompleted(() -> azureProviderUtils.unindexVirtualMachine(azureService, vm))
+                    .andThen(Completable.merge(Completable.defer(() -> azureService.disks().deleteByIdAsync(osDiskID)),
+                                               deleteNetworkResources))
+                    .await();
 
-        // Then delete all network interfaces attached
-        vm.networkInterfaceIds().forEach(id -> azureService.networkInterfaces().deleteById(id));
+        log.info("Deletion of all Azure resources of instance " + instanceId + " has been executed.");
+    }
 
-        // Delete all public IP addresses
-        PublicIPAddresses.stream()
-                         .map(PublicIPAddress::id)
-                         .forEach(id -> azureService.publicIPAddresses().deleteById(id));
+    protected Completable deletePublicIPAddressesAsync(Azure azureService, List<PublicIPAddress> publicIPAddresses) {
+        return Completable.merge(publicIPAddresses.stream()
+                                                  .map(PublicIPAddress::id)
+                                                  .map(id -> azureService.publicIPAddresses()
+                                                                         .deleteByIdAsync(id)
+                                                                         .doOnCompleted(() -> azureProviderUtils.unindexPublicIpAddress(azureService,
+                                                                                                                                        id)))
+                                                  .collect(Collectors.toList()));
+    }
 
-        // Delete its main disk (OS), *and keep data disks*
-        azureService.disks().deleteById(osDiskID);
+    protected void deleteSecurityGroups(Azure azureService, List<NetworkSecurityGroup> networkSecurityGroups) {
+        deleteSecurityGroupsAsync(azureService, networkSecurityGroups).await();
+    }
 
-        // Delete the security groups if not attached to any remaining network interface
-        deleteSecurityGroups(azureService, networkSecurityGroups);
+    protected void deleteScaleSetInstance(Infrastructure infrastructure, Azure azureService, String instanceId) {
+        String scaleSetId = instanceId.substring(0, instanceId.indexOf(SCALE_SET_VM_ID_SEPARATOR));
+        String scaleSetInstanceId = instanceId.substring(instanceId.indexOf(SCALE_SET_VM_ID_SEPARATOR) +
+                                                         SCALE_SET_VM_ID_SEPARATOR.length());
 
-        // Delete the virtual networks if not attached to any remaining network interface
-        deleteNetworks(azureService, networks);
+        log.info("Deletion of scale set instance " + instanceId +
+                 " is being requested to the provider (infrastructure: " + infrastructure.getId() + ")");
 
-        log.info("Deletion of all Azure resources of instance " + instanceId + " has been executed.");
+        // The scale set shrinks accordingly, its shared network is kept for the remaining instances
+        azureService.virtualMachineScaleSets()
+                    .inner()
+                    .deleteInstances(ResourceUtils.groupFromResourceId(scaleSetId),
+                                     ResourceUtils.nameFromResourceId(scaleSetId),
+                                     Lists.newArrayList(scaleSetInstanceId));
+
+        // The scale set and its network go along with its last instance
+        VirtualMachineScaleSet scaleSet = azureService.virtualMachineScaleSets().getById(scaleSetId);
+        if (scaleSet != null && scaleSet.capacity() == 0) {
+            Network network;
+            try {
+                network = scaleSet.getPrimaryNetwork();
+            } catch (IOException e) {
+                throw new RuntimeException("ERROR when retrieving the network of the scale set: " + scaleSetId, e);
+            }
+            log.info("Deletion of the empty scale set " + scaleSetId + " and its network is being requested");
+            azureService.virtualMachineScaleSets().deleteById(scaleSetId);
+            deleteNetworks(azureService, Lists.newArrayList(network));
+        }
     }
 
-    protected void deleteSecurityGroups(Azure azureService, List<NetworkSecurityGroup> networkSecurityGroups) {
+    /**
+     * The scale set instances have no network interface nor public IP address of their own, and their scripts are
+     * set on the whole scale set (the init script of its instance)
+     */
+    protected void checkNotScaleSetInstance(String instanceId, String operation) {
+        if (instanceId.contains(SCALE_SET_VM_ID_SEPARATOR)) {
+            throw new RuntimeException("ERROR " + operation + " is not supported for the scale set instance: '" +
+                                       instanceId + "'");
+        }
+    }
+
+    protected Completable deleteSecurityGroupsAsync(Azure azureService,
+            List<NetworkSecurityGroup> networkSecurityGroups) {
+        if (networkSecurityGroups.isEmpty()) {
+            return Completable.complete();
+        }
         // Delete the security groups if not attached to any remaining network interface
-        networkSecurityGroups.stream()
-                             .map(NetworkSecurityGroup::id)
-                             .filter(id -> azureService.networkInterfaces()
-                                                       .list()
-                                                       .stream()
-                                                       .map(NetworkInterface::getNetworkSecurityGroup)
-                                                       .filter(Objects::nonNull)
-                                                       .noneMatch(networkSecurityGroup -> networkSecurityGroup.id()
-                                                                                                              .equals(id)))
-                             .forEach(id -> azureService.networkSecurityGroups().deleteById(id));
+        Set<String> usedNetworkSecurityGroupIds = azureService.networkInterfaces()
+                                                              .list()
+                                                              .stream()
+                                                              .map(NetworkInterface::getNetworkSecurityGroup)
+                                                              .filter(Objects::nonNull)
+                                                              .map(NetworkSecurityGroup::id)
+                                                              .collect(Collectors.toSet());
+        return Completable.merge(networkSecurityGroups.stream()
+                                                      .map(NetworkSecurityGroup::id)
+                                                      .filter(id -> !usedNetworkSecurityGroupIds.contains(id))
+                                                      .map(id -> azureService.networkSecurityGroups()
+                                                                             .deleteByIdAsync(id))
+                                                      .collect(Collectors.toList()));
     }
 
     protected void deleteNetworks(Azure azureService, List<com.microsoft.azure.management.network.Network> networks) {
-        networks.stream()
-                .map(Network::id)
-                .filter(id -> azureService.networkInterfaces()
-                                          .list()
-                                          .stream()
-                                          .flatMap(networkInterface -> networkInterface.ipConfigurations()
-                                                                                       .values()
-                                                                                       .stream())
-                                          .filter(Objects::nonNull)
-                                          .map(NicIPConfiguration::getNetwork)
-                                          .filter(Objects::nonNull)
-                                          .noneMatch(network -> network.id().equals(id)))
-                .forEach(id -> azureService.networks().deleteById(id));
+        deleteNetworksAsync(azureService, networks).await();
+    }
+
+    protected Completable deleteNetworksAsync(Azure azureService,
+            List<com.microsoft.azure.management.network.Network> networks) {
+        if (networks.isEmpty()) {
+            return Completable.complete();
+        }
+        // Delete the virtual networks if not attached to any remaining network interface
+        Set<String> usedNetworkIds = azureService.networkInterfaces()
+                                                 .list()
+                                                 .stream()
+                                                 .flatMap(networkInterface -> networkInterface.ipConfigurations()
+                                                                                              .values()
+                                                                                              .stream())
+                                                 .filter(Objects::nonNull)
+                                                 .map(NicIPConfiguration::getNetwork)
+                                                 .filter(Objects::nonNull)
+                                                 .map(Network::id)
+                                                 .collect(Collectors.toSet());
+        return Completable.merge(networks.stream()
+                                         .map(Network::id)
+                                         .filter(id -> !usedNetworkIds.contains(id))
+                                         .map(id -> azureService.networks().deleteByIdAsync(id))
+                                         .collect(Collectors.toList()));
     }
 
     @Override
     public Set<Instance> getAllInfrastructureInstances(Infrastructure infrastructure) {
         Azure azureService = azureServiceCache.getService(infrastructure);
-        return getInstancesFromVMs(azureService, azureProviderUtils.getAllVirtualMachines(azureService));
+        Set<Instance> instances = new HashSet<>(getInstancesFromVMs(azureService,
+                                                                    azureProviderUtils.getAllVirtualMachines(azureService)));
+        // The scale sets are only listed when they are enabled
+        if (scaleSetMinInstances > 0) {
+            instances.addAll(getInstancesFromScaleSets(azureProviderUtils.getAllVirtualMachineScaleSets(azureService)));
+        }
+        return instances;
     }
 
     @Override
     public Set<Instance> getCreatedInfrastructureInstances(Infrastructure infrastructure) {
         Azure azureService = azureServiceCache.getService(infrastructure);
+        Set<Instance> instances = new HashSet<>(getInstancesFromVMs(azureService,
+                                                                    azureProviderUtils.getAllVirtualMachines(azureService)
+                                                                                      .stream()
+                                                                                      .filter(vm -> hasConnectorIaasTag(vm.tags()))
+                                                                                      .collect(Collectors.toSet())));
+        if (scaleSetMinInstances > 0) {
+            // The scale sets are filtered on their tags before listing their instances
+            instances.addAll(getInstancesFromScaleSets(azureProviderUtils.getAllVirtualMachineScaleSets(azureService)
+                                                                         .stream()
+                                                                         .filter(scaleSet -> hasConnectorIaasTag(scaleSet.tags()))
+                                                                         .collect(Collectors.toSet())));
+        }
+        return instances;
+    }
+
+    private boolean hasConnectorIaasTag(Map<String, String> tags) {
         Tag connectorIaasTag = tagManager.getConnectorIaasTag();
-        return getInstancesFromVMs(azureService, azureProviderUtils.getAllVirtualMachines(azureService)
-                                                                   .stream()
-                                                                   .filter(vm -> vm.tags().keySet().contains(
-                                                                                                             connectorIaasTag.getKey()) &&
-                                                                                 vm.tags()
-                                                                                   .get(connectorIaasTag.getKey())
-                                                                                   .equals(connectorIaasTag.getValue()))
-                                                                   .collect(Collectors.toSet()));
+        return tags.containsKey(connectorIaasTag.getKey()) &&
+               tags.get(connectorIaasTag.getKey()).equals(connectorIaasTag.getValue());
+    }
+
+    /**
+     * The instances of the scale sets, identified by their full resource ID as when they are created. They only have
+     * private addresses, the scale sets being created without public IP addresses.
+     */
+    protected Set<Instance> getInstancesFromScaleSets(Set<VirtualMachineScaleSet> scaleSets) {
+        return scaleSets.stream()
+                        .flatMap(scaleSet -> getInstancesFromScaleSet(scaleSet).stream())
+                        .collect(Collectors.toSet());
+    }
+
+    private Set<Instance> getInstancesFromScaleSet(VirtualMachineScaleSet scaleSet) {
+        // The network interfaces of all the instances are listed at once, then dispatched by instance
+        Map<String, List<String>> privateAddressesPerScaleSetVMId = scaleSet.listNetworkInterfaces()
+                                                                            .stream()
+                                                                            .filter(networkInterface -> networkInterface.virtualMachineId() != null &&
+                                                                                                        networkInterface.primaryPrivateIP() != null)
+                                                                            .collect(Collectors.groupingBy(networkInterface -> networkInterface.virtualMachineId()
+                                                                                                                                               .toLowerCase(),
+                                                                                                           Collectors.mapping(VirtualMachineScaleSetNetworkInterface::primaryPrivateIP,
+                                                                                                                              Collectors.toList())));
+        return scaleSet.virtualMachines()
+                       .list()
+                       .stream()
+                       .map(scaleSetVM -> Instance.builder()
+                                                  .id(scaleSetVM.id())
+                                                  .tag(scaleSetVM.name())
+                                                  .number(SINGLE_INSTANCE_NUMBER)
+                                                  .hardware(Hardware.builder()
+                                                                    .type(String.valueOf(scaleSetVM.size()))
+                                                                    .build())
+                                                  .network(org.ow2.proactive.connector.iaas.model.Network.builder()
+                                                                                                         .publicAddresses(new ArrayList<>())
+                                                                                                         .privateAddresses(privateAddressesPerScaleSetVMId.getOrDefault(scaleSetVM.id()
+                                                                                                                                                                                  .toLowerCase(),
+                                                                                                                                                                        new ArrayList<>()))
+                                                                                                         .build())
+                                                  .status(String.valueOf(scaleSetVM.powerState()))
+                                                  .build())
+                       .collect(Collectors.toSet());
     }
 
     protected Set<Instance> getInstancesFromVMs(Azure azureService, Set<VirtualMachine> vms) {
@@ -745,6 +1215,7 @@ public class AzureProvider implements CloudProvider {
     @Override
     public List<ScriptResult> executeScriptOnInstanceId(Infrastructure infrastructure, String instanceId,
             InstanceScript instanceScript) {
+        checkNotScaleSetInstance(instanceId, "executing a script");
         VirtualMachine vm = azureProviderUtils.searchVirtualMachineByID(azureServiceCache.getService(infrastructure),
                                                                         instanceId)
                                               .orElseThrow(() -> new RuntimeException(INSTANCE_NOT_FOUND_ERROR + "'" +
@@ -881,6 +1352,10 @@ public class AzureProvider implements CloudProvider {
 
     @Override
     public Set<Image> getAllImages(Infrastructure infrastructure) {
+        return catalogueCache.get(infrastructure, CatalogueCache.IMAGES, () -> loadAllImages(infrastructure));
+    }
+
+    private Set<Image> loadAllImages(Infrastructure infrastructure) {
         return azureServiceCache.getService(infrastructure)
                                 .virtualMachineCustomImages()
                                 .list()
@@ -888,22 +1363,26 @@ public class AzureProvider implements CloudProvider {
                                 .map(azureImage -> Image.builder()
                                                         .id(azureImage.id())
                                                         .name(azureImage.name())
-                                                        .location(azureImage.regionName())
+                                                        .location(intern(azureImage.regionName()))
                                                         .operatingSystem(OperatingSystem.builder()
                                                                                         .arch("AMD64")
                                                                                         .description(azureImage.osDiskImage()
                                                                                                                .toString())
-                                                                                        .family(azureImage.osDiskImage()
-                                                                                                          .osType()
-                                                                                                          .toString())
+                                                                                        .family(intern(azureImage.osDiskImage()
+                                                                                                                 .osType()
+                                                                                                                 .toString()))
                                                                                         .is64Bit(true)
                                                                                         .build())
                                                         .build())
-                                .collect(Collectors.toSet());
+                                .collect(ImmutableSet.toImmutableSet());
     }
 
     @Override
     public Set<Hardware> getAllHardwares(Infrastructure infrastructure) {
+        return catalogueCache.get(infrastructure, CatalogueCache.HARDWARES, () -> loadAllHardwares(infrastructure));
+    }
+
+    private Set<Hardware> loadAllHardwares(Infrastructure infrastructure) {
         return azureServiceCache.getService(infrastructure)
                                 .virtualMachines()
                                 .sizes()
@@ -915,16 +1394,25 @@ public class AzureProvider implements CloudProvider {
                                                     .minFreq("-1")
                                                     .minRam("" + vms.memoryInMB())
                                                     .build())
-                                .collect(Collectors.toSet());
+                                .collect(ImmutableSet.toImmutableSet());
     }
 
     @Override
     public void deleteInfrastructure(Infrastructure infrastructure) {
+        invalidateResolvedImages(infrastructure);
+        catalogueCache.invalidate(infrastructure.getId());
+        // The resource ids indexed for the infrastructure are dropped along with its Azure client
         azureServiceCache.removeService(infrastructure);
     }
 
+    @Override
+    public void warmUp(Infrastructure infrastructure) {
+        azureServiceCache.getService(infrastructure);
+    }
+
     @Override
     public String addToInstancePublicIp(Infrastructure infrastructure, String instanceId, String optionalDesiredIp) {
+        checkNotScaleSetInstance(instanceId, "adding a public IP address");
         Azure azureService = azureServiceCache.getService(infrastructure);
         VirtualMachine vm = azureProviderUtils.searchVirtualMachineByID(azureService, instanceId)
                                               .orElseThrow(() -> new RuntimeException(INSTANCE_NOT_FOUND_ERROR + "'" +
@@ -1006,6 +1494,11 @@ public class AzureProvider implements CloudProvider {
         replaceVMPrimaryPublicIPAddress(azureService, vm, PublicIPAddress);
     }
 
+    private void deletePublicIPAddress(Azure azureService, String publicIPAddressId) {
+        azureService.publicIPAddresses().deleteById(publicIPAddressId);
+        azureProviderUtils.unindexPublicIpAddress(azureService, publicIPAddressId);
+    }
+
     protected void removePublicIpFromNetworkInterface(Azure azureService, NetworkInterface networkInterface) {
         networkInterface.update().withoutPrimaryPublicIPAddress().apply();
         azureService.networkInterfaces().deleteById(networkInterface.id());
@@ -1015,12 +1508,13 @@ public class AzureProvider implements CloudProvider {
             PublicIPAddress newPublicIPAddress) {
         PublicIPAddress existingPublicIPAddress = vm.getPrimaryPublicIPAddress();
         vm.getPrimaryNetworkInterface().update().withoutPrimaryPublicIPAddress().apply();
-        azureService.publicIPAddresses().deleteById(existingPublicIPAddress.id());
+        deletePublicIPAddress(azureService, existingPublicIPAddress.id());
         vm.getPrimaryNetworkInterface().update().withExistingPrimaryPublicIPAddress(newPublicIPAddress).apply();
     }
 
     @Override
     public void removeInstancePublicIp(Infrastructure infrastructure, String instanceId, String optionalDesiredIp) {
+        checkNotScaleSetInstance(instanceId, "removing a public IP address");
         Azure azureService = azureServiceCache.getService(infrastructure);
         VirtualMachine vm = azureProviderUtils.searchVirtualMachineByID(azureService, instanceId)
                                               .orElseThrow(() -> new RuntimeException(INSTANCE_NOT_FOUND_ERROR + "'" +
@@ -1036,7 +1530,7 @@ public class AzureProvider implements CloudProvider {
 
         // Delete the desired IP address if present
         if (optionalPublicIPAddress.isPresent()) {
-            azureService.publicIPAddresses().deleteById(optionalPublicIPAddress.get().id());
+            deletePublicIPAddress(azureService, optionalPublicIPAddress.get().id());
             return;
         }
 
@@ -1056,13 +1550,13 @@ public class AzureProvider implements CloudProvider {
                                                                                .primaryIPConfiguration()
                                                                                .getPublicIPAddress();
             optionalSecondaryNetworkInterface.get().update().withoutPrimaryPublicIPAddress().apply();
-            azureService.publicIPAddresses().deleteById(publicIPAddress.id());
+            deletePublicIPAddress(azureService, publicIPAddress.id());
         }
         // Otherwise remove the public IP address from the primary interface if present
         else if (Optional.ofNullable(vm.getPrimaryPublicIPAddress()).isPresent()) {
             PublicIPAddress publicIPAddress = vm.getPrimaryPublicIPAddress();
             vm.getPrimaryNetworkInterface().update().withoutPrimaryPublicIPAddress().apply();
-            azureService.publicIPAddresses().deleteById(publicIPAddress.id());
+            deletePublicIPAddress(azureService, publicIPAddress.id());
         }
     }
 
@@ -1090,13 +1584,13 @@ public class AzureProvider implements CloudProvider {
             if (!knownCostPerMeterIdPerApiKey.containsKey(id)) {
                 // We need to initiate the cost structure if none is already present.
                 // We try to do this once since the ratecard structure is heavy (~19MB)
-                String rateCard = getRateCard(infra);
+                JSONObject rateCard = getRateCard(infra);
                 knownCostPerMeterIdPerApiKey.put(id, parseVmRateCard(rateCard));
             }
             if (!knownMeterIdPerArmSkuNamePerApiKey.containsKey(id)) {
                 // We need to initiate the cost structure if none is already present.
                 // We try to do this once since the resource prices structure is heavy
-                String resourcePrices = getResourcePrices(infra);
+                JSONObject resourcePrices = getResourcePrices(infra);
                 knownMeterIdPerArmSkuNamePerApiKey.put(id, parseResourcePrices(resourcePrices));
             }
 
@@ -1151,44 +1645,29 @@ public class AzureProvider implements CloudProvider {
         // We build up the resulting structure
         if (price != -1) {
             result.add(NodeCandidate.builder()
-                                    .img(Image.builder().name("Unspecified").build())
+                                    .img(UNSPECIFIED_IMAGE)
                                     .region(region)
                                     .cloud(this.getType())
                                     .price(price)
-                                    .hw(Hardware.builder()
-                                                .minRam(memoryMB)
-                                                .minCores(vCpu)
-                                                .type(type)
-                                                .minFreq("0")
-                                                .build())
+                                    .hw(intern(Hardware.builder()
+                                                       .minRam(intern(memoryMB))
+                                                       .minCores(intern(vCpu))
+                                                       .type(type)
+                                                       .minFreq("0")
+                                                       .build()))
                                     .build());
         }
     }
 
-    private String queryAzureAPI(String accessToken, String endpoint) throws IOException {
-        HttpURLConnection conn = (HttpURLConnection) new URL(endpoint).openConnection();
-        conn.setRequestMethod("GET");
-        conn.addRequestProperty("Authorization", "Bearer " + accessToken);
-        conn.addRequestProperty("Content-Type", "application/json");
-        conn.connect();
-
-        // getInputStream() works only if Http returns a code between 200 and 299
-        BufferedReader reader = new BufferedReader(new InputStreamReader(conn.getResponseCode() / 100 == 2
-                                                                                                           ? conn.getInputStream()
-                                                                                                           : conn.getErrorStream(),
-                                                                         "UTF-8"));
-
-        StringBuilder builder = new StringBuilder();
-        String line = null;
-        while ((line = reader.readLine()) != null) {
-            builder.append(line);
-        }
-        reader.close();
-        return builder.toString();
+    private JSONObject queryAzureAPI(String accessToken, String endpoint) throws IOException {
+        return azureRestClient.get(accessToken,
+                                   endpoint,
+                                   body -> new JSONObject(new JSONTokener(new InputStreamReader(body,
+                                                                                                StandardCharsets.UTF_8))));
     }
 
     // This method download the rateCard of the Azure subscription.
-    private String getRateCard(Infrastructure infrastructure) throws IOException {
+    private JSONObject getRateCard(Infrastructure infrastructure) throws IOException {
         String token = azureServiceCache.getInfrastructureToken(infrastructure);
         // Get a new rate card
         String endpoint = String.format("https://management.azure.com/subscriptions/%s/providers/Microsoft.Commerce/RateCard?api-version=%s&$filter=OfferDurableId eq '%s' and Currency eq '%s' and Locale eq '%s' and RegionInfo eq '%s'",
@@ -1199,9 +1678,8 @@ public class AzureProvider implements CloudProvider {
                                         this.CLOUD_OFFERS_LOCAL,
                                         this.CLOUD_OFFERS_REGION_INFO)
                                 .replaceAll(" ", "%20");
-        String queryResult = queryAzureAPI(token, endpoint);
-        JSONObject parsedQueryResult = new JSONObject(queryResult);
-        if (parsedQueryResult.keySet().contains("Meters")) {
+        JSONObject queryResult = queryAzureAPI(token, endpoint);
+        if (queryResult.keySet().contains("Meters")) {
             return queryResult;
         } else {
             throw new RuntimeException("Unable to parse ratecard: " + queryResult);
@@ -1209,15 +1687,14 @@ public class AzureProvider implements CloudProvider {
     }
 
     // This method download the rateCard of the Azure subscription.
-    private String getResourcePrices(Infrastructure infrastructure) throws IOException {
+    private JSONObject getResourcePrices(Infrastructure infrastructure) throws IOException {
         String token = azureServiceCache.getInfrastructureToken(infrastructure);
         // Get a new rate card
         String endpoint = String.format("https://prices.azure.com/api/retail/prices?api-version=%s",
                                         "2023-01-01-preview")
                                 .replaceAll(" ", "%20");
-        String resourcePrices = queryAzureAPI(token, endpoint);
-        JSONObject parsedResourcePrices = new JSONObject(resourcePrices);
-        if (parsedResourcePrices.keySet().contains("Items")) {
+        JSONObject resourcePrices = queryAzureAPI(token, endpoint);
+        if (resourcePrices.keySet().contains("Items")) {
             return resourcePrices;
         } else {
             throw new RuntimeException("Unable to parse resource prices: " + resourcePrices);
@@ -1225,9 +1702,12 @@ public class AzureProvider implements CloudProvider {
     }
 
     // This method parses the content of the VmRateCard answer.
-    private Map<String, AzureKnownCost> parseVmRateCard(String queryResult) {
+    Map<String, AzureKnownCost> parseVmRateCard(String queryResult) {
+        return parseVmRateCard(new JSONObject(queryResult));
+    }
+
+    private Map<String, AzureKnownCost> parseVmRateCard(JSONObject parsedQueryResult) {
         Map<String, AzureKnownCost> result = new HashMap<>();
-        JSONObject parsedQueryResult = new JSONObject(queryResult);
         Optional<JSONArray> meters = Optional.ofNullable(parsedQueryResult.optJSONArray("Meters"));
         String vmCatergory = "Virtual Machines";
         if (meters.isPresent()) {
@@ -1249,9 +1729,8 @@ public class AzureProvider implements CloudProvider {
         return result;
     }
 
-    private Map<String, String> parseResourcePrices(String queryResult) {
+    private Map<String, String> parseResourcePrices(JSONObject parsedQueryResult) {
         Map<String, String> result = new HashMap<>();
-        JSONObject parsedQueryResult = new JSONObject(queryResult);
         Optional<JSONArray> items = Optional.ofNullable(parsedQueryResult.optJSONArray("Items"));
         String serviceName = "Virtual Machines";
         if (items.isPresent()) {
@@ -1272,4 +1751,16 @@ public class AzureProvider implements CloudProvider {
     private static String unsupportedOperatingSystemError(String operatingSystem) {
         return "ERROR Operating System of type '" + operatingSystem + "' is not yet supported";
     }
+
+    @Getter
+    @AllArgsConstructor
+    protected static class ResolvedImage {
+
+        private final ResourceGroup resourceGroup;
+
+        // null when a known Linux/Windows image is used
+        private final VirtualMachineCustomImage image;
+
+        private final long resolvedAt;
+    }
 }
@@ -58,6 +58,17 @@ public class AzureProviderNetworkingUtils {
                            .withAddressSpace(cidr);
     }
 
+    public Network createScaleSetVirtualNetwork(Azure azureService, Region region, ResourceGroup resourceGroup,
+            String name, String cidr, String subnetName, String subnetCidr) {
+        return azureService.networks()
+                           .define(name)
+                           .withRegion(region)
+                           .withExistingResourceGroup(resourceGroup)
+                           .withAddressSpace(cidr)
+                           .withSubnet(subnetName, subnetCidr)
+                           .create();
+    }
+
     public Creatable<PublicIPAddress> preparePublicIPAddress(Azure azureService, Region region,
             ResourceGroup resourceGroup, String name, Boolean isStatic) {
         if (isStatic) {
@@ -26,11 +26,15 @@
 package org.ow2.proactive.connector.iaas.cloud.provider.azure;
 
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 
 import org.springframework.stereotype.Component;
 
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
 import com.microsoft.azure.management.Azure;
 import com.microsoft.azure.management.compute.VirtualMachine;
 import com.microsoft.azure.management.compute.VirtualMachineScaleSet;
@@ -43,35 +47,93 @@ import com.microsoft.azure.management.resources.ResourceGroup;
 import lombok.extern.log4j.Log4j2;
 
 
+/**
+ * Lookups of Azure resources.
+ *
+ * Virtual machines and public IP addresses are searched by their ARM resource id when it is known, which costs a
+ * single GET instead of listing the whole subscription. The resource ids are indexed when the resources are created
+ * and whenever the resources are listed; the subscription is only listed for resources not indexed yet.
+ *
+ * The resource ids are indexed per Azure client, that is per infrastructure, and dropped along with the client (see
+ * {@link AzureServiceCache}). Each index is bounded, the resources it forgets are found back by listing them.
+ */
 @Component
 @Log4j2
 public class AzureProviderUtils {
 
+    private static final int MAX_INDEXED_RESOURCES = 10000;
+
+    // Weak keys: an index is also released if its client is dropped without being closed
+    private final LoadingCache<Azure, ResourceIndex> resourceIndexes = CacheBuilder.newBuilder()
+                                                                                   .weakKeys()
+                                                                                   .build(CacheLoader.from(ResourceIndex::new));
+
+    private static class ResourceIndex {
+
+        private final Map<String, String> resourceIdPerVmId = newIndex();
+
+        private final Map<String, String> resourceIdPerVmName = newIndex();
+
+        private final Map<String, String> resourceIdPerPublicIp = newIndex();
+
+        private static Map<String, String> newIndex() {
+            return CacheBuilder.newBuilder().maximumSize(MAX_INDEXED_RESOURCES).<String, String> build().asMap();
+        }
+    }
+
+    public void indexVirtualMachine(Azure azureService, VirtualMachine vm) {
+        ResourceIndex resourceIndex = getResourceIndex(azureService);
+        resourceIndex.resourceIdPerVmId.put(vm.vmId(), vm.id());
+        resourceIndex.resourceIdPerVmName.put(vm.name(), vm.id());
+    }
+
+    public void unindexVirtualMachine(Azure azureService, VirtualMachine vm) {
+        ResourceIndex resourceIndex = getResourceIndex(azureService);
+        resourceIndex.resourceIdPerVmId.remove(vm.vmId(), vm.id());
+        resourceIndex.resourceIdPerVmName.remove(vm.name(), vm.id());
+    }
+
+    public void unindexPublicIpAddress(Azure azureService, String publicIpAddressId) {
+        getResourceIndex(azureService).resourceIdPerPublicIp.values().removeIf(publicIpAddressId::equalsIgnoreCase);
+    }
+
+    /**
+     * Drop all the resource ids indexed for the Azure client, when it is not used anymore.
+     */
+    public void dropIndex(Azure azureService) {
+        resourceIndexes.invalidate(azureService);
+    }
+
     public Optional<VirtualMachine> searchVirtualMachineByName(Azure azureService, String name) {
-        return azureService.virtualMachines()
-                           .list()
-                           .stream()
-                           .filter(availableVM -> availableVM.name().equals(name))
-                           .findAny();
+        Map<String, String> resourceIdPerVmName = getResourceIndex(azureService).resourceIdPerVmName;
+        Optional<VirtualMachine> indexedVM = getIndexedVirtualMachine(azureService, resourceIdPerVmName, name);
+        if (indexedVM.filter(vm -> vm.name().equals(name)).isPresent()) {
+            return indexedVM;
+        }
+        resourceIdPerVmName.remove(name);
+        return getAllVirtualMachines(azureService).stream()
+                                                  .filter(availableVM -> availableVM.name().equals(name))
+                                                  .findAny();
     }
 
     public Optional<VirtualMachine> searchVirtualMachineByID(Azure azureService, String id) {
-        Optional<VirtualMachine> answer = azureService.virtualMachines()
-                                                      .list()
-                                                      .stream()
-                                                      .filter(availableVM -> availableVM.vmId().equals(id))
-                                                      .findAny();
+        Map<String, String> resourceIdPerVmId = getResourceIndex(azureService).resourceIdPerVmId;
+        Optional<VirtualMachine> indexedVM = getIndexedVirtualMachine(azureService, resourceIdPerVmId, id);
+        if (indexedVM.filter(vm -> vm.vmId().equals(id)).isPresent()) {
+            return indexedVM;
+        }
+        resourceIdPerVmId.remove(id);
+
+        Set<VirtualMachine> vms = getAllVirtualMachines(azureService);
+        Optional<VirtualMachine> answer = vms.stream().filter(availableVM -> availableVM.vmId().equals(id)).findAny();
         if (!answer.isPresent()) {
             log.error("Cannot find instance with id {}", id);
             log.error("Existing instances:");
-            azureService.virtualMachines()
-                        .list()
-                        .stream()
-                        .forEach(availableVM -> log.error("name: {} computerName: {} vmId: {} powerState: {}",
-                                                          availableVM.name(),
-                                                          availableVM.computerName(),
-                                                          availableVM.vmId(),
-                                                          availableVM.powerState()));
+            vms.forEach(availableVM -> log.error("name: {} computerName: {} vmId: {} powerState: {}",
+                                                 availableVM.name(),
+                                                 availableVM.computerName(),
+                                                 availableVM.vmId(),
+                                                 availableVM.powerState()));
         }
 
         return answer;
@@ -91,21 +153,40 @@ public class AzureProviderUtils {
     }
 
     public Optional<PublicIPAddress> searchPublicIpAddressByIp(Azure azureService, String ip) {
-        return azureService.publicIPAddresses()
-                           .list()
-                           .stream()
-                           .filter(publicIpAddress -> publicIpAddress.ipAddress().equals(ip))
-                           .findAny();
+        Map<String, String> resourceIdPerPublicIp = getResourceIndex(azureService).resourceIdPerPublicIp;
+        Optional<PublicIPAddress> indexedPublicIpAddress = Optional.ofNullable(resourceIdPerPublicIp.get(ip))
+                                                                   .map(resourceId -> azureService.publicIPAddresses()
+                                                                                                  .getById(resourceId));
+        if (indexedPublicIpAddress.filter(publicIpAddress -> ip.equals(publicIpAddress.ipAddress())).isPresent()) {
+            return indexedPublicIpAddress;
+        }
+        resourceIdPerPublicIp.remove(ip);
+        Optional<PublicIPAddress> answer = Optional.empty();
+        for (PublicIPAddress publicIpAddress : azureService.publicIPAddresses().list()) {
+            if (publicIpAddress.ipAddress() != null) {
+                resourceIdPerPublicIp.put(publicIpAddress.ipAddress(), publicIpAddress.id());
+                if (publicIpAddress.ipAddress().equals(ip)) {
+                    answer = Optional.of(publicIpAddress);
+                }
+            }
+        }
+        return answer;
     }
 
     public Set<VirtualMachine> getAllVirtualMachines(Azure azureService) {
-        return new HashSet<>(azureService.virtualMachines().list());
+        Set<VirtualMachine> vms = new HashSet<>(azureService.virtualMachines().list());
+        vms.forEach(vm -> indexVirtualMachine(azureService, vm));
+        return vms;
     }
 
     public Optional<LoadBalancer> searchLoadBalancerByName(Azure azureService, String resourceGroup, String name) {
         return Optional.ofNullable(azureService.loadBalancers().getByResourceGroup(resourceGroup, name));
     }
 
+    public Set<VirtualMachineScaleSet> getAllVirtualMachineScaleSets(Azure azureService) {
+        return new HashSet<>(azureService.virtualMachineScaleSets().list());
+    }
+
     public Optional<VirtualMachineScaleSet> searchVirtualMachineScaleSetByName(Azure azureService, String resourceGroup,
             String name) {
         return Optional.ofNullable(azureService.virtualMachineScaleSets().getByResourceGroup(resourceGroup, name));
@@ -115,4 +196,13 @@ public class AzureProviderUtils {
             String name) {
         return Optional.ofNullable(azureService.publicIPAddresses().getByResourceGroup(resourceGroup, name));
     }
+
+    private Optional<VirtualMachine> getIndexedVirtualMachine(Azure azureService, Map<String, String> index,
+            String key) {
+        return Optional.ofNullable(index.get(key)).map(resourceId -> azureService.virtualMachines().getById(resourceId));
+    }
+
+    private ResourceIndex getResourceIndex(Azure azureService) {
+        return resourceIndexes.getUnchecked(azureService);
+    }
 }
@@ -0,0 +1,126 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.connector.iaas.cloud.provider.azure;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import lombok.extern.log4j.Log4j2;
+
+
+/**
+ * HTTP client shared by the raw Azure REST queries (management and pricing APIs), which are not covered by the
+ * fluent Azure client. Connections are pooled and kept alive between calls, responses are requested and decoded
+ * gzip-compressed, and bodies are handed to the caller as a stream.
+ */
+@Component
+@Log4j2
+public class AzureRestClient {
+
+    @Value("${connector-iaas.azure.rest.connect-timeout:10000}")
+    private int connectTimeout = 10000;
+
+    @Value("${connector-iaas.azure.rest.socket-timeout:120000}")
+    private int socketTimeout = 120000;
+
+    @Value("${connector-iaas.azure.rest.max-connections:20}")
+    private int maxConnections = 20;
+
+    private CloseableHttpClient httpClient;
+
+    @FunctionalInterface
+    public interface ResponseReader<T> {
+        T read(InputStream body) throws IOException;
+    }
+
+    @PostConstruct
+    public void start() {
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(maxConnections);
+        connectionManager.setDefaultMaxPerRoute(maxConnections);
+        RequestConfig requestConfig = RequestConfig.custom()
+                                                   .setConnectTimeout(connectTimeout)
+                                                   .setConnectionRequestTimeout(connectTimeout)
+                                                   .setSocketTimeout(socketTimeout)
+                                                   .build();
+        // Content compression (Accept-Encoding and decoding of gzip/deflate bodies) is enabled by default
+        httpClient = HttpClients.custom()
+                                .setConnectionManager(connectionManager)
+                                .setDefaultRequestConfig(requestConfig)
+                                .setKeepAliveStrategy(DefaultConnectionKeepAliveStrategy.INSTANCE)
+                                .evictExpiredConnections()
+                                .evictIdleConnections(60, TimeUnit.SECONDS)
+                                .build();
+    }
+
+    @PreDestroy
+    public void stop() throws IOException {
+        httpClient.close();
+    }
+
+    /**
+     * GET the given Azure endpoint and read the body of the answer as a stream.
+     *
+     * @throws RuntimeException if Azure answers with an error status
+     */
+    public <T> T get(String accessToken, String endpoint, ResponseReader<T> reader) throws IOException {
+        HttpGet request = new HttpGet(endpoint);
+        request.addHeader(HttpHeaders.AUTHORIZATION, "Bearer " + accessToken);
+        request.addHeader(HttpHeaders.ACCEPT, "application/json");
+        try (CloseableHttpResponse response = httpClient.execute(request)) {
+            int statusCode = response.getStatusLine().getStatusCode();
+            HttpEntity entity = response.getEntity();
+            if (statusCode / 100 != 2) {
+                String error = entity == null ? "" : EntityUtils.toString(entity, "UTF-8");
+                throw new RuntimeException("ERROR Azure API answered " + statusCode + " to " + endpoint + ": " +
+                                           error);
+            }
+            if (entity == null) {
+                throw new RuntimeException("ERROR Azure API answered without content to " + endpoint);
+            }
+            try (InputStream body = entity.getContent()) {
+                return reader.read(body);
+            }
+        }
+    }
+}
@@ -27,16 +27,15 @@ package org.ow2.proactive.connector.iaas.cloud.provider.azure;
 
 import java.io.IOException;
 import java.util.HashMap;
-import java.util.Map;
 import java.util.Optional;
 
 import org.ow2.proactive.connector.iaas.model.Infrastructure;
 import org.ow2.proactive.connector.iaas.model.InfrastructureCredentials;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import com.microsoft.azure.AzureEnvironment;
 import com.microsoft.azure.CloudException;
-import com.microsoft.azure.credentials.ApplicationTokenCredentials;
 import com.microsoft.azure.credentials.AzureTokenCredentials;
 import com.microsoft.azure.management.Azure;
 import com.microsoft.rest.LogLevel;
@@ -49,14 +48,9 @@ import com.microsoft.rest.LogLevel;
 @Component
 public class AzureServiceBuilder {
 
-    private Map<Infrastructure, AzureTokenCredentials> generatedTokenPerInfra = new HashMap<>();
-
-    // We store token, since they may be needed from the context of the infra (ex: pricing API)
-    public AzureTokenCredentials getTokenfromInfra(Infrastructure infra) {
-        if (!generatedTokenPerInfra.containsKey(infra))
-            throw new RuntimeException("No stored token found for infrastructure " + infra.toString());
-        return generatedTokenPerInfra.get(infra);
-    }
+    // Tokens are also needed outside of the Azure client, from the context of the infra (ex: pricing API)
+    @Autowired
+    private AzureTokenManager tokenManager;
 
     public Azure buildServiceFromInfrastructure(Infrastructure infrastructure) {
 
@@ -77,8 +71,11 @@ public class AzureServiceBuilder {
 
         AzureEnvironment environment = getAzureEnvironment(infrastructure);
 
-        AzureTokenCredentials credentials = new ApplicationTokenCredentials(clientId, domain, secret, environment);
-        generatedTokenPerInfra.put(infrastructure, credentials);
+        AzureTokenCredentials credentials = tokenManager.registerCredentials(infrastructure,
+                                                                             clientId,
+                                                                             domain,
+                                                                             secret,
+                                                                             environment);
 
         Azure azure;
         try {
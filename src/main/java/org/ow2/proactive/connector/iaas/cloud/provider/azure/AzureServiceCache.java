@@ -26,15 +26,17 @@
 package org.ow2.proactive.connector.iaas.cloud.provider.azure;
 
 import java.io.IOException;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.function.Function;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.ow2.proactive.connector.iaas.cloud.provider.ProviderClientCache;
+import org.ow2.proactive.connector.iaas.cloud.provider.ProviderClientCache.ProviderClientCacheStatistics;
 import org.ow2.proactive.connector.iaas.model.Infrastructure;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
-import com.microsoft.azure.credentials.AzureTokenCredentials;
 import com.microsoft.azure.management.Azure;
 
 
@@ -50,21 +52,48 @@ public class AzureServiceCache {
     @Autowired
     private AzureServiceBuilder serviceBuilder;
 
-    private Map<Infrastructure, Azure> serviceCache;
+    @Autowired
+    private AzureTokenManager tokenManager;
+
+    @Autowired
+    private AzureProviderUtils azureProviderUtils;
+
+    @Value("${connector-iaas.client-cache.max-size:500}")
+    private int maxSize;
 
-    private Function<Infrastructure, Azure> buildComputeService = memoise(infrastructure -> serviceBuilder.buildServiceFromInfrastructure(infrastructure));
+    @Value("${connector-iaas.client-cache.idle-timeout:1800}")
+    private long idleTimeoutSeconds;
+
+    @Value("${connector-iaas.client-cache.failure-backoff:5}")
+    private long failureBackoffSeconds;
+
+    @Value("${connector-iaas.client-cache.max-failure-backoff:300}")
+    private long maxFailureBackoffSeconds;
+
+    // The Azure client holds no connection of its own, only the resource ids indexed for it are dropped on eviction
+    private final ProviderClientCache<Azure> serviceCache = new ProviderClientCache<>("azure",
+                                                                                      infrastructure -> serviceBuilder.buildServiceFromInfrastructure(infrastructure),
+                                                                                      azure -> azureProviderUtils.dropIndex(azure));
+
+    @PostConstruct
+    public void configureCache() {
+        serviceCache.configure(maxSize, idleTimeoutSeconds, failureBackoffSeconds, maxFailureBackoffSeconds);
+    }
 
-    public AzureServiceCache() {
-        serviceCache = new ConcurrentHashMap<>();
+    @PreDestroy
+    public void closeAll() {
+        serviceCache.clear();
     }
 
     public Azure getService(Infrastructure infrastructure) {
-        return buildComputeService.apply(infrastructure);
+        return serviceCache.get(infrastructure);
     }
 
     public String getInfrastructureToken(Infrastructure infra) {
+        // Building the service registers the credentials of the infrastructure, if not done yet
+        getService(infra);
         try {
-            return serviceBuilder.getTokenfromInfra(infra).getToken(MANAGEMENT_URL);
+            return tokenManager.getToken(infra, MANAGEMENT_URL);
         } catch (IOException e) {
             throw new RuntimeException("Unable to determine token for infrastructure " + infra);
         }
@@ -72,9 +101,10 @@ public class AzureServiceCache {
 
     public void removeService(Infrastructure infrastructure) {
         serviceCache.remove(infrastructure);
+        tokenManager.removeCredentials(infrastructure);
     }
 
-    private Function<Infrastructure, Azure> memoise(Function<Infrastructure, Azure> fn) {
-        return (a) -> serviceCache.computeIfAbsent(a, fn);
+    public ProviderClientCacheStatistics getStatistics() {
+        return serviceCache.getStatistics();
     }
 }
@@ -0,0 +1,231 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.connector.iaas.cloud.provider.azure;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PreDestroy;
+
+import org.json.JSONObject;
+import org.ow2.proactive.connector.iaas.model.Infrastructure;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.microsoft.azure.AzureEnvironment;
+import com.microsoft.azure.credentials.ApplicationTokenCredentials;
+import com.microsoft.azure.credentials.AzureTokenCredentials;
+
+import lombok.EqualsAndHashCode;
+import lombok.extern.log4j.Log4j2;
+
+
+/**
+ * Bearer tokens of the Azure infrastructures, cached per (infrastructure, resource).
+ *
+ * A token is fetched on its first use, then refreshed in background before it expires as long as it keeps being
+ * used, so that neither the fluent Azure client nor the raw REST queries (pricing) wait for Azure AD on the request
+ * path. The storage is concurrent: tokens are read and refreshed from any thread.
+ */
+@Component
+@Log4j2
+public class AzureTokenManager {
+
+    // Used when the expiration cannot be read from the token
+    private static final long DEFAULT_TOKEN_LIFETIME_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    // A token is not handed out when it expires in less than this delay
+    private static final long EXPIRATION_SKEW_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    @Value("${connector-iaas.azure.token.refresh-margin:300}")
+    private long refreshMarginSeconds = 300;
+
+    private final Map<Infrastructure, TokenFetcher> fetcherPerInfrastructure = new ConcurrentHashMap<>();
+
+    private final Map<TokenKey, CachedToken> tokens = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService refreshScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("azure-token-refresh-%d")
+                                                                                                                                  .setDaemon(true)
+                                                                                                                                  .build());
+
+    /**
+     * Register the credentials of an infrastructure, and return credentials for the fluent Azure client which take
+     * their tokens from this manager.
+     */
+    public AzureTokenCredentials registerCredentials(Infrastructure infrastructure, String clientId, String domain,
+            String secret, AzureEnvironment environment) {
+        // A new ApplicationTokenCredentials is used for each fetch: it caches its tokens until they expire, which
+        // would prevent any early refresh
+        registerTokenFetcher(infrastructure,
+                             resource -> new ApplicationTokenCredentials(clientId,
+                                                                         domain,
+                                                                         secret,
+                                                                         environment).getToken(resource));
+        return new ManagedTokenCredentials(infrastructure, domain, environment);
+    }
+
+    void registerTokenFetcher(Infrastructure infrastructure, TokenFetcher fetcher) {
+        fetcherPerInfrastructure.put(infrastructure, fetcher);
+        removeTokens(infrastructure);
+    }
+
+    public String getToken(Infrastructure infrastructure, String resource) throws IOException {
+        TokenKey key = new TokenKey(infrastructure, resource);
+        CachedToken cachedToken = tokens.get(key);
+        if (cachedToken != null && cachedToken.isValid(System.currentTimeMillis())) {
+            cachedToken.used = true;
+            return cachedToken.token;
+        }
+        return fetch(key).token;
+    }
+
+    public void removeCredentials(Infrastructure infrastructure) {
+        fetcherPerInfrastructure.remove(infrastructure);
+        removeTokens(infrastructure);
+    }
+
+    @PreDestroy
+    public void stopRefresh() {
+        refreshScheduler.shutdownNow();
+    }
+
+    private CachedToken fetch(TokenKey key) throws IOException {
+        TokenFetcher fetcher = fetcherPerInfrastructure.get(key.infrastructure);
+        if (fetcher == null) {
+            throw new RuntimeException("No stored token found for infrastructure " + key.infrastructure);
+        }
+        String token = fetcher.fetch(key.resource);
+        long now = System.currentTimeMillis();
+        CachedToken cachedToken = new CachedToken(token, getExpiration(token, now));
+        tokens.put(key, cachedToken);
+        scheduleRefresh(key, cachedToken, now);
+        return cachedToken;
+    }
+
+    private void scheduleRefresh(TokenKey key, CachedToken cachedToken, long now) {
+        long lifetime = Math.max(cachedToken.expiresAt - now, 0);
+        long refreshMargin = TimeUnit.SECONDS.toMillis(refreshMarginSeconds);
+        // tokens living less than the margin are refreshed at half of their lifetime
+        long delay = lifetime > refreshMargin ? lifetime - refreshMargin : lifetime / 2;
+        refreshScheduler.schedule(() -> refresh(key, cachedToken), delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void refresh(TokenKey key, CachedToken cachedToken) {
+        if (tokens.get(key) != cachedToken) {
+            // the token was replaced or removed meanwhile
+            return;
+        }
+        if (!cachedToken.used) {
+            // stop refreshing tokens which are no longer used, the next call fetches a new one
+            tokens.remove(key, cachedToken);
+            return;
+        }
+        try {
+            fetch(key);
+        } catch (IOException | RuntimeException e) {
+            log.warn("Unable to refresh the token of infrastructure " + key.infrastructure.getId() + " for " +
+                     key.resource + ", it will be fetched again on its next use", e);
+        }
+    }
+
+    private void removeTokens(Infrastructure infrastructure) {
+        tokens.keySet().removeIf(key -> key.infrastructure.equals(infrastructure));
+    }
+
+    /**
+     * Read the expiration (exp claim, in seconds) from the payload of the JWT access token.
+     */
+    static long getExpiration(String token, long now) {
+        try {
+            String payload = new String(Base64.getUrlDecoder().decode(token.split("\\.")[1]), StandardCharsets.UTF_8);
+            return TimeUnit.SECONDS.toMillis(new JSONObject(payload).getLong("exp"));
+        } catch (RuntimeException e) {
+            log.debug("Unable to read the expiration of an Azure token, assuming the default lifetime", e);
+            return now + DEFAULT_TOKEN_LIFETIME_MILLIS;
+        }
+    }
+
+    @FunctionalInterface
+    interface TokenFetcher {
+        String fetch(String resource) throws IOException;
+    }
+
+    @EqualsAndHashCode
+    private static class TokenKey {
+
+        private final Infrastructure infrastructure;
+
+        private final String resource;
+
+        private TokenKey(Infrastructure infrastructure, String resource) {
+            this.infrastructure = infrastructure;
+            this.resource = resource;
+        }
+    }
+
+    private static class CachedToken {
+
+        private final String token;
+
+        private final long expiresAt;
+
+        private volatile boolean used;
+
+        private CachedToken(String token, long expiresAt) {
+            this.token = token;
+            this.expiresAt = expiresAt;
+        }
+
+        private boolean isValid(long now) {
+            return now < expiresAt - EXPIRATION_SKEW_MILLIS;
+        }
+    }
+
+    /**
+     * Credentials given to the fluent Azure client, delegating to the cached tokens.
+     */
+    private class ManagedTokenCredentials extends AzureTokenCredentials {
+
+        private final Infrastructure infrastructure;
+
+        private ManagedTokenCredentials(Infrastructure infrastructure, String domain, AzureEnvironment environment) {
+            super(environment, domain);
+            this.infrastructure = infrastructure;
+        }
+
+        @Override
+        public String getToken(String resource) throws IOException {
+            return AzureTokenManager.this.getToken(infrastructure, resource);
+        }
+    }
+}
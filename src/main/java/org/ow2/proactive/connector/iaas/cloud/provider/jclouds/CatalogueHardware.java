@@ -0,0 +1,82 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.connector.iaas.cloud.provider.jclouds;
+
+import static org.ow2.proactive.connector.iaas.cloud.provider.CatalogueInterner.intern;
+
+import org.ow2.proactive.connector.iaas.model.Hardware;
+
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+
+
+/**
+ * Compact form of a hardware profile kept in the catalogue cache: numeric specifications, shared by the profiles
+ * having the same ones, instead of the strings of the REST model. It is converted to {@link Hardware} only when
+ * returned.
+ */
+@EqualsAndHashCode
+@Getter
+@AllArgsConstructor
+@ToString
+class CatalogueHardware {
+
+    private final String type;
+
+    private final Specification specification;
+
+    @EqualsAndHashCode
+    @Getter
+    @AllArgsConstructor
+    @ToString
+    static class Specification {
+
+        private final int ramMB;
+
+        private final double cores;
+
+        // Sum of the processor speeds, in MHz
+        private final double frequency;
+    }
+
+    static CatalogueHardware of(String type, int ramMB, double cores, double frequency) {
+        return new CatalogueHardware(type, intern(new Specification(ramMB, cores, frequency)));
+    }
+
+    /**
+     * @return the REST model of the hardware, with the same string values as jclouds gives
+     */
+    Hardware toHardware() {
+        return Hardware.builder()
+                       .type(type)
+                       .minRam(String.valueOf(specification.getRamMB()))
+                       .minCores(String.valueOf(specification.getCores()))
+                       .minFreq(String.valueOf(specification.getFrequency()))
+                       .build();
+    }
+}
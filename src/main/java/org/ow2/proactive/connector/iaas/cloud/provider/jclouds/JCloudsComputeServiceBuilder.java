@@ -37,6 +37,7 @@ import org.jclouds.aws.ec2.reference.AWSEC2Constants;
 import org.jclouds.compute.ComputeService;
 import org.jclouds.compute.ComputeServiceContext;
 import org.jclouds.compute.config.ComputeServiceProperties;
+import org.jclouds.location.reference.LocationConstants;
 import org.jclouds.sshj.config.SshjSshClientModule;
 import org.ow2.proactive.connector.iaas.cloud.provider.jclouds.openstack.OpenstackUtil;
 import org.ow2.proactive.connector.iaas.model.Infrastructure;
@@ -121,6 +122,10 @@ public class JCloudsComputeServiceBuilder {
         return infrastructurePropertiesMap.computeIfAbsent(infrastructure, this::loadDefinedProperties);
     }
 
+    public void removeDefinedProperties(Infrastructure infrastructure) {
+        infrastructurePropertiesMap.remove(infrastructure);
+    }
+
     /**
      * Sets the timeouts for the deployment.
      * 
@@ -152,6 +157,11 @@ public class JCloudsComputeServiceBuilder {
                                    "state=available;image-type=machine;hypervisor=xen;virtualization-type=hvm;tag:proactive-list-label=" +
                                                                            awsImagesListTag);
             properties.setProperty(AWSEC2Constants.PROPERTY_EC2_CC_AMI_QUERY, "");
+            // restrict the listing of nodes, images and hardware profiles to the regions of the infrastructure
+            if (StringUtils.isNotBlank(infrastructure.getRegion())) {
+                properties.setProperty(LocationConstants.PROPERTY_REGIONS,
+                                       StringUtils.deleteWhitespace(infrastructure.getRegion()));
+            }
         }
 
         log.info("Infrastructure properties: " + properties.toString());
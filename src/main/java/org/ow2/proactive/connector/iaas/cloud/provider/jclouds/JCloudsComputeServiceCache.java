@@ -25,13 +25,15 @@
  */
 package org.ow2.proactive.connector.iaas.cloud.provider.jclouds;
 
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.function.Function;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 
 import org.jclouds.compute.ComputeService;
+import org.ow2.proactive.connector.iaas.cloud.provider.ProviderClientCache;
+import org.ow2.proactive.connector.iaas.cloud.provider.ProviderClientCache.ProviderClientCacheStatistics;
 import org.ow2.proactive.connector.iaas.model.Infrastructure;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 
@@ -41,26 +43,55 @@ public class JCloudsComputeServiceCache {
     @Autowired
     private JCloudsComputeServiceBuilder computeServiceBuilder;
 
-    private Map<Infrastructure, ComputeService> computeServiceCache;
+    @Value("${connector-iaas.client-cache.max-size:500}")
+    private int maxSize;
 
-    public JCloudsComputeServiceCache() {
-        computeServiceCache = new ConcurrentHashMap<Infrastructure, ComputeService>();
+    @Value("${connector-iaas.client-cache.idle-timeout:1800}")
+    private long idleTimeoutSeconds;
+
+    @Value("${connector-iaas.client-cache.failure-backoff:5}")
+    private long failureBackoffSeconds;
+
+    @Value("${connector-iaas.client-cache.max-failure-backoff:300}")
+    private long maxFailureBackoffSeconds;
+
+    private final ProviderClientCache<ComputeService> computeServiceCache = new ProviderClientCache<>("jclouds",
+                                                                                                      infrastructure -> computeServiceBuilder.buildComputeServiceFromInfrastructure(infrastructure),
+                                                                                                      computeService -> computeService.getContext()
+                                                                                                                                      .close());
+
+    @PostConstruct
+    public void configureCache() {
+        computeServiceCache.configure(maxSize, idleTimeoutSeconds, failureBackoffSeconds, maxFailureBackoffSeconds);
+    }
+
+    @PreDestroy
+    public void closeAll() {
+        computeServiceCache.clear();
     }
 
     public ComputeService getComputeService(Infrastructure infrastructure) {
-        return buildComputeService.apply(infrastructure);
+        return computeServiceCache.get(infrastructure);
     }
 
+    /**
+     * Remove the compute service of a deleted infrastructure, closing its context (injector, thread pools and HTTP
+     * connections).
+     */
     public void removeComputeService(Infrastructure infrastructure) {
         computeServiceCache.remove(infrastructure);
+        computeServiceBuilder.removeDefinedProperties(infrastructure);
     }
 
-    private Function<Infrastructure, ComputeService> buildComputeService = memoise(infrastructure -> {
-        return computeServiceBuilder.buildComputeServiceFromInfrastructure(infrastructure);
-    });
+    /**
+     * @return the number of ComputeServiceContexts built and not closed yet
+     */
+    public int getLiveContexts() {
+        return computeServiceCache.getStatistics().getLiveClients();
+    }
 
-    private Function<Infrastructure, ComputeService> memoise(Function<Infrastructure, ComputeService> fn) {
-        return (a) -> computeServiceCache.computeIfAbsent(a, fn);
+    public ProviderClientCacheStatistics getStatistics() {
+        return computeServiceCache.getStatistics();
     }
 
 }
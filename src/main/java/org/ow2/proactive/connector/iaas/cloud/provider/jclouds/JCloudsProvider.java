@@ -27,6 +27,7 @@ package org.ow2.proactive.connector.iaas.cloud.provider.jclouds;
 
 import static org.jclouds.compute.predicates.NodePredicates.runningInGroup;
 import static org.jclouds.scriptbuilder.domain.Statements.exec;
+import static org.ow2.proactive.connector.iaas.cloud.provider.CatalogueInterner.intern;
 
 import java.io.File;
 import java.io.IOException;
@@ -35,6 +36,7 @@ import java.security.NoSuchAlgorithmException;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import org.jclouds.compute.ComputeService;
@@ -47,7 +49,9 @@ import org.jclouds.scriptbuilder.domain.OsFamily;
 import org.json.JSONArray;
 import org.json.JSONObject;
 import org.ow2.proactive.connector.iaas.cloud.TagManager;
+import org.ow2.proactive.connector.iaas.cloud.provider.CatalogueCache;
 import org.ow2.proactive.connector.iaas.cloud.provider.CloudProvider;
+import org.ow2.proactive.connector.iaas.cloud.provider.ImageIndex;
 import org.ow2.proactive.connector.iaas.cloud.provider.jclouds.openstack.OpenstackUtil;
 import org.ow2.proactive.connector.iaas.model.*;
 import org.ow2.proactive.connector.iaas.model.Hardware;
@@ -57,6 +61,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import com.google.common.collect.ImmutableSetMultimap;
 import com.google.common.collect.Lists;
 
 import lombok.Getter;
@@ -68,12 +73,17 @@ import lombok.extern.log4j.Log4j2;
 @Log4j2
 public abstract class JCloudsProvider implements CloudProvider {
 
+    private static final String HARDWARES_BY_LOCATION_CATALOGUE = "hardwares-by-location";
+
     @Autowired
     private JCloudsComputeServiceCache jCloudsComputeServiceCache;
 
     @Autowired
     private TagManager tagManager;
 
+    @Autowired
+    private CatalogueCache catalogueCache;
+
     /**
      * By default, the login that will be used to connect to the instances
      * and launch the script will be 'admin'. This default can be overriden
@@ -123,23 +133,28 @@ public abstract class JCloudsProvider implements CloudProvider {
 
     @Override
     public Set<Instance> getCreatedInfrastructureInstances(Infrastructure infrastructure) {
+        return createInstancesFromNodes(listCreatedNodes(infrastructure));
+    }
+
+    /**
+     * List the nodes created by the connector for the infrastructure. By default, the nodes are matched on their tags
+     * client side: the jclouds strategies of Openstack and GCE still retrieve the details of every node, their list
+     * APIs being unable to filter on the metadata holding the tags. Providers able to filter the nodes on their tags
+     * server side (AWS) override it.
+     */
+    protected Set<? extends ComputeMetadata> listCreatedNodes(Infrastructure infrastructure) {
         Tag connectorIaasTag = tagManager.getConnectorIaasTag();
         Tag infrastructureIdTag = tagManager.getInfrastructureIdTag();
-        return createInstancesFromNodes(getAllNodes(infrastructure).stream()
-                                                                   .filter(node -> node.getUserMetadata()
-                                                                                       .containsKey(connectorIaasTag.getKey()) &&
-                                                                                   node.getUserMetadata()
-                                                                                       .get(connectorIaasTag.getKey())
-                                                                                       .equals(connectorIaasTag.getValue()) &&
-                                                                                   node.getUserMetadata()
-                                                                                       .containsKey(infrastructureIdTag.getKey()) &&
-                                                                                   node.getUserMetadata()
-                                                                                       .get(infrastructureIdTag.getKey())
-                                                                                       .equals(infrastructure.getId()))
-                                                                   .collect(Collectors.toSet()));
+        return getComputeServiceFromInfrastructure(infrastructure).listNodesDetailsMatching(node -> node.getUserMetadata() != null &&
+                                                                                                    connectorIaasTag.getValue()
+                                                                                                                    .equals(node.getUserMetadata()
+                                                                                                                                .get(connectorIaasTag.getKey())) &&
+                                                                                                    infrastructure.getId()
+                                                                                                                  .equals(node.getUserMetadata()
+                                                                                                                              .get(infrastructureIdTag.getKey())));
     }
 
-    private Set<? extends ComputeMetadata> getAllNodes(Infrastructure infrastructure) {
+    protected Set<? extends ComputeMetadata> getAllNodes(Infrastructure infrastructure) {
         return getComputeServiceFromInfrastructure(infrastructure).listNodes();
     }
 
@@ -192,19 +207,35 @@ public abstract class JCloudsProvider implements CloudProvider {
 
     @Override
     public Set<Image> getAllImages(Infrastructure infrastructure) {
+        return getImageIndex(infrastructure).getImages();
+    }
+
+    /**
+     * @return the images of the infrastructure catalogue, indexed by name once per refresh of the catalogue
+     */
+    protected ImageIndex getImageIndex(Infrastructure infrastructure) {
+        return catalogueCache.get(infrastructure,
+                                  CatalogueCache.IMAGES,
+                                  () -> new ImageIndex(loadAllImages(infrastructure)));
+    }
+
+    /**
+     * Retrieve the images of the infrastructure, once per refresh of its catalogue.
+     */
+    protected Set<Image> loadAllImages(Infrastructure infrastructure) {
         Set<? extends org.jclouds.compute.domain.Image> images = getComputeServiceFromInfrastructure(infrastructure).listImages();
         log.info(String.format("Found %d images", images.stream().count()));
         return images.stream()
                      .map(it -> Image.builder()
                                      .id(it.getId())
                                      .name(it.getName())
-                                     .location(it.getLocation().getId())
+                                     .location(intern(it.getLocation().getId()))
                                      .operatingSystem(OperatingSystem.builder()
-                                                                     .arch(it.getOperatingSystem().getArch())
+                                                                     .arch(intern(it.getOperatingSystem().getArch()))
                                                                      .description(it.getOperatingSystem()
                                                                                     .getDescription())
-                                                                     .family(getOperatingSystemFamily(it,
-                                                                                                      infrastructure.getType()))
+                                                                     .family(intern(getOperatingSystemFamily(it,
+                                                                                                             infrastructure.getType())))
                                                                      .is64Bit(it.getOperatingSystem().is64Bit())
                                                                      .build())
                                      .build())
@@ -221,34 +252,49 @@ public abstract class JCloudsProvider implements CloudProvider {
     }
 
     public Set<Hardware> getHardware(Infrastructure infrastructure, Optional<String> region) {
-        return getComputeServiceFromInfrastructure(infrastructure).listHardwareProfiles()
-                                                                  .parallelStream()
-                                                                  .filter(hw -> !region.isPresent() ||
-                                                                                hw.getLocation()
-                                                                                  .getId()
-                                                                                  .contains(region.get()))
-                                                                  .map(hw -> Hardware.builder()
-                                                                                     .minCores("" + hw.getProcessors()
-                                                                                                      .stream()
-                                                                                                      .mapToDouble(Processor::getCores)
-                                                                                                      .sum())
-                                                                                     .minRam("" + hw.getRam())
-                                                                                     .type(hw.getId())
-                                                                                     .minFreq("" + hw.getProcessors()
-                                                                                                     .stream()
-                                                                                                     .mapToDouble(Processor::getSpeed)
-                                                                                                     .sum() *
-                                                                                                   1024)
-                                                                                     .build())
-                                                                  .collect(Collectors.toSet());
+        return getCatalogueHardware(infrastructure, region).stream()
+                                                           .map(CatalogueHardware::toHardware)
+                                                           .collect(Collectors.toSet());
+    }
+
+    private Set<CatalogueHardware> getCatalogueHardware(Infrastructure infrastructure, Optional<String> region) {
+        ImmutableSetMultimap<String, CatalogueHardware> hardwaresByLocation = catalogueCache.get(infrastructure,
+                                                                                                 HARDWARES_BY_LOCATION_CATALOGUE,
+                                                                                                 () -> loadHardwaresByLocation(infrastructure));
+        return hardwaresByLocation.keySet()
+                                  .stream()
+                                  .filter(location -> !region.isPresent() || location.contains(region.get()))
+                                  .flatMap(location -> hardwaresByLocation.get(location).stream())
+                                  .collect(Collectors.toSet());
+    }
+
+    /**
+     * Convert the hardware profiles of the infrastructure once per refresh of its catalogue, keeping their location
+     * to filter them by region. The profiles with the same specification share it.
+     */
+    private ImmutableSetMultimap<String, CatalogueHardware> loadHardwaresByLocation(Infrastructure infrastructure) {
+        ImmutableSetMultimap.Builder<String, CatalogueHardware> hardwaresByLocation = ImmutableSetMultimap.builder();
+        for (org.jclouds.compute.domain.Hardware hw : getComputeServiceFromInfrastructure(infrastructure).listHardwareProfiles()) {
+            double cores = hw.getProcessors().stream().mapToDouble(Processor::getCores).sum();
+            double frequency = hw.getProcessors().stream().mapToDouble(Processor::getSpeed).sum() * 1024;
+            hardwaresByLocation.put(hw.getLocation() != null ? intern(hw.getLocation().getId()) : "",
+                                    CatalogueHardware.of(hw.getId(), hw.getRam(), cores, frequency));
+        }
+        return hardwaresByLocation.build();
     }
 
     @Override
     public void deleteInfrastructure(Infrastructure infrastructure) {
         jCloudsComputeServiceCache.removeComputeService(infrastructure);
+        catalogueCache.invalidate(infrastructure.getId());
         log.info("Infrastructure deleted successfully: " + infrastructure.getId());
     }
 
+    @Override
+    public void warmUp(Infrastructure infrastructure) {
+        getComputeServiceFromInfrastructure(infrastructure);
+    }
+
     protected final Instance createInstanceFromNode(NodeMetadataImpl nodeMetadataImpl) {
         return Instance.builder()
                        .id(nodeMetadataImpl.getId())
@@ -333,25 +379,22 @@ public abstract class JCloudsProvider implements CloudProvider {
                                                                             infra.getAuthenticationEndpoint()).getBytes()));
             File pricingFile = new File(this.pricingRepo + File.pathSeparator + fileTag + ".json");
 
-            // Retrieve all images + filter by region and imageReq
-            String imageReqLowerCase = imageReq.toLowerCase();
-            Set<Image> resultImages = this.getAllImages(infra)
-                                          .parallelStream()
-                                          .filter(image -> image.getLocation().isEmpty() ||
-                                                           image.getLocation().equals(region))
-                                          .filter(img -> img.getName().toLowerCase().contains(imageReqLowerCase))
-                                          .collect(Collectors.toSet());
-
-            // Only keep a hw per "minRam-minCores-MinFreq"
-            Set<Hardware> resultHardware = this.getRegionSpecificHardware(infra, region)
-                                               .parallelStream()
-                                               .collect(Collectors.groupingBy(it -> it.getMinRam() + "-" +
-                                                                                    it.getMinCores() + "-" +
-                                                                                    it.getMinFreq()))
-                                               .values()
-                                               .parallelStream()
-                                               .map(a -> a.get(0))
-                                               .collect(Collectors.toSet());
+            // Retrieve the images matching imageReq from the index + filter by region
+            Set<Image> resultImages = getImageIndex(infra).searchByName(imageReq)
+                                                          .stream()
+                                                          .filter(image -> image.getLocation().isEmpty() ||
+                                                                           image.getLocation().equals(region))
+                                                          .collect(Collectors.toSet());
+
+            // Only keep a hw per "minRam-minCores-MinFreq", compared on their numeric specification
+            Set<Hardware> resultHardware = getCatalogueHardware(infra, Optional.of(region)).stream()
+                                                                                           .collect(Collectors.toMap(CatalogueHardware::getSpecification,
+                                                                                                                     Function.identity(),
+                                                                                                                     (first, second) -> first))
+                                                                                           .values()
+                                                                                           .stream()
+                                                                                           .map(CatalogueHardware::toHardware)
+                                                                                           .collect(Collectors.toSet());
             if (pricingFile.exists()) {
                 // If the file exist, we are in the case of a paid cloud
                 return PagedNodeCandidates.builder()
@@ -380,7 +423,7 @@ public abstract class JCloudsProvider implements CloudProvider {
         }
     }
 
-    private Set<NodeCandidate> getFreeNodeCandidate(Infrastructure infra, String region, Set<Image> resultImages,
+    Set<NodeCandidate> getFreeNodeCandidate(Infrastructure infra, String region, Set<Image> resultImages,
             Set<Hardware> resultHardware) {
         return resultHardware.parallelStream()
                              .map(hw -> resultImages.parallelStream()
@@ -399,7 +442,7 @@ public abstract class JCloudsProvider implements CloudProvider {
                              .orElse(new HashSet<>());
     }
 
-    private Set<NodeCandidate> getPaidNodeCandidate(Infrastructure infra, String region, String imageReq,
+    Set<NodeCandidate> getPaidNodeCandidate(Infrastructure infra, String region, String imageReq,
             File pricingFile, Set<Image> resultImages, Set<Hardware> resultHardware) throws IOException {
         // The structure of the JSON file is an array of JSON containing (i) hardwareId, (ii) imageId and (iii) cost. Each file is specific to a cloud and a region.
         final String HARDWARE_ID = "hardwareId";
@@ -25,8 +25,15 @@
  */
 package org.ow2.proactive.connector.iaas.cloud.provider.jclouds.aws;
 
+import static org.ow2.proactive.connector.iaas.cloud.provider.CatalogueInterner.intern;
+
 import java.util.*;
 import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -39,6 +46,7 @@ import org.jclouds.aws.ec2.options.CreateSecurityGroupOptions;
 import org.jclouds.aws.ec2.options.RequestSpotInstancesOptions;
 import org.jclouds.compute.ComputeService;
 import org.jclouds.compute.config.ComputeServiceProperties;
+import org.jclouds.compute.domain.ComputeMetadata;
 import org.jclouds.compute.domain.NodeMetadata;
 import org.jclouds.compute.domain.Template;
 import org.jclouds.compute.domain.TemplateBuilder;
@@ -48,9 +56,12 @@ import org.jclouds.domain.Location;
 import org.jclouds.ec2.EC2Api;
 import org.jclouds.ec2.domain.KeyPair;
 import org.jclouds.ec2.domain.PublicIpInstanceIdPair;
+import org.jclouds.ec2.domain.Reservation;
+import org.jclouds.ec2.domain.RunningInstance;
 import org.jclouds.ec2.domain.SecurityGroup;
 import org.jclouds.ec2.domain.Subnet;
 import org.jclouds.ec2.features.ElasticIPAddressApi;
+import org.jclouds.ec2.features.InstanceApi;
 import org.jclouds.ec2.features.KeyPairApi;
 import org.jclouds.ec2.features.SecurityGroupApi;
 import org.jclouds.net.domain.IpPermission;
@@ -61,13 +72,18 @@ import org.ow2.proactive.connector.iaas.cloud.provider.jclouds.JCloudsComputeSer
 import org.ow2.proactive.connector.iaas.cloud.provider.jclouds.JCloudsProvider;
 import org.ow2.proactive.connector.iaas.model.*;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import com.google.common.base.Strings;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableMultimap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Multimap;
 import com.google.common.collect.Sets;
 
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
 import lombok.Getter;
 import lombok.extern.log4j.Log4j2;
 import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
@@ -88,6 +104,9 @@ public class AWSEC2JCloudsProvider extends JCloudsProvider {
 
     private static final String CIDR_ALL = "0.0.0.0/0";
 
+    // Prefix of the DescribeInstances filters on the instance tags
+    private static final String TAG_FILTER_PREFIX = "tag:";
+
     private static Map<String, String> awsPricingRegionName = null;
 
     /**
@@ -98,8 +117,8 @@ public class AWSEC2JCloudsProvider extends JCloudsProvider {
      */
     private Map<String, SimpleImmutableEntry<String, String>> generatedKeyPairsPerAwsRegion = new HashMap<>();
 
-    // Store the auto-generated security groups for each infrastructure, so that they can be removed when deleting the infrastructure.
-    public Map<String, Map<String, String>> autoGeneratedSecurityGroups = new HashMap<>();
+    // Store the auto-generated security groups for each infrastructure, with the region they were created in, so that they can be removed when deleting the infrastructure.
+    public Map<String, Set<AutoGeneratedSecurityGroup>> autoGeneratedSecurityGroups = new ConcurrentHashMap<>();
 
     @Autowired
     private TagManager tagManager;
@@ -107,6 +126,9 @@ public class AWSEC2JCloudsProvider extends JCloudsProvider {
     @Autowired
     private JCloudsComputeServiceBuilder computeServiceBuilder;
 
+    @Value("${connector-iaas.aws.regions.max-parallel:8}")
+    private int maxParallelRegions;
+
     @Override
     public Set<Instance> createInstance(Infrastructure infrastructure, Instance instance) {
 
@@ -260,8 +282,8 @@ public class AWSEC2JCloudsProvider extends JCloudsProvider {
             // Have we defined an explicit list of ports to be opened ?
             int[] ports = options.getPortsToOpen();
             String securityGroupName = getAutoGeneratedSecurityGroupName(infrastructure.getId());
-            Map<String, String> infraSg = autoGeneratedSecurityGroups.getOrDefault(infrastructure.getId(),
-                                                                                   new HashMap<>());
+            Set<AutoGeneratedSecurityGroup> infraSg = autoGeneratedSecurityGroups.computeIfAbsent(infrastructure.getId(),
+                                                                                                  id -> ConcurrentHashMap.newKeySet());
             if (ports != null) {
                 securityGroupName += "-" + UUID.randomUUID();
                 String sgDescription = "Auto generated security group to authorize the ports " + Arrays.toString(ports);
@@ -288,11 +310,11 @@ public class AWSEC2JCloudsProvider extends JCloudsProvider {
                 Arrays.stream(ports)
                       .forEach(port -> allowPortInSecurityGroup(port, securityGroupId, region, awsSecurityGroupApi));
                 template.getOptions().as(AWSEC2TemplateOptions.class).securityGroupIds(securityGroupId);
-                infraSg.put(securityGroupName, securityGroupId);
+                infraSg.add(new AutoGeneratedSecurityGroup(region, securityGroupName, securityGroupId));
             } else {
-                infraSg.put(securityGroupName, null);
+                // created by jclouds in the region of the instance, its id is looked up on deletion
+                infraSg.add(new AutoGeneratedSecurityGroup(region, securityGroupName, null));
             }
-            autoGeneratedSecurityGroups.put(infrastructure.getId(), infraSg);
         }
 
         Optional.ofNullable(options.getSubnetId())
@@ -343,6 +365,89 @@ public class AWSEC2JCloudsProvider extends JCloudsProvider {
                 .userMetadata(tags.stream().collect(Collectors.toMap(Tag::getKey, Tag::getValue)));
     }
 
+    /**
+     * List the nodes of all the regions of the infrastructure, the regions being queried concurrently.
+     */
+    @Override
+    protected Set<? extends ComputeMetadata> getAllNodes(Infrastructure infrastructure) {
+        return listNodesInRegions(infrastructure, ImmutableMultimap.of());
+    }
+
+    /**
+     * List the created nodes through DescribeInstances filtered on their tags, then retrieve the details of the
+     * matching nodes only.
+     */
+    @Override
+    protected Set<? extends ComputeMetadata> listCreatedNodes(Infrastructure infrastructure) {
+        Tag connectorIaasTag = tagManager.getConnectorIaasTag();
+        Tag infrastructureIdTag = tagManager.getInfrastructureIdTag();
+        return listNodesInRegions(infrastructure,
+                                  ImmutableMultimap.of(TAG_FILTER_PREFIX + connectorIaasTag.getKey(),
+                                                       connectorIaasTag.getValue(),
+                                                       TAG_FILTER_PREFIX + infrastructureIdTag.getKey(),
+                                                       infrastructure.getId()));
+    }
+
+    /**
+     * List the nodes matching the DescribeInstances filters in each region configured for the infrastructure
+     * (jclouds.regions), querying the regions concurrently and merging their nodes.
+     */
+    private Set<? extends ComputeMetadata> listNodesInRegions(Infrastructure infrastructure,
+            Multimap<String, String> filters) {
+        ComputeService computeService = getComputeServiceFromInfrastructure(infrastructure);
+        EC2Api ec2Api = computeService.getContext().unwrapApi(EC2Api.class);
+        if (!ec2Api.getInstanceApi().isPresent()) {
+            throw new UnsupportedOperationException("Cannot retrieve AWS instance API, which enables instance listing");
+        }
+        InstanceApi instanceApi = ec2Api.getInstanceApi().get();
+        Set<String> regions = ec2Api.getConfiguredRegions();
+        if (regions.isEmpty()) {
+            return Collections.emptySet();
+        }
+
+        ExecutorService regionExecutor = Executors.newFixedThreadPool(Math.min(maxParallelRegions, regions.size()));
+        try {
+            List<Future<Set<NodeMetadata>>> regionNodes = regions.stream()
+                                                                 .map(region -> regionExecutor.submit(() -> listNodesInRegion(computeService,
+                                                                                                                              instanceApi,
+                                                                                                                              region,
+                                                                                                                              filters)))
+                                                                 .collect(Collectors.toList());
+            Set<NodeMetadata> nodes = new HashSet<>();
+            for (Future<Set<NodeMetadata>> nodesOfRegion : regionNodes) {
+                nodes.addAll(nodesOfRegion.get());
+            }
+            return nodes;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("ERROR interrupted while listing the instances of infrastructure: " +
+                                       infrastructure.getId(), e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("ERROR when listing the instances of infrastructure: " + infrastructure.getId(),
+                                       e.getCause());
+        } finally {
+            regionExecutor.shutdownNow();
+        }
+    }
+
+    private Set<NodeMetadata> listNodesInRegion(ComputeService computeService, InstanceApi instanceApi,
+            String region, Multimap<String, String> filters) {
+        Set<? extends Reservation<? extends RunningInstance>> reservations = filters.isEmpty() ? instanceApi.describeInstancesInRegion(region)
+                                                                                               : instanceApi.describeInstancesInRegionWithFilter(region,
+                                                                                                                                                 filters);
+        List<String> nodeIds = new ArrayList<>();
+        for (Reservation<? extends RunningInstance> reservation : reservations) {
+            for (RunningInstance runningInstance : reservation) {
+                nodeIds.add(region + INSTANCE_ID_REGION_SEPARATOR + runningInstance.getId());
+            }
+        }
+        if (nodeIds.isEmpty()) {
+            return Collections.emptySet();
+        }
+        // the ids all belong to the same region, so that only this region is queried for the node details
+        return ImmutableSet.copyOf(computeService.listNodesByIds(nodeIds));
+    }
+
     private String getRegionFromNode(ComputeService computeService, NodeMetadata node) {
         Location nodeLocation = node.getLocation();
         Set<? extends Location> assignableLocations = computeService.listAssignableLocations();
@@ -491,7 +596,7 @@ public class AWSEC2JCloudsProvider extends JCloudsProvider {
         }
     }
 
-    private Set<NodeCandidate> productResponseToSet(GetProductsResponse pricesListResponse, String region) {
+    Set<NodeCandidate> productResponseToSet(GetProductsResponse pricesListResponse, String region) {
         return pricesListResponse.priceList().parallelStream().map(priceResponse -> {
             JSONObject terms = new JSONObject(priceResponse).getJSONObject("terms");
             JSONObject productAttributes = new JSONObject(priceResponse).getJSONObject("product")
@@ -499,30 +604,31 @@ public class AWSEC2JCloudsProvider extends JCloudsProvider {
 
             // Hardware spec.
             Hardware.HardwareBuilder hwb = Hardware.builder()
-                                                   .minRam(fromAwsGioToparseableMB(productAttributes.getString("memory")) +
-                                                           "")
-                                                   .minCores(productAttributes.getString("vcpu"))
+                                                   .minRam(intern(fromAwsGioToparseableMB(productAttributes.getString("memory")) +
+                                                                  ""))
+                                                   .minCores(intern(productAttributes.getString("vcpu")))
                                                    .type(productAttributes.getString("instanceType"));
 
             if (productAttributes.has("clockSpeed")) {
-                hwb.minFreq(fromAwsGioToparseableMB(productAttributes.getString("clockSpeed")) + "");
+                hwb.minFreq(intern(fromAwsGioToparseableMB(productAttributes.getString("clockSpeed")) + ""));
             } else {
                 hwb.minFreq("0");
             }
 
-            Hardware hw = hwb.build();
+            // The products of a region repeat the same hardwares and images, the candidates share their instances
+            Hardware hw = intern(hwb.build());
             // The minimal price of the cheaper on-demand-offer
             double price = parseAwsPriceOnDemandInstance(terms);
             // Image spec - No strict reference toa system image is provided by the pricing API. Instead,
             // we re-use their label system to identified system type. We left to association between
             // system image and those label to an external process.
-            Image operatingSystem = Image.builder()
-                                         .name(productAttributes.getString("operatingSystem"))
-                                         .operatingSystem(OperatingSystem.builder()
-                                                                         .family(productAttributes.getString("operatingSystem"))
-                                                                         .build())
-                                         .location(region)
-                                         .build();
+            Image operatingSystem = intern(Image.builder()
+                                                .name(productAttributes.getString("operatingSystem"))
+                                                .operatingSystem(intern(OperatingSystem.builder()
+                                                                                       .family(productAttributes.getString("operatingSystem"))
+                                                                                       .build()))
+                                                .location(region)
+                                                .build());
             // We build the structure encapsulating the result.
             return NodeCandidate.builder()
                                 .cloud(this.getType())
@@ -623,32 +729,46 @@ public class AWSEC2JCloudsProvider extends JCloudsProvider {
 
     @Override
     public void deleteInfrastructure(Infrastructure infrastructure) {
-        // if the infrastructure has used the auto-generated security group, remove it.
-        if (autoGeneratedSecurityGroups.containsKey(infrastructure.getId())) {
-            SecurityGroupApi securityGroupApi = getSecurityGroupApi(infrastructure);
-            for (Map.Entry<String, String> securityGroupInfos : autoGeneratedSecurityGroups.get(infrastructure.getId())
-                                                                                           .entrySet()) {
-                String securityGroupId = getIdOrNameFromSecurityGroupName(infrastructure,
-                                                                          securityGroupApi,
-                                                                          securityGroupInfos);
-                securityGroupApi.deleteSecurityGroupInRegion(infrastructure.getRegion(), securityGroupId);
-                log.info(String.format("Removed the auto-generated security group [%s] for the infrastructure [%s]",
-                                       securityGroupInfos.getKey(),
-                                       infrastructure.getId()));
+        try {
+            // if the infrastructure has used auto-generated security groups, remove them from their regions.
+            Set<AutoGeneratedSecurityGroup> securityGroups = autoGeneratedSecurityGroups.remove(infrastructure.getId());
+            if (securityGroups != null) {
+                SecurityGroupApi securityGroupApi = getSecurityGroupApi(infrastructure);
+                securityGroups.forEach(securityGroup -> deleteAutoGeneratedSecurityGroup(infrastructure,
+                                                                                         securityGroupApi,
+                                                                                         securityGroup));
             }
+        } finally {
+            // the compute service and the catalogues are released even if a security group could not be removed
+            super.deleteInfrastructure(infrastructure);
         }
+    }
 
-        super.deleteInfrastructure(infrastructure);
-        autoGeneratedSecurityGroups.remove(infrastructure.getId());
+    private void deleteAutoGeneratedSecurityGroup(Infrastructure infrastructure, SecurityGroupApi securityGroupApi,
+            AutoGeneratedSecurityGroup securityGroup) {
+        try {
+            String securityGroupId = getIdOrNameFromSecurityGroupName(securityGroupApi, securityGroup);
+            securityGroupApi.deleteSecurityGroupInRegion(securityGroup.getRegion(), securityGroupId);
+            log.info(String.format("Removed the auto-generated security group [%s] of region [%s] for the infrastructure [%s]",
+                                   securityGroup.getName(),
+                                   securityGroup.getRegion(),
+                                   infrastructure.getId()));
+        } catch (RuntimeException e) {
+            log.warn(String.format("Unable to remove the auto-generated security group [%s] of region [%s] for the infrastructure [%s]",
+                                   securityGroup.getName(),
+                                   securityGroup.getRegion(),
+                                   infrastructure.getId()),
+                     e);
+        }
     }
 
-    private String getIdOrNameFromSecurityGroupName(Infrastructure infrastructure, SecurityGroupApi securityGroupApi,
-            Map.Entry<String, String> securityGroupInfos) {
-        if (securityGroupInfos.getValue() != null) {
-            return securityGroupInfos.getValue();
+    private String getIdOrNameFromSecurityGroupName(SecurityGroupApi securityGroupApi,
+            AutoGeneratedSecurityGroup securityGroup) {
+        if (securityGroup.getId() != null) {
+            return securityGroup.getId();
         }
-        String securityGroupName = securityGroupInfos.getKey();
-        Set<SecurityGroup> sgs = securityGroupApi.describeSecurityGroupsInRegionWithFilter(infrastructure.getRegion(),
+        String securityGroupName = securityGroup.getName();
+        Set<SecurityGroup> sgs = securityGroupApi.describeSecurityGroupsInRegionWithFilter(securityGroup.getRegion(),
                                                                                            ImmutableMultimap.of("group-name",
                                                                                                                 securityGroupName));
         if (sgs == null || sgs.isEmpty()) {
@@ -779,4 +899,20 @@ public class AWSEC2JCloudsProvider extends JCloudsProvider {
     public static String getAutoGeneratedSecurityGroupName(String infrastructureId) {
         return "jclouds#" + infrastructureId;
     }
+
+    /**
+     * A security group generated by the connector, in the region of the instances it was generated for
+     */
+    @Getter
+    @AllArgsConstructor
+    @EqualsAndHashCode
+    static class AutoGeneratedSecurityGroup {
+
+        private final String region;
+
+        private final String name;
+
+        // null when the security group was created by jclouds
+        private final String id;
+    }
 }
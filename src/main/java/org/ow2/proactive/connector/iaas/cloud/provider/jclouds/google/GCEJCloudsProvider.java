@@ -25,13 +25,17 @@
  */
 package org.ow2.proactive.connector.iaas.cloud.provider.jclouds.google;
 
+import static org.ow2.proactive.connector.iaas.cloud.provider.CatalogueInterner.intern;
+
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.AbstractMap.SimpleImmutableEntry;
 import java.util.Date;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import org.apache.commons.lang3.NotImplementedException;
@@ -188,6 +192,17 @@ public class GCEJCloudsProvider extends JCloudsProvider {
                                        .overrideLoginPrivateKey(credentials.getPrivateKey());
     }
 
+    private SimpleImmutableEntry<org.jclouds.compute.domain.Image, Date> getNewestImage(
+            SimpleImmutableEntry<org.jclouds.compute.domain.Image, Date> datedImage1,
+            SimpleImmutableEntry<org.jclouds.compute.domain.Image, Date> datedImage2) {
+        // images without a date from their version are the oldest ones
+        if (datedImage2.getValue() != null &&
+            (datedImage1.getValue() == null || datedImage2.getValue().after(datedImage1.getValue()))) {
+            return datedImage2;
+        }
+        return datedImage1;
+    }
+
     private Date getDateFromVersion(String version) {
         DateFormat format = new SimpleDateFormat("yyyyMMdd");
         try {
@@ -201,7 +216,7 @@ public class GCEJCloudsProvider extends JCloudsProvider {
     }
 
     @Override
-    public Set<Image> getAllImages(Infrastructure infrastructure) {
+    protected Set<Image> loadAllImages(Infrastructure infrastructure) {
         Set<? extends org.jclouds.compute.domain.Image> allImages = getComputeServiceFromInfrastructure(infrastructure).listImages();
 
         // Since there too many returned images, let's consider only the relevant ones
@@ -215,23 +230,22 @@ public class GCEJCloudsProvider extends JCloudsProvider {
                                                                                            .get("deprecatedState") == null ||
                                                                                          it.getUserMetadata()
                                                                                            .get("deprecatedState") == org.jclouds.googlecomputeengine.domain.Deprecated.State.DEPRECATED.name())
-                                                                           // GroupBy "OS family - Os version" and ...
-                                                                           .collect(Collectors.groupingBy(it -> it.getOperatingSystem()
-                                                                                                                  .getFamily() +
-                                                                                                                "-" +
-                                                                                                                it.getOperatingSystem()
-                                                                                                                  .getVersion()))
+                                                                           // Date each image once from its version, then ...
+                                                                           .map(it -> new SimpleImmutableEntry<org.jclouds.compute.domain.Image, Date>(it,
+                                                                                                                                                       getDateFromVersion(it.getVersion())))
+                                                                           // ... keep only the newest image of each "OS family - Os version"
+                                                                           .collect(Collectors.toMap(it -> it.getKey()
+                                                                                                             .getOperatingSystem()
+                                                                                                             .getFamily() +
+                                                                                                           "-" +
+                                                                                                           it.getKey()
+                                                                                                             .getOperatingSystem()
+                                                                                                             .getVersion(),
+                                                                                                     Function.identity(),
+                                                                                                     this::getNewestImage))
                                                                            .values()
-                                                                           .parallelStream()
-                                                                           // ... sort each image list by the date extracted from the version and ...
-                                                                           .map(images -> {
-                                                                               images.sort((image1, image2) -> {
-                                                                                   return getDateFromVersion(image2.getVersion()).compareTo(getDateFromVersion(image1.getVersion()));
-                                                                               });
-                                                                               return images;
-                                                                           })
-                                                                           // ... keep only the first image (newest) of each list
-                                                                           .map(a -> a.get(0))
+                                                                           .stream()
+                                                                           .map(Map.Entry::getKey)
                                                                            .collect(Collectors.toSet());
 
         // Create a ProActive Image for each jclouds Image
@@ -239,18 +253,18 @@ public class GCEJCloudsProvider extends JCloudsProvider {
                                                           .map(it -> Image.builder()
                                                                           .id(it.getId())
                                                                           .name(it.getName())
-                                                                          .location(it.getLocation() != null ? it.getLocation()
-                                                                                                                 .getId()
+                                                                          .location(it.getLocation() != null ? intern(it.getLocation()
+                                                                                                                        .getId())
                                                                                                              : "")
                                                                           .operatingSystem(OperatingSystem.builder()
-                                                                                                          .arch(it.getOperatingSystem()
-                                                                                                                  .getArch())
+                                                                                                          .arch(intern(it.getOperatingSystem()
+                                                                                                                         .getArch()))
                                                                                                           .description(it.getOperatingSystem()
                                                                                                                          .getDescription())
-                                                                                                          .family(getOperatingSystemFamily(it,
-                                                                                                                                           infrastructure.getType()))
-                                                                                                          .version(it.getOperatingSystem()
-                                                                                                                     .getVersion())
+                                                                                                          .family(intern(getOperatingSystemFamily(it,
+                                                                                                                                                  infrastructure.getType())))
+                                                                                                          .version(intern(it.getOperatingSystem()
+                                                                                                                            .getVersion()))
                                                                                                           .is64Bit(it.getOperatingSystem()
                                                                                                                      .is64Bit())
                                                                                                           .build())
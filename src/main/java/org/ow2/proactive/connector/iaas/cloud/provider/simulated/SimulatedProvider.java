@@ -0,0 +1,337 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.connector.iaas.cloud.provider.simulated;
+
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.ow2.proactive.connector.iaas.cloud.provider.CloudProvider;
+import org.ow2.proactive.connector.iaas.model.Hardware;
+import org.ow2.proactive.connector.iaas.model.Image;
+import org.ow2.proactive.connector.iaas.model.Infrastructure;
+import org.ow2.proactive.connector.iaas.model.Instance;
+import org.ow2.proactive.connector.iaas.model.InstanceScript;
+import org.ow2.proactive.connector.iaas.model.Network;
+import org.ow2.proactive.connector.iaas.model.NodeCandidate;
+import org.ow2.proactive.connector.iaas.model.OperatingSystem;
+import org.ow2.proactive.connector.iaas.model.PagedNodeCandidates;
+import org.ow2.proactive.connector.iaas.model.ScriptResult;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.google.common.collect.Lists;
+
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+
+
+/**
+ * In-memory cloud provider used to measure the capacity of the connector itself, without any real cloud behind it.
+ * Every call waits for a latency drawn from the configured distribution and fails with the configured rate, so that
+ * the REST layer, the caches and the services can be loaded offline.
+ */
+@Component
+@Log4j2
+public class SimulatedProvider implements CloudProvider {
+
+    public static final String SIMULATED_TYPE = "simulated";
+
+    private static final String REGION_PREFIX = "simulated-region-";
+
+    private static final String RUNNING_STATUS = "RUNNING";
+
+    @Getter
+    private final String type = SIMULATED_TYPE;
+
+    /**
+     * Latency distribution of the simulated cloud calls: none, fixed, uniform or exponential.
+     */
+    @Value("${connector-iaas.simulated.latency.distribution:uniform}")
+    private String latencyDistribution;
+
+    @Value("${connector-iaas.simulated.latency.mean-ms:50}")
+    private long latencyMeanMs;
+
+    @Value("${connector-iaas.simulated.latency.max-ms:200}")
+    private long latencyMaxMs;
+
+    @Value("${connector-iaas.simulated.failure-rate:0.0}")
+    private double failureRate;
+
+    @Value("${connector-iaas.simulated.fleet-size:100}")
+    private int fleetSize;
+
+    @Value("${connector-iaas.simulated.regions:3}")
+    private int regionCount;
+
+    @Value("${connector-iaas.simulated.images:50}")
+    private int imageCount;
+
+    @Value("${connector-iaas.simulated.hardwares:20}")
+    private int hardwareCount;
+
+    // Instances created through the connector, per infrastructure id
+    private final Map<String, Map<String, Instance>> createdInstancesPerInfrastructure = new ConcurrentHashMap<>();
+
+    // Instances already running in the simulated cloud when the infrastructure is first used, per infrastructure id
+    private final Map<String, Map<String, Instance>> fleetPerInfrastructure = new ConcurrentHashMap<>();
+
+    @Override
+    public Set<String> listAvailableRegions(Infrastructure infrastructure) {
+        simulateCloudCall("listAvailableRegions");
+        return IntStream.range(0, regionCount).mapToObj(i -> REGION_PREFIX + i).collect(Collectors.toSet());
+    }
+
+    @Override
+    public Set<Instance> createInstance(Infrastructure infrastructure, Instance instance) {
+        simulateCloudCall("createInstance");
+        int number = Optional.ofNullable(instance.getNumber()).map(Integer::parseInt).orElse(1);
+        Map<String, Instance> createdInstances = getCreatedInstances(infrastructure);
+        return IntStream.range(0, number).mapToObj(i -> {
+            Instance simulatedInstance = newSimulatedInstance(instance.getTag(), instance.getImage());
+            Instance createdInstance = Optional.ofNullable(instance.getHardware())
+                                               .map(simulatedInstance::withHardware)
+                                               .orElse(simulatedInstance)
+                                               .withOptions(instance.getOptions());
+            createdInstances.put(createdInstance.getId(), createdInstance);
+            return createdInstance;
+        }).collect(Collectors.toSet());
+    }
+
+    @Override
+    public void deleteInstance(Infrastructure infrastructure, String instanceId) {
+        simulateCloudCall("deleteInstance");
+        if (getCreatedInstances(infrastructure).remove(instanceId) == null &&
+            getFleet(infrastructure).remove(instanceId) == null) {
+            throw new RuntimeException("ERROR unable to find instance with ID: " + instanceId);
+        }
+    }
+
+    @Override
+    public Set<Instance> getAllInfrastructureInstances(Infrastructure infrastructure) {
+        simulateCloudCall("getAllInfrastructureInstances");
+        return Stream.concat(getFleet(infrastructure).values().stream(),
+                             getCreatedInstances(infrastructure).values().stream())
+                     .collect(Collectors.toSet());
+    }
+
+    @Override
+    public Set<Instance> getCreatedInfrastructureInstances(Infrastructure infrastructure) {
+        simulateCloudCall("getCreatedInfrastructureInstances");
+        return getCreatedInstances(infrastructure).values().stream().collect(Collectors.toSet());
+    }
+
+    @Override
+    public List<ScriptResult> executeScriptOnInstanceId(Infrastructure infrastructure, String instanceId,
+            InstanceScript instanceScript) {
+        simulateCloudCall("executeScriptOnInstanceId");
+        return Lists.newArrayList(new ScriptResult(instanceId, String.join("\n", instanceScript.getScripts()), ""));
+    }
+
+    @Override
+    public List<ScriptResult> executeScriptOnInstanceTag(Infrastructure infrastructure, String instanceTag,
+            InstanceScript instanceScript) {
+        simulateCloudCall("executeScriptOnInstanceTag");
+        return getCreatedInstances(infrastructure).values()
+                                                  .stream()
+                                                  .filter(instance -> instanceTag.equals(instance.getTag()))
+                                                  .map(instance -> new ScriptResult(instance.getId(),
+                                                                                    String.join("\n",
+                                                                                                instanceScript.getScripts()),
+                                                                                    ""))
+                                                  .collect(Collectors.toList());
+    }
+
+    @Override
+    public Set<Image> getAllImages(Infrastructure infrastructure) {
+        simulateCloudCall("getAllImages");
+        return IntStream.range(0, imageCount).mapToObj(this::newSimulatedImage).collect(Collectors.toSet());
+    }
+
+    @Override
+    public Set<Hardware> getAllHardwares(Infrastructure infrastructure) {
+        simulateCloudCall("getAllHardwares");
+        return IntStream.range(0, hardwareCount).mapToObj(this::newSimulatedHardware).collect(Collectors.toSet());
+    }
+
+    @Override
+    public void deleteInfrastructure(Infrastructure infrastructure) {
+        createdInstancesPerInfrastructure.remove(infrastructure.getId());
+        fleetPerInfrastructure.remove(infrastructure.getId());
+    }
+
+    @Override
+    public void warmUp(Infrastructure infrastructure) {
+        simulateCloudCall("warmUp");
+    }
+
+    @Override
+    public String addToInstancePublicIp(Infrastructure infrastructure, String instanceId, String desiredIp) {
+        simulateCloudCall("addToInstancePublicIp");
+        return Optional.ofNullable(desiredIp).orElseGet(this::randomIpAddress);
+    }
+
+    @Override
+    public void removeInstancePublicIp(Infrastructure infrastructure, String instanceId, String desiredIp) {
+        simulateCloudCall("removeInstancePublicIp");
+    }
+
+    @Override
+    public SimpleImmutableEntry<String, String> createKeyPair(Infrastructure infrastructure, Instance instance) {
+        simulateCloudCall("createKeyPair");
+        return new SimpleImmutableEntry<>("simulated-key-" + UUID.randomUUID(), "simulated-private-key");
+    }
+
+    @Override
+    public void deleteKeyPair(Infrastructure infrastructure, String keyPairName, String region) {
+        simulateCloudCall("deleteKeyPair");
+    }
+
+    @Override
+    public PagedNodeCandidates getNodeCandidate(Infrastructure infra, String region, String imageReq, String token) {
+        simulateCloudCall("getNodeCandidate");
+        Set<Image> images = IntStream.range(0, imageCount)
+                                     .mapToObj(this::newSimulatedImage)
+                                     .filter(image -> image.getName().contains(imageReq))
+                                     .collect(Collectors.toSet());
+        Set<NodeCandidate> nodeCandidates = IntStream.range(0, hardwareCount)
+                                                     .mapToObj(this::newSimulatedHardware)
+                                                     .flatMap(hardware -> images.stream()
+                                                                                .map(image -> newSimulatedNodeCandidate(region,
+                                                                                                                        hardware,
+                                                                                                                        image)))
+                                                     .collect(Collectors.toSet());
+        return PagedNodeCandidates.builder().nextToken("").nodeCandidates(nodeCandidates).build();
+    }
+
+    private Map<String, Instance> getCreatedInstances(Infrastructure infrastructure) {
+        return createdInstancesPerInfrastructure.computeIfAbsent(infrastructure.getId(),
+                                                                 id -> new ConcurrentHashMap<>());
+    }
+
+    private Map<String, Instance> getFleet(Infrastructure infrastructure) {
+        return fleetPerInfrastructure.computeIfAbsent(infrastructure.getId(), id -> {
+            Map<String, Instance> fleet = new ConcurrentHashMap<>();
+            IntStream.range(0, fleetSize)
+                     .mapToObj(i -> newSimulatedInstance("simulated-vm-" + i, newSimulatedImage(i % imageCount).getId()))
+                     .forEach(instance -> fleet.put(instance.getId(), instance));
+            return fleet;
+        });
+    }
+
+    private Instance newSimulatedInstance(String tag, String image) {
+        return Instance.builder()
+                       .id(UUID.randomUUID().toString())
+                       .tag(tag)
+                       .image(image)
+                       .number("1")
+                       .status(RUNNING_STATUS)
+                       .hardware(newSimulatedHardware(0))
+                       .network(Network.builder()
+                                       .publicAddresses(Lists.newArrayList(randomIpAddress()))
+                                       .privateAddresses(Lists.newArrayList(randomIpAddress()))
+                                       .build())
+                       .build();
+    }
+
+    private Image newSimulatedImage(int index) {
+        return Image.builder()
+                    .id(REGION_PREFIX + (index % regionCount) + "/simulated-image-" + index)
+                    .name("simulated-image-" + index)
+                    .location(REGION_PREFIX + (index % regionCount))
+                    .operatingSystem(OperatingSystem.builder().family("linux").is64Bit(true).build())
+                    .build();
+    }
+
+    private Hardware newSimulatedHardware(int index) {
+        return Hardware.builder()
+                       .type("simulated-hardware-" + index)
+                       .minRam(String.valueOf(1024 * (index + 1)))
+                       .minCores(String.valueOf(index + 1))
+                       .minFreq("0")
+                       .build();
+    }
+
+    private NodeCandidate newSimulatedNodeCandidate(String region, Hardware hardware, Image image) {
+        return NodeCandidate.builder()
+                            .cloud(SIMULATED_TYPE)
+                            .region(region)
+                            .hw(hardware)
+                            .img(image)
+                            .price(0.01 * Integer.parseInt(hardware.getMinCores()))
+                            .build();
+    }
+
+    private String randomIpAddress() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return Arrays.stream(new int[] { 10, random.nextInt(256), random.nextInt(256), random.nextInt(1, 255) })
+                     .mapToObj(String::valueOf)
+                     .collect(Collectors.joining("."));
+    }
+
+    /**
+     * Waits for a latency drawn from the configured distribution, then fails with the configured failure rate.
+     */
+    private void simulateCloudCall(String operation) {
+        try {
+            TimeUnit.MILLISECONDS.sleep(nextLatencyMs());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("ERROR simulated call " + operation + " interrupted", e);
+        }
+        if (ThreadLocalRandom.current().nextDouble() < failureRate) {
+            throw new RuntimeException("ERROR simulated failure of " + operation);
+        }
+    }
+
+    private long nextLatencyMs() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        switch (latencyDistribution) {
+            case "none":
+                return 0;
+            case "fixed":
+                return latencyMeanMs;
+            case "exponential":
+                return Math.min(latencyMaxMs, Math.round(-latencyMeanMs * Math.log(1 - random.nextDouble())));
+            case "uniform":
+                return random.nextLong(Math.min(2 * latencyMeanMs, latencyMaxMs) + 1);
+            default:
+                throw new IllegalArgumentException("ERROR unknown simulated latency distribution: " +
+                                                   latencyDistribution);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.connector.iaas.cloud.provider.vmware;
+
+import java.util.Arrays;
+import java.util.Optional;
+
+import org.ow2.proactive.connector.iaas.model.Options;
+
+
+/**
+ * How the VMs of an instance are cloned, as requested through the 'cloneMode' option.
+ */
+public enum VMWareCloneMode {
+    /**
+     * The whole disks of the VM to clone are copied (default)
+     */
+    FULL,
+    /**
+     * The clones only write their changes over a snapshot of the VM to clone
+     */
+    LINKED,
+    /**
+     * vSphere instant clones, which are not available with the vSphere API version in use
+     */
+    INSTANT;
+
+    public static VMWareCloneMode fromOptions(Options options) {
+        VMWareCloneMode cloneMode = Optional.ofNullable(options)
+                                            .map(Options::getCloneMode)
+                                            .map(mode -> Arrays.stream(values())
+                                                               .filter(value -> value.name().equalsIgnoreCase(mode))
+                                                               .findAny()
+                                                               .orElseThrow(() -> new RuntimeException("ERROR unknown VMWare clone mode: '" +
+                                                                                                       mode + "'")))
+                                            .orElse(FULL);
+        if (cloneMode == INSTANT) {
+            throw new RuntimeException("ERROR instant clones are not supported by the vSphere API in use, use linked clones instead");
+        }
+        return cloneMode;
+    }
+}
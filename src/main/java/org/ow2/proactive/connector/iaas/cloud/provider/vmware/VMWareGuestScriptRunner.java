@@ -0,0 +1,194 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.connector.iaas.cloud.provider.vmware;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.rmi.RemoteException;
+import java.security.GeneralSecurityException;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.conn.ssl.NoopHostnameVerifier;
+import org.apache.http.conn.ssl.TrustAllStrategy;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.ssl.SSLContexts;
+import org.apache.http.util.EntityUtils;
+import org.ow2.proactive.connector.iaas.model.ScriptResult;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.vmware.vim25.GuestProcessInfo;
+import com.vmware.vim25.GuestProgramSpec;
+import com.vmware.vim25.NamePasswordAuthentication;
+import com.vmware.vim25.mo.GuestFileManager;
+import com.vmware.vim25.mo.GuestOperationsManager;
+import com.vmware.vim25.mo.GuestProcessManager;
+import com.vmware.vim25.mo.ServiceInstance;
+import com.vmware.vim25.mo.VirtualMachine;
+
+import lombok.extern.log4j.Log4j2;
+
+
+/**
+ * Run scripts in VMWare guests through the guest operations: the script output and error are redirected to
+ * temporary files of the guest, the process is followed until it exits, and the files are then downloaded and
+ * deleted.
+ *
+ * The scripts are given unchanged as the arguments of bash (e.g. the path of a script file of the guest, or "-c"
+ * followed by a quoted command), only their output and error being redirected.
+ */
+@Component
+@Log4j2
+public class VMWareGuestScriptRunner {
+
+    private static final String SHELL = "/bin/bash";
+
+    private static final String TEMPORARY_FILE_PREFIX = "connector-iaas-script-";
+
+    // The guest file transfer URLs designate the host they are served by as '*'
+    private static final String ANY_HOST = "*";
+
+    // Maximum time in seconds a script is waited for, its output collected so far is returned afterwards
+    @Value("${connector-iaas.vmware.script.timeout:600}")
+    private long scriptTimeoutSeconds = 600;
+
+    // Delay in milliseconds between two checks of the script process
+    @Value("${connector-iaas.vmware.script.poll-interval:1000}")
+    private long pollIntervalMillis = 1000;
+
+    /**
+     * Run a script in the guest and wait for it to exit
+     *
+     * @return the script output, and its error followed by its exit code when it failed
+     */
+    public ScriptResult runScript(ServiceInstance serviceInstance, VirtualMachine vm, String instanceId,
+            NamePasswordAuthentication authentication, String script) {
+        try {
+            GuestOperationsManager guestOperationsManager = serviceInstance.getGuestOperationsManager();
+            GuestFileManager fileManager = guestOperationsManager.getFileManager(vm);
+            GuestProcessManager processManager = guestOperationsManager.getProcessManager(vm);
+
+            String outputFile = fileManager.createTemporaryFileInGuest(authentication,
+                                                                       TEMPORARY_FILE_PREFIX,
+                                                                       ".out",
+                                                                       null);
+            String errorFile = fileManager.createTemporaryFileInGuest(authentication,
+                                                                      TEMPORARY_FILE_PREFIX,
+                                                                      ".err",
+                                                                      null);
+            try {
+                GuestProgramSpec gps = new GuestProgramSpec();
+                gps.programPath = SHELL;
+                gps.arguments = script + " > " + outputFile + " 2> " + errorFile;
+                long pid = processManager.startProgramInGuest(authentication, gps);
+
+                Optional<Integer> exitCode = waitForExitCode(processManager, authentication, pid);
+
+                String output = readGuestFile(serviceInstance, fileManager, authentication, outputFile);
+                String error = readGuestFile(serviceInstance, fileManager, authentication, errorFile);
+                if (!exitCode.isPresent()) {
+                    error += "\nScript still running after " + scriptTimeoutSeconds + "s (pid " + pid + ")";
+                } else if (exitCode.get() != 0) {
+                    error += "\nExit code: " + exitCode.get();
+                }
+                return new ScriptResult(instanceId, output.trim(), error.trim());
+            } finally {
+                deleteGuestFile(fileManager, authentication, outputFile);
+                deleteGuestFile(fileManager, authentication, errorFile);
+            }
+        } catch (RemoteException e) {
+            throw new RuntimeException("ERROR when executing the script: " + script + " against instance id: " +
+                                       instanceId, e);
+        }
+    }
+
+    /**
+     * Follow the process through the list of the guest processes until it exits
+     *
+     * @return the exit code of the process, or empty if it is still running after the script timeout
+     */
+    private Optional<Integer> waitForExitCode(GuestProcessManager processManager,
+            NamePasswordAuthentication authentication, long pid) throws RemoteException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(scriptTimeoutSeconds);
+        while (true) {
+            GuestProcessInfo[] processes = processManager.listProcessesInGuest(authentication, new long[] { pid });
+            if (processes != null && processes.length > 0 && processes[0].getEndTime() != null) {
+                return Optional.ofNullable(processes[0].getExitCode());
+            }
+            if (System.nanoTime() > deadline) {
+                return Optional.empty();
+            }
+            try {
+                Thread.sleep(pollIntervalMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("ERROR interrupted while waiting for guest process: " + pid, e);
+            }
+        }
+    }
+
+    private String readGuestFile(ServiceInstance serviceInstance, GuestFileManager fileManager,
+            NamePasswordAuthentication authentication, String path) throws RemoteException {
+        String url = fileManager.initiateFileTransferFromGuest(authentication, path).getUrl();
+        return download(url.replace("://" + ANY_HOST,
+                                    "://" + serviceInstance.getServerConnection().getUrl().getHost()));
+    }
+
+    private void deleteGuestFile(GuestFileManager fileManager, NamePasswordAuthentication authentication,
+            String path) {
+        try {
+            fileManager.deleteFileInGuest(authentication, path);
+        } catch (RemoteException | RuntimeException e) {
+            log.warn("Unable to delete guest file: " + path, e);
+        }
+    }
+
+    /**
+     * Download a guest file. The certificates of the hosts are not checked, as for the service instances.
+     */
+    protected String download(String url) {
+        try (CloseableHttpClient httpClient = HttpClients.custom()
+                                                         .setSSLContext(SSLContexts.custom()
+                                                                                   .loadTrustMaterial(TrustAllStrategy.INSTANCE)
+                                                                                   .build())
+                                                         .setSSLHostnameVerifier(NoopHostnameVerifier.INSTANCE)
+                                                         .build();
+                CloseableHttpResponse response = httpClient.execute(new HttpGet(url))) {
+            if (response.getStatusLine().getStatusCode() != HttpStatus.SC_OK) {
+                throw new RuntimeException("ERROR when downloading guest file: " + url + " status: " +
+                                           response.getStatusLine());
+            }
+            return EntityUtils.toString(response.getEntity(), StandardCharsets.UTF_8);
+        } catch (IOException | GeneralSecurityException e) {
+            throw new RuntimeException("ERROR when downloading guest file: " + url, e);
+        }
+    }
+}
@@ -29,47 +29,81 @@ import java.rmi.RemoteException;
 import java.util.AbstractMap.SimpleImmutableEntry;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 import javax.ws.rs.NotSupportedException;
 
 import org.apache.commons.lang3.NotImplementedException;
 import org.ow2.proactive.connector.iaas.cloud.TagManager;
 import org.ow2.proactive.connector.iaas.cloud.provider.CloudProvider;
+import org.ow2.proactive.connector.iaas.cloud.provider.ProviderClientCache;
+import org.ow2.proactive.connector.iaas.cloud.provider.vmware.VMWareTopology.DatastoreSpace;
+import org.ow2.proactive.connector.iaas.cloud.provider.vmware.VMWareTopology.ResourcePoolPlacement;
 import org.ow2.proactive.connector.iaas.model.*;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import com.google.common.base.Throwables;
 import com.google.common.collect.Lists;
-import com.vmware.vim25.GuestProgramSpec;
+import com.vmware.vim25.LocalizedMethodFault;
+import com.vmware.vim25.ManagedObjectReference;
 import com.vmware.vim25.NamePasswordAuthentication;
+import com.vmware.vim25.NotAuthenticated;
 import com.vmware.vim25.OptionValue;
+import com.vmware.vim25.TaskInfo;
+import com.vmware.vim25.TaskInfoState;
 import com.vmware.vim25.VirtualMachineCloneSpec;
 import com.vmware.vim25.VirtualMachineConfigSpec;
+import com.vmware.vim25.VirtualMachineRelocateDiskMoveOptions;
 import com.vmware.vim25.VirtualMachineRelocateSpec;
 import com.vmware.vim25.mo.Datastore;
 import com.vmware.vim25.mo.Folder;
-import com.vmware.vim25.mo.GuestOperationsManager;
-import com.vmware.vim25.mo.GuestProcessManager;
 import com.vmware.vim25.mo.HostSystem;
 import com.vmware.vim25.mo.ResourcePool;
+import com.vmware.vim25.mo.ServiceInstance;
 import com.vmware.vim25.mo.Task;
 import com.vmware.vim25.mo.VirtualMachine;
 
 import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
 
 
 @Component
+@Log4j2
 public class VMWareProvider implements CloudProvider {
 
     private static final String IMAGE_DELIMITER = "/";
 
     private static final String RANDOM_HOST = "*";
 
+    private static final String LINKED_CLONE_SNAPSHOT_NAME = "connector-iaas-linked-clones";
+
+    // Suffix of the names of the VMs created with the same tag, after the first one
+    private static final String INSTANCE_INDEX_PATTERN = "_\\d+";
+
     @Getter
     private final String type = "vmware";
 
@@ -82,9 +116,38 @@ public class VMWareProvider implements CloudProvider {
     @Autowired
     private VMWareProviderMacAddressHandler vmWareProviderMacAddressHandler;
 
+    @Autowired
+    private VMWareGuestScriptRunner vmWareGuestScriptRunner;
+
     @Autowired
     private TagManager tagManager;
 
+    // Maximum number of VMs a script is executed on at the same time
+    @Value("${connector-iaas.vmware.script.max-parallel:8}")
+    private int maxParallelScripts = 8;
+
+    // Maximum number of clones running at the same time on each datastore (or host)
+    @Value("${connector-iaas.vmware.clone.max-in-flight:4}")
+    private int maxClonesInFlight = 4;
+
+    // Age in seconds after which the placement topology of a vCenter is loaded again by the next placement
+    @Value("${connector-iaas.vmware.topology.refresh-period:300}")
+    private long topologyRefreshPeriod = 300;
+
+    // Placement topologies (folders, hosts, resource pools and datastores), per infrastructure ID
+    private final Map<String, VMWareTopology> topologies = new ConcurrentHashMap<>();
+
+    private final Random random = new Random();
+
+    // Slots of clones running at the same time, per clone destination
+    private final Map<String, Semaphore> cloneSlots = new ConcurrentHashMap<>();
+
+    // Snapshots the linked clones are based on, per VM to clone
+    private final Map<String, CompletableFuture<ManagedObjectReference>> templateSnapshots = new ConcurrentHashMap<>();
+
+    // References of the known virtual machines, per UUID and per infrastructure ID
+    private final Map<String, Map<String, ManagedObjectReference>> virtualMachineReferences = new ConcurrentHashMap<>();
+
     @Override
     public Set<String> listAvailableRegions(Infrastructure infrastructure) {
         throw new NotSupportedException("Operation not supported for VMWare");
@@ -92,31 +155,274 @@ public class VMWareProvider implements CloudProvider {
 
     @Override
     public Set<Instance> createInstance(Infrastructure infrastructure, Instance instance) {
+        // Not called again, the clones may have been submitted before the session turned out to be expired
+        return callVCenter(infrastructure, false, () -> createVirtualMachines(infrastructure, instance));
+    }
+
+    private Set<Instance> createVirtualMachines(Infrastructure infrastructure, Instance instance) {
 
         String image = instance.getImage();
-        Folder rootFolder = vmWareServiceInstanceCache.getServiceInstance(infrastructure).getRootFolder();
+        ServiceInstance serviceInstance = vmWareServiceInstanceCache.getServiceInstance(infrastructure);
+        Folder rootFolder = serviceInstance.getRootFolder();
         String instanceImageId = getInstanceIdFromImage(image);
 
-        VirtualMachineRelocateSpec relocateSpecs = inferRelocateSpecsFromImageArgument(image, rootFolder);
-        Folder destinationFolder = getDestinationFolderFromImage(image, rootFolder);
         VirtualMachine vmToClone = getVirtualMachineByNameOrUUID(instanceImageId, rootFolder);
+        List<VirtualMachineRelocateSpec> relocateSpecs = inferRelocateSpecsFromImageArgument(infrastructure,
+                                                                                             image,
+                                                                                             vmToClone,
+                                                                                             rootFolder,
+                                                                                             Integer.valueOf(instance.getNumber()));
+        Folder destinationFolder = getDestinationFolderFromImage(infrastructure, image, vmToClone, rootFolder);
 
         List<Tag> tags = tagManager.retrieveAllTags(infrastructure.getId(), instance.getOptions());
 
-        return IntStream.rangeClosed(1, Integer.valueOf(instance.getNumber())).mapToObj(instanceIndexStartAt1 -> {
-            String uniqueInstanceTag = createUniqueInstanceTag(instance.getTag(), instanceIndexStartAt1);
-            return cloneVM(vmToClone,
-                           uniqueInstanceTag,
-                           instance,
-                           rootFolder,
-                           createVirtualMachineCloneSpec(instanceIndexStartAt1,
-                                                         vmToClone,
-                                                         relocateSpecs,
-                                                         instance,
-                                                         uniqueInstanceTag,
-                                                         tags),
-                           destinationFolder);
-        }).map(vm -> instance.withId(vm.getConfig().getUuid())).collect(Collectors.toSet());
+        // Linked clones share the disks of a snapshot of the VM to clone, and only write their own changes
+        VMWareCloneMode cloneMode = VMWareCloneMode.fromOptions(instance.getOptions());
+        ManagedObjectReference snapshot = null;
+        if (cloneMode == VMWareCloneMode.LINKED) {
+            snapshot = getTemplateSnapshot(infrastructure, vmToClone);
+            String diskMoveType = VirtualMachineRelocateDiskMoveOptions.createNewChildDiskBacking.name();
+            relocateSpecs.forEach(relocateSpec -> relocateSpec.setDiskMoveType(diskMoveType));
+        }
+
+        List<VirtualMachine> clonedVMs;
+        try {
+            clonedVMs = cloneVMs(infrastructure,
+                                 serviceInstance,
+                                 vmToClone,
+                                 instance,
+                                 relocateSpecs,
+                                 snapshot,
+                                 destinationFolder,
+                                 tags);
+        } catch (RuntimeException e) {
+            // The snapshot may have been removed, take or find it again next time
+            if (snapshot != null) {
+                templateSnapshots.remove(getTemplateKey(infrastructure, vmToClone));
+            }
+            // The placement may rely on an outdated topology, load it again next time
+            topologies.remove(infrastructure.getId());
+            throw e;
+        }
+
+        return clonedVMs.stream().map(vm -> {
+            String uuid = vm.getConfig().getUuid();
+            rememberVirtualMachine(infrastructure, uuid, vm.getMOR());
+            return instance.withId(uuid);
+        }).collect(Collectors.toSet());
+    }
+
+    /**
+     * Clone the VM as many times as requested by the instance. All the clones are submitted up front, within the limit
+     * of clones running at the same time on their destination, and their completion is tracked all together. If a
+     * clone fails, the clones still running are cancelled and the ones already created are destroyed, so that a failed
+     * request does not leave any VM behind.
+     *
+     * @param relocateSpecs the location of each clone
+     * @return the new VMs
+     */
+    private List<VirtualMachine> cloneVMs(Infrastructure infrastructure, ServiceInstance serviceInstance,
+            VirtualMachine vmToClone, Instance instance, List<VirtualMachineRelocateSpec> relocateSpecs,
+            ManagedObjectReference snapshot, Folder destinationFolder, List<Tag> tags) {
+
+        int nbInstances = relocateSpecs.size();
+
+        // Names of the VMs being cloned, their clone tasks, and the slots they hold on their destination, per clone
+        // task reference value
+        Map<String, String> pendingClones = new HashMap<>();
+        Map<String, Task> pendingCloneTasks = new HashMap<>();
+        Map<String, Semaphore> pendingCloneSlots = new HashMap<>();
+        List<VirtualMachine> clonedVMs = new ArrayList<>();
+        List<String> cloneErrors = new ArrayList<>();
+        RuntimeException failure = null;
+
+        try (VMWareTaskMultiplexer taskMultiplexer = vmWareProviderVirtualMachineUtil.createTaskMultiplexer(serviceInstance)) {
+            int instanceIndexStartAt1 = 1;
+            while (!pendingClones.isEmpty() ||
+                   (instanceIndexStartAt1 <= nbInstances && failure == null && cloneErrors.isEmpty())) {
+                // Wait for a free slot only when no clone of ours is running, otherwise wait for our clones
+                while (instanceIndexStartAt1 <= nbInstances && failure == null && cloneErrors.isEmpty()) {
+                    VirtualMachineRelocateSpec relocateSpec = relocateSpecs.get(instanceIndexStartAt1 - 1);
+                    Semaphore destinationCloneSlots = getCloneSlots(infrastructure, relocateSpec);
+                    try {
+                        if (!acquireCloneSlot(destinationCloneSlots, pendingClones.isEmpty())) {
+                            break;
+                        }
+                    } catch (RuntimeException e) {
+                        failure = e;
+                        cancelCloneTasks(pendingCloneTasks.values());
+                        break;
+                    }
+                    String uniqueInstanceTag = createUniqueInstanceTag(instance.getTag(), instanceIndexStartAt1);
+                    try {
+                        // Clone the VM : call to VMWare API
+                        Task task = vmToClone.cloneVM_Task(destinationFolder,
+                                                           uniqueInstanceTag,
+                                                           createVirtualMachineCloneSpec(instanceIndexStartAt1,
+                                                                                         vmToClone,
+                                                                                         relocateSpec,
+                                                                                         snapshot,
+                                                                                         instance,
+                                                                                         uniqueInstanceTag,
+                                                                                         tags));
+                        taskMultiplexer.add(task);
+                        pendingClones.put(task.getMOR().getVal(), uniqueInstanceTag);
+                        pendingCloneTasks.put(task.getMOR().getVal(), task);
+                        pendingCloneSlots.put(task.getMOR().getVal(), destinationCloneSlots);
+                    } catch (RemoteException | RuntimeException e) {
+                        destinationCloneSlots.release();
+                        failure = new RuntimeException("ERROR when creating VMWare instance with : " + instance, e);
+                        cancelCloneTasks(pendingCloneTasks.values());
+                        break;
+                    }
+                    instanceIndexStartAt1++;
+                }
+                if (pendingClones.isEmpty()) {
+                    continue;
+                }
+
+                List<TaskInfo> completedTasks;
+                try {
+                    completedTasks = taskMultiplexer.waitForCompletedTasks();
+                } catch (RuntimeException e) {
+                    // The completion of the clones still running is unknown, stop them
+                    cancelCloneTasks(pendingCloneTasks.values());
+                    if (failure == null) {
+                        failure = e;
+                    } else {
+                        failure.addSuppressed(e);
+                    }
+                    break;
+                }
+                for (TaskInfo taskInfo : completedTasks) {
+                    pendingCloneSlots.remove(taskInfo.getTask().getVal()).release();
+                    pendingCloneTasks.remove(taskInfo.getTask().getVal());
+                    String vmName = pendingClones.remove(taskInfo.getTask().getVal());
+                    if (TaskInfoState.success.equals(taskInfo.getState())) {
+                        // The result of a clone task is the reference of the new VM
+                        clonedVMs.add(vmWareProviderVirtualMachineUtil.getVirtualMachine((ManagedObjectReference) taskInfo.getResult(),
+                                                                                         serviceInstance.getRootFolder()));
+                    } else {
+                        if (failure == null && cloneErrors.isEmpty()) {
+                            cancelCloneTasks(pendingCloneTasks.values());
+                        }
+                        cloneErrors.add(vmName + ": " + Optional.ofNullable(taskInfo.getError())
+                                                                .map(LocalizedMethodFault::getLocalizedMessage)
+                                                                .orElse(String.valueOf(taskInfo.getState())));
+                    }
+                }
+            }
+
+            if (failure != null || !cloneErrors.isEmpty()) {
+                clonedVMs.forEach(this::destroyClone);
+            }
+        } finally {
+            // Give back the slots of the clones left running after a failure
+            pendingCloneSlots.values().forEach(Semaphore::release);
+        }
+
+        if (failure != null) {
+            throw failure;
+        }
+        if (!cloneErrors.isEmpty()) {
+            throw new RuntimeException("Unable to create VMWare instance with : " + instance + " Task result = " +
+                                       cloneErrors);
+        }
+        return clonedVMs;
+    }
+
+    /**
+     * Best effort: a cancelled clone task completes in error, a clone task too far along completes anyway
+     */
+    private void cancelCloneTasks(Collection<Task> cloneTasks) {
+        for (Task cloneTask : cloneTasks) {
+            try {
+                cloneTask.cancelTask();
+            } catch (RemoteException | RuntimeException e) {
+                log.warn("Unable to cancel the VMWare clone task: " + cloneTask.getMOR().getVal(), e);
+            }
+        }
+    }
+
+    /**
+     * Remove a clone created by a failed request. The failure of the request is reported rather than this one.
+     */
+    private void destroyClone(VirtualMachine clonedVM) {
+        try {
+            // The clones are powered on once created
+            clonedVM.powerOffVM_Task().waitForTask();
+            String result = clonedVM.destroy_Task().waitForTask();
+            if (!Task.SUCCESS.equals(result)) {
+                log.warn("Unable to destroy the VMWare clone: " + clonedVM.getMOR().getVal() + " Task result = " +
+                         result);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("Interrupted while destroying the VMWare clone: " + clonedVM.getMOR().getVal(), e);
+        } catch (RemoteException | RuntimeException e) {
+            log.warn("Unable to destroy the VMWare clone: " + clonedVM.getMOR().getVal(), e);
+        }
+    }
+
+    /**
+     * Retrieve the snapshot the linked clones of a VM are based on: its current snapshot, or a new one if it has none.
+     * The snapshot is remembered per VM to clone. Concurrent requests on the same VM wait for the snapshot retrieved by
+     * the first one, so that a single snapshot is taken, without holding the lock of the map while it is taken.
+     */
+    private ManagedObjectReference getTemplateSnapshot(Infrastructure infrastructure, VirtualMachine vmToClone) {
+        String templateKey = getTemplateKey(infrastructure, vmToClone);
+        CompletableFuture<ManagedObjectReference> newSnapshot = new CompletableFuture<>();
+        CompletableFuture<ManagedObjectReference> snapshot = templateSnapshots.computeIfAbsent(templateKey,
+                                                                                               key -> newSnapshot);
+        if (snapshot == newSnapshot) {
+            try {
+                newSnapshot.complete(vmWareProviderVirtualMachineUtil.getOrCreateSnapshot(vmToClone,
+                                                                                          LINKED_CLONE_SNAPSHOT_NAME));
+            } catch (RuntimeException e) {
+                // the next request tries again
+                templateSnapshots.remove(templateKey, newSnapshot);
+                newSnapshot.completeExceptionally(e);
+            }
+        }
+        try {
+            return snapshot.join();
+        } catch (CompletionException e) {
+            throw (RuntimeException) e.getCause();
+        }
+    }
+
+    private String getTemplateKey(Infrastructure infrastructure, VirtualMachine vmToClone) {
+        return infrastructure.getId() + IMAGE_DELIMITER + vmToClone.getMOR().getVal();
+    }
+
+    private boolean acquireCloneSlot(Semaphore destinationCloneSlots, boolean wait) {
+        if (!wait) {
+            return destinationCloneSlots.tryAcquire();
+        }
+        try {
+            destinationCloneSlots.acquire();
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("ERROR interrupted while waiting to clone a VMWare instance", e);
+        }
+    }
+
+    private Semaphore getCloneSlots(Infrastructure infrastructure, VirtualMachineRelocateSpec relocateSpec) {
+        return cloneSlots.computeIfAbsent(getCloneDestinationKey(infrastructure, relocateSpec),
+                                          key -> new Semaphore(maxClonesInFlight));
+    }
+
+    /**
+     * The clones are limited per datastore if it is specified, otherwise per host, otherwise per resource pool
+     */
+    private String getCloneDestinationKey(Infrastructure infrastructure, VirtualMachineRelocateSpec relocateSpecs) {
+        return infrastructure.getId() + IMAGE_DELIMITER +
+               Stream.of(relocateSpecs.getDatastore(), relocateSpecs.getHost(), relocateSpecs.getPool())
+                     .filter(Objects::nonNull)
+                     .findFirst()
+                     .map(mor -> mor.getType() + ":" + mor.getVal())
+                     .orElse(RANDOM_HOST);
     }
 
     /**
@@ -139,15 +445,20 @@ public class VMWareProvider implements CloudProvider {
      *
      * @param instanceIndexStartAt1 the index to look for a MAC address
      * @param vmToClone             the intial VM to clone
+     * @param snapshot              the snapshot to clone from (linked clone), or null for a full clone
      * @param instance              the instance to rely on
      * @return a new VirtualMachineCloneSpec that may be customized with the desired MAC address' index
      */
     private VirtualMachineCloneSpec createVirtualMachineCloneSpec(int instanceIndexStartAt1, VirtualMachine vmToClone,
-            VirtualMachineRelocateSpec relocateSpecs, Instance instance, String uniqueInstanceTag, List<Tag> tags) {
+            VirtualMachineRelocateSpec relocateSpecs, ManagedObjectReference snapshot, Instance instance,
+            String uniqueInstanceTag, List<Tag> tags) {
 
         // Create a new VirtualMachineCloneSpec based on the specified VM to clone.
         VirtualMachineCloneSpec vmCloneSpecs = generateDefaultVirtualMachineCloneSpec(instance);
 
+        // Clone from the snapshot (linked clone), if any
+        vmCloneSpecs.setSnapshot(snapshot);
+
         // Set the hostname
         vmCloneSpecs.getConfig().setName(uniqueInstanceTag);
 
@@ -219,142 +530,241 @@ public class VMWareProvider implements CloudProvider {
 
     @Override
     public void deleteInstance(Infrastructure infrastructure, String instanceId) {
+        callVCenter(infrastructure, true, () -> {
+            deleteVirtualMachine(infrastructure, instanceId);
+            return null;
+        });
+    }
 
-        vmWareProviderVirtualMachineUtil.getAllVirtualMachines(vmWareServiceInstanceCache.getServiceInstance(infrastructure)
-                                                                                         .getRootFolder())
-                                        .stream()
-                                        .filter(vm -> vm.getConfig().getUuid().equals(instanceId))
-                                        .findFirst()
-                                        .ifPresent(vm -> {
-                                            try {
-                                                if (Task.SUCCESS.equals(vm.powerOffVM_Task().waitForTask())) {
-                                                    Task task = vm.destroy_Task();
-                                                    String result = task.waitForTask();
-                                                    if (!result.equals(Task.SUCCESS)) {
-                                                        throw new RuntimeException("Unable to delete VMWare instance : " +
-                                                                                   instanceId + " Task result = " +
-                                                                                   result);
-                                                    }
-                                                } else {
-                                                    throw new RuntimeException("ERROR when powering OFF the instance : " +
-                                                                               instanceId);
-                                                }
-                                            } catch (RemoteException | InterruptedException e) {
-                                                throw new RuntimeException("ERROR when deleting VMWare instance : " +
-                                                                           instanceId, e);
-                                            }
-                                        });
+    private void deleteVirtualMachine(Infrastructure infrastructure, String instanceId) {
+
+        Folder rootFolder = vmWareServiceInstanceCache.getServiceInstance(infrastructure).getRootFolder();
+        getVirtualMachineByUUID(infrastructure, instanceId, rootFolder).ifPresent(vm -> {
+            try {
+                if (Task.SUCCESS.equals(vm.powerOffVM_Task().waitForTask())) {
+                    Task task = vm.destroy_Task();
+                    String result = task.waitForTask();
+                    if (!result.equals(Task.SUCCESS)) {
+                        throw new RuntimeException("Unable to delete VMWare instance : " + instanceId +
+                                                   " Task result = " + result);
+                    }
+                    forgetVirtualMachine(infrastructure, instanceId);
+                } else {
+                    throw new RuntimeException("ERROR when powering OFF the instance : " + instanceId);
+                }
+            } catch (RemoteException | InterruptedException e) {
+                throw new RuntimeException("ERROR when deleting VMWare instance : " + instanceId, e);
+            }
+        });
 
     }
 
     @Override
     public Set<Instance> getAllInfrastructureInstances(Infrastructure infrastructure) {
-        return getInstancesFromVMs(vmWareProviderVirtualMachineUtil.getAllVirtualMachines(vmWareServiceInstanceCache.getServiceInstance(infrastructure)
-                                                                                                                    .getRootFolder()));
+        List<VirtualMachineProperties> vms = getAllVirtualMachineProperties(infrastructure);
+        vms.forEach(vm -> rememberVirtualMachine(infrastructure, vm.getUuid(), vm.getMor()));
+        return getInstancesFromVMs(vms);
     }
 
     @Override
     public Set<Instance> getCreatedInfrastructureInstances(Infrastructure infrastructure) {
         Tag connectorIaasTag = tagManager.getConnectorIaasTag();
-        return getInstancesFromVMs(vmWareProviderVirtualMachineUtil.getAllVirtualMachines(vmWareServiceInstanceCache.getServiceInstance(infrastructure)
-                                                                                                                    .getRootFolder())
-                                                                   .stream()
-                                                                   .filter(vm -> Arrays.stream(vm.getConfig()
-                                                                                                 .getExtraConfig())
-                                                                                       .anyMatch(extraConfig -> extraConfig.getKey()
-                                                                                                                           .equals(connectorIaasTag.getKey()) &&
-                                                                                                                extraConfig.getValue()
-                                                                                                                           .equals(connectorIaasTag.getValue())))
-                                                                   .collect(Collectors.toSet()));
-    }
-
-    private Set<Instance> getInstancesFromVMs(Set<VirtualMachine> vms) {
+        return getInstancesFromVMs(getAllVirtualMachineProperties(infrastructure).stream()
+                                                                                 .filter(vm -> vm.getExtraConfig() != null)
+                                                                                 .filter(vm -> Arrays.stream(vm.getExtraConfig())
+                                                                                                     .anyMatch(extraConfig -> extraConfig.getKey()
+                                                                                                                                         .equals(connectorIaasTag.getKey()) &&
+                                                                                                                              extraConfig.getValue()
+                                                                                                                                         .equals(connectorIaasTag.getValue())))
+                                                                                 .collect(Collectors.toList()));
+    }
+
+    private List<VirtualMachineProperties> getAllVirtualMachineProperties(Infrastructure infrastructure) {
+        return callVCenter(infrastructure,
+                           true,
+                           () -> vmWareProviderVirtualMachineUtil.getAllVirtualMachineProperties(vmWareServiceInstanceCache.getServiceInstance(infrastructure)));
+    }
+
+    private Set<Instance> getInstancesFromVMs(List<VirtualMachineProperties> vms) {
         return vms.stream()
-                  .filter(vm -> vm.getConfig() != null)
+                  // VMs without configuration (e.g. being created) have no UUID
+                  .filter(vm -> vm.getUuid() != null)
                   .map(vm -> Instance.builder()
-                                     .id(vm.getConfig().getUuid())
+                                     .id(vm.getUuid())
                                      .tag(vm.getName())
                                      .number("1")
                                      .hardware(buildVmHardware(vm))
                                      .network(buildVmNetwork(vm))
-
-                                     .status(String.valueOf(vm.getSummary()
-                                                              .getOverallStatus()))
+                                     .status(String.valueOf(vm.getOverallStatus()))
                                      .build())
                   .collect(Collectors.toSet());
     }
 
-    private Network buildVmNetwork(VirtualMachine vm) {
-        return Network.builder().publicAddresses(Lists.newArrayList(vm.getGuest().getIpAddress())).build();
+    private Network buildVmNetwork(VirtualMachineProperties vm) {
+        return Network.builder().publicAddresses(Lists.newArrayList(vm.getIpAddress())).build();
     }
 
-    private Hardware buildVmHardware(VirtualMachine vm) {
+    private Hardware buildVmHardware(VirtualMachineProperties vm) {
         return Hardware.builder()
-                       .minCores(String.valueOf(vm.getConfig().getHardware().getNumCPU()))
-                       .minRam(String.valueOf(vm.getConfig().getHardware().getMemoryMB()))
+                       .minCores(String.valueOf(vm.getNumCPU()))
+                       .minRam(String.valueOf(vm.getMemoryMB()))
                        .build();
     }
 
     @Override
     public List<ScriptResult> executeScriptOnInstanceId(Infrastructure infrastructure, String instanceId,
             InstanceScript instanceScript) {
+        // Not called again, the scripts may have been executed before the session turned out to be expired
+        return callVCenter(infrastructure, false, () -> {
+            ServiceInstance serviceInstance = vmWareServiceInstanceCache.getServiceInstance(infrastructure);
+            VirtualMachine vm = getVirtualMachineByUUID(infrastructure,
+                                                        instanceId,
+                                                        serviceInstance.getRootFolder()).orElseThrow(() -> new RuntimeException("ERROR unable to find VM with UUID: " +
+                                                                                                                                instanceId));
+            return executeScriptOnVirtualMachine(serviceInstance, vm, instanceId, instanceScript);
+        });
+    }
 
-        List<ScriptResult> scriptResults = new ArrayList<>();
+    /**
+     * Execute the script on all the VMs created with the tag (named after it, or after it followed by their index),
+     * with a limited number of VMs at the same time. A VM on which the script cannot be executed gets a result with
+     * the error, so that the results of the other VMs are still returned. Fails when the script cannot be executed on
+     * any of the VMs.
+     */
+    @Override
+    public List<ScriptResult> executeScriptOnInstanceTag(Infrastructure infrastructure, String instanceTag,
+            InstanceScript instanceScript) {
+        List<VirtualMachineProperties> taggedVMs = getAllVirtualMachineProperties(infrastructure).stream()
+                                                                                                 .filter(vm -> vm.getUuid() != null)
+                                                                                                 .filter(vm -> isNamedAfterTag(infrastructure,
+                                                                                                                               vm,
+                                                                                                                               instanceTag))
+                                                                                                 .collect(Collectors.toList());
+        if (taggedVMs.isEmpty()) {
+            throw new RuntimeException("ERROR: unable to find VM with name: " + instanceTag);
+        }
 
+        ExecutorService scriptExecutor = Executors.newFixedThreadPool(Math.min(maxParallelScripts, taggedVMs.size()));
         try {
-            VirtualMachine vm = vmWareProviderVirtualMachineUtil.searchVirtualMachineByUUID(instanceId,
-                                                                                            vmWareServiceInstanceCache.getServiceInstance(infrastructure)
-                                                                                                                      .getRootFolder())
-                                                                .orElseThrow(() -> new RemoteException("Unable to find VM with UUID: " +
-                                                                                                       instanceId));
-
-            GuestOperationsManager gom = vmWareServiceInstanceCache.getServiceInstance(infrastructure)
-                                                                   .getGuestOperationsManager();
-
-            NamePasswordAuthentication npa = new NamePasswordAuthentication();
-            npa.username = instanceScript.getCredentials().getUsername();
-            npa.password = instanceScript.getCredentials().getPassword();
-            npa.interactiveSession = false;
-
-            for (int i = 0; i < instanceScript.getScripts().length; i++) {
-                ScriptResult scriptResult = new ScriptResult(instanceId, "", "");
-
-                GuestProgramSpec gps = new GuestProgramSpec();
+            List<Future<List<ScriptResult>>> vmScriptResults = taggedVMs.stream()
+                                                                        .map(vm -> scriptExecutor.submit(() -> executeScriptOnTaggedVirtualMachine(infrastructure,
+                                                                                                                                                   vm,
+                                                                                                                                                   instanceScript)))
+                                                                        .collect(Collectors.toList());
+            List<ScriptResult> scriptResults = new ArrayList<>();
+            Throwable firstFailure = null;
+            int failedVMs = 0;
+            for (int i = 0; i < taggedVMs.size(); i++) {
+                try {
+                    scriptResults.addAll(vmScriptResults.get(i).get());
+                } catch (ExecutionException e) {
+                    failedVMs++;
+                    firstFailure = Optional.ofNullable(firstFailure).orElse(e.getCause());
+                    scriptResults.add(new ScriptResult(taggedVMs.get(i).getUuid(),
+                                                       "",
+                                                       String.valueOf(e.getCause().getMessage())));
+                }
+            }
+            if (failedVMs == taggedVMs.size()) {
+                throw new RuntimeException("ERROR when executing the script on instances with tag: " + instanceTag,
+                                           firstFailure);
+            }
+            return scriptResults;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("ERROR interrupted while executing the script on instances with tag: " +
+                                       instanceTag, e);
+        } finally {
+            scriptExecutor.shutdownNow();
+        }
+    }
 
-                gps.programPath = "/bin/bash";
-                gps.arguments = instanceScript.getScripts()[i];
+    private List<ScriptResult> executeScriptOnTaggedVirtualMachine(Infrastructure infrastructure,
+            VirtualMachineProperties vmProperties, InstanceScript instanceScript) {
+        // Each VM leases its own session of the pool, given back once its scripts are executed
+        try (ProviderClientCache.UsageScope scope = ProviderClientCache.openUsageScope()) {
+            return callVCenter(infrastructure, false, () -> {
+                ServiceInstance serviceInstance = vmWareServiceInstanceCache.getServiceInstance(infrastructure);
+                VirtualMachine vm = vmWareProviderVirtualMachineUtil.getVirtualMachine(vmProperties.getMor(),
+                                                                                       serviceInstance.getRootFolder());
+                return executeScriptOnVirtualMachine(serviceInstance, vm, vmProperties.getUuid(), instanceScript);
+            });
+        }
+    }
 
-                GuestProcessManager gpm = gom.getProcessManager(vm);
+    /**
+     * Execute the scripts one after the other, each script getting its own result: a script which cannot be executed
+     * gets a result with the error, and the next scripts are still executed. Fails when none of the scripts can be
+     * executed.
+     */
+    private List<ScriptResult> executeScriptOnVirtualMachine(ServiceInstance serviceInstance, VirtualMachine vm,
+            String instanceId, InstanceScript instanceScript) {
+        NamePasswordAuthentication npa = new NamePasswordAuthentication();
+        npa.username = instanceScript.getCredentials().getUsername();
+        npa.password = instanceScript.getCredentials().getPassword();
+        npa.interactiveSession = false;
 
-                scriptResult = scriptResult.withOutput((scriptResult.getOutput() + " " +
-                                                        gpm.startProgramInGuest(npa, gps)).trim());
-                scriptResults.add(scriptResult);
+        List<ScriptResult> scriptResults = new ArrayList<>();
+        RuntimeException firstFailure = null;
+        int failedScripts = 0;
+        for (String script : instanceScript.getScripts()) {
+            try {
+                scriptResults.add(vmWareGuestScriptRunner.runScript(serviceInstance, vm, instanceId, npa, script));
+            } catch (RuntimeException e) {
+                failedScripts++;
+                firstFailure = Optional.ofNullable(firstFailure).orElse(e);
+                scriptResults.add(new ScriptResult(instanceId, "", String.valueOf(e.getMessage())));
             }
+        }
+        if (firstFailure != null && failedScripts == scriptResults.size()) {
+            throw firstFailure;
+        }
+        return scriptResults;
+    }
 
-        } catch (RemoteException e) {
-            throw new RuntimeException("ERROR when executing the script: " + instanceScript + " against instance id: " +
-                                       instanceId, e);
+    /**
+     * Whether the VM is named after the tag, or was created with the tag by this infrastructure and is named after it
+     * followed by its index. The index suffix alone would also match the VMs named after another tag (e.g. the tag
+     * 'web' and a VM 'web_2019').
+     */
+    private boolean isNamedAfterTag(Infrastructure infrastructure, VirtualMachineProperties vm, String instanceTag) {
+        if (vm.getName() == null) {
+            return false;
+        }
+        if (vm.getName().equals(instanceTag)) {
+            return true;
         }
+        Tag connectorIaasTag = tagManager.getConnectorIaasTag();
+        return vm.getName().matches(Pattern.quote(instanceTag) + INSTANCE_INDEX_PATTERN) &&
+               hasTag(vm, connectorIaasTag.getKey(), connectorIaasTag.getValue()) &&
+               hasTag(vm, tagManager.getInfrastructureIdTag().getKey(), infrastructure.getId());
+    }
 
-        return scriptResults;
+    private boolean hasTag(VirtualMachineProperties vm, String key, String value) {
+        return vm.getExtraConfig() != null && Arrays.stream(vm.getExtraConfig())
+                                                    .anyMatch(extraConfig -> key.equals(extraConfig.getKey()) &&
+                                                                             value.equals(extraConfig.getValue()));
     }
 
-    @Override
-    public List<ScriptResult> executeScriptOnInstanceTag(Infrastructure infrastructure, String instanceTag,
-            InstanceScript instanceScript) {
-        Optional<VirtualMachine> virtualMachine = vmWareProviderVirtualMachineUtil.searchVirtualMachineByName(instanceTag,
-                                                                                                              vmWareServiceInstanceCache.getServiceInstance(infrastructure)
-                                                                                                                                        .getRootFolder());
-        if (virtualMachine.isPresent()) {
-            if (virtualMachine.get().getConfig() != null) {
-                return executeScriptOnInstanceId(infrastructure,
-                                                 virtualMachine.get().getConfig().getUuid(),
-                                                 instanceScript);
-            } else {
-                throw new RuntimeException("ERROR: unable to retrieve configuration for the VM: " + instanceTag);
+    /**
+     * Call the vCenter, and call it again once if the session turns out to be no longer authenticated (e.g. it expired
+     * on the vCenter between two keep-alive calls), the sessions being logged in again when next handed out. The
+     * operations which are not idempotent are not called again, only the next operations get new logins.
+     */
+    private <T> T callVCenter(Infrastructure infrastructure, boolean idempotent, Supplier<T> operation) {
+        try {
+            return operation.get();
+        } catch (RuntimeException e) {
+            if (!Throwables.getCausalChain(e).stream().anyMatch(NotAuthenticated.class::isInstance)) {
+                throw e;
             }
-        } else {
-            throw new RuntimeException("ERROR: unable to find VM with name: " + instanceTag);
+            vmWareServiceInstanceCache.invalidateServiceInstances(infrastructure);
+            if (!idempotent) {
+                throw e;
+            }
+            log.info("VMWare session of infrastructure " + infrastructure.getId() +
+                     " is no longer authenticated, calling again");
+            return operation.get();
         }
     }
 
@@ -370,9 +780,17 @@ public class VMWareProvider implements CloudProvider {
 
     @Override
     public void deleteInfrastructure(Infrastructure infrastructure) {
+        virtualMachineReferences.remove(infrastructure.getId());
+        templateSnapshots.keySet().removeIf(key -> key.startsWith(infrastructure.getId() + IMAGE_DELIMITER));
+        topologies.remove(infrastructure.getId());
         vmWareServiceInstanceCache.removeServiceInstance(infrastructure);
     }
 
+    @Override
+    public void warmUp(Infrastructure infrastructure) {
+        vmWareServiceInstanceCache.getServiceInstance(infrastructure);
+    }
+
     @Override
     public String addToInstancePublicIp(Infrastructure infrastructure, String instanceId, String optionalDesiredIp) {
         throw new NotSupportedException("Operation not supported for VMWare");
@@ -398,26 +816,6 @@ public class VMWareProvider implements CloudProvider {
         throw new NotImplementedException("This method is not yet implemented.");
     }
 
-    private VirtualMachine cloneVM(VirtualMachine vm, String newVMname, Instance instance, Folder rootFolder,
-            VirtualMachineCloneSpec vmcs, Folder vmFolder) {
-        try {
-            // Clone the VM : call to VMWare API
-            Task task = vm.cloneVM_Task(vmFolder, newVMname, vmcs);
-
-            String result = task.waitForTask();
-            if (!Task.SUCCESS.equals(result)) {
-                throw new RuntimeException("Unable to create VMWare instance with : " + instance + " Task result = " +
-                                           result);
-            }
-
-            return vmWareProviderVirtualMachineUtil.searchVirtualMachineByName(newVMname, rootFolder)
-                                                   .orElseThrow(() -> new RemoteException("Unable to find the new VM: '" +
-                                                                                          newVMname + "'"));
-        } catch (RemoteException | InterruptedException e) {
-            throw new RuntimeException("ERROR when creating VMWare instance with : " + instance, e);
-        }
-    }
-
     private VirtualMachineConfigSpec getVirtualMachineConfigSpec(Instance instance) {
         VirtualMachineConfigSpec vmconfigspec = new VirtualMachineConfigSpec();
         vmconfigspec.setMemoryMB(Long.valueOf(instance.getHardware().getMinRam()));
@@ -433,53 +831,120 @@ public class VMWareProvider implements CloudProvider {
         return isMultiPartImage(image) ? image.split(IMAGE_DELIMITER)[0] : image;
     }
 
-    private Folder getDestinationFolderFromImage(String image, Folder rootFolder) {
+    private Folder getDestinationFolderFromImage(Infrastructure infrastructure, String image, VirtualMachine vmToClone,
+            Folder rootFolder) {
         Optional<Folder> destinationFolder = Optional.empty();
         if (isMultiPartImage(image)) {
             String host = image.split(IMAGE_DELIMITER)[1];
             if (!host.equals(RANDOM_HOST)) {
-                destinationFolder = vmWareProviderVirtualMachineUtil.searchVMFolderByHostname(host, rootFolder);
+                destinationFolder = getTopology(infrastructure, rootFolder).getVMFolderOfHost(host);
             }
         } else {
-            destinationFolder = vmWareProviderVirtualMachineUtil.searchVMFolderFromVMName(image, rootFolder);
+            destinationFolder = vmWareProviderVirtualMachineUtil.getVirtualMachineFolder(vmToClone);
         }
-        return destinationFolder.orElseGet(() -> vmWareProviderVirtualMachineUtil.searchFolderByName("VM", rootFolder)
-                                                                                 .orElseThrow(() -> new RuntimeException("ERROR unable to retrieve a VM folder from image: '" +
-                                                                                                                         image +
-                                                                                                                         "'")));
+        return destinationFolder.orElseGet(() -> getTopology(infrastructure,
+                                                             rootFolder).getFolder("VM")
+                                                                        .orElseThrow(() -> new RuntimeException("ERROR unable to retrieve a VM folder from image: '" +
+                                                                                                                image +
+                                                                                                                "'")));
     }
 
-    private VirtualMachineRelocateSpec inferRelocateSpecsFromImageArgument(String image, Folder rootFolder) {
+    /**
+     * Infer the location of each clone from the image argument: the resource pool of the VM to clone by default, a
+     * given host ('vm/host') or a random resource pool ('vm/*'). In the last two cases, each clone is placed on a
+     * datastore chosen according to the free space of the datastores available to the host or resource pool.
+     */
+    private List<VirtualMachineRelocateSpec> inferRelocateSpecsFromImageArgument(Infrastructure infrastructure,
+            String image, VirtualMachine vmToClone, Folder rootFolder, int nbInstances) {
 
         Optional<ResourcePool> destinationPool = Optional.empty();
         Optional<HostSystem> destinationHost = Optional.empty();
-        Optional<Datastore> destinationDatastore = Optional.empty();
+        List<DatastoreSpace> destinationDatastores = Collections.emptyList();
 
         if (isMultiPartImage(image)) {
+            VMWareTopology topology = getTopology(infrastructure, rootFolder);
             String hostname = image.split(IMAGE_DELIMITER)[1];
             if (hostname.equals(RANDOM_HOST)) {
-                destinationPool = vmWareProviderVirtualMachineUtil.getRandomResourcePool(rootFolder);
-                if (destinationPool.isPresent()) {
-                    destinationDatastore = vmWareProviderVirtualMachineUtil.getDatastoreWithMostSpaceFromPool(destinationPool.get());
-                }
+                Optional<ResourcePoolPlacement> randomPool = topology.getRandomResourcePool(random);
+                destinationPool = randomPool.map(ResourcePoolPlacement::getResourcePool);
+                destinationDatastores = randomPool.map(ResourcePoolPlacement::getDatastores)
+                                                  .orElse(Collections.emptyList());
             } else {
-                destinationPool = vmWareProviderVirtualMachineUtil.searchResourcePoolByHostname(hostname, rootFolder);
-                destinationHost = vmWareProviderVirtualMachineUtil.searchHostByName(hostname, rootFolder);
-                if (destinationHost.isPresent()) {
-                    destinationDatastore = vmWareProviderVirtualMachineUtil.getDatastoreWithMostSpaceFromHost(destinationHost.get());
-                }
+                destinationPool = topology.getResourcePoolOfHost(hostname).map(ResourcePoolPlacement::getResourcePool);
+                destinationHost = topology.getHost(hostname);
+                destinationDatastores = topology.getDatastoresOfHost(hostname);
             }
         }
 
-        VirtualMachine vmToClone = getVirtualMachineByNameOrUUID(getInstanceIdFromImage(image), rootFolder);
-
-        return generateCustomRelocateSpecs(destinationPool.orElseGet(() -> {
+        ResourcePool pool = destinationPool.orElseGet(() -> {
             try {
                 return vmToClone.getResourcePool();
             } catch (RemoteException e) {
                 throw new RuntimeException("Unable to retrieve destination resource pool for VM:", e);
             }
-        }), destinationHost.orElse(null), destinationDatastore.orElse(null));
+        });
+        HostSystem host = destinationHost.orElse(null);
+        List<DatastoreSpace> datastores = destinationDatastores;
+
+        return IntStream.range(0, nbInstances)
+                        .mapToObj(index -> generateCustomRelocateSpecs(pool, host, chooseDatastore(datastores)))
+                        .collect(Collectors.toList());
+    }
+
+    /**
+     * Retrieve the placement topology of the vCenter, loading it again on access once it is older than the refresh
+     * period. The topology is loaded outside of any lock of the map, which only receives the loaded topology.
+     */
+    private VMWareTopology getTopology(Infrastructure infrastructure, Folder rootFolder) {
+        VMWareTopology topology = topologies.get(infrastructure.getId());
+        if (topology == null || topology.isOlderThan(TimeUnit.SECONDS.toMillis(topologyRefreshPeriod))) {
+            topology = vmWareProviderVirtualMachineUtil.loadTopology(rootFolder);
+            topologies.put(infrastructure.getId(), topology);
+        }
+        return topology;
+    }
+
+    private Datastore chooseDatastore(List<DatastoreSpace> datastores) {
+        return VMWareTopology.chooseDatastore(datastores, random.nextDouble()).orElse(null);
+    }
+
+    /**
+     * Retrieve a VM from its UUID, through its known reference when it is still valid, and through the vCenter search
+     * index otherwise
+     *
+     * @param infrastructure the infrastructure of the VM
+     * @param uuid           the UUID of the VM
+     * @param rootFolder     the root folder of the infrastructure inventory
+     * @return the VM, if found
+     */
+    private Optional<VirtualMachine> getVirtualMachineByUUID(Infrastructure infrastructure, String uuid,
+            Folder rootFolder) {
+        Map<String, ManagedObjectReference> references = virtualMachineReferences.getOrDefault(infrastructure.getId(),
+                                                                                               Collections.emptyMap());
+        Optional<VirtualMachine> knownVirtualMachine = Optional.ofNullable(references.get(uuid))
+                                                               .flatMap(mor -> vmWareProviderVirtualMachineUtil.getVirtualMachineByReference(mor,
+                                                                                                                                             uuid,
+                                                                                                                                             rootFolder));
+        if (knownVirtualMachine.isPresent()) {
+            return knownVirtualMachine;
+        }
+        forgetVirtualMachine(infrastructure, uuid);
+        Optional<VirtualMachine> virtualMachine = vmWareProviderVirtualMachineUtil.searchVirtualMachineByUUID(uuid,
+                                                                                                              rootFolder);
+        virtualMachine.ifPresent(vm -> rememberVirtualMachine(infrastructure, uuid, vm.getMOR()));
+        return virtualMachine;
+    }
+
+    private void rememberVirtualMachine(Infrastructure infrastructure, String uuid, ManagedObjectReference mor) {
+        if (uuid != null && mor != null) {
+            virtualMachineReferences.computeIfAbsent(infrastructure.getId(), id -> new ConcurrentHashMap<>())
+                                    .put(uuid, mor);
+        }
+    }
+
+    private void forgetVirtualMachine(Infrastructure infrastructure, String uuid) {
+        Optional.ofNullable(virtualMachineReferences.get(infrastructure.getId()))
+                .ifPresent(references -> references.remove(uuid));
     }
 
     private VirtualMachine getVirtualMachineByNameOrUUID(String nameOrID, Folder rootFolder) {
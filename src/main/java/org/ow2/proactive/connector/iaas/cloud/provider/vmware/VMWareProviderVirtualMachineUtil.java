@@ -27,23 +27,45 @@ package org.ow2.proactive.connector.iaas.cloud.provider.vmware;
 
 import java.rmi.RemoteException;
 import java.util.ArrayList;
-import java.util.Comparator;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
-import java.util.Random;
-import java.util.Set;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
 
+import org.ow2.proactive.connector.iaas.cloud.provider.vmware.VMWareTopology.DatastoreSpace;
+import org.ow2.proactive.connector.iaas.cloud.provider.vmware.VMWareTopology.ResourcePoolPlacement;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
-import com.google.common.collect.Lists;
+import com.google.common.base.Throwables;
+import com.vmware.vim25.ArrayOfOptionValue;
+import com.vmware.vim25.DatastoreSummary;
+import com.vmware.vim25.DynamicProperty;
+import com.vmware.vim25.ManagedEntityStatus;
+import com.vmware.vim25.ManagedObjectNotFound;
+import com.vmware.vim25.ManagedObjectReference;
+import com.vmware.vim25.ObjectContent;
+import com.vmware.vim25.ObjectSpec;
+import com.vmware.vim25.PropertyFilterSpec;
+import com.vmware.vim25.PropertySpec;
+import com.vmware.vim25.RetrieveOptions;
+import com.vmware.vim25.RetrieveResult;
+import com.vmware.vim25.SelectionSpec;
+import com.vmware.vim25.TraversalSpec;
+import com.vmware.vim25.VirtualMachineSnapshotInfo;
+import com.vmware.vim25.mo.ComputeResource;
+import com.vmware.vim25.mo.ContainerView;
 import com.vmware.vim25.mo.Datastore;
 import com.vmware.vim25.mo.Folder;
 import com.vmware.vim25.mo.HostSystem;
 import com.vmware.vim25.mo.InventoryNavigator;
 import com.vmware.vim25.mo.ManagedEntity;
+import com.vmware.vim25.mo.PropertyCollector;
 import com.vmware.vim25.mo.ResourcePool;
+import com.vmware.vim25.mo.ServiceInstance;
+import com.vmware.vim25.mo.Task;
 import com.vmware.vim25.mo.VirtualMachine;
 
 import lombok.Getter;
@@ -64,6 +86,28 @@ public class VMWareProviderVirtualMachineUtil {
         private final String value;
     }
 
+    private static final String PROPERTY_UUID = "config.uuid";
+
+    private static final String PROPERTY_NAME = "name";
+
+    private static final String PROPERTY_NUM_CPU = "config.hardware.numCPU";
+
+    private static final String PROPERTY_MEMORY_MB = "config.hardware.memoryMB";
+
+    private static final String PROPERTY_IP_ADDRESS = "guest.ipAddress";
+
+    private static final String PROPERTY_OVERALL_STATUS = "overallStatus";
+
+    private static final String PROPERTY_EXTRA_CONFIG = "config.extraConfig";
+
+    // Number of virtual machines retrieved by each property collector call
+    @Value("${connector-iaas.vmware.inventory-page-size:500}")
+    private int inventoryPageSize = 500;
+
+    // Maximum time of each wait for task updates, so that the waiting loop never blocks indefinitely on a session
+    @Value("${connector-iaas.vmware.task.max-wait:60}")
+    private int taskMaxWaitSeconds = 60;
+
     public Optional<VirtualMachine> searchVirtualMachineByName(String name, Folder rootFolder) {
         try {
             return Optional.ofNullable((VirtualMachine) new InventoryNavigator(rootFolder).searchManagedEntity(EntityType.VM.getValue(),
@@ -75,119 +119,238 @@ public class VMWareProviderVirtualMachineUtil {
 
     public Optional<VirtualMachine> searchVirtualMachineByUUID(String uuid, Folder rootFolder) {
         try {
-            return Lists.newArrayList(new InventoryNavigator(rootFolder).searchManagedEntities(EntityType.VM.getValue()))
-                        .stream()
-                        .map(virtualMachine -> (VirtualMachine) virtualMachine)
-                        .filter(virtualMachine -> virtualMachine.getConfig() != null)
-                        .filter(virtualMachine -> virtualMachine.getConfig().getUuid().equals(uuid))
-                        .findFirst();
+            // Let the vCenter search its index (BIOS UUID of virtual machines) rather than walking the inventory
+            return Optional.ofNullable((VirtualMachine) rootFolder.getServerConnection()
+                                                                  .getServiceInstance()
+                                                                  .getSearchIndex()
+                                                                  .findByUuid(null, uuid, true));
         } catch (RemoteException e) {
-            throw new RuntimeException("ERROR when retrieving VMWare virtual machines" + uuid, e);
+            throw new RuntimeException("ERROR when retrieving VMWare virtual machine with UUID: " + uuid, e);
         }
     }
 
-    public Set<VirtualMachine> getAllVirtualMachines(Folder rootFolder) {
-        try {
-            ManagedEntity[] managedEntities = new InventoryNavigator(rootFolder).searchManagedEntities(EntityType.VM.getValue());
-
-            return IntStream.range(0, managedEntities.length)
-                            .mapToObj(i -> (VirtualMachine) managedEntities[i])
-                            .collect(Collectors.toSet());
-
-        } catch (RemoteException e) {
-            throw new RuntimeException("ERROR when retrieving VMWare virtual machines", e);
-        }
+    public VirtualMachine getVirtualMachine(ManagedObjectReference mor, Folder rootFolder) {
+        return new VirtualMachine(rootFolder.getServerConnection(), mor);
     }
 
-    public Optional<HostSystem> searchHostByName(String name, Folder rootFolder) {
+    /**
+     * Retrieve the current snapshot of a virtual machine, taking a new one (without memory) if it has none
+     *
+     * @param virtualMachine the virtual machine
+     * @param snapshotName   the name of the snapshot to take, if needed
+     * @return the reference of the snapshot
+     */
+    public ManagedObjectReference getOrCreateSnapshot(VirtualMachine virtualMachine, String snapshotName) {
         try {
-            return Optional.ofNullable((HostSystem) new InventoryNavigator(rootFolder).searchManagedEntity(EntityType.HOST.getValue(),
-                                                                                                           name));
-        } catch (RemoteException e) {
-            throw new RuntimeException("ERROR when retrieving VMWare host with name: " + name, e);
+            VirtualMachineSnapshotInfo snapshotInfo = virtualMachine.getSnapshot();
+            if (snapshotInfo != null && snapshotInfo.getCurrentSnapshot() != null) {
+                return snapshotInfo.getCurrentSnapshot();
+            }
+            Task task = virtualMachine.createSnapshot_Task(snapshotName, snapshotName, false, false);
+            String result = task.waitForTask();
+            if (!Task.SUCCESS.equals(result)) {
+                throw new RuntimeException("ERROR when taking a snapshot of VMWare virtual machine: " +
+                                           virtualMachine.getName() + " Task result = " + result);
+            }
+            return (ManagedObjectReference) task.getTaskInfo().getResult();
+        } catch (RemoteException | InterruptedException e) {
+            throw new RuntimeException("ERROR when taking a snapshot of VMWare virtual machine: " +
+                                       virtualMachine.getName(), e);
         }
     }
 
-    public Optional<Folder> searchFolderByName(String name, Folder rootFolder) {
-        try {
-            return Optional.ofNullable((Folder) new InventoryNavigator(rootFolder).searchManagedEntity(EntityType.FOLDER.getValue(),
-                                                                                                       name));
-        } catch (RemoteException e) {
-            throw new RuntimeException("ERROR when retrieving VMWare folder with name: " + name, e);
-        }
+    public VMWareTaskMultiplexer createTaskMultiplexer(ServiceInstance serviceInstance) {
+        return new VMWareTaskMultiplexer(serviceInstance, taskMaxWaitSeconds);
     }
 
-    public Optional<Folder> searchVMFolderFromVMName(String name, Folder rootFolder) {
-        ManagedEntity vmFolder = null;
-        Optional<VirtualMachine> vm = searchVirtualMachineByName(name, rootFolder);
-        if (vm.isPresent()) {
-            ManagedEntity current = vm.get().getParent();
-            while (current != null && !(current instanceof Folder)) {
-                current = current.getParent();
+    /**
+     * Retrieve a virtual machine from a previously known reference, checking that it still is the expected one. Only
+     * the UUID of the virtual machine is retrieved, not its whole configuration.
+     *
+     * @param mor        the reference of the virtual machine
+     * @param uuid       the expected UUID of the virtual machine
+     * @param rootFolder the root folder of the inventory
+     * @return the virtual machine, or nothing if the reference is not valid anymore
+     */
+    public Optional<VirtualMachine> getVirtualMachineByReference(ManagedObjectReference mor, String uuid,
+            Folder rootFolder) {
+        VirtualMachine virtualMachine = new VirtualMachine(rootFolder.getServerConnection(), mor);
+        try {
+            return Optional.ofNullable(virtualMachine.getPropertyByPath("config.uuid"))
+                           .filter(uuid::equals)
+                           .map(virtualMachineUuid -> virtualMachine);
+        } catch (RuntimeException e) {
+            if (Throwables.getCausalChain(e).stream().anyMatch(ManagedObjectNotFound.class::isInstance)) {
+                // The virtual machine has been removed from the inventory
+                return Optional.empty();
             }
-            vmFolder = current;
+            throw e;
         }
-        return Optional.ofNullable((Folder) vmFolder);
     }
 
-    public Optional<Folder> searchVMFolderByHostname(String hostname, Folder rootFolder) {
+    /**
+     * Retrieve the properties describing every virtual machine of the inventory through the property collector, a
+     * page of virtual machines per call, instead of several calls per virtual machine.
+     *
+     * @param serviceInstance the service instance to query
+     * @return the properties of all the virtual machines
+     */
+    public List<VirtualMachineProperties> getAllVirtualMachineProperties(ServiceInstance serviceInstance) {
         try {
-            return Lists.newArrayList(new InventoryNavigator(rootFolder).searchManagedEntities(EntityType.FOLDER.getValue()))
-                        .stream()
-                        .map(folder -> (Folder) folder)
-                        .filter(folder -> folder.getName().toLowerCase().contains("vm") &&
-                                          folder.getName().toLowerCase().contains(hostname.toLowerCase()))
-                        .findAny();
+            ContainerView containerView = serviceInstance.getViewManager()
+                                                         .createContainerView(serviceInstance.getRootFolder(),
+                                                                              new String[] { EntityType.VM.getValue() },
+                                                                              true);
+            try {
+                PropertyCollector propertyCollector = serviceInstance.getPropertyCollector();
+                RetrieveOptions retrieveOptions = new RetrieveOptions();
+                retrieveOptions.setMaxObjects(inventoryPageSize);
+
+                List<VirtualMachineProperties> virtualMachineProperties = new ArrayList<>();
+                RetrieveResult retrieveResult = propertyCollector.retrievePropertiesEx(new PropertyFilterSpec[] { createVirtualMachinePropertyFilterSpec(containerView) },
+                                                                                       retrieveOptions);
+                while (retrieveResult != null) {
+                    Optional.ofNullable(retrieveResult.getObjects())
+                            .map(Arrays::stream)
+                            .ifPresent(objectContents -> objectContents.map(this::toVirtualMachineProperties)
+                                                                       .forEach(virtualMachineProperties::add));
+                    retrieveResult = retrieveResult.getToken() == null ? null
+                                                                       : propertyCollector.continueRetrievePropertiesEx(retrieveResult.getToken());
+                }
+                return virtualMachineProperties;
+            } finally {
+                containerView.destroyView();
+            }
         } catch (RemoteException e) {
-            throw new RuntimeException("ERROR when retrieving VMWare folders", e);
+            throw new RuntimeException("ERROR when retrieving VMWare virtual machines properties", e);
         }
     }
 
-    public Optional<ResourcePool> searchResourcePoolByHostname(String hostname, Folder rootFolder) {
-        try {
-            return Lists.newArrayList(new InventoryNavigator(rootFolder).searchManagedEntities(EntityType.POOL.getValue()))
-                        .stream()
-                        .map(resourcePool -> (ResourcePool) resourcePool)
-                        .filter(resourcePool -> resourcePool.getParent().getName().equals(hostname))
-                        .findAny();
-        } catch (RemoteException e) {
-            throw new RuntimeException("ERROR when retrieving VMWare resource pools", e);
+    private PropertyFilterSpec createVirtualMachinePropertyFilterSpec(ContainerView containerView) {
+        // Walk through all the virtual machines of the container view
+        TraversalSpec traversalSpec = new TraversalSpec();
+        traversalSpec.setName("traverseView");
+        traversalSpec.setType("ContainerView");
+        traversalSpec.setPath("view");
+        traversalSpec.setSkip(false);
+
+        ObjectSpec objectSpec = new ObjectSpec();
+        objectSpec.setObj(containerView.getMOR());
+        objectSpec.setSkip(true);
+        objectSpec.setSelectSet(new SelectionSpec[] { traversalSpec });
+
+        // Only fetch the properties used to describe instances
+        PropertySpec propertySpec = new PropertySpec();
+        propertySpec.setType(EntityType.VM.getValue());
+        propertySpec.setPathSet(new String[] { PROPERTY_UUID, PROPERTY_NAME, PROPERTY_NUM_CPU, PROPERTY_MEMORY_MB,
+                                               PROPERTY_IP_ADDRESS, PROPERTY_OVERALL_STATUS, PROPERTY_EXTRA_CONFIG });
+
+        PropertyFilterSpec propertyFilterSpec = new PropertyFilterSpec();
+        propertyFilterSpec.setObjectSet(new ObjectSpec[] { objectSpec });
+        propertyFilterSpec.setPropSet(new PropertySpec[] { propertySpec });
+        return propertyFilterSpec;
+    }
+
+    private VirtualMachineProperties toVirtualMachineProperties(ObjectContent objectContent) {
+        VirtualMachineProperties.VirtualMachinePropertiesBuilder builder = VirtualMachineProperties.builder()
+                                                                                                   .mor(objectContent.getObj());
+        // Unset properties (e.g. the IP address of a stopped VM) are not returned at all
+        Optional.ofNullable(objectContent.getPropSet())
+                .map(Arrays::stream)
+                .ifPresent(properties -> properties.forEach(property -> setVirtualMachineProperty(builder, property)));
+        return builder.build();
+    }
+
+    private void setVirtualMachineProperty(VirtualMachineProperties.VirtualMachinePropertiesBuilder builder,
+            DynamicProperty property) {
+        switch (property.getName()) {
+            case PROPERTY_UUID:
+                builder.uuid((String) property.getVal());
+                break;
+            case PROPERTY_NAME:
+                builder.name((String) property.getVal());
+                break;
+            case PROPERTY_NUM_CPU:
+                builder.numCPU((Integer) property.getVal());
+                break;
+            case PROPERTY_MEMORY_MB:
+                builder.memoryMB((Integer) property.getVal());
+                break;
+            case PROPERTY_IP_ADDRESS:
+                builder.ipAddress((String) property.getVal());
+                break;
+            case PROPERTY_OVERALL_STATUS:
+                builder.overallStatus((ManagedEntityStatus) property.getVal());
+                break;
+            case PROPERTY_EXTRA_CONFIG:
+                builder.extraConfig(((ArrayOfOptionValue) property.getVal()).getOptionValue());
+                break;
+            default:
+                break;
         }
     }
 
-    public Optional<Datastore> getDatastoreWithMostSpaceFromHost(HostSystem host) {
-        try {
-            return Lists.newArrayList(host.getDatastores())
-                        .stream()
-                        .filter(datastore -> datastore.getSummary().isAccessible())
-                        .max(Comparator.comparingLong(datastore -> datastore.getSummary().getFreeSpace()));
-        } catch (RemoteException e) {
-            throw new RuntimeException("ERROR when retrieving VMWare datastores from host: " + host.getName(), e);
+    public Optional<Folder> getVirtualMachineFolder(VirtualMachine virtualMachine) {
+        ManagedEntity current = virtualMachine.getParent();
+        while (current != null && !(current instanceof Folder)) {
+            current = current.getParent();
         }
+        return Optional.ofNullable((Folder) current);
     }
 
-    public Optional<Datastore> getDatastoreWithMostSpaceFromPool(ResourcePool resourcePool) {
+    /**
+     * Load the placement targets of a vCenter: its folders, hosts and resource pools, with the accessible datastores
+     * of each host and of each compute resource owning a resource pool.
+     */
+    public VMWareTopology loadTopology(Folder rootFolder) {
         try {
-            return Lists.newArrayList(resourcePool.getOwner().getDatastores())
-                        .stream()
-                        .filter(datastore -> datastore.getSummary().isAccessible())
-                        .max(Comparator.comparingLong(datastore -> datastore.getSummary().getFreeSpace()));
+            InventoryNavigator inventoryNavigator = new InventoryNavigator(rootFolder);
+
+            Map<String, Folder> folders = new HashMap<>();
+            for (ManagedEntity folder : inventoryNavigator.searchManagedEntities(EntityType.FOLDER.getValue())) {
+                folders.putIfAbsent(folder.getName(), (Folder) folder);
+            }
+
+            Map<String, HostSystem> hosts = new HashMap<>();
+            Map<String, List<DatastoreSpace>> hostDatastores = new HashMap<>();
+            for (ManagedEntity entity : inventoryNavigator.searchManagedEntities(EntityType.HOST.getValue())) {
+                HostSystem host = (HostSystem) entity;
+                if (hosts.putIfAbsent(host.getName(), host) == null) {
+                    hostDatastores.put(host.getName(), getDatastoreSpaces(host.getDatastores()));
+                }
+            }
+
+            // Several resource pools share the datastores of the same compute resource
+            Map<String, List<DatastoreSpace>> ownerDatastores = new HashMap<>();
+            List<ResourcePoolPlacement> resourcePools = new ArrayList<>();
+            for (ManagedEntity entity : inventoryNavigator.searchManagedEntities(EntityType.POOL.getValue())) {
+                ResourcePool resourcePool = (ResourcePool) entity;
+                ComputeResource owner = resourcePool.getOwner();
+                List<DatastoreSpace> datastores = ownerDatastores.get(owner.getMOR().getVal());
+                if (datastores == null) {
+                    datastores = getDatastoreSpaces(owner.getDatastores());
+                    ownerDatastores.put(owner.getMOR().getVal(), datastores);
+                }
+                resourcePools.add(new ResourcePoolPlacement(resourcePool, resourcePool.getParent().getName(), datastores));
+            }
+
+            return new VMWareTopology(folders, hosts, hostDatastores, resourcePools, System.currentTimeMillis());
         } catch (RemoteException e) {
-            throw new RuntimeException("ERROR when retrieving VMWare resource pool's owner from: " +
-                                       resourcePool.getName(), e);
+            throw new RuntimeException("ERROR when retrieving VMWare placement topology", e);
         }
     }
 
-    public Optional<ResourcePool> getRandomResourcePool(Folder rootFolder) {
-        List<ResourcePool> resourcePools = null;
-        try {
-            resourcePools = Lists.newArrayList(new InventoryNavigator(rootFolder).searchManagedEntities(EntityType.POOL.getValue()))
-                                 .stream()
-                                 .map(resourcePool -> (ResourcePool) resourcePool)
-                                 .collect(Collectors.toCollection(ArrayList::new));
-        } catch (RemoteException e) {
-            throw new RuntimeException("ERROR when retrieving VMWare resource pool", e);
+    private List<DatastoreSpace> getDatastoreSpaces(Datastore[] datastores) {
+        if (datastores == null) {
+            return Collections.emptyList();
+        }
+        List<DatastoreSpace> datastoreSpaces = new ArrayList<>();
+        for (Datastore datastore : datastores) {
+            DatastoreSummary summary = datastore.getSummary();
+            if (summary.isAccessible()) {
+                datastoreSpaces.add(new DatastoreSpace(datastore, summary.getFreeSpace()));
+            }
         }
-        return Optional.ofNullable(resourcePools.get(new Random().nextInt(resourcePools.size())));
+        return datastoreSpaces;
     }
 }
@@ -25,12 +25,14 @@
  */
 package org.ow2.proactive.connector.iaas.cloud.provider.vmware;
 
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.function.Function;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 
+import org.ow2.proactive.connector.iaas.cloud.provider.ProviderClientCache;
+import org.ow2.proactive.connector.iaas.cloud.provider.ProviderClientCache.ProviderClientCacheStatistics;
 import org.ow2.proactive.connector.iaas.model.Infrastructure;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import com.vmware.vim25.mo.ServiceInstance;
@@ -42,26 +44,59 @@ public class VMWareServiceInstanceCache {
     @Autowired
     private VMWareServiceInstanceBuilder ServiceInstanceBuilder;
 
-    private Map<Infrastructure, ServiceInstance> serviceInstanceCache;
+    @Value("${connector-iaas.client-cache.max-size:500}")
+    private int maxSize;
 
-    public VMWareServiceInstanceCache() {
-        serviceInstanceCache = new ConcurrentHashMap<Infrastructure, ServiceInstance>();
+    @Value("${connector-iaas.client-cache.idle-timeout:1800}")
+    private long idleTimeoutSeconds;
+
+    @Value("${connector-iaas.client-cache.failure-backoff:5}")
+    private long failureBackoffSeconds;
+
+    @Value("${connector-iaas.client-cache.max-failure-backoff:300}")
+    private long maxFailureBackoffSeconds;
+
+    // Number of sessions opened on each vCenter
+    @Value("${connector-iaas.vmware.session.pool-size:2}")
+    private int sessionPoolSize;
+
+    // Period in seconds of the calls keeping the sessions alive
+    @Value("${connector-iaas.vmware.session.keep-alive:300}")
+    private long sessionKeepAliveSeconds;
+
+    private final ProviderClientCache<VMWareSessionPool> serviceInstanceCache = new ProviderClientCache<>("vmware",
+                                                                                                          infrastructure -> new VMWareSessionPool(() -> ServiceInstanceBuilder.buildServiceInstanceFromInfrastructure(infrastructure),
+                                                                                                                                                  sessionPoolSize,
+                                                                                                                                                  sessionKeepAliveSeconds),
+                                                                                                          VMWareSessionPool::close);
+
+    @PostConstruct
+    public void configureCache() {
+        serviceInstanceCache.configure(maxSize, idleTimeoutSeconds, failureBackoffSeconds, maxFailureBackoffSeconds);
+    }
+
+    @PreDestroy
+    public void closeAll() {
+        serviceInstanceCache.clear();
     }
 
     public ServiceInstance getServiceInstance(Infrastructure infrastructure) {
-        return buildComputeService.apply(infrastructure);
+        return serviceInstanceCache.get(infrastructure).getSession();
+    }
+
+    /**
+     * Check the sessions of the infrastructure, and log them in again if needed, when they are next handed out
+     */
+    public void invalidateServiceInstances(Infrastructure infrastructure) {
+        serviceInstanceCache.get(infrastructure).invalidateSessions();
     }
 
     public void removeServiceInstance(Infrastructure infrastructure) {
         serviceInstanceCache.remove(infrastructure);
     }
 
-    private Function<Infrastructure, ServiceInstance> buildComputeService = memoise(infrastructure -> {
-        return ServiceInstanceBuilder.buildServiceInstanceFromInfrastructure(infrastructure);
-    });
-
-    private Function<Infrastructure, ServiceInstance> memoise(Function<Infrastructure, ServiceInstance> fn) {
-        return (a) -> serviceInstanceCache.computeIfAbsent(a, fn);
+    public ProviderClientCacheStatistics getStatistics() {
+        return serviceInstanceCache.getStatistics();
     }
 
 }
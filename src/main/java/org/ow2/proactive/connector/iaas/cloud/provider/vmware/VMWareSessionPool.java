@@ -0,0 +1,283 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.connector.iaas.cloud.provider.vmware;
+
+import java.rmi.RemoteException;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.ow2.proactive.connector.iaas.cloud.provider.ProviderClientCache;
+import org.ow2.proactive.connector.iaas.cloud.provider.ProviderClientCache.UsageScope;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.vmware.vim25.NotAuthenticated;
+import com.vmware.vim25.mo.ServiceInstance;
+
+import lombok.extern.log4j.Log4j2;
+
+
+/**
+ * A small pool of sessions opened on the same vCenter, handed out so that concurrent operations do not share a
+ * single connection.
+ *
+ * A session got during a usage scope (see {@link ProviderClientCache#openUsageScope()}) is leased until the end of
+ * the scope: the calls of the scope all use the same session, the next callers get the least leased session, and a
+ * session is only logged out by the close of the pool once its leases are released. Outside of a usage scope, the
+ * sessions are handed out in turn without being leased.
+ *
+ * The sessions are kept alive by a periodic lightweight call (the server current time), which would otherwise time
+ * out when the infrastructure is not used for a while. The sessions in use are left to their users. A session found
+ * not authenticated, by the keep-alive or when it is handed out after a missed keep-alive or an invalidation, is
+ * replaced by a new login. The logins are done outside of the lock of the session, the first new login replacing
+ * the session and the concurrent ones being logged out.
+ */
+@Log4j2
+public class VMWareSessionPool {
+
+    private static final ScheduledExecutorService KEEP_ALIVE_SCHEDULER = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("vmware-session-keep-alive-%d")
+                                                                                                                                           .setDaemon(true)
+                                                                                                                                           .build());
+
+    private final Supplier<ServiceInstance> sessionBuilder;
+
+    private final Session[] sessions;
+
+    private final AtomicInteger nextSession = new AtomicInteger();
+
+    private final long keepAliveNanos;
+
+    private final ScheduledFuture<?> keepAliveTask;
+
+    private volatile boolean closed;
+
+    private static class Session {
+
+        private final AtomicInteger leases = new AtomicInteger();
+
+        // guarded by the session
+        private ServiceInstance serviceInstance;
+
+        private long lastCheck;
+
+        private boolean invalidated;
+    }
+
+    /**
+     * Open the first session of the pool, so that an unreachable vCenter or wrong credentials are reported right away.
+     * The other sessions are opened when they are first handed out.
+     *
+     * @param sessionBuilder opens a new session on the vCenter
+     * @param size number of sessions of the pool (at least one)
+     * @param keepAliveSeconds period of the keep-alive calls, 0 to disable them
+     */
+    public VMWareSessionPool(Supplier<ServiceInstance> sessionBuilder, int size, long keepAliveSeconds) {
+        this.sessionBuilder = sessionBuilder;
+        this.sessions = new Session[Math.max(1, size)];
+        for (int i = 0; i < sessions.length; i++) {
+            sessions[i] = new Session();
+        }
+        this.keepAliveNanos = TimeUnit.SECONDS.toNanos(keepAliveSeconds);
+        getSession(sessions[0]);
+        if (keepAliveSeconds > 0) {
+            this.keepAliveTask = KEEP_ALIVE_SCHEDULER.scheduleWithFixedDelay(this::keepAlive,
+                                                                             keepAliveSeconds,
+                                                                             keepAliveSeconds,
+                                                                             TimeUnit.SECONDS);
+        } else {
+            this.keepAliveTask = null;
+        }
+    }
+
+    public ServiceInstance getSession() {
+        Optional<UsageScope> usageScope = ProviderClientCache.getUsageScope();
+        Session leasedSession = usageScope.map(scope -> scope.<Session> getLease(this)).orElse(null);
+        if (leasedSession != null) {
+            return getSession(leasedSession);
+        }
+        Session session = nextSession();
+        usageScope.ifPresent(scope -> {
+            session.leases.incrementAndGet();
+            scope.addLease(this, session, () -> release(session));
+        });
+        return getSession(session);
+    }
+
+    /**
+     * Check the sessions when they are next handed out, and log them in again if they are no longer authenticated.
+     * Used when a call fails because its session is no longer authenticated.
+     */
+    public void invalidateSessions() {
+        for (Session session : sessions) {
+            synchronized (session) {
+                session.invalidated = true;
+            }
+        }
+    }
+
+    /**
+     * Keep the opened sessions which are not in use alive, logging in again the ones which are no longer
+     * authenticated.
+     */
+    public void keepAlive() {
+        for (Session session : sessions) {
+            ServiceInstance serviceInstance;
+            synchronized (session) {
+                serviceInstance = session.serviceInstance;
+            }
+            if (serviceInstance != null && session.leases.get() == 0) {
+                try {
+                    check(session, serviceInstance);
+                } catch (RuntimeException e) {
+                    log.warn("Unable to keep the VMWare session alive", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Stop the keep-alive and log out all the sessions, the sessions in use being logged out once their leases are
+     * released.
+     */
+    public void close() {
+        closed = true;
+        if (keepAliveTask != null) {
+            keepAliveTask.cancel(false);
+        }
+        for (Session session : sessions) {
+            if (session.leases.get() == 0) {
+                closeSession(session);
+            }
+        }
+    }
+
+    /**
+     * The least leased session, the sessions being looked up in turn so that the ties are handed out in turn
+     */
+    private Session nextSession() {
+        int first = Math.floorMod(nextSession.getAndIncrement(), sessions.length);
+        Session leastLeased = sessions[first];
+        for (int i = 1; i < sessions.length; i++) {
+            Session session = sessions[(first + i) % sessions.length];
+            if (session.leases.get() < leastLeased.leases.get()) {
+                leastLeased = session;
+            }
+        }
+        return leastLeased;
+    }
+
+    private void release(Session session) {
+        if (session.leases.decrementAndGet() == 0 && closed) {
+            closeSession(session);
+        }
+    }
+
+    private ServiceInstance getSession(Session session) {
+        ServiceInstance serviceInstance;
+        boolean checkDue;
+        synchronized (session) {
+            serviceInstance = session.serviceInstance;
+            // an invalidated session, or one whose keep-alive did not run in time, may have timed out
+            checkDue = session.invalidated ||
+                       (keepAliveNanos > 0 && System.nanoTime() - session.lastCheck > keepAliveNanos);
+        }
+        if (serviceInstance == null) {
+            return login(session, null);
+        }
+        return checkDue ? check(session, serviceInstance) : serviceInstance;
+    }
+
+    private ServiceInstance check(Session session, ServiceInstance serviceInstance) {
+        try {
+            serviceInstance.currentTime();
+            synchronized (session) {
+                if (session.serviceInstance == serviceInstance) {
+                    session.lastCheck = System.nanoTime();
+                    session.invalidated = false;
+                }
+            }
+            return serviceInstance;
+        } catch (NotAuthenticated e) {
+            log.info("VMWare session is no longer authenticated, logging in again");
+            return login(session, serviceInstance);
+        } catch (RemoteException e) {
+            // the vCenter may be temporarily unreachable, the session is kept and checked again later
+            log.warn("Unable to check the VMWare session", e);
+            return serviceInstance;
+        }
+    }
+
+    /**
+     * Log in, outside of the lock of the session, and replace the expired session (null for a session not opened yet)
+     * unless another caller replaced it meanwhile, in which case its login is used instead.
+     */
+    private ServiceInstance login(Session session, ServiceInstance expiredServiceInstance) {
+        ServiceInstance newServiceInstance = sessionBuilder.get();
+        ServiceInstance currentServiceInstance;
+        boolean replaced = false;
+        synchronized (session) {
+            if (!closed && session.serviceInstance == expiredServiceInstance) {
+                session.serviceInstance = newServiceInstance;
+                session.lastCheck = System.nanoTime();
+                session.invalidated = false;
+                replaced = true;
+            }
+            currentServiceInstance = session.serviceInstance;
+        }
+        if (replaced) {
+            logout(expiredServiceInstance);
+            return newServiceInstance;
+        }
+        logout(newServiceInstance);
+        if (currentServiceInstance == null) {
+            throw new RuntimeException("ERROR the VMWare session pool is closed");
+        }
+        return currentServiceInstance;
+    }
+
+    private void closeSession(Session session) {
+        ServiceInstance serviceInstance;
+        synchronized (session) {
+            serviceInstance = session.serviceInstance;
+            session.serviceInstance = null;
+        }
+        logout(serviceInstance);
+    }
+
+    private void logout(ServiceInstance serviceInstance) {
+        if (serviceInstance != null) {
+            try {
+                serviceInstance.getServerConnection().logout();
+            } catch (RuntimeException e) {
+                log.warn("Unable to log out the VMWare session", e);
+            }
+        }
+    }
+}
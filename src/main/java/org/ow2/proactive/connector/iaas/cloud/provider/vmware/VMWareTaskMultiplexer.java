@@ -0,0 +1,169 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.connector.iaas.cloud.provider.vmware;
+
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.vmware.vim25.ObjectSpec;
+import com.vmware.vim25.ObjectUpdate;
+import com.vmware.vim25.PropertyChange;
+import com.vmware.vim25.PropertyFilterSpec;
+import com.vmware.vim25.PropertyFilterUpdate;
+import com.vmware.vim25.PropertySpec;
+import com.vmware.vim25.TaskInfo;
+import com.vmware.vim25.TaskInfoState;
+import com.vmware.vim25.UpdateSet;
+import com.vmware.vim25.WaitOptions;
+import com.vmware.vim25.mo.PropertyCollector;
+import com.vmware.vim25.mo.PropertyFilter;
+import com.vmware.vim25.mo.ServiceInstance;
+import com.vmware.vim25.mo.Task;
+
+import lombok.extern.log4j.Log4j2;
+
+
+/**
+ * Tracks the completion of several VMWare tasks at once, through a single loop of property collector updates
+ * (WaitForUpdatesEx) instead of polling each task. Not thread safe: it is meant to be used by a single caller.
+ */
+@Log4j2
+public class VMWareTaskMultiplexer implements AutoCloseable {
+
+    private static final String TASK_TYPE = "Task";
+
+    private static final String TASK_INFO_PROPERTY = "info";
+
+    private final PropertyCollector propertyCollector;
+
+    private final WaitOptions waitOptions;
+
+    // Filters of the tracked tasks, per task reference value
+    private final Map<String, PropertyFilter> taskFilters = new HashMap<>();
+
+    private String version = "";
+
+    public VMWareTaskMultiplexer(ServiceInstance serviceInstance, int maxWaitSeconds) {
+        try {
+            // A dedicated collector, so that the other users of the session do not receive these updates
+            this.propertyCollector = serviceInstance.getPropertyCollector().createPropertyCollector();
+        } catch (RemoteException e) {
+            throw new RuntimeException("ERROR when creating a VMWare property collector", e);
+        }
+        this.waitOptions = new WaitOptions();
+        this.waitOptions.setMaxWaitSeconds(maxWaitSeconds);
+    }
+
+    public void add(Task task) {
+        ObjectSpec objectSpec = new ObjectSpec();
+        objectSpec.setObj(task.getMOR());
+        objectSpec.setSkip(false);
+
+        PropertySpec propertySpec = new PropertySpec();
+        propertySpec.setType(TASK_TYPE);
+        propertySpec.setPathSet(new String[] { TASK_INFO_PROPERTY });
+
+        PropertyFilterSpec propertyFilterSpec = new PropertyFilterSpec();
+        propertyFilterSpec.setObjectSet(new ObjectSpec[] { objectSpec });
+        propertyFilterSpec.setPropSet(new PropertySpec[] { propertySpec });
+
+        try {
+            // No partial updates: each change carries the whole task info
+            taskFilters.put(task.getMOR().getVal(), propertyCollector.createFilter(propertyFilterSpec, false));
+        } catch (RemoteException e) {
+            throw new RuntimeException("ERROR when tracking VMWare task: " + task.getMOR().getVal(), e);
+        }
+    }
+
+    public boolean isEmpty() {
+        return taskFilters.isEmpty();
+    }
+
+    /**
+     * Wait until at least one of the tracked tasks completes, successfully or not
+     *
+     * @return the information of the completed tasks, which are not tracked anymore
+     */
+    public List<TaskInfo> waitForCompletedTasks() {
+        List<TaskInfo> completedTasks = new ArrayList<>();
+        try {
+            while (completedTasks.isEmpty() && !taskFilters.isEmpty()) {
+                UpdateSet updateSet = propertyCollector.waitForUpdatesEx(version, waitOptions);
+                if (updateSet == null) {
+                    // Nothing changed during the maximum waiting time
+                    continue;
+                }
+                version = updateSet.getVersion();
+                for (PropertyFilterUpdate filterUpdate : nullToEmpty(updateSet.getFilterSet())) {
+                    for (ObjectUpdate objectUpdate : nullToEmpty(filterUpdate.getObjectSet())) {
+                        for (PropertyChange propertyChange : nullToEmpty(objectUpdate.getChangeSet())) {
+                            if (propertyChange.getVal() instanceof TaskInfo &&
+                                isCompleted((TaskInfo) propertyChange.getVal())) {
+                                completedTasks.add((TaskInfo) propertyChange.getVal());
+                                PropertyFilter taskFilter = taskFilters.remove(objectUpdate.getObj().getVal());
+                                if (taskFilter != null) {
+                                    taskFilter.destroyPropertyFilter();
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        } catch (RemoteException e) {
+            throw new RuntimeException("ERROR when waiting for VMWare tasks", e);
+        }
+        return completedTasks;
+    }
+
+    /**
+     * Best effort: the tracked tasks are not affected by a failure (e.g. an expired session), and the collector is
+     * released along with its session anyway.
+     */
+    @Override
+    public void close() {
+        try {
+            // The filters of the collector are destroyed along with it
+            propertyCollector.destroyPropertyCollector();
+        } catch (RemoteException | RuntimeException e) {
+            log.warn("Unable to destroy the VMWare property collector", e);
+        } finally {
+            taskFilters.clear();
+        }
+    }
+
+    private static boolean isCompleted(TaskInfo taskInfo) {
+        return TaskInfoState.success.equals(taskInfo.getState()) || TaskInfoState.error.equals(taskInfo.getState());
+    }
+
+    private static <T> List<T> nullToEmpty(T[] array) {
+        return array == null ? Collections.emptyList() : Arrays.asList(array);
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.connector.iaas.cloud.provider.vmware;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+
+import com.vmware.vim25.mo.Datastore;
+import com.vmware.vim25.mo.Folder;
+import com.vmware.vim25.mo.HostSystem;
+import com.vmware.vim25.mo.ResourcePool;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+
+
+/**
+ * The placement targets of a vCenter: its folders, hosts and resource pools, with the datastores available to each
+ * host and resource pool and their free space. It is loaded once and used to place the clones until it is refreshed.
+ */
+@Getter
+@AllArgsConstructor
+@Builder
+public class VMWareTopology {
+
+    // Folders, per name
+    private final Map<String, Folder> folders;
+
+    // Hosts, per name
+    private final Map<String, HostSystem> hosts;
+
+    // Accessible datastores, per host name
+    private final Map<String, List<DatastoreSpace>> hostDatastores;
+
+    private final List<ResourcePoolPlacement> resourcePools;
+
+    private final long loadedAt;
+
+    @Getter
+    @AllArgsConstructor
+    public static class DatastoreSpace {
+
+        private final Datastore datastore;
+
+        private final long freeSpace;
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static class ResourcePoolPlacement {
+
+        private final ResourcePool resourcePool;
+
+        // Name of the host (or cluster) the resource pool belongs to
+        private final String parentName;
+
+        // Accessible datastores of the compute resource owning the resource pool
+        private final List<DatastoreSpace> datastores;
+    }
+
+    public boolean isOlderThan(long maxAgeMillis) {
+        return System.currentTimeMillis() - loadedAt > maxAgeMillis;
+    }
+
+    public Optional<Folder> getFolder(String name) {
+        return Optional.ofNullable(folders.get(name));
+    }
+
+    public Optional<Folder> getVMFolderOfHost(String hostname) {
+        return folders.entrySet()
+                      .stream()
+                      .filter(folder -> folder.getKey().toLowerCase().contains("vm") &&
+                                        folder.getKey().toLowerCase().contains(hostname.toLowerCase()))
+                      .map(Map.Entry::getValue)
+                      .findAny();
+    }
+
+    public Optional<HostSystem> getHost(String hostname) {
+        return Optional.ofNullable(hosts.get(hostname));
+    }
+
+    public List<DatastoreSpace> getDatastoresOfHost(String hostname) {
+        return hostDatastores.getOrDefault(hostname, Collections.emptyList());
+    }
+
+    public Optional<ResourcePoolPlacement> getResourcePoolOfHost(String hostname) {
+        return resourcePools.stream().filter(resourcePool -> resourcePool.getParentName().equals(hostname)).findAny();
+    }
+
+    public Optional<ResourcePoolPlacement> getRandomResourcePool(Random random) {
+        if (resourcePools.isEmpty()) {
+            return Optional.empty();
+        }
+        return Optional.of(resourcePools.get(random.nextInt(resourcePools.size())));
+    }
+
+    /**
+     * Choose a datastore with a probability proportional to its free space, so that consecutive clones are spread
+     * over the datastores while the emptiest ones receive most of them.
+     *
+     * @param datastores the datastores to choose from
+     * @param draw       a random number between 0 (inclusive) and 1 (exclusive)
+     * @return the chosen datastore, if any
+     */
+    public static Optional<Datastore> chooseDatastore(List<DatastoreSpace> datastores, double draw) {
+        long totalFreeSpace = datastores.stream().mapToLong(DatastoreSpace::getFreeSpace).sum();
+        if (totalFreeSpace <= 0) {
+            return datastores.stream().findFirst().map(DatastoreSpace::getDatastore);
+        }
+        double remaining = draw * totalFreeSpace;
+        for (DatastoreSpace datastore : datastores) {
+            remaining -= datastore.getFreeSpace();
+            if (remaining < 0) {
+                return Optional.of(datastore.getDatastore());
+            }
+        }
+        return Optional.of(datastores.get(datastores.size() - 1).getDatastore());
+    }
+}
@@ -63,4 +63,6 @@ public class Options {
     private List<Tag> tags;
 
     private int[] portsToOpen;
+
+    private String cloneMode;
 }
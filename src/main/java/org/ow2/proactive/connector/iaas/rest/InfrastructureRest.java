@@ -75,7 +75,7 @@ public class InfrastructureRest {
     public Response getInfrastructure(@PathParam("infrastructureId") String infrastructureId) {
         try {
             log.info("Received get request for infrastructureID: " + infrastructureId);
-            return Response.ok(infrastructureService.getInfrastructure(infrastructureId)).build();
+            return Response.ok(infrastructureService.getInfrastructureStatus(infrastructureId)).build();
         } catch (IllegalArgumentException e) {
             return ErrorResponse.handleIllegalArgument("For infrastructureID " + infrastructureId + ": " +
                                                        e.getMessage(), e);
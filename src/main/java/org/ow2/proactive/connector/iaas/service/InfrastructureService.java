@@ -25,48 +25,120 @@
  */
 package org.ow2.proactive.connector.iaas.service;
 
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.annotation.PostConstruct;
 
 import org.ow2.proactive.connector.iaas.cache.InfrastructureCache;
+import org.ow2.proactive.connector.iaas.cache.InfrastructureJournal;
 import org.ow2.proactive.connector.iaas.cloud.CloudManager;
 import org.ow2.proactive.connector.iaas.model.Infrastructure;
+import org.ow2.proactive.connector.iaas.model.InfrastructureStatus;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import lombok.extern.log4j.Log4j2;
+
 
 @Service
+@Log4j2
 public class InfrastructureService {
 
     @Autowired
     private InfrastructureCache infrastructureCache;
 
+    @Autowired
+    private InfrastructureJournal infrastructureJournal;
+
     @Autowired
     private CloudManager cloudManager;
 
     @Autowired
     private InstanceService instanceService;
 
+    @Value("${connector-iaas.warm-up.on-registration:false}")
+    private boolean warmUpOnRegistration;
+
+    @Value("${connector-iaas.persistence.warm-up-timeout:120}")
+    private long warmUpTimeoutSeconds;
+
+    /**
+     * Register the persisted infrastructures, and build their clients in parallel through the warm-up of the cloud
+     * manager, so that their readiness is reported like for the infrastructures warmed up on registration. The
+     * application starts serving requests once the clients are built, or after the warm-up timeout (0 not to wait).
+     */
+    @PostConstruct
+    public void restorePersistedInfrastructures() throws InterruptedException {
+        List<Infrastructure> persistedInfrastructures = infrastructureJournal.getPersistedInfrastructures();
+        if (persistedInfrastructures.isEmpty()) {
+            return;
+        }
+        persistedInfrastructures.forEach(infrastructureCache::registerInfrastructure);
+
+        CompletableFuture<?>[] warmUps = persistedInfrastructures.stream()
+                                                                 .map(cloudManager::warmUpAsync)
+                                                                 .toArray(CompletableFuture[]::new);
+        if (warmUpTimeoutSeconds <= 0) {
+            return;
+        }
+        try {
+            CompletableFuture.allOf(warmUps).get(warmUpTimeoutSeconds, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            // the failed warm-ups are logged by the cloud manager, the first call on their infrastructure retries
+        } catch (TimeoutException e) {
+            log.warn("Infrastructure clients still warming up after " + warmUpTimeoutSeconds +
+                     "s, they will be completed in background");
+        }
+    }
+
     public Map<String, Infrastructure> getAllSupportedInfrastructure() {
         return infrastructureCache.getSupportedInfrastructures();
     }
 
     public Infrastructure registerInfrastructure(Infrastructure infrastructure) {
+        infrastructureJournal.recordRegistration(infrastructure);
         infrastructureCache.registerInfrastructure(infrastructure);
+        if (warmUpOnRegistration) {
+            cloudManager.warmUpAsync(infrastructure);
+        }
         return infrastructure;
     }
 
     public void deleteInfrastructure(Infrastructure infrastructure) {
         cloudManager.deleteInfrastructure(infrastructure);
+        infrastructureJournal.recordDeletion(infrastructure);
         infrastructureCache.deleteInfrastructure(infrastructure);
     }
 
     public void deleteInfrastructureWithCreatedInstances(Infrastructure infrastructure) {
         instanceService.deleteCreatedInstances(infrastructure.getId());
         cloudManager.deleteInfrastructure(infrastructure);
+        infrastructureJournal.recordDeletion(infrastructure);
         infrastructureCache.deleteInfrastructure(infrastructure);
     }
 
     public Infrastructure getInfrastructure(String infrastructureId) {
-        return infrastructureCache.getSupportedInfrastructures().get(infrastructureId);
+        return infrastructureCache.getInfrastructure(infrastructureId);
+    }
+
+    public InfrastructureStatus getInfrastructureStatus(String infrastructureId) {
+        Infrastructure infrastructure = getInfrastructure(infrastructureId);
+        if (infrastructure == null) {
+            return null;
+        }
+        return new InfrastructureStatus(infrastructure, cloudManager.getClientReadiness(infrastructure));
+    }
+
+    /**
+     * @return true if the registered infrastructures survive a restart of the connector
+     */
+    public boolean isPersistenceEnabled() {
+        return infrastructureJournal.isEnabled();
     }
 }
@@ -31,6 +31,10 @@ import static org.hamcrest.Matchers.nullValue;
 import static org.junit.Assert.assertThat;
 
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -116,4 +120,32 @@ public class InfrastructureCacheTest {
         assertThat(infrastructureCache.getSupportedInfrastructures().isEmpty(), is(true));
     }
 
+    @Test
+    public void testSupportedInfrastructuresIsSnapshot() {
+        infrastructureCache.registerInfrastructure(InfrastructureFixture.getSimpleInfrastructure("id-1", "openstack"));
+        Map<String, Infrastructure> snapshot = infrastructureCache.getSupportedInfrastructures();
+
+        infrastructureCache.registerInfrastructure(InfrastructureFixture.getSimpleInfrastructure("id-2", "openstack"));
+        infrastructureCache.deleteInfrastructure(InfrastructureFixture.getSimpleInfrastructure("id-1", "openstack"));
+
+        assertThat(snapshot.size(), is(1));
+        assertThat(snapshot.get("id-1").getId(), is("id-1"));
+        assertThat(infrastructureCache.getInfrastructure("id-1"), is(nullValue()));
+        assertThat(infrastructureCache.getInfrastructure("id-2").getId(), is("id-2"));
+    }
+
+    @Test
+    public void testConcurrentRegistrations() throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        IntStream.range(0, 1000).forEach(i -> executor.execute(() -> {
+            Infrastructure infrastructure = InfrastructureFixture.getSimpleInfrastructure("id-" + i, "openstack");
+            infrastructureCache.registerInfrastructure(infrastructure);
+        }));
+        executor.shutdown();
+        assertThat(executor.awaitTermination(10, TimeUnit.SECONDS), is(true));
+
+        assertThat(infrastructureCache.getSupportedInfrastructures().size(), is(1000));
+        assertThat(infrastructureCache.getSupportedInfrastructures().get("id-42").getId(), is("id-42"));
+    }
+
 }
@@ -0,0 +1,177 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.connector.iaas.cache;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Base64;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.ow2.proactive.connector.iaas.fixtures.InfrastructureFixture;
+import org.ow2.proactive.connector.iaas.model.Infrastructure;
+import org.springframework.test.util.ReflectionTestUtils;
+
+
+public class InfrastructureJournalTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private String directory;
+
+    @Before
+    public void init() throws IOException {
+        directory = temporaryFolder.newFolder("registry").getAbsolutePath();
+    }
+
+    @Test
+    public void testDisabled() {
+        InfrastructureJournal infrastructureJournal = new InfrastructureJournal();
+        infrastructureJournal.open();
+        infrastructureJournal.recordRegistration(InfrastructureFixture.getSimpleInfrastructure("openstack-nova"));
+        assertThat(infrastructureJournal.getPersistedInfrastructures().isEmpty(), is(true));
+    }
+
+    @Test
+    public void testRestoreAfterRestart() {
+        InfrastructureJournal infrastructureJournal = newJournal(1000);
+        infrastructureJournal.recordRegistration(InfrastructureFixture.getSimpleInfrastructure("id-1", "aws-ec2"));
+        infrastructureJournal.recordRegistration(InfrastructureFixture.getSimpleInfrastructure("id-2", "azure"));
+        infrastructureJournal.recordDeletion(InfrastructureFixture.getSimpleInfrastructure("id-1", "aws-ec2"));
+        infrastructureJournal.close();
+
+        List<Infrastructure> restored = newJournal(1000).getPersistedInfrastructures();
+        assertThat(restored.size(), is(1));
+        assertThat(restored.get(0).getId(), is("id-2"));
+        assertThat(restored.get(0).getType(), is("azure"));
+        assertThat(restored.get(0).getCredentials().getPassword(), is("password"));
+    }
+
+    @Test
+    public void testRestoreAfterCompaction() {
+        InfrastructureJournal infrastructureJournal = newJournal(2);
+        for (int i = 0; i < 5; i++) {
+            infrastructureJournal.recordRegistration(InfrastructureFixture.getSimpleInfrastructure("id-" + i,
+                                                                                                   "aws-ec2"));
+        }
+        infrastructureJournal.close();
+
+        assertThat(newJournal(2).getPersistedInfrastructures().size(), is(5));
+    }
+
+    @Test
+    public void testCredentialsAreEncrypted() throws IOException {
+        InfrastructureJournal infrastructureJournal = newJournal(1000);
+        infrastructureJournal.recordRegistration(InfrastructureFixture.getInfrastructure("id-1",
+                                                                                         "aws-ec2",
+                                                                                         "endPoint",
+                                                                                         "userName",
+                                                                                         "secret-password"));
+        infrastructureJournal.close();
+
+        try (Stream<Path> files = Files.list(temporaryFolder.getRoot().toPath().resolve("registry"))) {
+            files.forEach(file -> {
+                try {
+                    assertThat(new String(Files.readAllBytes(file), StandardCharsets.UTF_8),
+                               not(containsString("secret-password")));
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+        }
+    }
+
+    @Test
+    public void testRestoreSkipsPartiallyWrittenLastRecord() throws IOException {
+        InfrastructureJournal infrastructureJournal = newJournal(1000);
+        infrastructureJournal.recordRegistration(InfrastructureFixture.getSimpleInfrastructure("id-1", "aws-ec2"));
+        infrastructureJournal.close();
+        Files.write(journalFile(), "dHJ1bmNhdGVk".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        List<Infrastructure> restored = newJournal(1000).getPersistedInfrastructures();
+        assertThat(restored.size(), is(1));
+        assertThat(restored.get(0).getId(), is("id-1"));
+    }
+
+    @Test
+    public void testRestoreWithAnotherKeyKeepsTheFiles() throws IOException {
+        InfrastructureJournal infrastructureJournal = newJournal(2);
+        for (int i = 0; i < 3; i++) {
+            infrastructureJournal.recordRegistration(InfrastructureFixture.getSimpleInfrastructure("id-" + i,
+                                                                                                   "aws-ec2"));
+        }
+        infrastructureJournal.close();
+        byte[] snapshot = Files.readAllBytes(snapshotFile());
+        byte[] journal = Files.readAllBytes(journalFile());
+
+        try {
+            newJournal(2, Base64.getEncoder().encodeToString(new byte[16]));
+            fail("The journal should not be restored with another key");
+        } catch (RuntimeException e) {
+            assertThat(e.getMessage(), containsString("ERROR unable to restore the infrastructures"));
+        }
+
+        assertThat(Files.readAllBytes(snapshotFile()), is(snapshot));
+        assertThat(Files.readAllBytes(journalFile()), is(journal));
+        assertThat(newJournal(2).getPersistedInfrastructures().size(), is(3));
+    }
+
+    private Path snapshotFile() {
+        return temporaryFolder.getRoot().toPath().resolve("registry").resolve("infrastructures.snapshot");
+    }
+
+    private Path journalFile() {
+        return temporaryFolder.getRoot().toPath().resolve("registry").resolve("infrastructures.journal");
+    }
+
+    private InfrastructureJournal newJournal(int snapshotThreshold) {
+        return newJournal(snapshotThreshold, "");
+    }
+
+    private InfrastructureJournal newJournal(int snapshotThreshold, String encryptionKey) {
+        InfrastructureJournal infrastructureJournal = new InfrastructureJournal();
+        ReflectionTestUtils.setField(infrastructureJournal, "enabled", true);
+        ReflectionTestUtils.setField(infrastructureJournal, "directory", directory);
+        ReflectionTestUtils.setField(infrastructureJournal, "encryptionKey", encryptionKey);
+        ReflectionTestUtils.setField(infrastructureJournal, "snapshotThreshold", snapshotThreshold);
+        infrastructureJournal.open();
+        return infrastructureJournal;
+    }
+}
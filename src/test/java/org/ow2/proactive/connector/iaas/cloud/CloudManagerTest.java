@@ -25,18 +25,24 @@
  */
 package org.ow2.proactive.connector.iaas.cloud;
 
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.ow2.proactive.connector.iaas.cloud.provider.CloudProvider;
 import org.ow2.proactive.connector.iaas.fixtures.InfrastructureFixture;
 import org.ow2.proactive.connector.iaas.fixtures.InstanceFixture;
 import org.ow2.proactive.connector.iaas.fixtures.InstanceScriptFixture;
+import org.ow2.proactive.connector.iaas.model.ClientReadiness;
 import org.ow2.proactive.connector.iaas.model.Infrastructure;
 import org.ow2.proactive.connector.iaas.model.Instance;
 import org.ow2.proactive.connector.iaas.model.InstanceScript;
@@ -118,4 +124,46 @@ public class CloudManagerTest {
         verify(defaultCloudProvider, times(1)).getAllImages(infrastructure);
     }
 
+    @Test
+    public void testWarmUpAsync() {
+        Infrastructure infrastructure = InfrastructureFixture.getSimpleInfrastructure("sometype");
+        Instance instance = InstanceFixture.simpleInstance("id");
+        assertThat(cloudManager.getClientReadiness(infrastructure), is(ClientReadiness.LAZY));
+
+        cloudManager.startWarmUpExecutor();
+        cloudManager.warmUpAsync(infrastructure);
+        cloudManager.createInstance(infrastructure, instance);
+
+        InOrder inOrder = inOrder(defaultCloudProvider);
+        inOrder.verify(defaultCloudProvider, times(1)).warmUp(infrastructure);
+        inOrder.verify(defaultCloudProvider, times(1)).createInstance(infrastructure, instance);
+        assertThat(cloudManager.getClientReadiness(infrastructure), is(ClientReadiness.READY));
+
+        cloudManager.deleteInfrastructure(infrastructure);
+        assertThat(cloudManager.getClientReadiness(infrastructure), is(ClientReadiness.LAZY));
+        cloudManager.stopWarmUpExecutor();
+    }
+
+    @Test
+    public void testFailedWarmUpAsync() {
+        Infrastructure infrastructure = InfrastructureFixture.getSimpleInfrastructure("sometype");
+        RuntimeException unreachable = new RuntimeException("ERROR unreachable endpoint");
+        doThrow(unreachable).doThrow(unreachable).doNothing().when(defaultCloudProvider).warmUp(infrastructure);
+
+        cloudManager.startWarmUpExecutor();
+        cloudManager.warmUpAsync(infrastructure);
+        cloudManager.getAllImages(infrastructure);
+
+        verify(defaultCloudProvider, times(1)).getAllImages(infrastructure);
+        assertThat(cloudManager.getClientReadiness(infrastructure), is(ClientReadiness.FAILED));
+
+        // the endpoint is reachable again, the next call builds the client
+        cloudManager.getAllImages(infrastructure);
+
+        verify(defaultCloudProvider, times(3)).warmUp(infrastructure);
+        verify(defaultCloudProvider, times(2)).getAllImages(infrastructure);
+        assertThat(cloudManager.getClientReadiness(infrastructure), is(ClientReadiness.READY));
+        cloudManager.stopWarmUpExecutor();
+    }
+
 }
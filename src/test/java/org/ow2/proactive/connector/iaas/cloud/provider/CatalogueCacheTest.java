@@ -0,0 +1,163 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.connector.iaas.cloud.provider;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.ow2.proactive.connector.iaas.fixtures.InfrastructureFixture;
+import org.ow2.proactive.connector.iaas.model.Infrastructure;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+
+public class CatalogueCacheTest {
+
+    private CatalogueCache catalogueCache;
+
+    private AtomicInteger loads;
+
+    private Infrastructure infrastructure;
+
+    @Before
+    public void init() {
+        catalogueCache = new CatalogueCache();
+        ReflectionTestUtils.setField(catalogueCache, "ttlSeconds", 3600L);
+        loads = new AtomicInteger();
+        infrastructure = InfrastructureFixture.getSimpleInfrastructure("type");
+    }
+
+    private Set<String> loadImages() {
+        return Sets.newHashSet("image-" + loads.incrementAndGet());
+    }
+
+    @Test
+    public void testGetLoadsOnce() {
+        assertThat(catalogueCache.get(infrastructure, CatalogueCache.IMAGES, this::loadImages),
+                   is(Sets.newHashSet("image-1")));
+        assertThat(catalogueCache.get(infrastructure, CatalogueCache.IMAGES, this::loadImages),
+                   is(Sets.newHashSet("image-1")));
+        assertThat(loads.get(), is(1));
+    }
+
+    @Test
+    public void testCataloguesAreCachedSeparately() {
+        catalogueCache.get(infrastructure, CatalogueCache.IMAGES, this::loadImages);
+        catalogueCache.get(infrastructure, CatalogueCache.HARDWARES, this::loadImages);
+        catalogueCache.get(InfrastructureFixture.getSimpleInfrastructure("other-type"),
+                           CatalogueCache.IMAGES,
+                           this::loadImages);
+        assertThat(loads.get(), is(3));
+    }
+
+    @Test
+    public void testStaleCatalogueIsServedWhileRefreshed() throws InterruptedException {
+        ReflectionTestUtils.setField(catalogueCache, "ttlSeconds", 0L);
+        catalogueCache.get(infrastructure, CatalogueCache.IMAGES, this::loadImages);
+
+        // the previous catalogue is returned, the new one is loaded in background
+        assertThat(catalogueCache.get(infrastructure, CatalogueCache.IMAGES, this::loadImages),
+                   is(Sets.newHashSet("image-1")));
+        ReflectionTestUtils.setField(catalogueCache, "ttlSeconds", 3600L);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        Set<String> images = catalogueCache.get(infrastructure, CatalogueCache.IMAGES, this::loadImages);
+        while (!images.contains("image-2") && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+            images = catalogueCache.get(infrastructure, CatalogueCache.IMAGES, this::loadImages);
+        }
+        assertThat(images, is(Sets.newHashSet("image-2")));
+        assertThat(loads.get(), is(2));
+    }
+
+    @Test
+    public void testFailedLoadIsRetried() {
+        try {
+            catalogueCache.get(infrastructure, CatalogueCache.IMAGES, () -> {
+                throw new IllegalStateException("unreachable");
+            });
+            fail("the failure should be returned to the caller");
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage(), is("unreachable"));
+        }
+        assertThat(catalogueCache.get(infrastructure, CatalogueCache.IMAGES, this::loadImages),
+                   is(Sets.newHashSet("image-1")));
+    }
+
+    @Test
+    public void testLoadErrorIsReturnedToTheWaitingCallers() throws Exception {
+        CountDownLatch loadStarted = new CountDownLatch(1);
+        CountDownLatch failLoad = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        Supplier<Set<String>> brokenLoader = () -> {
+            loadStarted.countDown();
+            Uninterruptibles.awaitUninterruptibly(failLoad);
+            throw new LinkageError("broken SDK");
+        };
+        Future<Set<String>> loading = executor.submit(() -> catalogueCache.get(infrastructure,
+                                                                              CatalogueCache.IMAGES,
+                                                                              brokenLoader));
+        loadStarted.await();
+        Future<Set<String>> waiting = executor.submit(() -> catalogueCache.get(infrastructure,
+                                                                              CatalogueCache.IMAGES,
+                                                                              this::loadImages));
+        failLoad.countDown();
+
+        for (Future<Set<String>> caller : Lists.newArrayList(loading, waiting)) {
+            try {
+                caller.get(5, TimeUnit.SECONDS);
+                // the second caller may also have started after the failed load, and loaded the catalogue again
+                assertThat(caller, is(waiting));
+            } catch (ExecutionException e) {
+                assertThat(e.getCause() instanceof LinkageError, is(true));
+            }
+        }
+        executor.shutdown();
+    }
+
+    @Test
+    public void testInvalidate() {
+        catalogueCache.get(infrastructure, CatalogueCache.IMAGES, this::loadImages);
+        catalogueCache.invalidate(infrastructure.getId());
+        assertThat(catalogueCache.get(infrastructure, CatalogueCache.IMAGES, this::loadImages),
+                   is(Sets.newHashSet("image-2")));
+    }
+}
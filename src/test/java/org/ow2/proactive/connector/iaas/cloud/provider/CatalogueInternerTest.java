@@ -0,0 +1,65 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.connector.iaas.cloud.provider;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+import org.ow2.proactive.connector.iaas.model.Hardware;
+
+
+public class CatalogueInternerTest {
+
+    private Hardware createHardware(String type) {
+        return Hardware.builder().type(type).minRam("2048").minCores("2").minFreq("0").build();
+    }
+
+    @Test
+    public void testInternEqualValuesReturnsSameInstance() {
+        Hardware hardware = CatalogueInterner.intern(createHardware("t3.small"));
+
+        assertThat(CatalogueInterner.intern(createHardware("t3.small")), is(sameInstance(hardware)));
+        assertThat(CatalogueInterner.intern(new String("t3.small")),
+                   is(sameInstance(CatalogueInterner.intern(new String("t3.small")))));
+    }
+
+    @Test
+    public void testInternDifferentValues() {
+        Hardware hardware = CatalogueInterner.intern(createHardware("t3.small"));
+
+        assertThat(CatalogueInterner.intern(createHardware("t3.large")), is(not(sameInstance(hardware))));
+    }
+
+    @Test
+    public void testInternNull() {
+        assertThat(CatalogueInterner.intern(null), is(nullValue()));
+    }
+
+}
@@ -0,0 +1,75 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.connector.iaas.cloud.provider;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.ow2.proactive.connector.iaas.model.Image;
+
+import com.google.common.collect.Sets;
+
+
+public class ImageIndexTest {
+
+    private ImageIndex imageIndex;
+
+    @Before
+    public void init() {
+        imageIndex = new ImageIndex(Sets.newHashSet(Image.builder().id("1").name("Ubuntu-22.04-LTS").build(),
+                                                    Image.builder().id("2").name("ubuntu-20.04-minimal").build(),
+                                                    Image.builder().id("3").name("Debian-12").build(),
+                                                    Image.builder().id("4").build()));
+    }
+
+    private Set<String> searchIds(String text) {
+        return imageIndex.searchByName(text).stream().map(Image::getId).collect(Collectors.toSet());
+    }
+
+    @Test
+    public void testSearchIgnoresCase() {
+        assertThat(searchIds("UBUNTU"), is(Sets.newHashSet("1", "2")));
+        assertThat(searchIds("lts"), is(Sets.newHashSet("1")));
+    }
+
+    @Test
+    public void testSearchMatchesSubstringsOnly() {
+        assertThat(searchIds("ubuntu-2"), is(Sets.newHashSet("1", "2")));
+        assertThat(searchIds("ubuntu-12"), is(Sets.newHashSet()));
+        assertThat(searchIds("centos"), is(Sets.newHashSet()));
+    }
+
+    @Test
+    public void testSearchShortText() {
+        assertThat(searchIds("12"), is(Sets.newHashSet("3")));
+        assertThat(searchIds(""), is(Sets.newHashSet("1", "2", "3", "4")));
+    }
+}
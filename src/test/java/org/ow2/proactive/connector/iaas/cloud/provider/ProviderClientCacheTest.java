@@ -0,0 +1,284 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.connector.iaas.cloud.provider;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.ow2.proactive.connector.iaas.fixtures.InfrastructureFixture;
+import org.ow2.proactive.connector.iaas.model.Infrastructure;
+
+import com.google.common.collect.Lists;
+
+
+public class ProviderClientCacheTest {
+
+    private AtomicInteger builds;
+
+    private AtomicInteger closes;
+
+    private ProviderClientCache<String> clientCache;
+
+    @Before
+    public void init() {
+        builds = new AtomicInteger();
+        closes = new AtomicInteger();
+        clientCache = new ProviderClientCache<>("test",
+                                                infrastructure -> infrastructure.getId() + "-" +
+                                                                  builds.incrementAndGet(),
+                                                client -> closes.incrementAndGet());
+    }
+
+    @Test
+    public void testGetBuildsOnce() {
+        Infrastructure infrastructure = InfrastructureFixture.getSimpleInfrastructure("type");
+
+        assertThat(clientCache.get(infrastructure), is("id-type-1"));
+        assertThat(clientCache.get(infrastructure), is("id-type-1"));
+
+        assertThat(builds.get(), is(1));
+        assertThat(clientCache.getStatistics().getMisses(), is(1L));
+        assertThat(clientCache.getStatistics().getHits(), is(1L));
+    }
+
+    @Test
+    public void testConcurrentCallersShareTheBuild() throws Exception {
+        CountDownLatch buildStarted = new CountDownLatch(1);
+        CountDownLatch releaseBuild = new CountDownLatch(1);
+        ProviderClientCache<String> slowCache = new ProviderClientCache<>("slow", infrastructure -> {
+            buildStarted.countDown();
+            try {
+                releaseBuild.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return "client-" + builds.incrementAndGet();
+        }, client -> closes.incrementAndGet());
+        Infrastructure infrastructure = InfrastructureFixture.getSimpleInfrastructure("type");
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<String>> clients = Lists.newArrayList();
+        clients.add(executor.submit(() -> slowCache.get(infrastructure)));
+        buildStarted.await(5, TimeUnit.SECONDS);
+        for (int i = 0; i < 3; i++) {
+            clients.add(executor.submit(() -> slowCache.get(infrastructure)));
+        }
+        // a slow build must not block the other infrastructures
+        assertThat(clientCache.get(InfrastructureFixture.getSimpleInfrastructure("other")), is("id-other-1"));
+        releaseBuild.countDown();
+
+        for (Future<String> client : clients) {
+            assertThat(client.get(5, TimeUnit.SECONDS), is("client-2"));
+        }
+        executor.shutdown();
+        assertThat(slowCache.getStatistics().getMisses(), is(1L));
+    }
+
+    @Test
+    public void testFailedBuildIsCachedDuringBackoff() {
+        AtomicInteger attempts = new AtomicInteger();
+        ProviderClientCache<String> failingCache = new ProviderClientCache<>("failing", infrastructure -> {
+            attempts.incrementAndGet();
+            throw new RuntimeException("ERROR unreachable endpoint");
+        }, client -> closes.incrementAndGet());
+        failingCache.configure(10, 0, 60, 600);
+        Infrastructure infrastructure = InfrastructureFixture.getSimpleInfrastructure("type");
+
+        for (int i = 0; i < 3; i++) {
+            try {
+                failingCache.get(infrastructure);
+                fail("the build failure should be returned");
+            } catch (RuntimeException e) {
+                assertThat(e.getMessage(), is("ERROR unreachable endpoint"));
+            }
+        }
+
+        assertThat(attempts.get(), is(1));
+        assertThat(failingCache.getStatistics().getFailures(), is(1L));
+    }
+
+    @Test
+    public void testFailedBuildIsRetriedAfterBackoff() {
+        AtomicInteger attempts = new AtomicInteger();
+        ProviderClientCache<String> failingCache = new ProviderClientCache<>("failing", infrastructure -> {
+            if (attempts.incrementAndGet() == 1) {
+                throw new RuntimeException("ERROR unreachable endpoint");
+            }
+            return "client";
+        }, client -> closes.incrementAndGet());
+        failingCache.configure(10, 0, 0, 0);
+        Infrastructure infrastructure = InfrastructureFixture.getSimpleInfrastructure("type");
+
+        try {
+            failingCache.get(infrastructure);
+            fail("the build failure should be returned");
+        } catch (RuntimeException e) {
+            assertThat(e.getMessage(), is("ERROR unreachable endpoint"));
+        }
+
+        assertThat(failingCache.get(infrastructure), is("client"));
+        assertThat(attempts.get(), is(2));
+    }
+
+    @Test
+    public void testBuildErrorIsReturnedToTheCallers() {
+        ProviderClientCache<String> failingCache = new ProviderClientCache<>("failing", infrastructure -> {
+            throw new NoClassDefFoundError("com/provider/sdk/Client");
+        }, client -> closes.incrementAndGet());
+        failingCache.configure(10, 0, 60, 600);
+        Infrastructure infrastructure = InfrastructureFixture.getSimpleInfrastructure("type");
+
+        for (int i = 0; i < 2; i++) {
+            try {
+                failingCache.get(infrastructure);
+                fail("the build error should be returned");
+            } catch (NoClassDefFoundError e) {
+                assertThat(e.getMessage(), is("com/provider/sdk/Client"));
+            }
+        }
+
+        assertThat(failingCache.getStatistics().getFailures(), is(1L));
+    }
+
+    @Test
+    public void testRemovedClientIsClosedAfterItsLeases() {
+        Infrastructure infrastructure = InfrastructureFixture.getSimpleInfrastructure("type");
+
+        try (ProviderClientCache.UsageScope scope = ProviderClientCache.openUsageScope()) {
+            assertThat(clientCache.get(infrastructure), is("id-type-1"));
+            try (ProviderClientCache.UsageScope nestedScope = ProviderClientCache.openUsageScope()) {
+                clientCache.get(infrastructure);
+            }
+
+            clientCache.remove(infrastructure);
+
+            // still used by the call of this scope
+            assertThat(closes.get(), is(0));
+            assertThat(clientCache.size(), is(0));
+        }
+
+        assertThat(closes.get(), is(1));
+        assertThat(clientCache.getStatistics().getLiveClients(), is(0));
+    }
+
+    @Test
+    public void testEvictedClientIsNotLeased() {
+        Infrastructure infrastructure = InfrastructureFixture.getSimpleInfrastructure("type");
+        clientCache.get(infrastructure);
+        clientCache.remove(infrastructure);
+
+        try (ProviderClientCache.UsageScope scope = ProviderClientCache.openUsageScope()) {
+            assertThat(clientCache.get(infrastructure), is("id-type-2"));
+        }
+
+        assertThat(closes.get(), is(1));
+        assertThat(clientCache.size(), is(1));
+    }
+
+    @Test
+    public void testRemoveClosesClient() {
+        Infrastructure infrastructure = InfrastructureFixture.getSimpleInfrastructure("type");
+        clientCache.get(infrastructure);
+        assertThat(clientCache.getStatistics().getLiveClients(), is(1));
+
+        clientCache.remove(infrastructure);
+
+        assertThat(closes.get(), is(1));
+        assertThat(clientCache.size(), is(0));
+        assertThat(clientCache.getStatistics().getLiveClients(), is(0));
+        assertThat(clientCache.get(infrastructure), is("id-type-2"));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEviction() {
+        clientCache.configure(2, 0, 5, 300);
+        Infrastructure first = InfrastructureFixture.getSimpleInfrastructure("first");
+        Infrastructure second = InfrastructureFixture.getSimpleInfrastructure("second");
+        Infrastructure third = InfrastructureFixture.getSimpleInfrastructure("third");
+
+        clientCache.get(first);
+        clientCache.get(second);
+        clientCache.get(first);
+        clientCache.get(third);
+
+        assertThat(clientCache.size(), is(2));
+        assertThat(closes.get(), is(1));
+        assertThat(clientCache.getStatistics().getEvictions(), is(1L));
+        // the second infrastructure was evicted, its client is built again
+        assertThat(clientCache.get(second), is("id-second-4"));
+    }
+
+    @Test
+    public void testBackgroundIdleEviction() throws InterruptedException {
+        clientCache.configure(10, 1, 5, 300);
+        clientCache.get(InfrastructureFixture.getSimpleInfrastructure("type"));
+
+        // the clients are evicted without any further call on the cache
+        long deadline = System.currentTimeMillis() + 5000;
+        while (clientCache.size() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100);
+        }
+
+        assertThat(clientCache.size(), is(0));
+        assertThat(clientCache.getStatistics().getLiveClients(), is(0));
+        clientCache.clear();
+    }
+
+    @Test
+    public void testIdleEviction() throws InterruptedException {
+        clientCache.configure(10, 1, 5, 300);
+        Infrastructure infrastructure = InfrastructureFixture.getSimpleInfrastructure("type");
+        clientCache.get(infrastructure);
+
+        Thread.sleep(1100);
+        clientCache.evictIdleClients();
+
+        assertThat(clientCache.size(), is(0));
+        assertThat(closes.get(), is(1));
+    }
+
+    @Test
+    public void testClearClosesAllClients() {
+        clientCache.get(InfrastructureFixture.getSimpleInfrastructure("first"));
+        clientCache.get(InfrastructureFixture.getSimpleInfrastructure("second"));
+
+        clientCache.clear();
+
+        assertThat(clientCache.size(), is(0));
+        assertThat(closes.get(), is(2));
+    }
+}
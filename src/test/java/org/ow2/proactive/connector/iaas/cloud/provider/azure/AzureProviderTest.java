@@ -27,6 +27,7 @@ package org.ow2.proactive.connector.iaas.cloud.provider.azure;
 
 import static org.hamcrest.CoreMatchers.*;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
 import static org.mockito.ArgumentMatchers.nullable;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyBoolean;
@@ -46,6 +47,7 @@ import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.ow2.proactive.connector.iaas.cloud.TagManager;
+import org.ow2.proactive.connector.iaas.cloud.provider.CatalogueCache;
 import org.ow2.proactive.connector.iaas.fixtures.InfrastructureFixture;
 import org.ow2.proactive.connector.iaas.fixtures.InstanceFixture;
 import org.ow2.proactive.connector.iaas.fixtures.InstanceScriptFixture;
@@ -58,6 +60,7 @@ import com.microsoft.azure.Page;
 import com.microsoft.azure.PagedList;
 import com.microsoft.azure.management.Azure;
 import com.microsoft.azure.management.compute.*;
+import com.microsoft.azure.management.compute.implementation.VirtualMachineScaleSetsInner;
 import com.microsoft.azure.management.network.*;
 import com.microsoft.azure.management.network.Network;
 import com.microsoft.azure.management.resources.ResourceGroup;
@@ -68,6 +71,8 @@ import com.microsoft.azure.management.resources.fluentcore.model.CreatedResource
 import com.microsoft.rest.RestException;
 import com.microsoft.rest.ServiceFuture;
 
+import rx.Completable;
+
 
 /**
  * @author ActiveEon Team
@@ -87,6 +92,9 @@ public class AzureProviderTest {
     @Mock
     private AzureProviderNetworkingUtils azureProviderNetworkingUtils;
 
+    @Mock
+    private CatalogueCache catalogueCache;
+
     @Mock
     private Azure azureService;
 
@@ -433,6 +441,15 @@ public class AzureProviderTest {
         createdInstances = new ArrayList<Instance>(azureProvider.createInstance(infrastructure, instance));
         assertThat(createdInstances.size(), is(1));
         assertThat(createdInstances.get(0).getOptions().getSecurityGroupNames().get(0), is("securityGroup"));
+
+        // Instance with network options, kept out of the scale sets whose network is private only
+        ReflectionTestUtils.setField(azureProvider, "scaleSetMinInstances", 1);
+        createdInstances = new ArrayList<Instance>(azureProvider.createInstance(infrastructure, instance));
+        assertThat(createdInstances.size(), is(1));
+        assertThat(createdInstances.get(0).getId(), is("vmId"));
+        verify(azureProviderUtils, times(0)).searchVirtualMachineScaleSetByName(any(Azure.class),
+                                                                                anyString(),
+                                                                                anyString());
     }
 
     @Test
@@ -609,14 +626,24 @@ public class AzureProviderTest {
         when(azureProviderNetworkingUtils.getVMNetworks(azureService,
                                                         virtualMachine)).thenReturn(Lists.newArrayList(virtualNetwork));
 
+        // Asynchronous deletions
+        when(virtualMachines.deleteByIdAsync(anyString())).thenReturn(Completable.complete());
+        when(networkInterfaces.deleteByIdAsync(anyString())).thenReturn(Completable.complete());
+        when(publicIPAddresses.deleteByIdAsync(anyString())).thenReturn(Completable.complete());
+        when(disks.deleteByIdAsync(anyString())).thenReturn(Completable.complete());
+        when(networkSecurityGroups.deleteByIdAsync(anyString())).thenReturn(Completable.complete());
+        when(virtualNetworks.deleteByIdAsync(anyString())).thenReturn(Completable.complete());
+
         // Trigger deleteInstance with full erasing
         azureProvider.deleteInstance(infrastructure, "vmId");
-        verify(virtualMachines).deleteById("vmId");
-        verify(networkInterfaces).deleteById("netIf-id");
-        verify(publicIPAddresses).deleteById("pubIP-id");
-        verify(disks).deleteById("diskId");
-        verify(networkSecurityGroups).deleteById("nsg-id");
-        verify(virtualNetworks).deleteById("vnet-id");
+        verify(virtualMachines).deleteByIdAsync("vmId");
+        verify(networkInterfaces).deleteByIdAsync("netIf-id");
+        verify(publicIPAddresses).deleteByIdAsync("pubIP-id");
+        verify(disks).deleteByIdAsync("diskId");
+        verify(networkSecurityGroups).deleteByIdAsync("nsg-id");
+        verify(virtualNetworks).deleteByIdAsync("vnet-id");
+        verify(azureProviderUtils).unindexVirtualMachine(azureService, virtualMachine);
+        verify(azureProviderUtils).unindexPublicIpAddress(azureService, "pubIP-id");
     }
 
     @Test
@@ -686,14 +713,22 @@ public class AzureProviderTest {
         when(azureProviderNetworkingUtils.getVMNetworks(azureService,
                                                         virtualMachine)).thenReturn(Lists.newArrayList(virtualNetwork));
 
+        // Asynchronous deletions
+        when(virtualMachines.deleteByIdAsync(anyString())).thenReturn(Completable.complete());
+        when(networkInterfaces.deleteByIdAsync(anyString())).thenReturn(Completable.complete());
+        when(publicIPAddresses.deleteByIdAsync(anyString())).thenReturn(Completable.complete());
+        when(disks.deleteByIdAsync(anyString())).thenReturn(Completable.complete());
+        when(networkSecurityGroups.deleteByIdAsync(anyString())).thenReturn(Completable.complete());
+        when(virtualNetworks.deleteByIdAsync(anyString())).thenReturn(Completable.complete());
+
         // Trigger deleteInstance with busy securityGroup and virtualNetwork
         azureProvider.deleteInstance(infrastructure, "vmId");
-        verify(virtualMachines).deleteById("vmId");
-        verify(networkInterfaces).deleteById("netIf-id");
-        verify(publicIPAddresses).deleteById("pubIP-id");
-        verify(disks).deleteById("diskId");
-        verify(networkSecurityGroups, times(0)).deleteById("nsg-id");
-        verify(virtualNetworks, times(0)).deleteById("vnet-id");
+        verify(virtualMachines).deleteByIdAsync("vmId");
+        verify(networkInterfaces).deleteByIdAsync("netIf-id");
+        verify(publicIPAddresses).deleteByIdAsync("pubIP-id");
+        verify(disks).deleteByIdAsync("diskId");
+        verify(networkSecurityGroups, times(0)).deleteByIdAsync("nsg-id");
+        verify(virtualNetworks, times(0)).deleteByIdAsync("vnet-id");
     }
 
     @Test
@@ -1009,12 +1044,238 @@ public class AzureProviderTest {
         verify(publicIPAddresses).deleteById("pubIP-id");
     }
 
+    @Test
+    public void testCreateInstancesInExistingScaleSet() {
+        ReflectionTestUtils.setField(azureProvider, "scaleSetMinInstances", 2);
+        when(resourceGroup.name()).thenReturn("resourceGroup");
+        when(azureProviderUtils.searchResourceGroupByName(azureService,
+                                                          "resourceGroup")).thenReturn(Optional.of(resourceGroup));
+
+        VirtualMachineScaleSet scaleSet = mock(VirtualMachineScaleSet.class);
+        VirtualMachineScaleSet.Update scaleSetUpdate = mock(VirtualMachineScaleSet.Update.class);
+        VirtualMachineScaleSetVMs scaleSetVMs = mock(VirtualMachineScaleSetVMs.class);
+        VirtualMachineScaleSetVM existingScaleSetVM = mock(VirtualMachineScaleSetVM.class);
+        VirtualMachineScaleSetVM newScaleSetVM = mock(VirtualMachineScaleSetVM.class);
+        when(existingScaleSetVM.id()).thenReturn("scaleSetId/virtualMachines/0");
+        when(newScaleSetVM.id()).thenReturn("scaleSetId/virtualMachines/1");
+        when(newScaleSetVM.name()).thenReturn("vmTag_1");
+        PagedList<VirtualMachineScaleSetVM> scaleSetVMsBefore = getPagedList();
+        scaleSetVMsBefore.add(existingScaleSetVM);
+        PagedList<VirtualMachineScaleSetVM> scaleSetVMsAfter = getPagedList();
+        scaleSetVMsAfter.add(existingScaleSetVM);
+        scaleSetVMsAfter.add(newScaleSetVM);
+        when(scaleSet.virtualMachines()).thenReturn(scaleSetVMs);
+        when(scaleSetVMs.list()).thenReturn(scaleSetVMsBefore, scaleSetVMsAfter);
+        when(scaleSet.capacity()).thenReturn(1L);
+        mockScaleSetProfile(scaleSet, AzureProvider.DEFAULT_VM_SIZE.toString());
+        when(scaleSet.update()).thenReturn(scaleSetUpdate);
+        when(scaleSetUpdate.withCapacity(3L)).thenReturn(scaleSetUpdate);
+        when(scaleSetUpdate.apply()).thenReturn(scaleSet);
+        when(azureProviderUtils.searchVirtualMachineScaleSetByName(azureService,
+                                                                   "resourceGroup",
+                                                                   "vmTag")).thenReturn(Optional.of(scaleSet));
+
+        Infrastructure infrastructure = InfrastructureFixture.getSimpleInfrastructure("azure");
+        Instance instance = InstanceFixture.getInstanceWithResourceGroupAndRegion("vmId",
+                                                                                  "vmTag",
+                                                                                  "UBUNTU_SERVER_18_04_LTS",
+                                                                                  "2",
+                                                                                  null,
+                                                                                  null,
+                                                                                  null,
+                                                                                  null,
+                                                                                  null,
+                                                                                  "resourceGroup",
+                                                                                  "eastus");
+        List<Instance> createdInstances = new ArrayList<>(azureProvider.createInstance(infrastructure, instance));
+
+        // Only the new scale set instance is returned, and no individual VM is created
+        assertThat(createdInstances.size(), is(1));
+        assertThat(createdInstances.get(0).getId(), is("scaleSetId/virtualMachines/1"));
+        assertThat(createdInstances.get(0).getTag(), is("vmTag_1"));
+        verify(scaleSetUpdate).withCapacity(3L);
+        verify(azureService, times(0)).virtualMachines();
+    }
+
+    @Test
+    public void testScaleOutWithOtherHardwareIsRejected() {
+        ReflectionTestUtils.setField(azureProvider, "scaleSetMinInstances", 2);
+        when(resourceGroup.name()).thenReturn("resourceGroup");
+        when(azureProviderUtils.searchResourceGroupByName(azureService,
+                                                          "resourceGroup")).thenReturn(Optional.of(resourceGroup));
+
+        VirtualMachineScaleSet scaleSet = mock(VirtualMachineScaleSet.class);
+        when(scaleSet.name()).thenReturn("vmTag");
+        mockScaleSetProfile(scaleSet, "Standard_D4_v3");
+        when(azureProviderUtils.searchVirtualMachineScaleSetByName(azureService,
+                                                                   "resourceGroup",
+                                                                   "vmTag")).thenReturn(Optional.of(scaleSet));
+
+        Infrastructure infrastructure = InfrastructureFixture.getSimpleInfrastructure("azure");
+        Instance instance = InstanceFixture.getInstanceWithResourceGroupAndRegion("vmId",
+                                                                                  "vmTag",
+                                                                                  "UBUNTU_SERVER_18_04_LTS",
+                                                                                  "2",
+                                                                                  null,
+                                                                                  null,
+                                                                                  null,
+                                                                                  null,
+                                                                                  null,
+                                                                                  "resourceGroup",
+                                                                                  "eastus");
+        try {
+            azureProvider.createInstance(infrastructure, instance);
+            fail("A scale set should not be scaled out with another hardware");
+        } catch (RuntimeException e) {
+            assertThat(e.getMessage(), containsString("hardware type Standard_D4_v3"));
+        }
+        verify(scaleSet, times(0)).update();
+    }
+
+    @Test
+    public void testDeleteScaleSetInstance() {
+        String scaleSetId = "/subscriptions/subscriptionId/resourceGroups/resourceGroup/providers/Microsoft.Compute/virtualMachineScaleSets/vmTag";
+        VirtualMachineScaleSets scaleSets = mock(VirtualMachineScaleSets.class);
+        VirtualMachineScaleSetsInner scaleSetsInner = mock(VirtualMachineScaleSetsInner.class);
+        when(azureService.virtualMachineScaleSets()).thenReturn(scaleSets);
+        when(scaleSets.inner()).thenReturn(scaleSetsInner);
+
+        azureProvider.deleteInstance(InfrastructureFixture.getSimpleInfrastructure("azure"),
+                                     scaleSetId + "/virtualMachines/3");
+
+        verify(scaleSetsInner).deleteInstances("resourceGroup", "vmTag", Lists.newArrayList("3"));
+        verify(azureProviderUtils, times(0)).searchVirtualMachineByID(any(Azure.class), anyString());
+        verify(scaleSets, times(0)).deleteById(anyString());
+    }
+
+    @Test
+    public void testDeleteLastScaleSetInstanceDeletesTheScaleSetAndItsNetwork() throws IOException {
+        String scaleSetId = "/subscriptions/subscriptionId/resourceGroups/resourceGroup/providers/Microsoft.Compute/virtualMachineScaleSets/vmTag";
+        VirtualMachineScaleSets scaleSets = mock(VirtualMachineScaleSets.class);
+        VirtualMachineScaleSetsInner scaleSetsInner = mock(VirtualMachineScaleSetsInner.class);
+        VirtualMachineScaleSet scaleSet = mock(VirtualMachineScaleSet.class);
+        when(azureService.virtualMachineScaleSets()).thenReturn(scaleSets);
+        when(scaleSets.inner()).thenReturn(scaleSetsInner);
+        when(scaleSets.getById(scaleSetId)).thenReturn(scaleSet);
+        when(scaleSet.capacity()).thenReturn(0L);
+        when(scaleSet.getPrimaryNetwork()).thenReturn(virtualNetwork);
+        when(virtualNetwork.id()).thenReturn("networkId");
+        when(azureService.networkInterfaces()).thenReturn(networkInterfaces);
+        when(networkInterfaces.list()).thenReturn(getPagedList());
+        when(azureService.networks()).thenReturn(virtualNetworks);
+        when(virtualNetworks.deleteByIdAsync("networkId")).thenReturn(Completable.complete());
+
+        azureProvider.deleteInstance(InfrastructureFixture.getSimpleInfrastructure("azure"),
+                                     scaleSetId + "/virtualMachines/3");
+
+        verify(scaleSetsInner).deleteInstances("resourceGroup", "vmTag", Lists.newArrayList("3"));
+        verify(scaleSets).deleteById(scaleSetId);
+        verify(virtualNetworks).deleteByIdAsync("networkId");
+    }
+
+    @Test
+    public void testGetAllInfrastructureInstancesWithScaleSetsDisabled() {
+        when(azureProviderUtils.getAllVirtualMachines(azureService)).thenReturn(new HashSet<>());
+
+        assertThat(azureProvider.getAllInfrastructureInstances(InfrastructureFixture.getSimpleInfrastructure("azure"))
+                                .isEmpty(),
+                   is(true));
+        verify(azureProviderUtils, times(0)).getAllVirtualMachineScaleSets(any(Azure.class));
+    }
+
+    @Test
+    public void testGetAllInfrastructureInstancesWithScaleSetInstances() {
+        ReflectionTestUtils.setField(azureProvider, "scaleSetMinInstances", 2);
+        VirtualMachineScaleSet scaleSet = mock(VirtualMachineScaleSet.class);
+        VirtualMachineScaleSetVMs scaleSetVMs = mock(VirtualMachineScaleSetVMs.class);
+        VirtualMachineScaleSetVM scaleSetVM = mock(VirtualMachineScaleSetVM.class);
+        VirtualMachineScaleSetNetworkInterface scaleSetNetworkInterface = mock(VirtualMachineScaleSetNetworkInterface.class);
+        when(scaleSet.virtualMachines()).thenReturn(scaleSetVMs);
+        PagedList<VirtualMachineScaleSetVM> scaleSetVMList = getPagedList();
+        scaleSetVMList.add(scaleSetVM);
+        when(scaleSetVMs.list()).thenReturn(scaleSetVMList);
+        when(scaleSetVM.id()).thenReturn("scaleSetId/virtualMachines/0");
+        when(scaleSetVM.name()).thenReturn("vmTag_0");
+        PagedList<VirtualMachineScaleSetNetworkInterface> scaleSetNetworkInterfaces = getPagedList();
+        scaleSetNetworkInterfaces.add(scaleSetNetworkInterface);
+        when(scaleSet.listNetworkInterfaces()).thenReturn(scaleSetNetworkInterfaces);
+        when(scaleSetNetworkInterface.virtualMachineId()).thenReturn("scaleSetId/virtualMachines/0");
+        when(scaleSetNetworkInterface.primaryPrivateIP()).thenReturn("172.16.1.4");
+        when(azureProviderUtils.getAllVirtualMachines(azureService)).thenReturn(new HashSet<>());
+        when(azureProviderUtils.getAllVirtualMachineScaleSets(azureService)).thenReturn(Sets.newHashSet(scaleSet));
+
+        Set<Instance> instances = azureProvider.getAllInfrastructureInstances(InfrastructureFixture.getSimpleInfrastructure("azure"));
+
+        // The scale set instances are listed with the ID they are created with
+        assertThat(instances.size(), is(1));
+        Instance instance = instances.iterator().next();
+        assertThat(instance.getId(), is("scaleSetId/virtualMachines/0"));
+        assertThat(instance.getNetwork().getPrivateAddresses(), is(Lists.newArrayList("172.16.1.4")));
+        // The private addresses of the scale set instances are read at once
+        verify(scaleSetVM, times(0)).listNetworkInterfaces();
+    }
+
+    @Test
+    public void testExecuteScriptOnScaleSetInstanceIsRejected() {
+        InstanceScript instanceScript = InstanceScriptFixture.simpleInstanceScriptNoscripts();
+        try {
+            azureProvider.executeScriptOnInstanceId(InfrastructureFixture.getSimpleInfrastructure("azure"),
+                                                    "scaleSetId/virtualMachines/0",
+                                                    instanceScript);
+            fail("Scripts should not be executed on a scale set instance");
+        } catch (RuntimeException e) {
+            assertThat(e.getMessage(), containsString("scale set instance"));
+        }
+        verify(azureProviderUtils, times(0)).searchVirtualMachineByID(any(Azure.class), anyString());
+    }
+
+    @Test
+    public void testResolvedImageCache() {
+        Infrastructure infrastructure = InfrastructureFixture.getSimpleInfrastructure("azure");
+        Instance instance = InstanceFixture.simpleInstanceWithTagAndImage("vmTag", "imageName");
+        when(azureService.virtualMachineCustomImages()).thenReturn(virtualMachineCustomImages);
+        when(virtualMachineCustomImages.getById("imageName")).thenReturn(virtualMachineCustomImage);
+        when(virtualMachineCustomImage.resourceGroupName()).thenReturn("resourceGroup");
+        when(resourceGroup.name()).thenReturn("resourceGroup");
+        when(azureProviderUtils.searchResourceGroupByName(azureService,
+                                                          "resourceGroup")).thenReturn(Optional.of(resourceGroup));
+
+        AzureProvider.ResolvedImage resolvedImage = azureProvider.resolveImage(azureService,
+                                                                               instance,
+                                                                               Optional.empty(),
+                                                                               "imageName",
+                                                                               true);
+        assertThat(resolvedImage.getResourceGroup(), is(resourceGroup));
+        assertThat(resolvedImage.getImage(), is(virtualMachineCustomImage));
+
+        String resolvedImageKey = azureProvider.getResolvedImageKey(infrastructure, Optional.empty(), "imageName");
+        ((Map<String, AzureProvider.ResolvedImage>) ReflectionTestUtils.getField(azureProvider,
+                                                                                 "resolvedImages")).put(resolvedImageKey,
+                                                                                                        resolvedImage);
+        assertThat(azureProvider.getResolvedImage(resolvedImageKey).isPresent(), is(true));
+
+        // Expired resolutions are not reused
+        ReflectionTestUtils.setField(azureProvider, "resolvedImageTtl", 0L);
+        assertThat(azureProvider.getResolvedImage(resolvedImageKey).isPresent(), is(false));
+        ReflectionTestUtils.setField(azureProvider, "resolvedImageTtl", 600L);
+        assertThat(azureProvider.getResolvedImage(resolvedImageKey).isPresent(), is(true));
+
+        azureProvider.invalidateResolvedImages(infrastructure);
+        assertThat(azureProvider.getResolvedImage(resolvedImageKey).isPresent(), is(false));
+    }
+
     @Test
     public void testDeleteInfrastructure() {
         Infrastructure infrastructure = InfrastructureFixture.getSimpleInfrastructure("azure");
         when(azureProviderUtils.getAllVirtualMachines(azureService)).thenReturn(Sets.newHashSet(virtualMachine));
         azureProvider.deleteInfrastructure(infrastructure);
         verify(azureServiceCache).removeService(infrastructure);
+        verify(catalogueCache).invalidate(infrastructure.getId());
+    }
+
+    private void mockScaleSetProfile(VirtualMachineScaleSet scaleSet, String hardwareType) {
+        when(scaleSet.sku()).thenReturn(VirtualMachineScaleSetSkuTypes.fromSkuNameAndTier(hardwareType, "Standard"));
+        when(scaleSet.storageProfile()).thenReturn(new VirtualMachineScaleSetStorageProfile().withImageReference(KnownLinuxVirtualMachineImageCustom.UBUNTU_SERVER_18_04_LTS.imageReference()));
     }
 
     private <T> PagedList<T> getPagedList() {
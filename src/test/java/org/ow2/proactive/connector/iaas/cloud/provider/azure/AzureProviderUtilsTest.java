@@ -0,0 +1,189 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.connector.iaas.cloud.provider.azure;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.util.Optional;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import com.microsoft.azure.Page;
+import com.microsoft.azure.PagedList;
+import com.microsoft.azure.management.Azure;
+import com.microsoft.azure.management.compute.VirtualMachine;
+import com.microsoft.azure.management.compute.VirtualMachines;
+import com.microsoft.azure.management.network.PublicIPAddress;
+import com.microsoft.azure.management.network.PublicIPAddresses;
+import com.microsoft.rest.RestException;
+
+
+public class AzureProviderUtilsTest {
+
+    @InjectMocks
+    private AzureProviderUtils azureProviderUtils;
+
+    @Mock
+    private Azure azureService;
+
+    @Mock
+    private VirtualMachines virtualMachines;
+
+    @Mock
+    private VirtualMachine virtualMachine;
+
+    @Mock
+    private PublicIPAddresses publicIPAddresses;
+
+    @Mock
+    private PublicIPAddress publicIPAddress;
+
+    @Before
+    public void init() {
+        MockitoAnnotations.initMocks(this);
+        when(azureService.virtualMachines()).thenReturn(virtualMachines);
+        when(azureService.publicIPAddresses()).thenReturn(publicIPAddresses);
+        when(virtualMachine.vmId()).thenReturn("vmId");
+        when(virtualMachine.name()).thenReturn("vmName");
+        when(virtualMachine.id()).thenReturn("/subscriptions/subscription/resourceGroups/rg/virtualMachines/vmName");
+        when(virtualMachines.getById(virtualMachine.id())).thenReturn(virtualMachine);
+        PagedList<VirtualMachine> pagedListVirtualMachine = getPagedList();
+        pagedListVirtualMachine.add(virtualMachine);
+        when(virtualMachines.list()).thenReturn(pagedListVirtualMachine);
+    }
+
+    @Test
+    public void testSearchVirtualMachineByIDListsOnlyUnknownVMs() {
+        assertThat(azureProviderUtils.searchVirtualMachineByID(azureService, "vmId"), is(Optional.of(virtualMachine)));
+        assertThat(azureProviderUtils.searchVirtualMachineByID(azureService, "vmId"), is(Optional.of(virtualMachine)));
+
+        verify(virtualMachines, times(1)).list();
+        verify(virtualMachines, times(1)).getById(virtualMachine.id());
+    }
+
+    @Test
+    public void testSearchIndexedVirtualMachine() {
+        azureProviderUtils.indexVirtualMachine(azureService, virtualMachine);
+
+        assertThat(azureProviderUtils.searchVirtualMachineByID(azureService, "vmId"), is(Optional.of(virtualMachine)));
+        assertThat(azureProviderUtils.searchVirtualMachineByName(azureService, "vmName"),
+                   is(Optional.of(virtualMachine)));
+
+        verify(virtualMachines, times(0)).list();
+    }
+
+    @Test
+    public void testSearchUnknownVirtualMachineListsOnce() {
+        assertThat(azureProviderUtils.searchVirtualMachineByID(azureService, "unknown"), is(Optional.empty()));
+
+        verify(virtualMachines, times(1)).list();
+    }
+
+    @Test
+    public void testSearchDeletedVirtualMachine() {
+        azureProviderUtils.indexVirtualMachine(azureService, virtualMachine);
+        when(virtualMachines.getById(virtualMachine.id())).thenReturn(null);
+        when(virtualMachines.list()).thenReturn(getPagedList());
+
+        assertThat(azureProviderUtils.searchVirtualMachineByID(azureService, "vmId"), is(Optional.empty()));
+        verify(virtualMachines, times(1)).list();
+    }
+
+    @Test
+    public void testSearchPublicIpAddressByIp() {
+        when(publicIPAddress.ipAddress()).thenReturn("1.2.3.4");
+        when(publicIPAddress.id()).thenReturn("ipResourceId");
+        when(publicIPAddresses.getById("ipResourceId")).thenReturn(publicIPAddress);
+        PagedList<PublicIPAddress> pagedListPublicIPAddress = getPagedList();
+        pagedListPublicIPAddress.add(publicIPAddress);
+        when(publicIPAddresses.list()).thenReturn(pagedListPublicIPAddress);
+
+        assertThat(azureProviderUtils.searchPublicIpAddressByIp(azureService, "1.2.3.4"),
+                   is(Optional.of(publicIPAddress)));
+        assertThat(azureProviderUtils.searchPublicIpAddressByIp(azureService, "1.2.3.4"),
+                   is(Optional.of(publicIPAddress)));
+
+        verify(publicIPAddresses, times(1)).list();
+        verify(publicIPAddresses, times(1)).getById("ipResourceId");
+    }
+
+    @Test
+    public void testDropIndex() {
+        azureProviderUtils.indexVirtualMachine(azureService, virtualMachine);
+        azureProviderUtils.dropIndex(azureService);
+
+        assertThat(azureProviderUtils.searchVirtualMachineByID(azureService, "vmId"), is(Optional.of(virtualMachine)));
+        verify(virtualMachines, times(1)).list();
+    }
+
+    @Test
+    public void testIndexesArePerClient() {
+        Azure otherAzureService = mock(Azure.class);
+        VirtualMachines otherVirtualMachines = mock(VirtualMachines.class);
+        when(otherAzureService.virtualMachines()).thenReturn(otherVirtualMachines);
+        when(otherVirtualMachines.list()).thenReturn(getPagedList());
+        azureProviderUtils.indexVirtualMachine(azureService, virtualMachine);
+
+        assertThat(azureProviderUtils.searchVirtualMachineByID(otherAzureService, "vmId"), is(Optional.empty()));
+        verify(otherVirtualMachines, times(0)).getById(virtualMachine.id());
+    }
+
+    @Test
+    public void testUnindexDeletedPublicIpAddress() {
+        when(publicIPAddress.ipAddress()).thenReturn("1.2.3.4");
+        when(publicIPAddress.id()).thenReturn("ipResourceId");
+        when(publicIPAddresses.getById("ipResourceId")).thenReturn(publicIPAddress);
+        PagedList<PublicIPAddress> pagedListPublicIPAddress = getPagedList();
+        pagedListPublicIPAddress.add(publicIPAddress);
+        when(publicIPAddresses.list()).thenReturn(pagedListPublicIPAddress);
+        azureProviderUtils.searchPublicIpAddressByIp(azureService, "1.2.3.4");
+
+        azureProviderUtils.unindexPublicIpAddress(azureService, "ipResourceId");
+        when(publicIPAddresses.list()).thenReturn(getPagedList());
+
+        assertThat(azureProviderUtils.searchPublicIpAddressByIp(azureService, "1.2.3.4"), is(Optional.empty()));
+        verify(publicIPAddresses, times(0)).getById("ipResourceId");
+    }
+
+    private <T> PagedList<T> getPagedList() {
+        return new PagedList<T>() {
+            @Override
+            public Page<T> nextPage(String nextPageLink) throws RestException, IOException {
+                return null;
+            }
+        };
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.connector.iaas.cloud.provider.azure;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.io.ByteStreams;
+import com.sun.net.httpserver.HttpServer;
+
+
+public class AzureRestClientTest {
+
+    private HttpServer server;
+
+    private AzureRestClient azureRestClient;
+
+    private String baseUrl;
+
+    @Before
+    public void init() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/gzip", exchange -> {
+            boolean authorized = "Bearer token".equals(exchange.getRequestHeaders().getFirst("Authorization"));
+            boolean gzipAccepted = exchange.getRequestHeaders().getFirst("Accept-Encoding").contains("gzip");
+            String content = "{\"authorized\":" + authorized + ",\"gzip\":" + gzipAccepted + "}";
+            byte[] body = gzip(content.getBytes(StandardCharsets.UTF_8));
+            exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream output = exchange.getResponseBody()) {
+                output.write(body);
+            }
+        });
+        server.createContext("/error", exchange -> {
+            byte[] body = "{\"error\":\"forbidden\"}".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(403, body.length);
+            try (OutputStream output = exchange.getResponseBody()) {
+                output.write(body);
+            }
+        });
+        server.start();
+        baseUrl = "http://localhost:" + server.getAddress().getPort();
+
+        azureRestClient = new AzureRestClient();
+        azureRestClient.start();
+    }
+
+    @After
+    public void stop() throws IOException {
+        azureRestClient.stop();
+        server.stop(0);
+    }
+
+    @Test
+    public void testGetDecodesGzipBody() throws IOException {
+        for (int i = 0; i < 3; i++) {
+            String body = azureRestClient.get("token",
+                                              baseUrl + "/gzip",
+                                              input -> new String(ByteStreams.toByteArray(input),
+                                                                  StandardCharsets.UTF_8));
+            assertThat(body, is("{\"authorized\":true,\"gzip\":true}"));
+        }
+    }
+
+    @Test
+    public void testGetErrorStatus() throws IOException {
+        try {
+            azureRestClient.get("token", baseUrl + "/error", input -> "unexpected");
+            fail("An error status should raise an exception");
+        } catch (RuntimeException e) {
+            assertThat(e.getMessage(),
+                       is("ERROR Azure API answered 403 to " + baseUrl + "/error: {\"error\":\"forbidden\"}"));
+        }
+    }
+
+    private static byte[] gzip(byte[] content) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (GZIPOutputStream output = new GZIPOutputStream(compressed)) {
+            output.write(content);
+        }
+        return compressed.toByteArray();
+    }
+}
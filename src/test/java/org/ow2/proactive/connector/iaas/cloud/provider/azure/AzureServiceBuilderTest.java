@@ -28,6 +28,7 @@ package org.ow2.proactive.connector.iaas.cloud.provider.azure;
 import org.junit.Before;
 import org.junit.Test;
 import org.ow2.proactive.connector.iaas.fixtures.InfrastructureFixture;
+import org.springframework.test.util.ReflectionTestUtils;
 
 
 /**
@@ -41,6 +42,7 @@ public class AzureServiceBuilderTest {
     @Before
     public void init() {
         this.azureServiceBuilder = new AzureServiceBuilder();
+        ReflectionTestUtils.setField(azureServiceBuilder, "tokenManager", new AzureTokenManager());
     }
 
     @Test(expected = RuntimeException.class)
@@ -57,6 +57,12 @@ public class AzureServiceCacheTest {
     @Mock
     private AzureServiceBuilder azureServiceBuilder;
 
+    @Mock
+    private AzureTokenManager tokenManager;
+
+    @Mock
+    private AzureProviderUtils azureProviderUtils;
+
     @Mock
     private Azure azureService;
 
@@ -167,6 +173,8 @@ public class AzureServiceCacheTest {
                                                                                 null,
                                                                                 null,
                                                                                 null));
+        // The resource ids indexed for the removed client are dropped
+        verify(azureProviderUtils).dropIndex(azureService);
 
         azureServiceCache.getService(InfrastructureFixture.getInfrastructure("id-azure",
                                                                              "azure",
@@ -0,0 +1,115 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.connector.iaas.cloud.provider.azure;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.ow2.proactive.connector.iaas.fixtures.InfrastructureFixture;
+import org.ow2.proactive.connector.iaas.model.Infrastructure;
+import org.springframework.test.util.ReflectionTestUtils;
+
+
+public class AzureTokenManagerTest {
+
+    private static final String RESOURCE = "https://management.azure.com/";
+
+    private AzureTokenManager tokenManager;
+
+    private Infrastructure infrastructure;
+
+    private AtomicInteger fetches;
+
+    @Before
+    public void init() {
+        tokenManager = new AzureTokenManager();
+        infrastructure = InfrastructureFixture.getSimpleInfrastructure("azure");
+        fetches = new AtomicInteger();
+    }
+
+    @After
+    public void stop() {
+        tokenManager.stopRefresh();
+    }
+
+    @Test
+    public void testTokenIsCached() throws Exception {
+        long expiration = System.currentTimeMillis() + TimeUnit.HOURS.toMillis(1);
+        tokenManager.registerTokenFetcher(infrastructure, resource -> token(fetches.incrementAndGet(), expiration));
+
+        String token = tokenManager.getToken(infrastructure, RESOURCE);
+
+        assertThat(tokenManager.getToken(infrastructure, RESOURCE), is(token));
+        assertThat(fetches.get(), is(1));
+    }
+
+    @Test
+    public void testTokenIsRefreshedBeforeExpiration() throws Exception {
+        ReflectionTestUtils.setField(tokenManager, "refreshMarginSeconds", 3597L);
+        long expiration = System.currentTimeMillis() + TimeUnit.HOURS.toMillis(1);
+        tokenManager.registerTokenFetcher(infrastructure, resource -> token(fetches.incrementAndGet(), expiration));
+        String firstToken = tokenManager.getToken(infrastructure, RESOURCE);
+        // mark the token as used so that it gets refreshed
+        tokenManager.getToken(infrastructure, RESOURCE);
+
+        long deadline = System.currentTimeMillis() + 10000;
+        while (fetches.get() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+
+        assertThat(fetches.get(), is(2));
+        assertThat(tokenManager.getToken(infrastructure, RESOURCE).equals(firstToken), is(false));
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testRemovedCredentials() throws Exception {
+        tokenManager.registerTokenFetcher(infrastructure, resource -> token(fetches.incrementAndGet(), 0));
+        tokenManager.removeCredentials(infrastructure);
+
+        tokenManager.getToken(infrastructure, RESOURCE);
+    }
+
+    @Test
+    public void testGetExpiration() {
+        long expiration = TimeUnit.SECONDS.toMillis(1700000000L);
+        assertThat(AzureTokenManager.getExpiration(token(1, expiration), 0L), is(expiration));
+        assertThat(AzureTokenManager.getExpiration("opaque-token", 1000L), is(1000L + TimeUnit.MINUTES.toMillis(10)));
+    }
+
+    private static String token(int number, long expiration) {
+        String payload = "{\"exp\":" + TimeUnit.MILLISECONDS.toSeconds(expiration) + ",\"n\":" + number + "}";
+        return "e30." + Base64.getUrlEncoder().withoutPadding().encodeToString(payload.getBytes(StandardCharsets.UTF_8)) +
+               ".signature";
+    }
+}
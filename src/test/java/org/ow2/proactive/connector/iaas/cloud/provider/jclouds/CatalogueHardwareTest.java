@@ -0,0 +1,55 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.connector.iaas.cloud.provider.jclouds;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+import org.ow2.proactive.connector.iaas.model.Hardware;
+
+
+public class CatalogueHardwareTest {
+
+    @Test
+    public void testToHardwareKeepsTheJCloudsValues() {
+        Hardware hardware = CatalogueHardware.of("m1.small", 2048, 2.0, 2.4 * 1024).toHardware();
+
+        assertThat(hardware.getType(), is("m1.small"));
+        assertThat(hardware.getMinRam(), is("" + 2048));
+        assertThat(hardware.getMinCores(), is("" + 2.0));
+        assertThat(hardware.getMinFreq(), is("" + 2.4 * 1024));
+    }
+
+    @Test
+    public void testSameSpecificationIsShared() {
+        CatalogueHardware small = CatalogueHardware.of("m1.small", 2048, 2.0, 0);
+        CatalogueHardware other = CatalogueHardware.of("t2.small", 2048, 2.0, 0);
+
+        assertThat(other.getSpecification(), is(sameInstance(small.getSpecification())));
+    }
+}
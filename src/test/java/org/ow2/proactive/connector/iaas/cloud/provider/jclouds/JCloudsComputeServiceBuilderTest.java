@@ -30,8 +30,11 @@ import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.not;
 import static org.junit.Assert.assertThat;
 
+import java.util.Properties;
+
 import org.jclouds.aws.ec2.compute.AWSEC2ComputeService;
 import org.jclouds.compute.ComputeService;
+import org.jclouds.location.reference.LocationConstants;
 import org.junit.Before;
 import org.junit.Test;
 import org.ow2.proactive.connector.iaas.cloud.provider.jclouds.openstack.OpenstackUtil;
@@ -101,4 +104,32 @@ public class JCloudsComputeServiceBuilderTest {
         assertThat(computerService, is(not(instanceOf(AWSEC2ComputeService.class))));
     }
 
+    @Test
+    public void testDefinedPropertiesRestrictAWSRegions() {
+        Properties properties = computeServiceBuilder.getDefinedProperties(InfrastructureFixture.getInfrastructure("id-aws-ec2",
+                                                                                                                   "aws-ec2",
+                                                                                                                   null,
+                                                                                                                   "userName",
+                                                                                                                   "password",
+                                                                                                                   null,
+                                                                                                                   "eu-west-1, us-east-1",
+                                                                                                                   null));
+
+        assertThat(properties.getProperty(LocationConstants.PROPERTY_REGIONS), is("eu-west-1,us-east-1"));
+    }
+
+    @Test
+    public void testDefinedPropertiesWithoutAWSRegion() {
+        Properties properties = computeServiceBuilder.getDefinedProperties(InfrastructureFixture.getInfrastructure("id-aws-ec2",
+                                                                                                                   "aws-ec2",
+                                                                                                                   null,
+                                                                                                                   "userName",
+                                                                                                                   "password",
+                                                                                                                   null,
+                                                                                                                   null,
+                                                                                                                   null));
+
+        assertThat(properties.containsKey(LocationConstants.PROPERTY_REGIONS), is(false));
+    }
+
 }
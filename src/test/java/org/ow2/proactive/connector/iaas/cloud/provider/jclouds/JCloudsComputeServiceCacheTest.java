@@ -30,11 +30,13 @@ import static org.hamcrest.Matchers.not;
 import static org.hamcrest.Matchers.nullValue;
 import static org.junit.Assert.assertThat;
 import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import org.jclouds.compute.ComputeService;
+import org.jclouds.compute.ComputeServiceContext;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.InjectMocks;
@@ -201,4 +203,20 @@ public class JCloudsComputeServiceCacheTest {
                                                                                                        null));
     }
 
+    @Test
+    public void testRemoveComputeServiceClosesContext() {
+        ComputeServiceContext context = mock(ComputeServiceContext.class);
+        when(computeService.getContext()).thenReturn(context);
+        Infrastructure infrastructure = InfrastructureFixture.getSimpleInfrastructure("aws-ec2");
+
+        computeServiceCache.getComputeService(infrastructure);
+        assertThat(computeServiceCache.getLiveContexts(), is(1));
+
+        computeServiceCache.removeComputeService(infrastructure);
+
+        verify(context, times(1)).close();
+        verify(computeServiceBuilder, times(1)).removeDefinedProperties(infrastructure);
+        assertThat(computeServiceCache.getLiveContexts(), is(0));
+    }
+
 }
@@ -32,6 +32,8 @@ import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -45,6 +47,7 @@ import org.jclouds.aws.ec2.AWSEC2ApiMetadata;
 import org.jclouds.aws.ec2.compute.AWSEC2ComputeServiceContext;
 import org.jclouds.aws.ec2.compute.AWSEC2TemplateOptions;
 import org.jclouds.compute.ComputeService;
+import org.jclouds.compute.ComputeServiceContext;
 import org.jclouds.compute.RunNodesException;
 import org.jclouds.compute.RunScriptOnNodesException;
 import org.jclouds.compute.domain.*;
@@ -56,6 +59,12 @@ import org.jclouds.compute.options.TemplateOptions;
 import org.jclouds.domain.Location;
 import org.jclouds.domain.LocationBuilder;
 import org.jclouds.domain.LocationScope;
+import org.jclouds.ec2.EC2Api;
+import org.jclouds.ec2.domain.Reservation;
+import org.jclouds.ec2.domain.RunningInstance;
+import org.jclouds.ec2.domain.SecurityGroup;
+import org.jclouds.ec2.features.InstanceApi;
+import org.jclouds.ec2.features.SecurityGroupApi;
 import org.jclouds.scriptbuilder.ScriptBuilder;
 import org.jclouds.scriptbuilder.domain.OsFamily;
 import org.junit.Before;
@@ -64,7 +73,9 @@ import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
 import org.ow2.proactive.connector.iaas.cloud.TagManager;
+import org.ow2.proactive.connector.iaas.cloud.provider.CatalogueCache;
 import org.ow2.proactive.connector.iaas.cloud.provider.jclouds.JCloudsComputeServiceBuilder;
 import org.ow2.proactive.connector.iaas.cloud.provider.jclouds.JCloudsComputeServiceCache;
 import org.ow2.proactive.connector.iaas.cloud.provider.jclouds.JCloudsProvider;
@@ -79,8 +90,11 @@ import org.ow2.proactive.connector.iaas.model.ScriptResult;
 import org.ow2.proactive.connector.iaas.model.Tag;
 import org.springframework.test.util.ReflectionTestUtils;
 
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMultimap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Multimap;
 import com.microsoft.azure.management.compute.VirtualMachineExtension;
 
 import jersey.repackaged.com.google.common.collect.Sets;
@@ -121,12 +135,33 @@ public class AWSEC2JCloudsProviderTest {
     @Mock
     private TagManager tagManager;
 
+    @Spy
+    private CatalogueCache catalogueCache = new CatalogueCache();
+
     private Tag connectorIaasTag = Tag.builder().key("connector-iaas-tag-key").value("default-value").build();
 
     @Before
     public void init() throws Exception {
         MockitoAnnotations.initMocks(this);
         ReflectionTestUtils.setField(jcloudsProvider, "vmUserLogin", "admin", String.class);
+        ReflectionTestUtils.setField(jcloudsProvider, "maxParallelRegions", 8);
+    }
+
+    private InstanceApi mockInstanceApi(String... regions) {
+        ComputeServiceContext context = mock(ComputeServiceContext.class);
+        EC2Api ec2Api = mock(EC2Api.class);
+        InstanceApi instanceApi = mock(InstanceApi.class);
+        when(computeService.getContext()).thenReturn(context);
+        when(context.unwrapApi(EC2Api.class)).thenReturn(ec2Api);
+        doReturn(Optional.of(instanceApi)).when(ec2Api).getInstanceApi();
+        when(ec2Api.getConfiguredRegions()).thenReturn(Sets.newHashSet(regions));
+        return instanceApi;
+    }
+
+    private Reservation<RunningInstance> createReservation(String region, String instanceId) {
+        RunningInstance runningInstance = mock(RunningInstance.class);
+        when(runningInstance.getId()).thenReturn(instanceId);
+        return new Reservation<>(region, Lists.newArrayList(), Lists.newArrayList(runningInstance), null, null, null);
     }
 
     @Test
@@ -562,7 +597,10 @@ public class AWSEC2JCloudsProviderTest {
         when(node.getHardware()).thenReturn(null);
         when(node.getStatus()).thenReturn(Status.RUNNING);
         nodes.add(node);
-        when(computeService.listNodes()).thenReturn(nodes);
+        InstanceApi instanceApi = mockInstanceApi(REGION);
+        doReturn(Sets.newHashSet(createReservation(REGION, "someId"))).when(instanceApi)
+                                                                      .describeInstancesInRegion(REGION);
+        when(computeService.listNodesByIds(Lists.newArrayList(REGION + "/someId"))).thenReturn(nodes);
 
         Set<Instance> allNodes = jcloudsProvider.getAllInfrastructureInstances(infrastructure);
 
@@ -596,7 +634,10 @@ public class AWSEC2JCloudsProviderTest {
         when(hardware.getType()).thenReturn(ComputeType.HARDWARE);
         when(node.getStatus()).thenReturn(Status.RUNNING);
         nodes.add(node);
-        when(computeService.listNodes()).thenReturn(nodes);
+        InstanceApi instanceApi = mockInstanceApi(REGION);
+        doReturn(Sets.newHashSet(createReservation(REGION, "someId"))).when(instanceApi)
+                                                                      .describeInstancesInRegion(REGION);
+        when(computeService.listNodesByIds(Lists.newArrayList(REGION + "/someId"))).thenReturn(nodes);
 
         Set<Instance> allNodes = jcloudsProvider.getAllInfrastructureInstances(infrastructure);
 
@@ -604,6 +645,81 @@ public class AWSEC2JCloudsProviderTest {
 
     }
 
+    @Test
+    public void testGetCreatedInfrastructureInstancesFilteredOnTags() {
+
+        Infrastructure infrastructure = InfrastructureFixture.getInfrastructure("id-aws",
+                                                                                "aws",
+                                                                                "endPoint",
+                                                                                "userName",
+                                                                                "password",
+                                                                                null,
+                                                                                REGION,
+                                                                                null);
+
+        when(computeServiceCache.getComputeService(infrastructure)).thenReturn(computeService);
+        InstanceApi instanceApi = mockInstanceApi(REGION);
+
+        when(tagManager.getConnectorIaasTag()).thenReturn(connectorIaasTag);
+        when(tagManager.getInfrastructureIdTag()).thenReturn(Tag.builder()
+                                                                .key("proactive-infrastructure-id")
+                                                                .value("")
+                                                                .build());
+
+        Multimap<String, String> tagFilters = ImmutableMultimap.of("tag:connector-iaas-tag-key",
+                                                                   "default-value",
+                                                                   "tag:proactive-infrastructure-id",
+                                                                   "id-aws");
+        doReturn(Sets.newHashSet(createReservation(REGION, "i-0123456789"))).when(instanceApi)
+                                                                            .describeInstancesInRegionWithFilter(REGION,
+                                                                                                                 tagFilters);
+
+        Set nodes = Sets.newHashSet();
+        NodeMetadataImpl node = mock(NodeMetadataImpl.class);
+        when(node.getId()).thenReturn(REGION + "/i-0123456789");
+        when(node.getStatus()).thenReturn(Status.RUNNING);
+        nodes.add(node);
+        when(computeService.listNodesByIds(Lists.newArrayList(REGION + "/i-0123456789"))).thenReturn(nodes);
+
+        Set<Instance> createdNodes = jcloudsProvider.getCreatedInfrastructureInstances(infrastructure);
+
+        assertThat(createdNodes.size(), is(1));
+        assertThat(createdNodes.iterator().next().getId(), is(REGION + "/i-0123456789"));
+        verify(computeService, times(0)).listNodes();
+    }
+
+    @Test
+    public void testGetAllInfrastructureInstancesMergesRegions() {
+
+        Infrastructure infrastructure = InfrastructureFixture.getInfrastructure("id-aws",
+                                                                                "aws",
+                                                                                "endPoint",
+                                                                                "userName",
+                                                                                "password",
+                                                                                null,
+                                                                                "eu-west-1,us-east-1",
+                                                                                null);
+
+        when(computeServiceCache.getComputeService(infrastructure)).thenReturn(computeService);
+        InstanceApi instanceApi = mockInstanceApi("eu-west-1", "us-east-1");
+        doReturn(Sets.newHashSet(createReservation("eu-west-1", "i-1"))).when(instanceApi)
+                                                                        .describeInstancesInRegion("eu-west-1");
+        doReturn(Sets.newHashSet(createReservation("us-east-1", "i-2"))).when(instanceApi)
+                                                                        .describeInstancesInRegion("us-east-1");
+
+        for (String nodeId : Lists.newArrayList("eu-west-1/i-1", "us-east-1/i-2")) {
+            NodeMetadataImpl node = mock(NodeMetadataImpl.class);
+            when(node.getId()).thenReturn(nodeId);
+            when(node.getStatus()).thenReturn(Status.RUNNING);
+            doReturn(Sets.newHashSet(node)).when(computeService).listNodesByIds(Lists.newArrayList(nodeId));
+        }
+
+        Set<Instance> allNodes = jcloudsProvider.getAllInfrastructureInstances(infrastructure);
+
+        assertThat(allNodes.size(), is(2));
+        verify(computeService, times(0)).listNodes();
+    }
+
     @Test
     public void testGetAllImages() {
         Infrastructure infrastructure = InfrastructureFixture.getInfrastructure("id-aws",
@@ -637,6 +753,61 @@ public class AWSEC2JCloudsProviderTest {
 
     }
 
+    @Test
+    public void testDeleteInfrastructureRemovesSecurityGroupsInTheirRegions() {
+        Infrastructure infrastructure = InfrastructureFixture.getSimpleInfrastructure("aws-ec2");
+        when(computeServiceCache.getComputeService(infrastructure)).thenReturn(computeService);
+        ComputeServiceContext context = mock(ComputeServiceContext.class);
+        EC2Api ec2Api = mock(EC2Api.class);
+        SecurityGroupApi securityGroupApi = mock(SecurityGroupApi.class);
+        when(computeService.getContext()).thenReturn(context);
+        when(context.unwrapApi(EC2Api.class)).thenReturn(ec2Api);
+        doReturn(Optional.of(securityGroupApi)).when(ec2Api).getSecurityGroupApi();
+        SecurityGroup jcloudsSecurityGroup = mock(SecurityGroup.class);
+        when(jcloudsSecurityGroup.getId()).thenReturn("sg-jclouds");
+        doReturn(Sets.newHashSet(jcloudsSecurityGroup)).when(securityGroupApi)
+                                                       .describeSecurityGroupsInRegionWithFilter("eu-west-1",
+                                                                                                 ImmutableMultimap.of("group-name",
+                                                                                                                      "jclouds#id-aws-ec2"));
+        doThrow(new IllegalStateException("dependency violation")).when(securityGroupApi)
+                                                                  .deleteSecurityGroupInRegion("us-east-1",
+                                                                                               "sg-ports");
+        jcloudsProvider.autoGeneratedSecurityGroups.put(infrastructure.getId(),
+                                                        Sets.newHashSet(new AWSEC2JCloudsProvider.AutoGeneratedSecurityGroup("us-east-1",
+                                                                                                                             "jclouds#id-aws-ec2-ports",
+                                                                                                                             "sg-ports"),
+                                                                        new AWSEC2JCloudsProvider.AutoGeneratedSecurityGroup("eu-west-1",
+                                                                                                                             "jclouds#id-aws-ec2",
+                                                                                                                             null)));
+
+        jcloudsProvider.deleteInfrastructure(infrastructure);
+
+        verify(securityGroupApi, times(1)).deleteSecurityGroupInRegion("us-east-1", "sg-ports");
+        verify(securityGroupApi, times(1)).deleteSecurityGroupInRegion("eu-west-1", "sg-jclouds");
+        // the failed removal does not prevent releasing the compute service
+        verify(computeServiceCache, times(1)).removeComputeService(infrastructure);
+        assertThat(jcloudsProvider.autoGeneratedSecurityGroups.containsKey(infrastructure.getId()), is(false));
+    }
+
+    @Test
+    public void testGetAllImagesFromCatalogue() {
+        Infrastructure infrastructure = InfrastructureFixture.getSimpleInfrastructure("aws-ec2");
+        ReflectionTestUtils.setField(catalogueCache, "ttlSeconds", 3600L);
+
+        when(computeServiceCache.getComputeService(infrastructure)).thenReturn(computeService);
+        Set images = Sets.newHashSet();
+        when(computeService.listImages()).thenReturn(images);
+
+        jcloudsProvider.getAllImages(infrastructure);
+        jcloudsProvider.getAllImages(infrastructure);
+        verify(computeService, times(1)).listImages();
+
+        // the catalogue is retrieved again once the infrastructure is deleted
+        jcloudsProvider.deleteInfrastructure(infrastructure);
+        jcloudsProvider.getAllImages(infrastructure);
+        verify(computeService, times(2)).listImages();
+    }
+
     @Test
     public void testGetAllImagesEmptySet() {
         Infrastructure infrastructure = InfrastructureFixture.getInfrastructure("id-aws",
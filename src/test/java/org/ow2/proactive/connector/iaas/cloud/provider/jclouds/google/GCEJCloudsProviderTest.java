@@ -38,10 +38,14 @@ import static org.mockito.Mockito.when;
 
 import java.util.Map;
 import java.util.Set;
+import java.util.stream.Collectors;
 
 import org.jclouds.compute.ComputeService;
 import org.jclouds.compute.RunNodesException;
+import org.jclouds.compute.domain.ImageBuilder;
 import org.jclouds.compute.domain.NodeMetadata;
+import org.jclouds.compute.domain.OperatingSystem;
+import org.jclouds.compute.domain.OsFamily;
 import org.jclouds.compute.domain.Template;
 import org.jclouds.compute.domain.TemplateBuilder;
 import org.jclouds.compute.domain.internal.NodeMetadataImpl;
@@ -54,10 +58,13 @@ import org.mockito.Captor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
 import org.ow2.proactive.connector.iaas.cloud.TagManager;
+import org.ow2.proactive.connector.iaas.cloud.provider.CatalogueCache;
 import org.ow2.proactive.connector.iaas.cloud.provider.jclouds.JCloudsComputeServiceCache;
 import org.ow2.proactive.connector.iaas.fixtures.InfrastructureFixture;
 import org.ow2.proactive.connector.iaas.fixtures.InstanceFixture;
+import org.ow2.proactive.connector.iaas.model.Image;
 import org.ow2.proactive.connector.iaas.model.Infrastructure;
 import org.ow2.proactive.connector.iaas.model.Instance;
 import org.ow2.proactive.connector.iaas.model.Options;
@@ -134,6 +141,9 @@ public class GCEJCloudsProviderTest {
     @Mock
     private TagManager tagManager;
 
+    @Spy
+    private CatalogueCache catalogueCache = new CatalogueCache();
+
     @Captor
     private ArgumentCaptor<Map<String, String>> argumentCaptor;
 
@@ -142,6 +152,38 @@ public class GCEJCloudsProviderTest {
         MockitoAnnotations.initMocks(this);
     }
 
+    private org.jclouds.compute.domain.Image createImage(String id, String osVersion, String version) {
+        return new ImageBuilder().id(id)
+                                 .providerId(id)
+                                 .name(id)
+                                 .version(version)
+                                 .status(org.jclouds.compute.domain.Image.Status.AVAILABLE)
+                                 .operatingSystem(OperatingSystem.builder()
+                                                                 .family(OsFamily.UBUNTU)
+                                                                 .version(osVersion)
+                                                                 .description(id)
+                                                                 .build())
+                                 .build();
+    }
+
+    @Test
+    public void testGetAllImagesKeepsNewestImageOfEachFamily() {
+        Infrastructure infrastructure = InfrastructureFixture.getSimpleInfrastructure(INFRA_ID, TYPE);
+        when(computeServiceCache.getComputeService(infrastructure)).thenReturn(computeService);
+        Set images = Sets.newHashSet(createImage("ubuntu-2004-old", "20.04", "v20200101"),
+                                     createImage("ubuntu-2004-new", "20.04", "v20210101"),
+                                     createImage("ubuntu-2004-undated", "20.04", "latest"),
+                                     createImage("ubuntu-2204", "22.04", "v20220101"));
+        when(computeService.listImages()).thenReturn(images);
+
+        Set<String> imageIds = gceJCloudsProvider.getAllImages(infrastructure)
+                                                 .stream()
+                                                 .map(Image::getId)
+                                                 .collect(Collectors.toSet());
+
+        assertThat(imageIds, is(Sets.newHashSet("ubuntu-2004-new", "ubuntu-2204")));
+    }
+
     @Test
     public void testCreateInstance() {
         Infrastructure infrastructure = InfrastructureFixture.getSimpleInfrastructure(INFRA_ID, TYPE);
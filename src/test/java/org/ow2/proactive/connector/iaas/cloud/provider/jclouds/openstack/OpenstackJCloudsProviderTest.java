@@ -67,7 +67,9 @@ import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
 import org.ow2.proactive.connector.iaas.cloud.TagManager;
+import org.ow2.proactive.connector.iaas.cloud.provider.CatalogueCache;
 import org.ow2.proactive.connector.iaas.cloud.provider.jclouds.JCloudsComputeServiceCache;
 import org.ow2.proactive.connector.iaas.fixtures.InfrastructureFixture;
 import org.ow2.proactive.connector.iaas.fixtures.InstanceFixture;
@@ -86,6 +88,9 @@ public class OpenstackJCloudsProviderTest {
     @InjectMocks
     private OpenstackJCloudsProvider jcloudsProvider;
 
+    @Spy
+    private CatalogueCache catalogueCache = new CatalogueCache();
+
     @Mock
     private JCloudsComputeServiceCache computeServiceCache;
 
@@ -0,0 +1,103 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.connector.iaas.cloud.provider.simulated;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.ow2.proactive.connector.iaas.fixtures.InfrastructureFixture;
+import org.ow2.proactive.connector.iaas.fixtures.InstanceFixture;
+import org.ow2.proactive.connector.iaas.model.Infrastructure;
+import org.ow2.proactive.connector.iaas.model.Instance;
+import org.springframework.test.util.ReflectionTestUtils;
+
+
+public class SimulatedProviderTest {
+
+    private SimulatedProvider simulatedProvider;
+
+    private Infrastructure infrastructure;
+
+    @Before
+    public void init() {
+        simulatedProvider = new SimulatedProvider();
+        ReflectionTestUtils.setField(simulatedProvider, "latencyDistribution", "none");
+        ReflectionTestUtils.setField(simulatedProvider, "failureRate", 0.0);
+        ReflectionTestUtils.setField(simulatedProvider, "fleetSize", 10);
+        ReflectionTestUtils.setField(simulatedProvider, "regionCount", 2);
+        ReflectionTestUtils.setField(simulatedProvider, "imageCount", 5);
+        ReflectionTestUtils.setField(simulatedProvider, "hardwareCount", 3);
+        infrastructure = InfrastructureFixture.getSimpleInfrastructure(SimulatedProvider.SIMULATED_TYPE);
+    }
+
+    @Test
+    public void testCreateAndDeleteInstance() {
+        Set<Instance> created = simulatedProvider.createInstance(infrastructure,
+                                                                 InstanceFixture.getInstance("",
+                                                                                             "tag",
+                                                                                             "image",
+                                                                                             "3",
+                                                                                             "512",
+                                                                                             "1",
+                                                                                             null,
+                                                                                             null,
+                                                                                             null));
+        assertThat(created.size(), is(3));
+        assertThat(simulatedProvider.getCreatedInfrastructureInstances(infrastructure).size(), is(3));
+        assertThat(simulatedProvider.getAllInfrastructureInstances(infrastructure).size(), is(13));
+
+        simulatedProvider.deleteInstance(infrastructure, created.iterator().next().getId());
+        assertThat(simulatedProvider.getCreatedInfrastructureInstances(infrastructure).size(), is(2));
+    }
+
+    @Test
+    public void testCatalogue() {
+        assertThat(simulatedProvider.listAvailableRegions(infrastructure).size(), is(2));
+        assertThat(simulatedProvider.getAllImages(infrastructure).size(), is(5));
+        assertThat(simulatedProvider.getAllHardwares(infrastructure).size(), is(3));
+        assertThat(simulatedProvider.getNodeCandidate(infrastructure, "simulated-region-0", "simulated", "")
+                                    .getNodeCandidates()
+                                    .size(),
+                   is(15));
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testFailureRate() {
+        ReflectionTestUtils.setField(simulatedProvider, "failureRate", 1.0);
+        simulatedProvider.getAllImages(infrastructure);
+    }
+
+    @Test
+    public void testDeleteInfrastructure() {
+        simulatedProvider.createInstance(infrastructure, InstanceFixture.simpleInstanceWithTagAndImage("tag", "image"));
+        simulatedProvider.deleteInfrastructure(infrastructure);
+        assertThat(simulatedProvider.getCreatedInfrastructureInstances(infrastructure).isEmpty(), is(true));
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.connector.iaas.cloud.provider.vmware;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.net.URL;
+import java.rmi.RemoteException;
+import java.util.Calendar;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.ow2.proactive.connector.iaas.model.ScriptResult;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.vmware.vim25.FileTransferInformation;
+import com.vmware.vim25.GuestProcessInfo;
+import com.vmware.vim25.GuestProgramSpec;
+import com.vmware.vim25.NamePasswordAuthentication;
+import com.vmware.vim25.mo.GuestFileManager;
+import com.vmware.vim25.mo.GuestOperationsManager;
+import com.vmware.vim25.mo.GuestProcessManager;
+import com.vmware.vim25.mo.ServerConnection;
+import com.vmware.vim25.mo.ServiceInstance;
+import com.vmware.vim25.mo.VirtualMachine;
+
+
+public class VMWareGuestScriptRunnerTest {
+
+    private VMWareGuestScriptRunner scriptRunner;
+
+    private ServiceInstance serviceInstance;
+
+    private VirtualMachine virtualMachine;
+
+    private GuestFileManager fileManager;
+
+    private GuestProcessManager processManager;
+
+    private NamePasswordAuthentication authentication = new NamePasswordAuthentication();
+
+    @Before
+    public void init() throws Exception {
+        scriptRunner = spy(new VMWareGuestScriptRunner());
+        ReflectionTestUtils.setField(scriptRunner, "pollIntervalMillis", 0L);
+
+        serviceInstance = mock(ServiceInstance.class);
+        virtualMachine = mock(VirtualMachine.class);
+        fileManager = mock(GuestFileManager.class);
+        processManager = mock(GuestProcessManager.class);
+        GuestOperationsManager guestOperationsManager = mock(GuestOperationsManager.class);
+        ServerConnection serverConnection = mock(ServerConnection.class);
+        when(serviceInstance.getGuestOperationsManager()).thenReturn(guestOperationsManager);
+        when(serviceInstance.getServerConnection()).thenReturn(serverConnection);
+        when(serverConnection.getUrl()).thenReturn(new URL("https://vcenter/sdk"));
+        when(guestOperationsManager.getFileManager(virtualMachine)).thenReturn(fileManager);
+        when(guestOperationsManager.getProcessManager(virtualMachine)).thenReturn(processManager);
+
+        // The output and error are redirected to temporary files, downloaded from the vCenter host
+        when(fileManager.createTemporaryFileInGuest(authentication,
+                                                    "connector-iaas-script-",
+                                                    ".out",
+                                                    null)).thenReturn("/tmp/script.out");
+        when(fileManager.createTemporaryFileInGuest(authentication,
+                                                    "connector-iaas-script-",
+                                                    ".err",
+                                                    null)).thenReturn("/tmp/script.err");
+        when(fileManager.initiateFileTransferFromGuest(authentication,
+                                                       "/tmp/script.out")).thenReturn(createFileTransferInformation("https://*/guestFile?id=out"));
+        when(fileManager.initiateFileTransferFromGuest(authentication,
+                                                       "/tmp/script.err")).thenReturn(createFileTransferInformation("https://*/guestFile?id=err"));
+        doReturn("some output\n").when(scriptRunner).download("https://vcenter/guestFile?id=out");
+        doReturn("some error\n").when(scriptRunner).download("https://vcenter/guestFile?id=err");
+
+        when(processManager.startProgramInGuest(eq(authentication), any(GuestProgramSpec.class))).thenReturn(132L);
+    }
+
+    @Test
+    public void testRunScriptWaitsForTheProcessToExit() throws RemoteException {
+        when(processManager.listProcessesInGuest(eq(authentication),
+                                                 any(long[].class))).thenReturn(new GuestProcessInfo[] { createProcessInfo(null) },
+                                                                                new GuestProcessInfo[] { createProcessInfo(0) });
+
+        ScriptResult scriptResult = scriptRunner.runScript(serviceInstance,
+                                                           virtualMachine,
+                                                           "instance-id",
+                                                           authentication,
+                                                           "/opt/scripts/setup.sh --verbose");
+
+        assertThat(scriptResult.getInstanceId(), is("instance-id"));
+        assertThat(scriptResult.getOutput(), is("some output"));
+        assertThat(scriptResult.getError(), is("some error"));
+
+
+        // The temporary files are removed
+        verify(fileManager).deleteFileInGuest(authentication, "/tmp/script.out");
+        verify(fileManager).deleteFileInGuest(authentication, "/tmp/script.err");
+    }
+
+    @Test
+    public void testRunScriptReportsExitCode() throws RemoteException {
+        when(processManager.listProcessesInGuest(eq(authentication),
+                                                 any(long[].class))).thenReturn(new GuestProcessInfo[] { createProcessInfo(2) });
+
+        ScriptResult scriptResult = scriptRunner.runScript(serviceInstance,
+                                                           virtualMachine,
+                                                           "instance-id",
+                                                           authentication,
+                                                           "-c 'exit 2'");
+
+        assertThat(scriptResult.getError(), is("some error\nExit code: 2"));
+    }
+
+    @Test
+    public void testRunScriptKeepsTheScriptAsBashArguments() throws RemoteException {
+        when(processManager.listProcessesInGuest(eq(authentication),
+                                                 any(long[].class))).thenReturn(new GuestProcessInfo[] { createProcessInfo(0) });
+
+        scriptRunner.runScript(serviceInstance, virtualMachine, "instance-id", authentication, "-c 'echo \"it works\"'");
+
+        // The script is not wrapped, only its output and error are redirected
+        ArgumentCaptor<GuestProgramSpec> programSpecCaptor = ArgumentCaptor.forClass(GuestProgramSpec.class);
+        verify(processManager).startProgramInGuest(eq(authentication), programSpecCaptor.capture());
+        assertThat(programSpecCaptor.getValue().getProgramPath(), is("/bin/bash"));
+        assertThat(programSpecCaptor.getValue().getArguments(),
+                   is("-c 'echo \"it works\"' > /tmp/script.out 2> /tmp/script.err"));
+    }
+
+    private static FileTransferInformation createFileTransferInformation(String url) {
+        FileTransferInformation fileTransferInformation = new FileTransferInformation();
+        fileTransferInformation.setUrl(url);
+        return fileTransferInformation;
+    }
+
+    /**
+     * A process still running has no end time, nor exit code
+     */
+    private static GuestProcessInfo createProcessInfo(Integer exitCode) {
+        GuestProcessInfo processInfo = new GuestProcessInfo();
+        processInfo.setPid(132L);
+        if (exitCode != null) {
+            processInfo.setEndTime(Calendar.getInstance());
+            processInfo.setExitCode(exitCode);
+        }
+        return processInfo;
+    }
+}
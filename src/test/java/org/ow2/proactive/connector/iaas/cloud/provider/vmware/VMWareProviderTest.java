@@ -27,9 +27,12 @@ package org.ow2.proactive.connector.iaas.cloud.provider.vmware;
 
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertThat;
-import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -39,13 +42,23 @@ import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.ow2.proactive.connector.iaas.cloud.TagManager;
+import org.ow2.proactive.connector.iaas.cloud.provider.vmware.VMWareTopology.DatastoreSpace;
+import org.ow2.proactive.connector.iaas.cloud.provider.vmware.VMWareTopology.ResourcePoolPlacement;
 import org.ow2.proactive.connector.iaas.fixtures.InfrastructureFixture;
 import org.ow2.proactive.connector.iaas.fixtures.InstanceFixture;
 import org.ow2.proactive.connector.iaas.fixtures.InstanceScriptFixture;
@@ -55,17 +68,20 @@ import org.ow2.proactive.connector.iaas.model.InstanceScript;
 import org.ow2.proactive.connector.iaas.model.Options;
 import org.ow2.proactive.connector.iaas.model.ScriptResult;
 import org.ow2.proactive.connector.iaas.model.Tag;
+import org.springframework.test.util.ReflectionTestUtils;
 
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
-import com.vmware.vim25.FileFault;
 import com.vmware.vim25.GuestInfo;
-import com.vmware.vim25.GuestOperationsFault;
-import com.vmware.vim25.GuestProgramSpec;
 import com.vmware.vim25.InvalidState;
 import com.vmware.vim25.ManagedEntityStatus;
 import com.vmware.vim25.ManagedObjectReference;
 import com.vmware.vim25.NamePasswordAuthentication;
+import com.vmware.vim25.NotAuthenticated;
+import com.vmware.vim25.OptionValue;
 import com.vmware.vim25.RuntimeFault;
+import com.vmware.vim25.TaskInfo;
+import com.vmware.vim25.TaskInfoState;
 import com.vmware.vim25.TaskInProgress;
 import com.vmware.vim25.VirtualDevice;
 import com.vmware.vim25.VirtualDeviceConfigSpec;
@@ -76,16 +92,12 @@ import com.vmware.vim25.VirtualMachineConfigInfo;
 import com.vmware.vim25.VirtualMachineSummary;
 import com.vmware.vim25.mo.Datastore;
 import com.vmware.vim25.mo.Folder;
-import com.vmware.vim25.mo.GuestOperationsManager;
-import com.vmware.vim25.mo.GuestProcessManager;
 import com.vmware.vim25.mo.HostSystem;
 import com.vmware.vim25.mo.ResourcePool;
 import com.vmware.vim25.mo.ServiceInstance;
 import com.vmware.vim25.mo.Task;
 import com.vmware.vim25.mo.VirtualMachine;
 
-import jersey.repackaged.com.google.common.collect.Sets;
-
 
 public class VMWareProviderTest {
 
@@ -135,10 +147,7 @@ public class VMWareProviderTest {
     private VirtualMachineSummary virtualMachineSummary;
 
     @Mock
-    private GuestOperationsManager gom;
-
-    @Mock
-    private GuestProcessManager gpm;
+    private VMWareGuestScriptRunner vmWareGuestScriptRunner;
 
     @Mock
     private ResourcePool resourcePool;
@@ -161,6 +170,13 @@ public class VMWareProviderTest {
     @Mock
     private TagManager tagManager;
 
+    @Mock
+    private VMWareTaskMultiplexer taskMultiplexer;
+
+    private ManagedObjectReference cloneTaskMOR = createMOR("Task", "task-1");
+
+    private ManagedObjectReference createdVirtualMachineMOR = createMOR("VirtualMachine", "vm-1");
+
     private Tag connectorIaasTag = Tag.builder().key("connector-iaas-tag-key").value("default-value").build();
 
     @Before
@@ -169,6 +185,13 @@ public class VMWareProviderTest {
         when(vmWareServiceInstanceCache.getServiceInstance(any(Infrastructure.class))).thenReturn(serviceInstance);
         when(serviceInstance.getRootFolder()).thenReturn(rootFolder);
 
+        // Clone tasks complete successfully with the reference of the new VM as result
+        when(task.getMOR()).thenReturn(cloneTaskMOR);
+        when(vmWareProviderVirtualMachineUtil.createTaskMultiplexer(serviceInstance)).thenReturn(taskMultiplexer);
+        when(taskMultiplexer.waitForCompletedTasks()).thenReturn(Lists.newArrayList(createSuccessfulTaskInfo(cloneTaskMOR,
+                                                                                                             createdVirtualMachineMOR)));
+        when(vmWareProviderVirtualMachineUtil.getVirtualMachine(createdVirtualMachineMOR,
+                                                                rootFolder)).thenReturn(createdVirtualMachine);
     }
 
     @Test
@@ -187,8 +210,7 @@ public class VMWareProviderTest {
 
         // The destination resource pool and folder are the same than the VM to clone
         when(virtualMachine.getResourcePool()).thenReturn(resourcePool);
-        when(vmWareProviderVirtualMachineUtil.searchVMFolderFromVMName("RoboconfAgent180116",
-                                                                       rootFolder)).thenReturn(Optional.of(instanceFolder));
+        when(vmWareProviderVirtualMachineUtil.getVirtualMachineFolder(virtualMachine)).thenReturn(Optional.of(instanceFolder));
 
         when(createdVirtualMachine.getConfig()).thenReturn(virtualMachineConfigInfo);
 
@@ -209,6 +231,246 @@ public class VMWareProviderTest {
         assertThat(createdInstances.size(), is(1));
 
         assertThat(createdInstances.iterator().next().getId(), is("some-generated-virtual-machine-id"));
+
+        // The VM to clone is looked up once, and its folder is used without loading the placement topology
+        verify(vmWareProviderVirtualMachineUtil, times(1)).searchVirtualMachineByName("RoboconfAgent180116",
+                                                                                      rootFolder);
+        verify(vmWareProviderVirtualMachineUtil, times(0)).loadTopology(rootFolder);
+    }
+
+    @Test
+    public void testCreateInstancesWithLimitedClonesInFlight() throws RemoteException, InterruptedException {
+        ReflectionTestUtils.setField(vmWareProvider, "maxClonesInFlight", 1);
+        Infrastructure infrastructure = InfrastructureFixture.getSimpleInfrastructure("vmware-type");
+        Instance instance = InstanceFixture.simpleInstanceWithTagAndImage("marco-tag", "RoboconfAgent180116")
+                                           .withNumber("2");
+
+        when(vmWareProviderVirtualMachineUtil.searchVirtualMachineByName("RoboconfAgent180116",
+                                                                         rootFolder)).thenReturn(Optional.of(virtualMachine));
+        when(virtualMachine.getResourcePool()).thenReturn(resourcePool);
+        when(vmWareProviderVirtualMachineUtil.getVirtualMachineFolder(virtualMachine)).thenReturn(Optional.of(instanceFolder));
+
+        // Two clone tasks, each one creating a different VM
+        Task secondTask = mock(Task.class);
+        ManagedObjectReference secondCloneTaskMOR = createMOR("Task", "task-2");
+        ManagedObjectReference secondVirtualMachineMOR = createMOR("VirtualMachine", "vm-2");
+        when(secondTask.getMOR()).thenReturn(secondCloneTaskMOR);
+        when(virtualMachine.cloneVM_Task(any(Folder.class),
+                                         anyString(),
+                                         any(VirtualMachineCloneSpec.class))).thenReturn(task, secondTask);
+        when(taskMultiplexer.waitForCompletedTasks()).thenReturn(Lists.newArrayList(createSuccessfulTaskInfo(cloneTaskMOR,
+                                                                                                             createdVirtualMachineMOR)),
+                                                                 Lists.newArrayList(createSuccessfulTaskInfo(secondCloneTaskMOR,
+                                                                                                             secondVirtualMachineMOR)));
+
+        VirtualMachine secondVirtualMachine = mock(VirtualMachine.class);
+        VirtualMachineConfigInfo secondVirtualMachineConfigInfo = mock(VirtualMachineConfigInfo.class);
+        when(vmWareProviderVirtualMachineUtil.getVirtualMachine(secondVirtualMachineMOR,
+                                                                rootFolder)).thenReturn(secondVirtualMachine);
+        when(createdVirtualMachine.getConfig()).thenReturn(virtualMachineConfigInfo);
+        when(virtualMachineConfigInfo.getUuid()).thenReturn("some-generated-virtual-machine-id");
+        when(secondVirtualMachine.getConfig()).thenReturn(secondVirtualMachineConfigInfo);
+        when(secondVirtualMachineConfigInfo.getUuid()).thenReturn("other-generated-virtual-machine-id");
+
+        when(tagManager.retrieveAllTags(anyString(),
+                                        any(Options.class))).thenReturn(Lists.newArrayList(connectorIaasTag));
+
+        Set<Instance> createdInstances = vmWareProvider.createInstance(infrastructure, instance);
+
+        assertThat(createdInstances.size(), is(2));
+
+        // Only one clone at a time: the second one is submitted once the first one completed
+        InOrder inOrder = inOrder(taskMultiplexer);
+        inOrder.verify(taskMultiplexer).add(task);
+        inOrder.verify(taskMultiplexer).waitForCompletedTasks();
+        inOrder.verify(taskMultiplexer).add(secondTask);
+        inOrder.verify(taskMultiplexer).waitForCompletedTasks();
+        verify(taskMultiplexer).close();
+    }
+
+    @Test
+    public void testCreateInstanceWithFailedClone() throws RemoteException, InterruptedException {
+        Infrastructure infrastructure = InfrastructureFixture.getSimpleInfrastructure("vmware-type");
+        Instance instance = InstanceFixture.simpleInstanceWithTagAndImage("marco-tag", "RoboconfAgent180116");
+
+        when(vmWareProviderVirtualMachineUtil.searchVirtualMachineByName("RoboconfAgent180116",
+                                                                         rootFolder)).thenReturn(Optional.of(virtualMachine));
+        when(virtualMachine.getResourcePool()).thenReturn(resourcePool);
+        when(vmWareProviderVirtualMachineUtil.getVirtualMachineFolder(virtualMachine)).thenReturn(Optional.of(instanceFolder));
+        when(virtualMachine.cloneVM_Task(any(Folder.class),
+                                         anyString(),
+                                         any(VirtualMachineCloneSpec.class))).thenReturn(task);
+
+        TaskInfo failedTaskInfo = new TaskInfo();
+        failedTaskInfo.setTask(cloneTaskMOR);
+        failedTaskInfo.setState(TaskInfoState.error);
+        when(taskMultiplexer.waitForCompletedTasks()).thenReturn(Lists.newArrayList(failedTaskInfo));
+
+        when(tagManager.retrieveAllTags(anyString(),
+                                        any(Options.class))).thenReturn(Lists.newArrayList(connectorIaasTag));
+
+        try {
+            vmWareProvider.createInstance(infrastructure, instance);
+            fail("The creation should fail when a clone task fails");
+        } catch (RuntimeException e) {
+            assertThat(e.getMessage().startsWith("Unable to create VMWare instance"), is(true));
+        }
+        verify(taskMultiplexer).close();
+    }
+
+    @Test
+    public void testCreateInstancesWithFailedCloneDestroysTheOtherClones() throws RemoteException, InterruptedException {
+        Infrastructure infrastructure = InfrastructureFixture.getSimpleInfrastructure("vmware-type");
+        Instance instance = InstanceFixture.simpleInstanceWithTagAndImage("marco-tag", "RoboconfAgent180116")
+                                           .withNumber("2");
+
+        when(vmWareProviderVirtualMachineUtil.searchVirtualMachineByName("RoboconfAgent180116",
+                                                                         rootFolder)).thenReturn(Optional.of(virtualMachine));
+        when(virtualMachine.getResourcePool()).thenReturn(resourcePool);
+        when(vmWareProviderVirtualMachineUtil.getVirtualMachineFolder(virtualMachine)).thenReturn(Optional.of(instanceFolder));
+
+        // The first clone succeeds, the second one fails
+        Task secondTask = mock(Task.class);
+        ManagedObjectReference secondCloneTaskMOR = createMOR("Task", "task-2");
+        when(secondTask.getMOR()).thenReturn(secondCloneTaskMOR);
+        when(virtualMachine.cloneVM_Task(any(Folder.class),
+                                         anyString(),
+                                         any(VirtualMachineCloneSpec.class))).thenReturn(task, secondTask);
+        TaskInfo failedTaskInfo = new TaskInfo();
+        failedTaskInfo.setTask(secondCloneTaskMOR);
+        failedTaskInfo.setState(TaskInfoState.error);
+        when(taskMultiplexer.waitForCompletedTasks()).thenReturn(Lists.newArrayList(createSuccessfulTaskInfo(cloneTaskMOR,
+                                                                                                             createdVirtualMachineMOR),
+                                                                                    failedTaskInfo));
+
+        Task powerOffTask = mock(Task.class);
+        Task destroyTask = mock(Task.class);
+        when(createdVirtualMachine.powerOffVM_Task()).thenReturn(powerOffTask);
+        when(createdVirtualMachine.destroy_Task()).thenReturn(destroyTask);
+        when(destroyTask.waitForTask()).thenReturn(Task.SUCCESS);
+
+        when(tagManager.retrieveAllTags(anyString(),
+                                        any(Options.class))).thenReturn(Lists.newArrayList(connectorIaasTag));
+
+        try {
+            vmWareProvider.createInstance(infrastructure, instance);
+            fail("The creation should fail when a clone task fails");
+        } catch (RuntimeException e) {
+            assertThat(e.getMessage().startsWith("Unable to create VMWare instance"), is(true));
+        }
+
+        // The clone which succeeded is not left behind
+        verify(createdVirtualMachine).destroy_Task();
+        verify(taskMultiplexer).close();
+    }
+
+    @Test
+    public void testCreateInstancesWithFailedSubmissionCancelsTheRunningClones()
+            throws RemoteException, InterruptedException {
+        Infrastructure infrastructure = InfrastructureFixture.getSimpleInfrastructure("vmware-type");
+        Instance instance = InstanceFixture.simpleInstanceWithTagAndImage("marco-tag", "RoboconfAgent180116")
+                                           .withNumber("2");
+
+        when(vmWareProviderVirtualMachineUtil.searchVirtualMachineByName("RoboconfAgent180116",
+                                                                         rootFolder)).thenReturn(Optional.of(virtualMachine));
+        when(virtualMachine.getResourcePool()).thenReturn(resourcePool);
+        when(vmWareProviderVirtualMachineUtil.getVirtualMachineFolder(virtualMachine)).thenReturn(Optional.of(instanceFolder));
+
+        // The second clone cannot be submitted, while the first one completes anyway
+        when(virtualMachine.cloneVM_Task(any(Folder.class),
+                                         anyString(),
+                                         any(VirtualMachineCloneSpec.class))).thenReturn(task)
+                                                                             .thenThrow(new RemoteException("unreachable"));
+
+        Task powerOffTask = mock(Task.class);
+        Task destroyTask = mock(Task.class);
+        when(createdVirtualMachine.powerOffVM_Task()).thenReturn(powerOffTask);
+        when(createdVirtualMachine.destroy_Task()).thenReturn(destroyTask);
+        when(destroyTask.waitForTask()).thenReturn(Task.SUCCESS);
+
+        when(tagManager.retrieveAllTags(anyString(),
+                                        any(Options.class))).thenReturn(Lists.newArrayList(connectorIaasTag));
+
+        try {
+            vmWareProvider.createInstance(infrastructure, instance);
+            fail("The creation should fail when a clone cannot be submitted");
+        } catch (RuntimeException e) {
+            assertThat(e.getMessage().startsWith("ERROR when creating VMWare instance"), is(true));
+        }
+
+        verify(task).cancelTask();
+        verify(taskMultiplexer).waitForCompletedTasks();
+        verify(createdVirtualMachine).destroy_Task();
+    }
+
+    @Test
+    public void testCreateLinkedCloneInstances() throws RemoteException, InterruptedException {
+        Infrastructure infrastructure = InfrastructureFixture.getSimpleInfrastructure("vmware-type");
+        Instance instance = InstanceFixture.simpleInstanceWithTagAndImage("marco-tag", "RoboconfAgent180116")
+                                           .withOptions(Options.builder().cloneMode("linked").build());
+
+        when(vmWareProviderVirtualMachineUtil.searchVirtualMachineByName("RoboconfAgent180116",
+                                                                         rootFolder)).thenReturn(Optional.of(virtualMachine));
+        when(virtualMachine.getResourcePool()).thenReturn(resourcePool);
+        when(virtualMachine.getMOR()).thenReturn(createMOR("VirtualMachine", "vm-to-clone"));
+        when(vmWareProviderVirtualMachineUtil.getVirtualMachineFolder(virtualMachine)).thenReturn(Optional.of(instanceFolder));
+        when(createdVirtualMachine.getConfig()).thenReturn(virtualMachineConfigInfo);
+        when(virtualMachineConfigInfo.getUuid()).thenReturn("some-generated-virtual-machine-id");
+        when(virtualMachine.cloneVM_Task(any(Folder.class),
+                                         anyString(),
+                                         any(VirtualMachineCloneSpec.class))).thenReturn(task);
+        when(tagManager.retrieveAllTags(anyString(),
+                                        any(Options.class))).thenReturn(Lists.newArrayList(connectorIaasTag));
+
+        ManagedObjectReference snapshotMOR = createMOR("VirtualMachineSnapshot", "snapshot-1");
+        when(vmWareProviderVirtualMachineUtil.getOrCreateSnapshot(any(VirtualMachine.class),
+                                                                  anyString())).thenReturn(snapshotMOR);
+
+        vmWareProvider.createInstance(infrastructure, instance);
+        vmWareProvider.createInstance(infrastructure, instance);
+
+        // The clones are based on the snapshot, which is only looked up once per VM to clone
+        ArgumentCaptor<VirtualMachineCloneSpec> cloneSpecCaptor = ArgumentCaptor.forClass(VirtualMachineCloneSpec.class);
+        verify(virtualMachine, times(2)).cloneVM_Task(any(Folder.class), anyString(), cloneSpecCaptor.capture());
+        assertThat(cloneSpecCaptor.getValue().getSnapshot(), is(snapshotMOR));
+        assertThat(cloneSpecCaptor.getValue().getLocation().getDiskMoveType(), is("createNewChildDiskBacking"));
+        verify(vmWareProviderVirtualMachineUtil, times(1)).getOrCreateSnapshot(virtualMachine,
+                                                                               "connector-iaas-linked-clones");
+    }
+
+    @Test
+    public void testConcurrentLinkedClonesTakeASingleSnapshot() throws Exception {
+        Infrastructure infrastructure = InfrastructureFixture.getSimpleInfrastructure("vmware-type");
+        when(virtualMachine.getMOR()).thenReturn(createMOR("VirtualMachine", "vm-to-clone"));
+        ManagedObjectReference snapshotMOR = createMOR("VirtualMachineSnapshot", "snapshot-1");
+        CountDownLatch snapshotStarted = new CountDownLatch(1);
+        CountDownLatch snapshotTaken = new CountDownLatch(1);
+        when(vmWareProviderVirtualMachineUtil.getOrCreateSnapshot(virtualMachine, "connector-iaas-linked-clones")).thenAnswer(invocation -> {
+            snapshotStarted.countDown();
+            snapshotTaken.await();
+            return snapshotMOR;
+        });
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        Callable<ManagedObjectReference> getSnapshot = () -> ReflectionTestUtils.invokeMethod(vmWareProvider,
+                                                                                              "getTemplateSnapshot",
+                                                                                              infrastructure,
+                                                                                              virtualMachine);
+        Future<ManagedObjectReference> first = executor.submit(getSnapshot);
+        snapshotStarted.await();
+        Future<ManagedObjectReference> second = executor.submit(getSnapshot);
+        snapshotTaken.countDown();
+
+        assertThat(first.get(5, TimeUnit.SECONDS), is(snapshotMOR));
+        assertThat(second.get(5, TimeUnit.SECONDS), is(snapshotMOR));
+        verify(vmWareProviderVirtualMachineUtil, times(1)).getOrCreateSnapshot(virtualMachine,
+                                                                               "connector-iaas-linked-clones");
+        executor.shutdown();
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testInstantCloneModeIsRejected() {
+        VMWareCloneMode.fromOptions(Options.builder().cloneMode("instant").build());
     }
 
     @Test
@@ -225,10 +487,9 @@ public class VMWareProviderTest {
         when(vmWareProviderVirtualMachineUtil.searchVirtualMachineByName("cloned-tag",
                                                                          rootFolder)).thenReturn(Optional.ofNullable(createdVirtualMachine));
 
-        when(vmWareProviderVirtualMachineUtil.searchVMFolderFromVMName("vm-to-clone",
-                                                                       rootFolder)).thenReturn(Optional.empty());
-        when(vmWareProviderVirtualMachineUtil.searchFolderByName("VM",
-                                                                 rootFolder)).thenReturn(Optional.of(instanceFolder));
+        when(vmWareProviderVirtualMachineUtil.getVirtualMachineFolder(virtualMachine)).thenReturn(Optional.empty());
+        when(vmWareProviderVirtualMachineUtil.loadTopology(rootFolder)).thenReturn(createTopology("VM",
+                                                                                                  "destinationHost"));
 
         // Ensure that VM's config, UUID and hardware are set for both VMs
         when(virtualMachine.getConfig()).thenReturn(virtualMachineConfigInfo);
@@ -277,8 +538,6 @@ public class VMWareProviderTest {
         Instance instance = InstanceFixture.simpleInstanceWithTagAndImage("marco-tag",
                                                                           "RoboconfAgent180116/destinationHost");
 
-        //when(vmWareProviderVirtualMachineUtil.searchFolderByName("activeeon", rootFolder)).thenReturn(instanceFolder);
-
         when(vmWareProviderVirtualMachineUtil.searchVirtualMachineByName("RoboconfAgent180116",
                                                                          rootFolder)).thenReturn(Optional.of(virtualMachine));
 
@@ -286,13 +545,10 @@ public class VMWareProviderTest {
                                                                          rootFolder)).thenReturn(Optional.of(createdVirtualMachine));
 
         // Ensure to retrieve destination pool, datastore, folder, and host
-        when(vmWareProviderVirtualMachineUtil.searchHostByName("destinationHost",
-                                                               rootFolder)).thenReturn(Optional.of(destinationHost));
-        when(vmWareProviderVirtualMachineUtil.searchResourcePoolByHostname("destinationHost",
-                                                                           rootFolder)).thenReturn(Optional.of(resourcePool));
-        when(vmWareProviderVirtualMachineUtil.getDatastoreWithMostSpaceFromHost(destinationHost)).thenReturn(Optional.of(destinationDatastore));
-        when(vmWareProviderVirtualMachineUtil.searchVMFolderByHostname("destinationHost",
-                                                                       rootFolder)).thenReturn(Optional.of(instanceFolder));
+        when(vmWareProviderVirtualMachineUtil.loadTopology(rootFolder)).thenReturn(createTopology("vm-destinationHost",
+                                                                                                  "destinationHost"));
+        ManagedObjectReference destinationDatastoreMOR = createMOR("Datastore", "datastore-1");
+        when(destinationDatastore.getMOR()).thenReturn(destinationDatastoreMOR);
 
         when(createdVirtualMachine.getConfig()).thenReturn(virtualMachineConfigInfo);
 
@@ -315,6 +571,38 @@ public class VMWareProviderTest {
         assertThat(createdInstances.size(), is(1));
 
         assertThat(createdInstances.iterator().next().getId(), is("some-generated-virtual-machine-id"));
+
+        ArgumentCaptor<VirtualMachineCloneSpec> cloneSpecCaptor = ArgumentCaptor.forClass(VirtualMachineCloneSpec.class);
+        verify(virtualMachine).cloneVM_Task(any(Folder.class), anyString(), cloneSpecCaptor.capture());
+        assertThat(cloneSpecCaptor.getValue().getLocation().getDatastore(), is(destinationDatastoreMOR));
+    }
+
+    @Test
+    public void testTopologyIsLoadedOncePerRefreshPeriod() throws RemoteException {
+        Infrastructure infrastructure = InfrastructureFixture.getSimpleInfrastructure("vmware-type");
+        Instance instance = InstanceFixture.simpleInstanceWithTagAndImage("marco-tag",
+                                                                          "RoboconfAgent180116/destinationHost");
+
+        when(vmWareProviderVirtualMachineUtil.searchVirtualMachineByName("RoboconfAgent180116",
+                                                                         rootFolder)).thenReturn(Optional.of(virtualMachine));
+        when(vmWareProviderVirtualMachineUtil.loadTopology(rootFolder)).thenReturn(createTopology("vm-destinationHost",
+                                                                                                  "destinationHost"));
+        when(createdVirtualMachine.getConfig()).thenReturn(virtualMachineConfigInfo);
+        when(virtualMachineConfigInfo.getUuid()).thenReturn("some-generated-virtual-machine-id");
+        when(virtualMachine.cloneVM_Task(any(Folder.class),
+                                         anyString(),
+                                         any(VirtualMachineCloneSpec.class))).thenReturn(task);
+        when(tagManager.retrieveAllTags(anyString(),
+                                        any(Options.class))).thenReturn(Lists.newArrayList(connectorIaasTag));
+
+        vmWareProvider.createInstance(infrastructure, instance);
+        vmWareProvider.createInstance(infrastructure, instance);
+        verify(vmWareProviderVirtualMachineUtil, times(1)).loadTopology(rootFolder);
+
+        // Once the topology is outdated, it is loaded again
+        ReflectionTestUtils.setField(vmWareProvider, "topologyRefreshPeriod", -1L);
+        vmWareProvider.createInstance(infrastructure, instance);
+        verify(vmWareProviderVirtualMachineUtil, times(2)).loadTopology(rootFolder);
     }
 
     @Test
@@ -332,17 +620,9 @@ public class VMWareProviderTest {
                                                                          rootFolder)).thenReturn(Optional.of(createdVirtualMachine));
 
         // Ensure to retrieve destination pool, datastore, and host
-        when(vmWareProviderVirtualMachineUtil.searchHostByName("destinationHost",
-                                                               rootFolder)).thenReturn(Optional.of(destinationHost));
-        when(vmWareProviderVirtualMachineUtil.searchResourcePoolByHostname("destinationHost",
-                                                                           rootFolder)).thenReturn(Optional.of(resourcePool));
-        when(vmWareProviderVirtualMachineUtil.getDatastoreWithMostSpaceFromHost(destinationHost)).thenReturn(Optional.of(destinationDatastore));
-
         // A dedicated VM folder is not found on destination host, therefore the generic VM folder is used (must be present in all vCenter)
-        when(vmWareProviderVirtualMachineUtil.searchVMFolderByHostname("destinationHost",
-                                                                       rootFolder)).thenReturn(Optional.empty());
-        when(vmWareProviderVirtualMachineUtil.searchFolderByName("VM",
-                                                                 rootFolder)).thenReturn(Optional.of(instanceFolder));
+        when(vmWareProviderVirtualMachineUtil.loadTopology(rootFolder)).thenReturn(createTopology("VM",
+                                                                                                  "destinationHost"));
 
         when(createdVirtualMachine.getConfig()).thenReturn(virtualMachineConfigInfo);
 
@@ -366,24 +646,15 @@ public class VMWareProviderTest {
         Infrastructure infrastructure = InfrastructureFixture.getSimpleInfrastructure("vmware-type");
         Instance instance = InstanceFixture.simpleInstanceWithTagAndImage("marco-tag", "RoboconfAgent180116/*");
 
-        when(vmWareProviderVirtualMachineUtil.searchFolderByName("activeeon",
-                                                                 rootFolder)).thenReturn(Optional.of(instanceFolder));
-
         when(vmWareProviderVirtualMachineUtil.searchVirtualMachineByName("RoboconfAgent180116",
                                                                          rootFolder)).thenReturn(Optional.of(virtualMachine));
 
         when(vmWareProviderVirtualMachineUtil.searchVirtualMachineByName("marco-tag",
                                                                          rootFolder)).thenReturn(Optional.of(createdVirtualMachine));
 
-        // Ensure to retrieve a (random) resource pool and a datastore (with most space available)
-        when(vmWareProviderVirtualMachineUtil.getRandomResourcePool(rootFolder)).thenReturn(Optional.of(resourcePool));
-        when(vmWareProviderVirtualMachineUtil.getDatastoreWithMostSpaceFromPool(resourcePool)).thenReturn(Optional.of(destinationDatastore));
-
-        // Get the generic VM folder
-        when(vmWareProviderVirtualMachineUtil.searchVMFolderFromVMName("vm-to-clone",
-                                                                       rootFolder)).thenReturn(Optional.empty());
-        when(vmWareProviderVirtualMachineUtil.searchFolderByName("VM",
-                                                                 rootFolder)).thenReturn(Optional.of(instanceFolder));
+        // Ensure to retrieve a (random) resource pool and a datastore, and the generic VM folder
+        when(vmWareProviderVirtualMachineUtil.loadTopology(rootFolder)).thenReturn(createTopology("VM",
+                                                                                                  "destinationHost"));
 
         when(createdVirtualMachine.getConfig()).thenReturn(virtualMachineConfigInfo);
 
@@ -407,11 +678,8 @@ public class VMWareProviderTest {
             throws TaskInProgress, InvalidState, RuntimeFault, RemoteException, InterruptedException {
         Infrastructure infrastructure = InfrastructureFixture.getSimpleInfrastructure("vmware-type");
 
-        when(vmWareProviderVirtualMachineUtil.getAllVirtualMachines(rootFolder)).thenReturn(Sets.newHashSet(createdVirtualMachine));
-
-        when(createdVirtualMachine.getConfig()).thenReturn(virtualMachineConfigInfo);
-
-        when(virtualMachineConfigInfo.getUuid()).thenReturn("some-generated-virtual-machine-id");
+        when(vmWareProviderVirtualMachineUtil.searchVirtualMachineByUUID("some-generated-virtual-machine-id",
+                                                                         rootFolder)).thenReturn(Optional.of(createdVirtualMachine));
 
         when(createdVirtualMachine.powerOffVM_Task()).thenReturn(task);
 
@@ -426,11 +694,39 @@ public class VMWareProviderTest {
 
     }
 
+    @Test
+    public void testDeleteInstanceWithKnownReference()
+            throws TaskInProgress, InvalidState, RuntimeFault, RemoteException, InterruptedException {
+        Infrastructure infrastructure = InfrastructureFixture.getSimpleInfrastructure("vmware-type");
+        ManagedObjectReference mor = new ManagedObjectReference();
+        mor.setType("VirtualMachine");
+        mor.setVal("vm-42");
+
+        // Listing the inventory makes the VM reference known
+        VirtualMachineProperties virtualMachineProperties = VirtualMachineProperties.builder()
+                                                                                    .mor(mor)
+                                                                                    .uuid("some-generated-virtual-machine-id")
+                                                                                    .build();
+        when(vmWareProviderVirtualMachineUtil.getAllVirtualMachineProperties(serviceInstance)).thenReturn(Lists.newArrayList(virtualMachineProperties));
+        vmWareProvider.getAllInfrastructureInstances(infrastructure);
+
+        when(vmWareProviderVirtualMachineUtil.getVirtualMachineByReference(mor,
+                                                                           "some-generated-virtual-machine-id",
+                                                                           rootFolder)).thenReturn(Optional.of(createdVirtualMachine));
+        when(createdVirtualMachine.powerOffVM_Task()).thenReturn(task);
+        when(task.waitForTask()).thenReturn(Task.SUCCESS);
+        when(createdVirtualMachine.destroy_Task()).thenReturn(task);
+
+        vmWareProvider.deleteInstance(infrastructure, "some-generated-virtual-machine-id");
+
+        verify(createdVirtualMachine).destroy_Task();
+        verify(vmWareProviderVirtualMachineUtil, times(0)).searchVirtualMachineByUUID(anyString(), any(Folder.class));
+    }
+
     @Test
     public void testDeleteInstanceNotExist() throws RemoteException, InterruptedException {
         Infrastructure infrastructure = InfrastructureFixture.getSimpleInfrastructure("vmware-type");
 
-        when(vmWareProviderVirtualMachineUtil.getAllVirtualMachines(rootFolder)).thenReturn(Sets.newHashSet(createdVirtualMachine));
         vmWareProvider.deleteInfrastructure(infrastructure);
         verify(vmWareServiceInstanceCache).removeServiceInstance(infrastructure);
 
@@ -440,11 +736,11 @@ public class VMWareProviderTest {
     public void testDeleteAllInstances() throws RemoteException, InterruptedException {
         Infrastructure infrastructure = InfrastructureFixture.getSimpleInfrastructure("vmware-type");
 
-        when(vmWareProviderVirtualMachineUtil.getAllVirtualMachines(rootFolder)).thenReturn(Sets.newHashSet(createdVirtualMachine));
-
-        when(createdVirtualMachine.getConfig()).thenReturn(virtualMachineConfigInfo);
-
-        when(virtualMachineConfigInfo.getUuid()).thenReturn("some-generated-virtual-machine-id");
+        // Only the virtual machine with the given UUID is searched, the other ones are not touched
+        when(vmWareProviderVirtualMachineUtil.searchVirtualMachineByUUID("some-generated-virtual-machine-id",
+                                                                         rootFolder)).thenReturn(Optional.of(createdVirtualMachine));
+        when(vmWareProviderVirtualMachineUtil.searchVirtualMachineByUUID("some-other-virtual-machine-id",
+                                                                         rootFolder)).thenReturn(Optional.empty());
 
         when(createdVirtualMachine.powerOffVM_Task()).thenReturn(task);
 
@@ -454,6 +750,7 @@ public class VMWareProviderTest {
 
         vmWareProvider.deleteInstance(infrastructure, "some-other-virtual-machine-id");
 
+        verify(vmWareProviderVirtualMachineUtil).searchVirtualMachineByUUID("some-other-virtual-machine-id", rootFolder);
         verify(createdVirtualMachine, times(0)).powerOffVM_Task();
         verify(createdVirtualMachine, times(0)).destroy_Task();
 
@@ -464,31 +761,22 @@ public class VMWareProviderTest {
             throws TaskInProgress, InvalidState, RuntimeFault, RemoteException, InterruptedException {
         Infrastructure infrastructure = InfrastructureFixture.getSimpleInfrastructure("vmware-type");
 
-        when(vmWareProviderVirtualMachineUtil.getAllVirtualMachines(rootFolder)).thenReturn(Sets.newHashSet(createdVirtualMachine));
-
-        when(createdVirtualMachine.getConfig()).thenReturn(virtualMachineConfigInfo);
-
-        when(virtualMachineConfigInfo.getUuid()).thenReturn("some-generated-virtual-machine-id");
-
-        when(createdVirtualMachine.getGuest()).thenReturn(guestInfo);
-
-        when(guestInfo.getIpAddress()).thenReturn("77.154.227.148");
-
-        when(virtualMachineConfigInfo.getHardware()).thenReturn(hardware);
-
-        when(hardware.getNumCPU()).thenReturn(8);
-
-        when(hardware.getMemoryMB()).thenReturn(2048);
-
-        when(createdVirtualMachine.getSummary()).thenReturn(virtualMachineSummary);
-
-        when(virtualMachineSummary.getOverallStatus()).thenReturn(ManagedEntityStatus.green);
+        VirtualMachineProperties virtualMachineProperties = VirtualMachineProperties.builder()
+                                                                                    .uuid("some-generated-virtual-machine-id")
+                                                                                    .name("vm-name")
+                                                                                    .numCPU(8)
+                                                                                    .memoryMB(2048)
+                                                                                    .ipAddress("77.154.227.148")
+                                                                                    .overallStatus(ManagedEntityStatus.green)
+                                                                                    .build();
+        when(vmWareProviderVirtualMachineUtil.getAllVirtualMachineProperties(serviceInstance)).thenReturn(Lists.newArrayList(virtualMachineProperties));
 
         Set<Instance> createdInstances = vmWareProvider.getAllInfrastructureInstances(infrastructure);
 
         assertThat(createdInstances.size(), is(1));
 
         assertThat(createdInstances.iterator().next().getId(), is("some-generated-virtual-machine-id"));
+        assertThat(createdInstances.iterator().next().getTag(), is("vm-name"));
         assertThat(createdInstances.iterator().next().getHardware().getMinCores(), is("8"));
         assertThat(createdInstances.iterator().next().getHardware().getMinRam(), is("2048"));
         assertThat(createdInstances.iterator().next().getNetwork().getPublicAddresses().iterator().next(),
@@ -497,14 +785,56 @@ public class VMWareProviderTest {
 
     }
 
+    @Test
+    public void testGetAllInfrastructureInstancesIsCalledAgainWhenNotAuthenticated() {
+        Infrastructure infrastructure = InfrastructureFixture.getSimpleInfrastructure("vmware-type");
+
+        VirtualMachineProperties virtualMachineProperties = VirtualMachineProperties.builder()
+                                                                                    .uuid("some-generated-virtual-machine-id")
+                                                                                    .name("vm-name")
+                                                                                    .build();
+        // The session expired on the vCenter since its last keep-alive
+        RuntimeException expiredSession = new RuntimeException("ERROR when retrieving VMWare virtual machines",
+                                                               new NotAuthenticated());
+        when(vmWareProviderVirtualMachineUtil.getAllVirtualMachineProperties(serviceInstance)).thenThrow(expiredSession)
+                                                                                            .thenReturn(Lists.newArrayList(virtualMachineProperties));
+
+        Set<Instance> instances = vmWareProvider.getAllInfrastructureInstances(infrastructure);
+
+        assertThat(instances.size(), is(1));
+        verify(vmWareServiceInstanceCache).invalidateServiceInstances(infrastructure);
+    }
+
+    @Test
+    public void testCreateInstanceIsNotCalledAgainWhenNotAuthenticated() {
+        Infrastructure infrastructure = InfrastructureFixture.getSimpleInfrastructure("vmware-type");
+        Instance instance = InstanceFixture.simpleInstanceWithTagAndImage("marco-tag", "RoboconfAgent180116");
+
+        RuntimeException expiredSession = new RuntimeException("ERROR when searching VMWare virtual machine",
+                                                               new NotAuthenticated());
+        when(vmWareProviderVirtualMachineUtil.searchVirtualMachineByName("RoboconfAgent180116",
+                                                                         rootFolder)).thenThrow(expiredSession);
+
+        try {
+            vmWareProvider.createInstance(infrastructure, instance);
+            fail("The creation should fail when the session is no longer authenticated");
+        } catch (RuntimeException e) {
+            assertThat(e, is(expiredSession));
+        }
+
+        verify(vmWareProviderVirtualMachineUtil, times(1)).searchVirtualMachineByName("RoboconfAgent180116",
+                                                                                      rootFolder);
+        verify(vmWareServiceInstanceCache).invalidateServiceInstances(infrastructure);
+    }
+
     @Test
     public void testGetAllInfrastructureInstancesWithBadConfigVM()
             throws TaskInProgress, InvalidState, RuntimeFault, RemoteException, InterruptedException {
         Infrastructure infrastructure = InfrastructureFixture.getSimpleInfrastructure("vmware-type");
 
-        when(vmWareProviderVirtualMachineUtil.getAllVirtualMachines(rootFolder)).thenReturn(Sets.newHashSet(createdVirtualMachine));
-
-        when(createdVirtualMachine.getConfig()).thenReturn(null);
+        // A VM without configuration has no UUID
+        VirtualMachineProperties virtualMachineProperties = VirtualMachineProperties.builder().name("vm-name").build();
+        when(vmWareProviderVirtualMachineUtil.getAllVirtualMachineProperties(serviceInstance)).thenReturn(Lists.newArrayList(virtualMachineProperties));
 
         Set<Instance> createdInstances = vmWareProvider.getAllInfrastructureInstances(infrastructure);
 
@@ -513,8 +843,34 @@ public class VMWareProviderTest {
     }
 
     @Test
-    public void testExecuteScriptOnInstanceId()
-            throws GuestOperationsFault, InvalidState, TaskInProgress, FileFault, RuntimeFault, RemoteException {
+    public void testGetCreatedInfrastructureInstances() {
+        Infrastructure infrastructure = InfrastructureFixture.getSimpleInfrastructure("vmware-type");
+        OptionValue connectorIaasOptionValue = new OptionValue();
+        connectorIaasOptionValue.setKey("connector-iaas-tag-key");
+        connectorIaasOptionValue.setValue("default-value");
+
+        when(tagManager.getConnectorIaasTag()).thenReturn(Tag.builder()
+                                                             .key("connector-iaas-tag-key")
+                                                             .value("default-value")
+                                                             .build());
+        VirtualMachineProperties createdVirtualMachineProperties = VirtualMachineProperties.builder()
+                                                                                           .uuid("created-virtual-machine-id")
+                                                                                           .extraConfig(new OptionValue[] { connectorIaasOptionValue })
+                                                                                           .build();
+        VirtualMachineProperties otherVirtualMachineProperties = VirtualMachineProperties.builder()
+                                                                                         .uuid("other-virtual-machine-id")
+                                                                                         .build();
+        when(vmWareProviderVirtualMachineUtil.getAllVirtualMachineProperties(serviceInstance)).thenReturn(Lists.newArrayList(createdVirtualMachineProperties,
+                                                                                                                             otherVirtualMachineProperties));
+
+        Set<Instance> createdInstances = vmWareProvider.getCreatedInfrastructureInstances(infrastructure);
+
+        assertThat(createdInstances.size(), is(1));
+        assertThat(createdInstances.iterator().next().getId(), is("created-virtual-machine-id"));
+    }
+
+    @Test
+    public void testExecuteScriptOnInstanceId() {
         Infrastructure infrastructure = InfrastructureFixture.getSimpleInfrastructure("vmware-type");
 
         InstanceScript instanceScript = InstanceScriptFixture.getInstanceScriptUserAndPassword("username",
@@ -522,34 +878,33 @@ public class VMWareProviderTest {
                                                                                                new String[] { "wget node.jar",
                                                                                                               "java -jar node.jar" });
 
-        when(vmWareProviderVirtualMachineUtil.getAllVirtualMachines(rootFolder)).thenReturn(Sets.newHashSet(createdVirtualMachine));
-
-        when(createdVirtualMachine.getConfig()).thenReturn(virtualMachineConfigInfo);
-
-        when(virtualMachineConfigInfo.getUuid()).thenReturn("some-generated-virtual-machine-id");
-
         when(vmWareProviderVirtualMachineUtil.searchVirtualMachineByUUID("some-generated-virtual-machine-id",
                                                                          rootFolder)).thenReturn(Optional.of(createdVirtualMachine));
 
-        when(serviceInstance.getGuestOperationsManager()).thenReturn(gom);
-
-        when(gom.getProcessManager(createdVirtualMachine)).thenReturn(gpm);
-
-        when(gpm.startProgramInGuest(any(NamePasswordAuthentication.class),
-                                     any(GuestProgramSpec.class))).thenReturn(132L);
+        when(vmWareGuestScriptRunner.runScript(any(ServiceInstance.class),
+                                               any(VirtualMachine.class),
+                                               anyString(),
+                                               any(NamePasswordAuthentication.class),
+                                               anyString())).thenReturn(new ScriptResult("some-generated-virtual-machine-id",
+                                                                                         "output",
+                                                                                         ""));
 
         List<ScriptResult> scriptResults = vmWareProvider.executeScriptOnInstanceId(infrastructure,
                                                                                     "some-generated-virtual-machine-id",
                                                                                     instanceScript);
 
-        assertTrue(scriptResults.size() == 2);
-        assertThat(scriptResults.get(0).getOutput(), is("132"));
-        assertThat(scriptResults.get(1).getOutput(), is("132"));
+        assertThat(scriptResults.size(), is(2));
+        assertThat(scriptResults.get(0).getOutput(), is("output"));
+        assertThat(scriptResults.get(1).getOutput(), is("output"));
+        verify(vmWareGuestScriptRunner).runScript(any(ServiceInstance.class),
+                                                  any(VirtualMachine.class),
+                                                  anyString(),
+                                                  any(NamePasswordAuthentication.class),
+                                                  eq("wget node.jar"));
     }
 
     @Test
-    public void testExecuteScriptOnInstanceTag()
-            throws GuestOperationsFault, InvalidState, TaskInProgress, FileFault, RuntimeFault, RemoteException {
+    public void testExecuteScriptOnInstanceTag() {
         Infrastructure infrastructure = InfrastructureFixture.getSimpleInfrastructure("vmware-type");
 
         InstanceScript instanceScript = InstanceScriptFixture.getInstanceScriptUserAndPassword("username",
@@ -557,34 +912,124 @@ public class VMWareProviderTest {
                                                                                                new String[] { "wget node.jar",
                                                                                                               "java -jar node.jar" });
 
-        when(vmWareProviderVirtualMachineUtil.getAllVirtualMachines(rootFolder)).thenReturn(Sets.newHashSet(createdVirtualMachine));
-
-        when(createdVirtualMachine.getConfig()).thenReturn(virtualMachineConfigInfo);
+        // Both VMs created with the tag are targeted, not the VMs whose name only starts with the tag
+        ManagedObjectReference secondVirtualMachineMOR = createMOR("VirtualMachine", "vm-2");
+        VirtualMachine secondVirtualMachine = mock(VirtualMachine.class);
+        when(tagManager.getConnectorIaasTag()).thenReturn(connectorIaasTag);
+        when(tagManager.getInfrastructureIdTag()).thenReturn(Tag.builder().key("infrastructure-id-tag-key").build());
+        OptionValue[] createdVirtualMachineTags = new OptionValue[] { createOptionValue("connector-iaas-tag-key",
+                                                                                        "default-value"),
+                                                                      createOptionValue("infrastructure-id-tag-key",
+                                                                                        infrastructure.getId()) };
+        when(vmWareProviderVirtualMachineUtil.getAllVirtualMachineProperties(serviceInstance)).thenReturn(Lists.newArrayList(VirtualMachineProperties.builder()
+                                                                                                                                                   .mor(createdVirtualMachineMOR)
+                                                                                                                                                   .uuid("first-id")
+                                                                                                                                                   .name("some-virtual-machine-tag")
+                                                                                                                                                   .build(),
+                                                                                                                            VirtualMachineProperties.builder()
+                                                                                                                                                   .mor(secondVirtualMachineMOR)
+                                                                                                                                                   .uuid("second-id")
+                                                                                                                                                   .name("some-virtual-machine-tag_2")
+                                                                                                                                                   .extraConfig(createdVirtualMachineTags)
+                                                                                                                                                   .build(),
+                                                                                                                            VirtualMachineProperties.builder()
+                                                                                                                                                   .mor(createMOR("VirtualMachine",
+                                                                                                                                                                  "vm-4"))
+                                                                                                                                                   .uuid("not-created-id")
+                                                                                                                                                   .name("some-virtual-machine-tag_2019")
+                                                                                                                                                   .build(),
+                                                                                                                            VirtualMachineProperties.builder()
+                                                                                                                                                   .mor(createMOR("VirtualMachine",
+                                                                                                                                                                  "vm-3"))
+                                                                                                                                                   .uuid("other-id")
+                                                                                                                                                   .name("some-virtual-machine-tag-other")
+                                                                                                                                                   .build()));
+        when(vmWareProviderVirtualMachineUtil.getVirtualMachine(secondVirtualMachineMOR,
+                                                                rootFolder)).thenReturn(secondVirtualMachine);
+
+        when(vmWareGuestScriptRunner.runScript(any(ServiceInstance.class),
+                                               eq(createdVirtualMachine),
+                                               anyString(),
+                                               any(NamePasswordAuthentication.class),
+                                               anyString())).thenReturn(new ScriptResult("first-id", "output", ""));
+        when(vmWareGuestScriptRunner.runScript(any(ServiceInstance.class),
+                                               eq(secondVirtualMachine),
+                                               anyString(),
+                                               any(NamePasswordAuthentication.class),
+                                               anyString())).thenThrow(new RuntimeException("ERROR guest unreachable"));
 
-        when(virtualMachineConfigInfo.getUuid()).thenReturn("some-generated-virtual-machine-id");
+        List<ScriptResult> scriptResults = vmWareProvider.executeScriptOnInstanceTag(infrastructure,
+                                                                                     "some-virtual-machine-tag",
+                                                                                     instanceScript);
 
-        when(createdVirtualMachine.getName()).thenReturn("some-virtual-machine-tag");
+        // Two results for the first VM, and the error of the second one
+        assertThat(scriptResults.size(), is(3));
+        assertThat(scriptResults.get(0).getOutput(), is("output"));
+        assertThat(scriptResults.get(1).getOutput(), is("output"));
+        assertThat(scriptResults.get(2).getInstanceId(), is("second-id"));
+        assertThat(scriptResults.get(2).getError(), is("ERROR guest unreachable"));
+    }
 
-        when(vmWareProviderVirtualMachineUtil.searchVirtualMachineByName("some-virtual-machine-tag",
-                                                                         rootFolder)).thenReturn(Optional.of(createdVirtualMachine));
+    @Test
+    public void testExecuteScriptOnInstanceTagFailsWhenEveryVMFails() {
+        Infrastructure infrastructure = InfrastructureFixture.getSimpleInfrastructure("vmware-type");
 
-        when(vmWareProviderVirtualMachineUtil.searchVirtualMachineByUUID("some-generated-virtual-machine-id",
-                                                                         rootFolder)).thenReturn(Optional.of(createdVirtualMachine));
+        InstanceScript instanceScript = InstanceScriptFixture.getInstanceScriptUserAndPassword("username",
+                                                                                               "pasword",
+                                                                                               new String[] { "wget node.jar" });
+
+        when(vmWareProviderVirtualMachineUtil.getAllVirtualMachineProperties(serviceInstance)).thenReturn(Lists.newArrayList(VirtualMachineProperties.builder()
+                                                                                                                                                   .mor(createdVirtualMachineMOR)
+                                                                                                                                                   .uuid("first-id")
+                                                                                                                                                   .name("some-virtual-machine-tag")
+                                                                                                                                                   .build()));
+        when(vmWareGuestScriptRunner.runScript(any(ServiceInstance.class),
+                                               eq(createdVirtualMachine),
+                                               anyString(),
+                                               any(NamePasswordAuthentication.class),
+                                               anyString())).thenThrow(new RuntimeException("ERROR guest unreachable"));
+
+        try {
+            vmWareProvider.executeScriptOnInstanceTag(infrastructure, "some-virtual-machine-tag", instanceScript);
+            fail("The execution should fail when the script cannot be executed on any VM");
+        } catch (RuntimeException e) {
+            assertThat(e.getCause().getMessage(), is("ERROR guest unreachable"));
+        }
+    }
 
-        when(serviceInstance.getGuestOperationsManager()).thenReturn(gom);
+    @Test
+    public void testExecuteScriptOnInstanceIdKeepsTheResultOfEachScript() {
+        Infrastructure infrastructure = InfrastructureFixture.getSimpleInfrastructure("vmware-type");
 
-        when(gom.getProcessManager(createdVirtualMachine)).thenReturn(gpm);
+        InstanceScript instanceScript = InstanceScriptFixture.getInstanceScriptUserAndPassword("username",
+                                                                                               "pasword",
+                                                                                               new String[] { "wget node.jar",
+                                                                                                              "java -jar node.jar" });
 
-        when(gpm.startProgramInGuest(any(NamePasswordAuthentication.class),
-                                     any(GuestProgramSpec.class))).thenReturn(132L);
+        when(vmWareProviderVirtualMachineUtil.searchVirtualMachineByUUID("some-generated-virtual-machine-id",
+                                                                         rootFolder)).thenReturn(Optional.of(createdVirtualMachine));
+        when(vmWareGuestScriptRunner.runScript(any(ServiceInstance.class),
+                                               any(VirtualMachine.class),
+                                               anyString(),
+                                               any(NamePasswordAuthentication.class),
+                                               eq("wget node.jar"))).thenReturn(new ScriptResult("some-generated-virtual-machine-id",
+                                                                                                 "output",
+                                                                                                 ""));
+        when(vmWareGuestScriptRunner.runScript(any(ServiceInstance.class),
+                                               any(VirtualMachine.class),
+                                               anyString(),
+                                               any(NamePasswordAuthentication.class),
+                                               eq("java -jar node.jar"))).thenThrow(new RuntimeException("ERROR guest unreachable"));
 
-        List<ScriptResult> scriptResults = vmWareProvider.executeScriptOnInstanceTag(infrastructure,
-                                                                                     "some-virtual-machine-tag",
-                                                                                     instanceScript);
+        List<ScriptResult> scriptResults = vmWareProvider.executeScriptOnInstanceId(infrastructure,
+                                                                                    "some-generated-virtual-machine-id",
+                                                                                    instanceScript);
 
-        assertTrue(scriptResults.size() == 2);
-        assertThat(scriptResults.get(0).getOutput(), is("132"));
-        assertThat(scriptResults.get(1).getOutput(), is("132"));
+        // The result of the first script is kept along with the error of the second one
+        assertThat(scriptResults.size(), is(2));
+        assertThat(scriptResults.get(0).getOutput(), is("output"));
+        assertThat(scriptResults.get(1).getInstanceId(), is("some-generated-virtual-machine-id"));
+        assertThat(scriptResults.get(1).getError(), is("ERROR guest unreachable"));
     }
 
     @Test
@@ -592,9 +1037,43 @@ public class VMWareProviderTest {
             throws TaskInProgress, InvalidState, RuntimeFault, RemoteException, InterruptedException {
         Infrastructure infrastructure = InfrastructureFixture.getSimpleInfrastructure("vmware-type");
 
-        when(vmWareProviderVirtualMachineUtil.getAllVirtualMachines(rootFolder)).thenReturn(Sets.newHashSet(createdVirtualMachine));
         vmWareProvider.deleteInfrastructure(infrastructure);
         verify(vmWareServiceInstanceCache).removeServiceInstance(infrastructure);
 
     }
+
+    private VMWareTopology createTopology(String folderName, String hostname) {
+        List<DatastoreSpace> datastores = Lists.newArrayList(new DatastoreSpace(destinationDatastore, 100L));
+        return VMWareTopology.builder()
+                             .folders(ImmutableMap.of(folderName, instanceFolder))
+                             .hosts(ImmutableMap.of(hostname, destinationHost))
+                             .hostDatastores(ImmutableMap.of(hostname, datastores))
+                             .resourcePools(Lists.newArrayList(new ResourcePoolPlacement(resourcePool,
+                                                                                         hostname,
+                                                                                         datastores)))
+                             .loadedAt(System.currentTimeMillis())
+                             .build();
+    }
+
+    private static ManagedObjectReference createMOR(String type, String value) {
+        ManagedObjectReference mor = new ManagedObjectReference();
+        mor.setType(type);
+        mor.setVal(value);
+        return mor;
+    }
+
+    private static OptionValue createOptionValue(String key, String value) {
+        OptionValue optionValue = new OptionValue();
+        optionValue.setKey(key);
+        optionValue.setValue(value);
+        return optionValue;
+    }
+
+    private static TaskInfo createSuccessfulTaskInfo(ManagedObjectReference taskMOR, ManagedObjectReference result) {
+        TaskInfo taskInfo = new TaskInfo();
+        taskInfo.setTask(taskMOR);
+        taskInfo.setState(TaskInfoState.success);
+        taskInfo.setResult(result);
+        return taskInfo;
+    }
 }
@@ -41,6 +41,7 @@ import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.ow2.proactive.connector.iaas.fixtures.InfrastructureFixture;
 import org.ow2.proactive.connector.iaas.model.Infrastructure;
+import org.springframework.test.util.ReflectionTestUtils;
 
 import com.vmware.vim25.mo.ServiceInstance;
 
@@ -200,4 +201,17 @@ public class VMWareServiceInstanceCacheTest {
                                                                                                         null));
     }
 
+    @Test
+    public void testGetServiceInstanceFromSessionPool() {
+        ReflectionTestUtils.setField(serviceInstanceCache, "sessionPoolSize", 2);
+        Infrastructure infrastructure = InfrastructureFixture.getSimpleInfrastructure("vmware");
+
+        serviceInstanceCache.getServiceInstance(infrastructure);
+        serviceInstanceCache.getServiceInstance(infrastructure);
+        serviceInstanceCache.getServiceInstance(infrastructure);
+
+        // One session per slot of the pool, reused afterwards
+        verify(serviceInstanceBuilder, times(2)).buildServiceInstanceFromInfrastructure(infrastructure);
+    }
+
 }
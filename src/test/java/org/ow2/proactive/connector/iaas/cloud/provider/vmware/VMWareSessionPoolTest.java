@@ -0,0 +1,166 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.connector.iaas.cloud.provider.vmware;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.rmi.RemoteException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.ow2.proactive.connector.iaas.cloud.provider.ProviderClientCache;
+
+import com.vmware.vim25.NotAuthenticated;
+import com.vmware.vim25.mo.ServerConnection;
+import com.vmware.vim25.mo.ServiceInstance;
+
+
+public class VMWareSessionPoolTest {
+
+    private ServiceInstance firstSession;
+
+    private ServiceInstance secondSession;
+
+    private ServerConnection firstConnection;
+
+    private Supplier<ServiceInstance> sessionBuilder;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void init() {
+        firstSession = mock(ServiceInstance.class);
+        secondSession = mock(ServiceInstance.class);
+        firstConnection = mock(ServerConnection.class);
+        when(firstSession.getServerConnection()).thenReturn(firstConnection);
+        sessionBuilder = mock(Supplier.class);
+        when(sessionBuilder.get()).thenReturn(firstSession, secondSession);
+    }
+
+    @Test
+    public void testSessionsAreHandedOutInTurn() {
+        VMWareSessionPool sessionPool = new VMWareSessionPool(sessionBuilder, 2, 0);
+        verify(sessionBuilder, times(1)).get();
+
+        assertThat(sessionPool.getSession(), is(firstSession));
+        assertThat(sessionPool.getSession(), is(secondSession));
+        assertThat(sessionPool.getSession(), is(firstSession));
+        verify(sessionBuilder, times(2)).get();
+    }
+
+    @Test
+    public void testKeepAliveLogsInAgainWhenNotAuthenticated() throws RemoteException {
+        when(firstSession.currentTime()).thenThrow(new NotAuthenticated());
+        VMWareSessionPool sessionPool = new VMWareSessionPool(sessionBuilder, 1, 0);
+
+        sessionPool.keepAlive();
+
+        verify(firstConnection).logout();
+        assertThat(sessionPool.getSession(), is(secondSession));
+    }
+
+    @Test
+    public void testSessionIsLeasedForTheUsageScope() {
+        VMWareSessionPool sessionPool = new VMWareSessionPool(sessionBuilder, 2, 0);
+
+        try (ProviderClientCache.UsageScope scope = ProviderClientCache.openUsageScope()) {
+            assertThat(sessionPool.getSession(), is(firstSession));
+            // The calls of the scope keep the same session, the other callers get the session which is not leased
+            assertThat(sessionPool.getSession(), is(firstSession));
+            assertThat(runInOtherScope(sessionPool), is(secondSession));
+        }
+    }
+
+    @Test
+    public void testLeasedSessionIsLoggedOutOnceReleased() {
+        VMWareSessionPool sessionPool = new VMWareSessionPool(sessionBuilder, 1, 0);
+
+        try (ProviderClientCache.UsageScope scope = ProviderClientCache.openUsageScope()) {
+            sessionPool.getSession();
+            sessionPool.close();
+            verify(firstConnection, never()).logout();
+        }
+
+        verify(firstConnection).logout();
+    }
+
+    @Test
+    public void testKeepAliveSkipsLeasedSessions() throws RemoteException {
+        VMWareSessionPool sessionPool = new VMWareSessionPool(sessionBuilder, 1, 0);
+
+        try (ProviderClientCache.UsageScope scope = ProviderClientCache.openUsageScope()) {
+            sessionPool.getSession();
+            sessionPool.keepAlive();
+        }
+
+        verify(firstSession, never()).currentTime();
+    }
+
+    @Test
+    public void testInvalidatedSessionIsLoggedInAgainWhenNotAuthenticated() throws RemoteException {
+        when(firstSession.currentTime()).thenThrow(new NotAuthenticated());
+        VMWareSessionPool sessionPool = new VMWareSessionPool(sessionBuilder, 1, 0);
+        assertThat(sessionPool.getSession(), is(firstSession));
+
+        sessionPool.invalidateSessions();
+
+        assertThat(sessionPool.getSession(), is(secondSession));
+        verify(firstConnection).logout();
+    }
+
+    @Test
+    public void testCloseLogsOutSessions() {
+        VMWareSessionPool sessionPool = new VMWareSessionPool(sessionBuilder, 2, 0);
+
+        sessionPool.close();
+
+        verify(firstConnection).logout();
+    }
+
+    private ServiceInstance runInOtherScope(VMWareSessionPool sessionPool) {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            return executor.submit(() -> {
+                try (ProviderClientCache.UsageScope scope = ProviderClientCache.openUsageScope()) {
+                    return sessionPool.getSession();
+                }
+            }).get();
+        } catch (InterruptedException | ExecutionException e) {
+            throw new RuntimeException(e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
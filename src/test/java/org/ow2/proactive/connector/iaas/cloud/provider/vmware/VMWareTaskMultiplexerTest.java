@@ -0,0 +1,163 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.connector.iaas.cloud.provider.vmware;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.rmi.RemoteException;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import com.vmware.vim25.ManagedObjectReference;
+import com.vmware.vim25.ObjectUpdate;
+import com.vmware.vim25.PropertyChange;
+import com.vmware.vim25.PropertyFilterSpec;
+import com.vmware.vim25.PropertyFilterUpdate;
+import com.vmware.vim25.TaskInfo;
+import com.vmware.vim25.TaskInfoState;
+import com.vmware.vim25.UpdateSet;
+import com.vmware.vim25.WaitOptions;
+import com.vmware.vim25.mo.PropertyCollector;
+import com.vmware.vim25.mo.PropertyFilter;
+import com.vmware.vim25.mo.ServiceInstance;
+import com.vmware.vim25.mo.Task;
+
+
+public class VMWareTaskMultiplexerTest {
+
+    @Mock
+    private ServiceInstance serviceInstance;
+
+    @Mock
+    private PropertyCollector sessionPropertyCollector;
+
+    @Mock
+    private PropertyCollector propertyCollector;
+
+    @Mock
+    private PropertyFilter propertyFilter;
+
+    @Mock
+    private Task task;
+
+    private ManagedObjectReference taskMOR;
+
+    private VMWareTaskMultiplexer taskMultiplexer;
+
+    @Before
+    public void init() throws RemoteException {
+        MockitoAnnotations.initMocks(this);
+        when(serviceInstance.getPropertyCollector()).thenReturn(sessionPropertyCollector);
+        when(sessionPropertyCollector.createPropertyCollector()).thenReturn(propertyCollector);
+        when(propertyCollector.createFilter(any(PropertyFilterSpec.class), eq(false))).thenReturn(propertyFilter);
+
+        taskMOR = new ManagedObjectReference();
+        taskMOR.setType("Task");
+        taskMOR.setVal("task-1");
+        when(task.getMOR()).thenReturn(taskMOR);
+
+        taskMultiplexer = new VMWareTaskMultiplexer(serviceInstance, 10);
+    }
+
+    @Test
+    public void testWaitForCompletedTasks() throws RemoteException {
+        taskMultiplexer.add(task);
+        assertThat(taskMultiplexer.isEmpty(), is(false));
+
+        // No update during the first wait, then the task progresses, then it completes
+        when(propertyCollector.waitForUpdatesEx(anyString(),
+                                                any(WaitOptions.class))).thenReturn(null,
+                                                                                    createUpdateSet("1",
+                                                                                                    TaskInfoState.running),
+                                                                                    createUpdateSet("2",
+                                                                                                    TaskInfoState.success));
+
+        List<TaskInfo> completedTasks = taskMultiplexer.waitForCompletedTasks();
+
+        assertThat(completedTasks.size(), is(1));
+        assertThat(completedTasks.get(0).getState(), is(TaskInfoState.success));
+        assertThat(taskMultiplexer.isEmpty(), is(true));
+        verify(propertyFilter).destroyPropertyFilter();
+        // Each wait resumes from the version of the previous updates
+        verify(propertyCollector).waitForUpdatesEx(eq("2"), any(WaitOptions.class));
+    }
+
+    @Test
+    public void testWaitWithoutTrackedTasks() {
+        assertThat(taskMultiplexer.waitForCompletedTasks().isEmpty(), is(true));
+    }
+
+    @Test
+    public void testClose() throws RemoteException {
+        taskMultiplexer.add(task);
+        taskMultiplexer.close();
+        verify(propertyCollector).destroyPropertyCollector();
+        assertThat(taskMultiplexer.isEmpty(), is(true));
+    }
+
+    @Test
+    public void testCloseIgnoresFailures() throws RemoteException {
+        taskMultiplexer.add(task);
+        doThrow(new RemoteException("session expired")).when(propertyCollector).destroyPropertyCollector();
+
+        taskMultiplexer.close();
+
+        assertThat(taskMultiplexer.isEmpty(), is(true));
+    }
+
+    private UpdateSet createUpdateSet(String version, TaskInfoState state) {
+        TaskInfo taskInfo = new TaskInfo();
+        taskInfo.setTask(taskMOR);
+        taskInfo.setState(state);
+
+        PropertyChange propertyChange = new PropertyChange();
+        propertyChange.setName("info");
+        propertyChange.setVal(taskInfo);
+
+        ObjectUpdate objectUpdate = new ObjectUpdate();
+        objectUpdate.setObj(taskMOR);
+        objectUpdate.setChangeSet(new PropertyChange[] { propertyChange });
+
+        PropertyFilterUpdate propertyFilterUpdate = new PropertyFilterUpdate();
+        propertyFilterUpdate.setObjectSet(new ObjectUpdate[] { objectUpdate });
+
+        UpdateSet updateSet = new UpdateSet();
+        updateSet.setVersion(version);
+        updateSet.setFilterSet(new PropertyFilterUpdate[] { propertyFilterUpdate });
+        return updateSet;
+    }
+}
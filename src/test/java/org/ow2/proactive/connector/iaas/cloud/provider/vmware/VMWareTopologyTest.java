@@ -0,0 +1,66 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.connector.iaas.cloud.provider.vmware;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+import org.junit.Test;
+import org.ow2.proactive.connector.iaas.cloud.provider.vmware.VMWareTopology.DatastoreSpace;
+
+import com.google.common.collect.Lists;
+import com.vmware.vim25.mo.Datastore;
+
+
+public class VMWareTopologyTest {
+
+    @Test
+    public void testChooseDatastoreByFreeSpace() {
+        Datastore smallDatastore = mock(Datastore.class);
+        Datastore largeDatastore = mock(Datastore.class);
+        List<DatastoreSpace> datastores = Lists.newArrayList(new DatastoreSpace(smallDatastore, 100L),
+                                                             new DatastoreSpace(largeDatastore, 300L));
+
+        // The large datastore receives three quarters of the draws
+        assertThat(VMWareTopology.chooseDatastore(datastores, 0.2), is(Optional.of(smallDatastore)));
+        assertThat(VMWareTopology.chooseDatastore(datastores, 0.3), is(Optional.of(largeDatastore)));
+        assertThat(VMWareTopology.chooseDatastore(datastores, 0.99), is(Optional.of(largeDatastore)));
+    }
+
+    @Test
+    public void testChooseDatastoreWithoutFreeSpace() {
+        Datastore fullDatastore = mock(Datastore.class);
+        List<DatastoreSpace> datastores = Lists.newArrayList(new DatastoreSpace(fullDatastore, 0L));
+
+        assertThat(VMWareTopology.chooseDatastore(datastores, 0.5), is(Optional.of(fullDatastore)));
+        assertThat(VMWareTopology.chooseDatastore(Collections.emptyList(), 0.5), is(Optional.empty()));
+    }
+}
@@ -151,7 +151,7 @@ public class InfrastructureRestTest {
     public void testGetInfrastructureById() {
         assertThat(infrastructureRest.getInfrastructure("openstack").getStatus(),
                    is(Response.Status.OK.getStatusCode()));
-        verify(infrastructureService, times(1)).getInfrastructure(("openstack"));
+        verify(infrastructureService, times(1)).getInfrastructureStatus(("openstack"));
     }
 
 }
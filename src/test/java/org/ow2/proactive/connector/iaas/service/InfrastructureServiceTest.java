@@ -32,6 +32,8 @@ import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.util.concurrent.CompletableFuture;
+
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.InOrder;
@@ -39,9 +41,13 @@ import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.ow2.proactive.connector.iaas.cache.InfrastructureCache;
+import org.ow2.proactive.connector.iaas.cache.InfrastructureJournal;
 import org.ow2.proactive.connector.iaas.cloud.CloudManager;
 import org.ow2.proactive.connector.iaas.fixtures.InfrastructureFixture;
 import org.ow2.proactive.connector.iaas.model.Infrastructure;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.google.common.collect.Lists;
 
 import jersey.repackaged.com.google.common.collect.ImmutableMap;
 
@@ -57,6 +63,9 @@ public class InfrastructureServiceTest {
     @Mock
     private InfrastructureCache infrastructureCache;
 
+    @Mock
+    private InfrastructureJournal infrastructureJournal;
+
     @Mock
     private CloudManager cloudManager;
 
@@ -79,6 +88,32 @@ public class InfrastructureServiceTest {
                                                                                 null);
         infrastructureService.registerInfrastructure(infrastructure);
         verify(infrastructureCache, times(1)).registerInfrastructure(infrastructure);
+        verify(infrastructureJournal, times(1)).recordRegistration(infrastructure);
+    }
+
+    @Test
+    public void testRegisterInfrastructureWithWarmUp() {
+        Infrastructure infrastructure = InfrastructureFixture.getSimpleInfrastructure("aws-ec2");
+        ReflectionTestUtils.setField(infrastructureService, "warmUpOnRegistration", true);
+
+        infrastructureService.registerInfrastructure(infrastructure);
+
+        verify(infrastructureCache, times(1)).registerInfrastructure(infrastructure);
+        verify(cloudManager, times(1)).warmUpAsync(infrastructure);
+    }
+
+    @Test
+    public void testRestorePersistedInfrastructures() throws InterruptedException {
+        Infrastructure infrastructure = InfrastructureFixture.getSimpleInfrastructure("aws-ec2");
+        when(infrastructureJournal.getPersistedInfrastructures()).thenReturn(Lists.newArrayList(infrastructure));
+        when(cloudManager.warmUpAsync(infrastructure)).thenReturn(CompletableFuture.completedFuture(null));
+        ReflectionTestUtils.setField(infrastructureService, "warmUpTimeoutSeconds", 10L);
+
+        infrastructureService.restorePersistedInfrastructures();
+
+        verify(infrastructureCache, times(1)).registerInfrastructure(infrastructure);
+        verify(cloudManager, times(1)).warmUpAsync(infrastructure);
+        verify(infrastructureJournal, times(0)).recordRegistration(infrastructure);
     }
 
     @Test